@@ -16,7 +16,9 @@ import org.codehaus.backport175.compiler.bytecode.AnnotationEnhancer;
 import org.codehaus.backport175.compiler.javadoc.JavaDocParser;
 import org.codehaus.backport175.compiler.javadoc.RawAnnotation;
 import org.codehaus.backport175.compiler.javadoc.SourceParseException;
+import org.codehaus.backport175.compiler.parser.AnnotationElementTypes;
 import org.codehaus.backport175.compiler.parser.ParseException;
+import org.codehaus.backport175.reader.bytecode.AnnotationIndex;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -43,6 +45,9 @@ public class AnnotationC {
     private static final String COMMAND_LINE_OPTION_DASH = "-";
     private static final String COMMAND_LINE_OPTION_VERBOSE = "-verbose";
     private static final String COMMAND_LINE_OPTION_IGNOREUNKNOWN = "-ignoreUnknown";
+    private static final String COMMAND_LINE_OPTION_INDEX = "-index";
+    private static final String COMMAND_LINE_OPTION_THREADS = "-threads";
+    private static final String COMMAND_LINE_OPTION_INCREMENTAL = "-incremental";
     private static final String COMMAND_LINE_OPTION_CONFIG = "-config";
     private static final String COMMAND_LINE_OPTION_SRC = "-src";
     private static final String COMMAND_LINE_OPTION_SRCFILES = "-srcfiles";
@@ -53,9 +58,25 @@ public class AnnotationC {
     private static final String FILE_SEPARATOR = File.separator;
 
     /**
-     * Compilation event handler
+     * Compilation event handler, as given by the caller
      */
-    private final MessageHandler m_handler;
+    private final MessageHandler m_messageHandler;
+
+    /**
+     * Compilation event handler used while processing the source model, forwards to the message handler or to the
+     * messages of the class being processed
+     */
+    private final MessageRouter m_handler;
+
+    /**
+     * Number of threads writing the enhanced classes
+     */
+    private final int m_threads;
+
+    /**
+     * The state of the incremental compilation, null if all the classes are compiled
+     */
+    private final CompilationState m_state;
 
     /**
      * The class loader
@@ -67,6 +88,11 @@ public class AnnotationC {
      */
     private final boolean m_ignoreUnknown;
 
+    /**
+     * Should we write the annotation index
+     */
+    private final boolean m_writeIndex;
+
     /**
      * The parser for src files
      */
@@ -77,6 +103,11 @@ public class AnnotationC {
      */
     private final AnnotationInterfaceRepository m_repository;
 
+    /**
+     * The element types of the annotation interfaces, cached for this compilation
+     */
+    private final AnnotationElementTypes m_elementTypes = new AnnotationElementTypes();
+
     /**
      * Creates a new AnnotationC compiler instance.
      *
@@ -84,19 +115,26 @@ public class AnnotationC {
      * @param parser
      * @param repository
      * @param handler
-     * @param ignoreUnknown
+     * @param options
+     * @param state
      */
     private AnnotationC(
             final ClassLoader loader,
             final JavaDocParser parser,
             final AnnotationInterfaceRepository repository,
-            final MessageHandler handler,
-            final boolean ignoreUnknown) {
+            final MessageHandler messageHandler,
+            final MessageRouter handler,
+            final CompilerOptions options,
+            final CompilationState state) {
         m_loader = loader;
         m_javaDocParser = parser;
         m_repository = repository;
+        m_messageHandler = messageHandler;
         m_handler = handler;
-        m_ignoreUnknown = ignoreUnknown;
+        m_ignoreUnknown = options.isIgnoreUnknown();
+        m_writeIndex = options.isWriteIndex();
+        m_threads = options.getThreads();
+        m_state = state;
     }
 
     /**
@@ -120,9 +158,23 @@ public class AnnotationC {
         }
         String[] propertiesFiles = (String[])propertiesFilesList.toArray(new String[0]);
 
+        CompilerOptions options = new CompilerOptions();
+        options.setIgnoreUnknown("true".equals(commandLineOptions.get(COMMAND_LINE_OPTION_IGNOREUNKNOWN)));
+        options.setWriteIndex("true".equals(commandLineOptions.get(COMMAND_LINE_OPTION_INDEX)));
+        options.setIncremental("true".equals(commandLineOptions.get(COMMAND_LINE_OPTION_INCREMENTAL)));
+        String threadsOption = (String)commandLineOptions.get(COMMAND_LINE_OPTION_THREADS);
+        if (threadsOption != null) {
+            try {
+                options.setThreads(Integer.parseInt(threadsOption));
+            } catch (IllegalArgumentException e) {
+                System.err.println("-threads requires a positive number [" + threadsOption + "]");
+                System.exit(1);
+            }
+        }
+
         compile(
                 "true".equals(commandLineOptions.get(COMMAND_LINE_OPTION_VERBOSE)),
-                "true".equals(commandLineOptions.get(COMMAND_LINE_OPTION_IGNOREUNKNOWN)),
+                options,
                 (String)commandLineOptions.get(COMMAND_LINE_OPTION_SRC),
                 (String)commandLineOptions.get(COMMAND_LINE_OPTION_SRCFILES),
                 (String)commandLineOptions.get(COMMAND_LINE_OPTION_SRCINCLUDES),
@@ -136,7 +188,7 @@ public class AnnotationC {
      * Compiles the annotations, called from the main method.
      *
      * @param verbose
-     * @param ignoreUnknown
+     * @param options
      * @param srcDirList
      * @param srcFileList
      * @param classPath
@@ -145,7 +197,7 @@ public class AnnotationC {
      */
     private static void compile(
             final boolean verbose,
-            final boolean ignoreUnknown,
+            final CompilerOptions options,
             final String srcDirList,
             final String srcFileList,
             final String srcFileIncludes,
@@ -184,7 +236,7 @@ public class AnnotationC {
                 destDir,
                 annotationPropetiesFiles,
                 new MessageHandler.PrintWriter(verbose),
-                ignoreUnknown
+                options
         );
     }
 
@@ -207,6 +259,37 @@ public class AnnotationC {
             final String[] annotationPropertiesFiles,
             final MessageHandler messageHandler,
             final boolean ignoreUnknown) {
+        final CompilerOptions options = new CompilerOptions();
+        options.setIgnoreUnknown(ignoreUnknown);
+        compile(srcDirs, srcFiles, classpath, destDir, annotationPropertiesFiles, messageHandler, options);
+    }
+
+    /**
+     * Compiles the annotations with the given options.
+     * <p/>
+     * With several threads, the source trees are parsed and the enhanced classes are written in parallel. When the
+     * classes are compiled in place, the source files of the source trees without annotations are skipped, see
+     * {@link JavaDocParser#setAnnotationFilter(AnnotationInterfaceRepository)}.
+     * <p/>
+     * When incremental, the state of the compilation is kept in the destination directory and the source files and
+     * classes that have not changed since the previous compilation are skipped, see {@link CompilationState}.
+     *
+     * @param srcDirs
+     * @param srcFiles
+     * @param classpath
+     * @param destDir
+     * @param annotationPropertiesFiles
+     * @param messageHandler
+     * @param options
+     */
+    public static void compile(
+            final String[] srcDirs,
+            final String[] srcFiles,
+            final String[] classpath,
+            final String destDir,
+            final String[] annotationPropertiesFiles,
+            final MessageHandler messageHandler,
+            final CompilerOptions options) {
 
         URL[] classPath = new URL[classpath.length];
         final ClassLoader compilationLoader;
@@ -230,11 +313,30 @@ public class AnnotationC {
             destDirToUse = classpath[0];
         }
 
+        // one class loader to read the class files for all the classes
+        final ClassLoader enhancerLoader = new URLClassLoader(classPath);
+
+        final CompilationState state = options.isIncremental() ? CompilationState.load(
+                new File(destDirToUse),
+                CompilationState.getConfiguration(
+                        annotationPropertiesFiles, options.isIgnoreUnknown(), options.isWriteIndex()
+                )
+        ) : null;
+
         // set up the parser sources
         final JavaDocParser javaDocParser = new JavaDocParser();
         try {
+            final MessageRouter router = new MessageRouter(messageHandler);
+            final AnnotationInterfaceRepository repository = new AnnotationInterfaceRepository(router);
+            repository.registerPropertiesFiles(annotationPropertiesFiles, compilationLoader);
+
             // add classloader
             javaDocParser.addClassLoaderToSearchPath(compilationLoader);
+            javaDocParser.setThreads(options.getThreads());
+            if (destDirToUse.equals(classpath[0]) && classpath.length == 1) {
+                // the classes without annotation are left as they are in place, no need to parse their sources
+                javaDocParser.setAnnotationFilter(repository);
+            }
 
             // add src dirs
             StringBuffer logDirs = new StringBuffer("parsing source dirs:");
@@ -242,28 +344,52 @@ public class AnnotationC {
                 logDirs.append("\n\t" + srcDirs[i]);
             }
             messageHandler.info(logDirs.toString());
-            javaDocParser.addSourceTrees(srcDirs);
+            final List sources = new ArrayList();
+            if (state == null) {
+                javaDocParser.addSourceTrees(srcDirs);
+                if (javaDocParser.getSkippedSources() > 0) {
+                    messageHandler.info(javaDocParser.getSkippedSources() + " source file(s) without annotations skipped");
+                }
+            } else {
+                // the unchanged source files are not parsed
+                CompilationState.collectSources(srcDirs, sources);
+            }
 
             // add src files
             logDirs = new StringBuffer();
             for (int i = 0; i < srcFiles.length; i++) {
                 logDirs.append("\n\t" + srcFiles[i]);
-                javaDocParser.addSource(srcFiles[i]);
+                if (state == null) {
+                    javaDocParser.addSource(srcFiles[i]);
+                } else {
+                    sources.add(srcFiles[i]);
+                }
             }
             if (srcFiles.length > 0) {
                 messageHandler.info(logDirs.toString());
             }
+            int upToDate = 0;
+            for (Iterator it = sources.iterator(); it.hasNext();) {
+                final String source = (String) it.next();
+                if (state.isUpToDate(new File(source), enhancerLoader)) {
+                    upToDate++;
+                } else {
+                    javaDocParser.addSource(source);
+                }
+            }
+            if (upToDate > 0) {
+                messageHandler.info(upToDate + " source file(s) up to date");
+            }
 
-            final AnnotationInterfaceRepository repository = new AnnotationInterfaceRepository(messageHandler);
-            repository.registerPropertiesFiles(annotationPropertiesFiles, compilationLoader);
-
-            final AnnotationC compiler = new AnnotationC(compilationLoader, javaDocParser, repository, messageHandler, ignoreUnknown);
+            final AnnotationC compiler = new AnnotationC(
+                    compilationLoader, javaDocParser, repository, messageHandler, router, options, state
+            );
 
             // do the actual compile
-            compiler.doCompile(classPath, destDirToUse);
+            compiler.doCompile(enhancerLoader, destDirToUse);
 
             // sum-up
-            if (ignoreUnknown) {
+            if (options.isIgnoreUnknown()) {
                 for (Iterator iterator = repository.getIgnoredDocletNames().iterator(); iterator.hasNext();) {
                     String doclet = (String) iterator.next();
                     messageHandler.info("ignored: @"+doclet);
@@ -284,62 +410,149 @@ public class AnnotationC {
     /**
      * Compiles the annotations.
      *
-     * @param classPath
+     * @param enhancerLoader the class loader to read the class files from
      * @param destDir
      */
-    private void doCompile(final URL[] classPath, final String destDir) {
+    private void doCompile(final ClassLoader enhancerLoader, final String destDir) {
         logInfo("compiling annotations...");
 
+        final AnnotationIndex.Writer indexWriter = m_writeIndex ? new AnnotationIndex.Writer(new File(destDir)) : null;
+
         // get all the classes
         JavaClass[] classes = m_javaDocParser.getJavaClasses();
-        for (int i = 0; i < classes.length; i++) {
-            JavaClass clazz = classes[i];
-            logInfo("parsing class [" + clazz.getFullyQualifiedName() + ']');
-            try {
-                AnnotationEnhancer enhancer = new AnnotationEnhancer(m_handler);
-                if (enhancer.initialize(clazz.getFullyQualifiedName(), classPath)) {
-                    handleClassAnnotations(enhancer, clazz);
-                    //handleInnerClassAnnotations(enhancer, clazz, destDir);
-                    JavaMethod[] methods = clazz.getMethods();
-                    for (int j = 0; j < methods.length; j++) {
-                        JavaMethod method = methods[j];
-                        if (method.isConstructor()) {
-                            handleConstructorAnnotations(enhancer, method);
-                        } else {
-                            handleMethodAnnotations(enhancer, method);
-                        }
-                    }
-                    JavaField[] fields = clazz.getFields();
-                    for (int j = 0; j < fields.length; j++) {
-                        handleFieldAnnotations(enhancer, fields[j]);
-                    }
-
-                    // write enhanced class to disk
-                    enhancer.write(destDir);
+        final boolean completed;
+        if (m_threads > 1 && classes.length > 1) {
+            completed = doCompileInParallel(classes, enhancerLoader, destDir, indexWriter);
+        } else {
+            completed = true;
+            for (int i = 0; i < classes.length; i++) {
+                ClassCompilation compilation = new ClassCompilation(classes[i], m_messageHandler);
+                compilation.prepare(enhancerLoader);
+                compilation.write(destDir);
+                if (!compilation.complete(indexWriter)) {
+                    writeState(destDir);
+                    return;
                 }
-            } catch (ParseException pe) {
-                m_handler.error(pe);
-                // non critical, go on
-            } catch (CompilerException ce) {
-                m_handler.error(ce);
-                return;
-            } catch (Throwable t) {
-                t.printStackTrace();
-                m_handler.error(
-                        new CompilerException(
-                                "could not compile annotations for class ["//FIXME location
-                                + clazz.getFullyQualifiedName() +
-                                "] due to: " +
-                                t.toString()
-                        )
-                );
+            }
+        }
+        writeState(destDir);
+        if (!completed) {
+            return;
+        }
+        if (indexWriter != null) {
+            try {
+                indexWriter.write();
+            } catch (IOException e) {
+                m_handler.error(new CompilerException("could not write the annotation index to [" + destDir + "]", e));
                 return;
             }
+            logInfo("annotation index written to " + destDir);
         }
         logInfo("compiled classes written to " + destDir);
         logInfo("compilation successful");
     }
 
+    /**
+     * Compiles the annotations, the enhanced classes are written by a pool of worker threads.
+     * <p/>
+     * The source model is only accessed from the calling thread. The messages of each class are buffered and handed to
+     * the message handler in the class order, once the class is written, so that they come in the same order as with
+     * a single thread. If a class fails with a critical error, the classes after it are not reported.
+     *
+     * @param classes
+     * @param loader
+     * @param destDir
+     * @param indexWriter
+     * @return true if all the classes have been compiled, false if the compilation has been aborted
+     */
+    private boolean doCompileInParallel(final JavaClass[] classes,
+                                        final ClassLoader loader,
+                                        final String destDir,
+                                        final AnnotationIndex.Writer indexWriter) {
+        final ClassCompilation[] compilations = new ClassCompilation[classes.length];
+        final CompilationQueue queue = new CompilationQueue();
+        final Thread[] workers = new Thread[Math.min(m_threads, classes.length)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread("AnnotationC worker " + i) {
+                public void run() {
+                    ClassCompilation compilation;
+                    while ((compilation = queue.next()) != null) {
+                        compilation.write(destDir);
+                        queue.done(compilation);
+                    }
+                }
+            };
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+
+        boolean completed = true;
+        int reported = 0;
+        try {
+            for (int i = 0; i < classes.length && completed; i++) {
+                final ClassCompilation compilation = new ClassCompilation(classes[i], new BufferedMessageHandler());
+                compilations[i] = compilation;
+                m_handler.setTarget(compilation.getHandler());
+                try {
+                    compilation.prepare(loader);
+                } finally {
+                    m_handler.setTarget(m_messageHandler);
+                }
+                queue.add(compilation);
+
+                // report the classes already written
+                while (completed && reported <= i && queue.isDone(compilations[reported])) {
+                    completed = report(compilations[reported++], indexWriter);
+                }
+            }
+            queue.close();
+            while (completed && reported < classes.length) {
+                queue.awaitDone(compilations[reported]);
+                completed = report(compilations[reported++], indexWriter);
+            }
+        } finally {
+            if (!completed) {
+                queue.abort();
+            }
+            for (int i = 0; i < workers.length; i++) {
+                try {
+                    workers[i].join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Writes the state of the incremental compilation, if any.
+     *
+     * @param destDir
+     */
+    private void writeState(final String destDir) {
+        if (m_state != null) {
+            try {
+                m_state.write();
+            } catch (IOException e) {
+                m_handler.error(new CompilerException("could not write the compilation state to [" + destDir + "]", e));
+            }
+        }
+    }
+
+    /**
+     * Hands the buffered messages of a class to the message handler and completes its compilation.
+     *
+     * @param compilation
+     * @param indexWriter
+     * @return false if the compilation must be aborted
+     */
+    private boolean report(final ClassCompilation compilation, final AnnotationIndex.Writer indexWriter) {
+        ((BufferedMessageHandler) compilation.getHandler()).flushTo(m_messageHandler);
+        m_handler.setTarget(m_messageHandler);
+        return compilation.complete(indexWriter);
+    }
+
     /**
      * Handles the class annotations.
      *
@@ -472,7 +685,7 @@ public class AnnotationC {
     private static void printUsage() {
         System.out.println("backport175 (c) 2002-2005 Jonas Bonr, Alexandre Vasseur");
         System.out.println(
-                "usage: java [options...] org.codehaus.backport175.compiler.AnnotationC [-verbose] [-ignoreUnknown] -src <path to src dir> | -srcfiles <list of files> | -srcincludes <path to file> -classes <path to classes dir> [-dest <path to destination dir>] [-config <property file>]"
+                "usage: java [options...] org.codehaus.backport175.compiler.AnnotationC [-verbose] [-ignoreUnknown] [-index] [-incremental] [-threads <n>] -src <path to src dir> | -srcfiles <list of files> | -srcincludes <path to file> -classes <path to classes dir> [-dest <path to destination dir>] [-config <property file>]"
         );
         System.out.println(
                 "       -src <path to src dir> - provides the list of source directories separated by 'File.pathSeparator'"
@@ -489,6 +702,9 @@ public class AnnotationC {
         );
         System.out.println("       -verbose - activates compilation status information");
         System.out.println("       -ignoreUnknown - turn off traces for unknown annotations and print a summary at the end instead if -verbose is set");
+        System.out.println("       -threads <number of threads> - optional, number of threads writing the compiled classes, defaults to 1");
+        System.out.println("       -incremental - only compiles the source files and classes that changed since the previous compilation, keeps its state in the destination directory");
+        System.out.println("       -index - writes the annotation index of the destination directory, read at runtime instead of parsing the bytecode");
         System.out.println("");
         System.out.println("Note: only one of -src -srcpath and -srcincludes may be used");
         System.exit(0);
@@ -504,11 +720,15 @@ public class AnnotationC {
         final Map arguments = new HashMap();
         try {
             for (int i = 0; i < args.length; i++) {
-                //-verbose and -ignoreUnknown have no value
+                //-verbose, -ignoreUnknown, -index and -incremental have no value
                 if (args[i].equals(COMMAND_LINE_OPTION_VERBOSE)) {
                     arguments.put(COMMAND_LINE_OPTION_VERBOSE, "true");
                 } else if (args[i].equals(COMMAND_LINE_OPTION_IGNOREUNKNOWN)) {
                     arguments.put(COMMAND_LINE_OPTION_IGNOREUNKNOWN, "true");
+                } else if (args[i].equals(COMMAND_LINE_OPTION_INDEX)) {
+                    arguments.put(COMMAND_LINE_OPTION_INDEX, "true");
+                } else if (args[i].equals(COMMAND_LINE_OPTION_INCREMENTAL)) {
+                    arguments.put(COMMAND_LINE_OPTION_INCREMENTAL, "true");
                 } else if (args[i].startsWith(COMMAND_LINE_OPTION_DASH)) {
                     String option = args[i];
                     String value = args[++i];
@@ -599,4 +819,278 @@ public class AnnotationC {
         }
         return (String[])files.toArray(new String[files.size()]);
     }
-}
\ No newline at end of file
+
+    /**
+     * The compilation of a single class: the annotations are collected from the source model by {@link #prepare}, then
+     * the enhanced class is written by {@link #write}, possibly from another thread.
+     */
+    private class ClassCompilation {
+        private final JavaClass m_class;
+        private final MessageHandler m_classHandler;
+        private AnnotationEnhancer m_enhancer;
+        private boolean m_written = false;
+        private boolean m_failed = false;
+        private boolean m_aborted = false;
+        private long m_lastModified;
+        private byte[] m_tags;
+
+        ClassCompilation(final JavaClass clazz, final MessageHandler handler) {
+            m_class = clazz;
+            m_classHandler = handler;
+        }
+
+        MessageHandler getHandler() {
+            return m_classHandler;
+        }
+
+        /**
+         * Collects the annotations from the source model, must be called from the compiling thread.
+         *
+         * @param loader the class loader to read the class file from
+         */
+        void prepare(final ClassLoader loader) {
+            logInfo("parsing class [" + m_class.getFullyQualifiedName() + ']');
+            try {
+                if (m_state != null) {
+                    m_tags = CompilationState.digestTags(m_class);
+                    if (m_state.isUpToDate(getSource(), m_class.getFullyQualifiedName(), m_tags, loader)) {
+                        logInfo("class [" + m_class.getFullyQualifiedName() + "] is up to date");
+                        return;
+                    }
+                }
+                AnnotationEnhancer enhancer = new AnnotationEnhancer(m_classHandler, m_elementTypes);
+                if (enhancer.initialize(m_class.getFullyQualifiedName(), loader)) {
+                    handleClassAnnotations(enhancer, m_class);
+                    //handleInnerClassAnnotations(enhancer, clazz, destDir);
+                    JavaMethod[] methods = m_class.getMethods();
+                    for (int j = 0; j < methods.length; j++) {
+                        JavaMethod method = methods[j];
+                        if (method.isConstructor()) {
+                            handleConstructorAnnotations(enhancer, method);
+                        } else {
+                            handleMethodAnnotations(enhancer, method);
+                        }
+                    }
+                    JavaField[] fields = m_class.getFields();
+                    for (int j = 0; j < fields.length; j++) {
+                        handleFieldAnnotations(enhancer, fields[j]);
+                    }
+                    m_enhancer = enhancer;
+                } else if (m_state != null) {
+                    // no class file, compiled again once there is one
+                    m_state.addClass(getSource(), m_class.getFullyQualifiedName(), m_tags, null, null);
+                }
+            } catch (Throwable t) {
+                handleError(t);
+            }
+        }
+
+        /**
+         * Writes the enhanced class to disk.
+         *
+         * @param destDir
+         */
+        void write(final String destDir) {
+            if (m_enhancer == null) {
+                return;
+            }
+            try {
+                m_enhancer.write(destDir);
+                m_lastModified = new File(destDir, m_enhancer.getClassFileName()).lastModified();
+                m_written = true;
+            } catch (Throwable t) {
+                handleError(t);
+            }
+        }
+
+        /**
+         * Adds the written class to the annotation index, must be called from the compiling thread in the class order.
+         *
+         * @param indexWriter the index writer or null
+         * @return false if the compilation must be aborted
+         */
+        boolean complete(final AnnotationIndex.Writer indexWriter) {
+            if (m_written && indexWriter != null) {
+                if (!indexWriter.addClass(m_enhancer.getClassName(), m_enhancer.getEnhancedBytecode(), m_lastModified)) {
+                    logInfo("class [" + m_class.getFullyQualifiedName() + "] not added to the annotation index");
+                }
+            }
+            if (m_state != null) {
+                if (m_failed) {
+                    m_state.invalidate(getSource());
+                } else if (m_written) {
+                    m_state.addClass(
+                            getSource(), m_class.getFullyQualifiedName(), m_tags, m_enhancer.getBytecode(),
+                            m_enhancer.getEnhancedBytecode()
+                    );
+                }
+            }
+            return !m_aborted;
+        }
+
+        private File getSource() {
+            return m_class.getParentSource().getFile();
+        }
+
+        private void handleError(final Throwable t) {
+            m_failed = true;
+            if (t instanceof ParseException) {
+                m_classHandler.error((ParseException) t);
+                // non critical, go on
+            } else if (t instanceof CompilerException) {
+                m_classHandler.error((CompilerException) t);
+                m_aborted = true;
+            } else {
+                t.printStackTrace();
+                m_classHandler.error(
+                        new CompilerException(
+                                "could not compile annotations for class ["//FIXME location
+                                + m_class.getFullyQualifiedName() +
+                                "] due to: " +
+                                t.toString()
+                        )
+                );
+                m_aborted = true;
+            }
+        }
+    }
+
+    /**
+     * Hands the class compilations to the worker threads.
+     */
+    private static class CompilationQueue {
+        private final List m_pending = new ArrayList();
+        private final List m_done = new ArrayList();
+        private boolean m_closed = false;
+        private boolean m_aborted = false;
+
+        synchronized void add(final ClassCompilation compilation) {
+            m_pending.add(compilation);
+            notifyAll();
+        }
+
+        /**
+         * Returns the next class to write, waits if needed.
+         *
+         * @return the class compilation, or null if the queue is closed and empty or aborted
+         */
+        synchronized ClassCompilation next() {
+            while (!m_aborted && m_pending.isEmpty() && !m_closed) {
+                waitForChange();
+            }
+            if (m_aborted || m_pending.isEmpty()) {
+                return null;
+            }
+            return (ClassCompilation) m_pending.remove(0);
+        }
+
+        synchronized void done(final ClassCompilation compilation) {
+            m_done.add(compilation);
+            notifyAll();
+        }
+
+        synchronized boolean isDone(final ClassCompilation compilation) {
+            return m_done.remove(compilation);
+        }
+
+        synchronized void awaitDone(final ClassCompilation compilation) {
+            while (!m_done.remove(compilation)) {
+                waitForChange();
+            }
+        }
+
+        synchronized void close() {
+            m_closed = true;
+            notifyAll();
+        }
+
+        synchronized void abort() {
+            m_aborted = true;
+            notifyAll();
+        }
+
+        private void waitForChange() {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                m_aborted = true;
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Forwards the messages to a target that can be switched, so that the messages emitted while processing the source
+     * model of a class end up with the other messages of this class.
+     */
+    private static class MessageRouter implements MessageHandler {
+        private MessageHandler m_target;
+
+        MessageRouter(final MessageHandler target) {
+            m_target = target;
+        }
+
+        void setTarget(final MessageHandler target) {
+            m_target = target;
+        }
+
+        public void info(final String message) {
+            m_target.info(message);
+        }
+
+        public void error(final CompilerException exception) {
+            m_target.error(exception);
+        }
+
+        public void accept(final SourceLocation sourceLocation) {
+            m_target.accept(sourceLocation);
+        }
+    }
+
+    /**
+     * Records the messages of a class until they can be handed to the message handler.
+     */
+    private static class BufferedMessageHandler implements MessageHandler {
+        private static final int INFO = 0;
+        private static final int ERROR = 1;
+        private static final int ACCEPT = 2;
+
+        private final List m_kinds = new ArrayList();
+        private final List m_messages = new ArrayList();
+
+        public synchronized void info(final String message) {
+            record(INFO, message);
+        }
+
+        public synchronized void error(final CompilerException exception) {
+            record(ERROR, exception);
+        }
+
+        public synchronized void accept(final SourceLocation sourceLocation) {
+            record(ACCEPT, sourceLocation);
+        }
+
+        private void record(final int kind, final Object message) {
+            m_kinds.add(new Integer(kind));
+            m_messages.add(message);
+        }
+
+        synchronized void flushTo(final MessageHandler handler) {
+            for (int i = 0; i < m_kinds.size(); i++) {
+                final Object message = m_messages.get(i);
+                switch (((Integer) m_kinds.get(i)).intValue()) {
+                    case INFO:
+                        handler.info((String) message);
+                        break;
+                    case ERROR:
+                        handler.error((CompilerException) message);
+                        break;
+                    default:
+                        handler.accept((SourceLocation) message);
+                }
+            }
+            m_kinds.clear();
+            m_messages.clear();
+        }
+    }
+}
@@ -176,6 +176,19 @@ public class AnnotationInterfaceRepository {
         return annotationInterfaceClass;
     }
 
+    /**
+     * Checks if a doclet may be an annotation, without loading any class: it is a registered alias or a class name
+     * with a package. Doclets like "@author" or "@param" are not annotations.
+     * <p/>
+     * Used to skip the source files without annotations, before the annotations are looked up.
+     *
+     * @param docletName the doclet name, without '@'
+     * @return true if the doclet may be an annotation
+     */
+    public boolean isAnnotationCandidate(final String docletName) {
+        return docletName.indexOf('.') > 0 || m_aliasInterfaceMap.containsKey(docletName);
+    }
+
     /**
      * Try to load the given class from its className.
      * <p/>
@@ -0,0 +1,453 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package org.codehaus.backport175.compiler;
+
+import com.thoughtworks.qdox.model.DocletTag;
+import com.thoughtworks.qdox.model.JavaClass;
+import com.thoughtworks.qdox.model.JavaField;
+import com.thoughtworks.qdox.model.JavaMethod;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The state of the incremental annotation compilation, kept in the destination directory.
+ * <p/>
+ * For each source file the state records its timestamp and size, and for each of its classes a digest of the doclet
+ * tags and of the class file before and after the annotations were added. A class is up to date when its class file is
+ * still the one written by the annotation compiler, and a source file is up to date when it has not changed and all its
+ * classes are up to date. A class file overwritten by javac is not up to date anymore.
+ * <p/>
+ * A compilation may only be given some of the source files, by an IDE compiling the files saved or changed since its
+ * last build for instance, the state of the other source files is then carried forward as long as they exist.
+ * <p/>
+ * The state is dropped when the annotation configuration changes.
+ */
+final class CompilationState {
+
+    /**
+     * The state file, relative to the destination directory
+     */
+    static final String STATE_FILE = ".backport175-state";
+
+    private static final int MAGIC = 0xBA175C57;
+    private static final int VERSION = 1;
+
+    private static final String CLASS_FILE_SUFFIX = ".class";
+    private static final String JAVA_FILE_SUFFIX = ".java";
+
+    /**
+     * Digest recorded for a class that has no class file
+     */
+    private static final byte[] NO_CLASS_FILE = new byte[0];
+
+    private final File m_destDir;
+
+    private final String m_configuration;
+
+    /**
+     * The state of the previous compilation, key is the source file path, value is the source entry
+     */
+    private final Map m_previous;
+
+    /**
+     * The state of this compilation, sorted so that the state file does not depend on the compilation order
+     */
+    private final Map m_current = new TreeMap();
+
+    /**
+     * The source files that must be compiled again next time
+     */
+    private final Set m_invalid = new HashSet();
+
+    private CompilationState(final File destDir, final String configuration, final Map previous) {
+        m_destDir = destDir;
+        m_configuration = configuration;
+        m_previous = previous;
+    }
+
+    /**
+     * Loads the state of the given destination directory. The state is empty if there is no state file, if it can not
+     * be read or if it has been written with another configuration.
+     *
+     * @param destDir       the destination directory
+     * @param configuration the configuration of the compilation
+     * @return the state
+     */
+    static CompilationState load(final File destDir, final String configuration) {
+        final Map previous = new HashMap();
+        final File file = new File(destDir, STATE_FILE);
+        if (file.isFile()) {
+            try {
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    if (in.readInt() == MAGIC && in.readInt() == VERSION && configuration.equals(in.readUTF())) {
+                        for (int i = in.readInt(); i > 0; i--) {
+                            final String path = in.readUTF();
+                            previous.put(path, SourceEntry.read(in));
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // unreadable state, everything is compiled again
+                previous.clear();
+            }
+        }
+        return new CompilationState(destDir, configuration, previous);
+    }
+
+    /**
+     * Returns the configuration of a compilation, a change in the configuration invalidates the state.
+     * <p/>
+     * The index option is part of it since the classes skipped as up to date are not added to a newly written index.
+     *
+     * @param annotationPropertiesFiles
+     * @param ignoreUnknown
+     * @param writeIndex
+     * @return the configuration
+     */
+    static String getConfiguration(final String[] annotationPropertiesFiles,
+                                   final boolean ignoreUnknown,
+                                   final boolean writeIndex) {
+        final StringBuffer configuration = new StringBuffer();
+        configuration.append(ignoreUnknown);
+        configuration.append(File.pathSeparatorChar).append(writeIndex);
+        if (annotationPropertiesFiles != null) {
+            for (int i = 0; i < annotationPropertiesFiles.length; i++) {
+                final File file = new File(annotationPropertiesFiles[i]);
+                configuration.append(File.pathSeparatorChar).append(file.getAbsolutePath());
+                configuration.append('@').append(file.lastModified());
+            }
+        }
+        return configuration.toString();
+    }
+
+    /**
+     * Collects the source files of the given source trees.
+     *
+     * @param srcDirs the source trees
+     * @param sources the list to add the source file paths to
+     */
+    static void collectSources(final String[] srcDirs, final List sources) {
+        for (int i = 0; i < srcDirs.length; i++) {
+            collectSources(new File(srcDirs[i]), sources);
+        }
+    }
+
+    private static void collectSources(final File dir, final List sources) {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].isDirectory()) {
+                collectSources(files[i], sources);
+            } else if (files[i].getName().endsWith(JAVA_FILE_SUFFIX)) {
+                sources.add(files[i].getPath());
+            }
+        }
+    }
+
+    /**
+     * Checks if a source file has to be compiled, if not its classes are kept in the state.
+     *
+     * @param source the source file
+     * @param loader the class loader the class files are read from
+     * @return true if the source file and all its classes are up to date
+     */
+    boolean isUpToDate(final File source, final ClassLoader loader) {
+        final String path = source.getAbsolutePath();
+        final SourceEntry entry = (SourceEntry) m_previous.get(path);
+        if (entry == null || entry.lastModified != source.lastModified() || entry.length != source.length()) {
+            return false;
+        }
+        for (Iterator it = entry.classes.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry mapEntry = (Map.Entry) it.next();
+            if (!isUpToDate((String) mapEntry.getKey(), (ClassEntry) mapEntry.getValue(), loader)) {
+                return false;
+            }
+        }
+        m_current.put(path, entry);
+        return true;
+    }
+
+    /**
+     * Checks if a class of a source file that has changed has to be compiled, if not it is kept in the state.
+     *
+     * @param source    the source file
+     * @param className the class name
+     * @param tags      the digest of the class doclet tags
+     * @param loader    the class loader the class files are read from
+     * @return true if the doclet tags and the class file are unchanged
+     */
+    boolean isUpToDate(final File source, final String className, final byte[] tags, final ClassLoader loader) {
+        final SourceEntry entry = (SourceEntry) m_previous.get(source.getAbsolutePath());
+        if (entry == null) {
+            return false;
+        }
+        final ClassEntry classEntry = (ClassEntry) entry.classes.get(className);
+        if (classEntry == null || !Arrays.equals(classEntry.tags, tags) || !isUpToDate(className, classEntry, loader)) {
+            return false;
+        }
+        getCurrentEntry(source).classes.put(className, classEntry);
+        return true;
+    }
+
+    /**
+     * Records a compiled class.
+     *
+     * @param source    the source file
+     * @param className the class name
+     * @param tags      the digest of the class doclet tags
+     * @param input     the class bytecode before the annotations were added, or null if there is no class file
+     * @param output    the class bytecode written, or null if there is no class file
+     */
+    void addClass(final File source,
+                  final String className,
+                  final byte[] tags,
+                  final byte[] input,
+                  final byte[] output) {
+        getCurrentEntry(source).classes.put(
+                className,
+                new ClassEntry(
+                        tags,
+                        input == null ? NO_CLASS_FILE : digest(input),
+                        output == null ? NO_CLASS_FILE : digest(output)
+                )
+        );
+    }
+
+    /**
+     * Marks a source file as to be compiled again next time, e.g. when one of its classes could not be compiled.
+     *
+     * @param source the source file
+     */
+    void invalidate(final File source) {
+        m_invalid.add(source.getAbsolutePath());
+    }
+
+    /**
+     * Writes the state to the destination directory.
+     * <p/>
+     * The previous state of the source files that were not part of this compilation is kept if they still exist. It
+     * is still checked against the source file and class files next time.
+     *
+     * @throws IOException
+     */
+    void write() throws IOException {
+        final Map entries = new TreeMap(m_current);
+        for (Iterator it = m_previous.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry mapEntry = (Map.Entry) it.next();
+            if (!entries.containsKey(mapEntry.getKey()) && new File((String) mapEntry.getKey()).isFile()) {
+                entries.put(mapEntry.getKey(), mapEntry.getValue());
+            }
+        }
+        entries.keySet().removeAll(m_invalid);
+        final OutputStream os = new FileOutputStream(new File(m_destDir, STATE_FILE));
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(m_configuration);
+            out.writeInt(entries.size());
+            for (Iterator it = entries.entrySet().iterator(); it.hasNext();) {
+                final Map.Entry mapEntry = (Map.Entry) it.next();
+                out.writeUTF((String) mapEntry.getKey());
+                ((SourceEntry) mapEntry.getValue()).write(out);
+            }
+            out.flush();
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Returns the digest of the doclet tags of a class and of its members.
+     *
+     * @param clazz the class
+     * @return the digest
+     */
+    static byte[] digestTags(final JavaClass clazz) {
+        final StringBuffer tags = new StringBuffer();
+        appendTags(tags, clazz.getFullyQualifiedName(), clazz.getTags());
+        final JavaMethod[] methods = clazz.getMethods();
+        for (int i = 0; i < methods.length; i++) {
+            appendTags(tags, methods[i].getName(), methods[i].getTags());
+        }
+        final JavaField[] fields = clazz.getFields();
+        for (int i = 0; i < fields.length; i++) {
+            appendTags(tags, fields[i].getName(), fields[i].getTags());
+        }
+        try {
+            return digest(tags.toString().getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new Error("UTF-8 is not supported: " + e.toString());
+        }
+    }
+
+    private static void appendTags(final StringBuffer buffer, final String name, final DocletTag[] tags) {
+        buffer.append(name).append('\n');
+        for (int i = 0; i < tags.length; i++) {
+            buffer.append('@').append(tags[i].getName()).append(' ').append(tags[i].getValue()).append('\n');
+        }
+    }
+
+    /**
+     * Checks that the class file is the one written by the annotation compiler. The class file read from the class
+     * path is either the one written (when the classes are annotated in place), or the one it was compiled from (when
+     * the classes are written to another directory) and then the class file in the destination directory must be the
+     * one written.
+     */
+    private boolean isUpToDate(final String className, final ClassEntry entry, final ClassLoader loader) {
+        final String classFileName = className.replace('.', '/') + CLASS_FILE_SUFFIX;
+        final byte[] current = digest(loader.getResourceAsStream(classFileName));
+        if (Arrays.equals(current, entry.output)) {
+            return true;
+        }
+        if (!Arrays.equals(current, entry.input)) {
+            return false;
+        }
+        try {
+            return Arrays.equals(digest(new FileInputStream(new File(m_destDir, classFileName))), entry.output);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private SourceEntry getCurrentEntry(final File source) {
+        final String path = source.getAbsolutePath();
+        SourceEntry entry = (SourceEntry) m_current.get(path);
+        if (entry == null) {
+            entry = new SourceEntry(source.lastModified(), source.length(), new TreeMap());
+            m_current.put(path, entry);
+        }
+        return entry;
+    }
+
+    private static byte[] digest(final byte[] bytes) {
+        final MessageDigest digest = newDigest();
+        digest.update(bytes);
+        return digest.digest();
+    }
+
+    private static byte[] digest(final InputStream in) {
+        if (in == null) {
+            return NO_CLASS_FILE;
+        }
+        final MessageDigest digest = newDigest();
+        try {
+            final byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            // unreadable class file, never up to date
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                ;// we don't care
+            }
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new Error("MD5 is not supported: " + e.toString());
+        }
+    }
+
+    private static void writeBytes(final DataOutputStream out, final byte[] bytes) throws IOException {
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(final DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static class SourceEntry {
+        final long lastModified;
+        final long length;
+
+        /**
+         * The classes of the source file, key is the class name, value is the class entry
+         */
+        final Map classes;
+
+        SourceEntry(final long lastModified, final long length, final Map classes) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.classes = classes;
+        }
+
+        static SourceEntry read(final DataInputStream in) throws IOException {
+            final SourceEntry entry = new SourceEntry(in.readLong(), in.readLong(), new TreeMap());
+            for (int i = in.readInt(); i > 0; i--) {
+                final String className = in.readUTF();
+                entry.classes.put(className, new ClassEntry(readBytes(in), readBytes(in), readBytes(in)));
+            }
+            return entry;
+        }
+
+        void write(final DataOutputStream out) throws IOException {
+            out.writeLong(lastModified);
+            out.writeLong(length);
+            out.writeInt(classes.size());
+            for (Iterator it = classes.entrySet().iterator(); it.hasNext();) {
+                final Map.Entry mapEntry = (Map.Entry) it.next();
+                final ClassEntry entry = (ClassEntry) mapEntry.getValue();
+                out.writeUTF((String) mapEntry.getKey());
+                writeBytes(out, entry.tags);
+                writeBytes(out, entry.input);
+                writeBytes(out, entry.output);
+            }
+        }
+    }
+
+    private static class ClassEntry {
+        final byte[] tags;
+        final byte[] input;
+        final byte[] output;
+
+        ClassEntry(final byte[] tags, final byte[] input, final byte[] output) {
+            this.tags = tags;
+            this.input = input;
+            this.output = output;
+        }
+    }
+}
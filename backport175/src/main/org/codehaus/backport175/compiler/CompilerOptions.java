@@ -0,0 +1,83 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package org.codehaus.backport175.compiler;
+
+/**
+ * Options of the annotation compiler, see {@link AnnotationC#compile(String[], String[], String[], String, String[],
+ * MessageHandler, CompilerOptions)}.
+ * <p/>
+ * The defaults are the ones of the plain compilation: unknown annotations are reported, no annotation index is
+ * written, the classes are written by the calling thread and all the classes are compiled.
+ */
+public class CompilerOptions {
+
+    private boolean m_ignoreUnknown = false;
+
+    private boolean m_writeIndex = false;
+
+    private int m_threads = 1;
+
+    private boolean m_incremental = false;
+
+    public boolean isIgnoreUnknown() {
+        return m_ignoreUnknown;
+    }
+
+    /**
+     * Sets if the unknown doclet tags are ignored rather than reported as errors.
+     *
+     * @param ignoreUnknown
+     */
+    public void setIgnoreUnknown(final boolean ignoreUnknown) {
+        m_ignoreUnknown = ignoreUnknown;
+    }
+
+    public boolean isWriteIndex() {
+        return m_writeIndex;
+    }
+
+    /**
+     * Sets if the annotation index of the destination directory is written, see
+     * {@link org.codehaus.backport175.reader.bytecode.AnnotationIndex}.
+     *
+     * @param writeIndex
+     */
+    public void setWriteIndex(final boolean writeIndex) {
+        m_writeIndex = writeIndex;
+    }
+
+    public int getThreads() {
+        return m_threads;
+    }
+
+    /**
+     * Sets the number of threads parsing the source trees and writing the enhanced classes.
+     *
+     * @param threads at least 1
+     */
+    public void setThreads(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1 [" + threads + "]");
+        }
+        m_threads = threads;
+    }
+
+    public boolean isIncremental() {
+        return m_incremental;
+    }
+
+    /**
+     * Sets if the state of the compilation is kept in the destination directory, so that the source files and classes
+     * that have not changed since the previous compilation are skipped.
+     *
+     * @param incremental
+     */
+    public void setIncremental(final boolean incremental) {
+        m_incremental = incremental;
+    }
+}
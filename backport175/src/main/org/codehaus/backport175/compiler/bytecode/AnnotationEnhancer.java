@@ -11,6 +11,7 @@ import org.codehaus.backport175.compiler.CompilerException;
 import org.codehaus.backport175.compiler.SourceLocation;
 import org.codehaus.backport175.compiler.MessageHandler;
 import org.codehaus.backport175.compiler.javadoc.RawAnnotation;
+import org.codehaus.backport175.compiler.parser.AnnotationElementTypes;
 import org.codehaus.backport175.compiler.parser.AnnotationParser;
 import org.codehaus.backport175.compiler.parser.ParseException;
 import org.objectweb.asm.*;
@@ -61,31 +62,68 @@ public class AnnotationEnhancer {
     private List m_classAnnotations = new ArrayList();
 
     /**
-     * The constructor annotations.
+     * The constructor annotations, key is the constructor desc, value is the list of annotation infos.
      */
-    private List m_constructorAnnotations = new ArrayList();
+    private Map m_constructorAnnotations = new HashMap();
 
     /**
-     * The method annotations.
+     * The method annotations, key is the method name and desc (see {@link #getMemberKey}), value is the list of
+     * annotation infos.
      */
-    private List m_methodAnnotations = new ArrayList();
+    private Map m_methodAnnotations = new HashMap();
 
     /**
-     * The field annotations.
+     * The field annotations, key is the field name and desc (see {@link #getMemberKey}), value is the list of
+     * annotation infos.
      */
-    private List m_fieldAnnotations = new ArrayList();
+    private Map m_fieldAnnotations = new HashMap();
+
+    /**
+     * All the constructor annotation infos, to detect duplicates.
+     */
+    private Set m_constructorAnnotationInfos = new HashSet();
+
+    /**
+     * All the method annotation infos, to detect duplicates.
+     */
+    private Set m_methodAnnotationInfos = new HashSet();
+
+    /**
+     * All the field annotation infos, to detect duplicates.
+     */
+    private Set m_fieldAnnotationInfos = new HashSet();
+
+    /**
+     * The enhanced bytecode, once written.
+     */
+    private byte[] m_enhancedBytecode = null;
 
     /**
      * The message handler we report success to
      */
     private final MessageHandler m_messageHandler;
 
+    /**
+     * The element types of the annotation interfaces, cached for the compilation
+     */
+    private final AnnotationElementTypes m_elementTypes;
+
     /**
      * Constructor
      * @param messageHandler
      */
     public AnnotationEnhancer(MessageHandler messageHandler) {
+        this(messageHandler, new AnnotationElementTypes());
+    }
+
+    /**
+     * Constructor
+     * @param messageHandler
+     * @param elementTypes the element types cached by the compilation, shared by its enhancers
+     */
+    public AnnotationEnhancer(MessageHandler messageHandler, AnnotationElementTypes elementTypes) {
         m_messageHandler = messageHandler;
+        m_elementTypes = elementTypes;
     }
 
     /**
@@ -160,13 +198,13 @@ public class AnnotationEnhancer {
             throw new IllegalStateException("annotation enhancer is not initialized");
         }
         FieldAnnotationInfo info = new FieldAnnotationInfo(field, annotation);
-        if (hasFieldAnnotation(info)) {
+        if (!m_fieldAnnotationInfos.add(info)) {
             throw new CompilerException(
                     "duplicate field annotation " + annotation,
                     SourceLocation.render(annotation)
             );
         }
-        m_fieldAnnotations.add(new FieldAnnotationInfo(field, annotation));
+        addAnnotationInfo(m_fieldAnnotations, getMemberKey(info.name, info.desc), info);
     }
 
     /**
@@ -180,13 +218,13 @@ public class AnnotationEnhancer {
             throw new IllegalStateException("annotation enhancer is not initialized");
         }
         MethodAnnotationInfo info = new MethodAnnotationInfo(method, annotation);
-        if (hasMethodAnnotation(info)) {
+        if (!m_methodAnnotationInfos.add(info)) {
             throw new ParseException(
                     "duplicate method annotation " + annotation,
                     SourceLocation.render(annotation)
             );
         }
-        m_methodAnnotations.add(new MethodAnnotationInfo(method, annotation));
+        addAnnotationInfo(m_methodAnnotations, getMemberKey(info.name, info.desc), info);
     }
 
     /**
@@ -200,13 +238,40 @@ public class AnnotationEnhancer {
             throw new IllegalStateException("annotation enhancer is not initialized");
         }
         MethodAnnotationInfo info = new MethodAnnotationInfo(constructor, annotation);
-        if (hasConstructorAnnotation(info)) {
+        if (!m_constructorAnnotationInfos.add(info)) {
             throw new CompilerException(
                     "duplicate constructor annotation " + annotation,
                     SourceLocation.render(annotation)
             );
         }
-        m_constructorAnnotations.add(new MethodAnnotationInfo(constructor, annotation));
+        addAnnotationInfo(m_constructorAnnotations, info.desc, info);
+    }
+
+    /**
+     * Adds an annotation info to the annotations of a member, keeping the insertion order.
+     *
+     * @param annotations the member annotations
+     * @param key         the member key
+     * @param info        the annotation info
+     */
+    private static void addAnnotationInfo(final Map annotations, final String key, final Object info) {
+        List infos = (List) annotations.get(key);
+        if (infos == null) {
+            infos = new ArrayList(2);
+            annotations.put(key, infos);
+        }
+        infos.add(info);
+    }
+
+    /**
+     * Returns the key of a member in the annotation maps. The space can not be part of a name nor of a desc.
+     *
+     * @param name the member name
+     * @param desc the member desc
+     * @return the key
+     */
+    private static String getMemberKey(final String name, final String desc) {
+        return name + ' ' + desc;
     }
 
     /**
@@ -219,16 +284,19 @@ public class AnnotationEnhancer {
             throw new IllegalStateException("annotation enhancer is not initialized");
         }
 
-        ClassWriter writer = new ClassWriter(true);
+        // the method code is copied unchanged, no need to compute the max stack and locals again
+        ClassWriter writer = new ClassWriter(false);
         // note: annotation validation exception will be throwned here - if any
         m_reader.accept(new AnnotationMungingVisitor(writer), false);
+        m_enhancedBytecode = writer.toByteArray();
 
         final String filename = destDir + File.separator + m_classFileName;
         File file = new File(filename);
         File parentFile = file.getParentFile();
         if (!parentFile.exists()) {
             // directory does not exist create all directories in the filename
-            if (!parentFile.mkdirs()) {
+            // (another thread writing a class of the same package may have created it meanwhile)
+            if (!parentFile.mkdirs() && !parentFile.isDirectory()) {
                 throw new CompilerException(
                         "could not create dir structure needed to write file " + filename + " to disk"
                 );
@@ -237,7 +305,7 @@ public class AnnotationEnhancer {
         FileOutputStream os = null;
         try {
             os = new FileOutputStream(filename);
-            os.write(writer.toByteArray());
+            os.write(m_enhancedBytecode);
         } catch (IOException e) {
             throw new CompilerException("could not write compiled class file to disk [" + filename + "]", e);
         } finally {
@@ -355,19 +423,19 @@ public class AnnotationEnhancer {
                 final String signature,
                 final Object value) {
             FieldVisitor fieldVisitor = super.visitField(access, name, desc, signature, value);
-            for (Iterator it = m_fieldAnnotations.iterator(); it.hasNext();) {
+            final List annotationInfos = (List) m_fieldAnnotations.get(getMemberKey(name, desc));
+            if (annotationInfos == null) {
+                return fieldVisitor;
+            }
+            for (Iterator it = annotationInfos.iterator(); it.hasNext();) {
                 final FieldAnnotationInfo annotationInfo = (FieldAnnotationInfo)it.next();
-                String fieldDesc = getFieldDesc(annotationInfo.field);
-                if (annotationInfo.field.getName().equals(name) &&
-                    fieldDesc.equals(desc)) {
-                    final AnnotationVisitor bytecodeMunger = fieldVisitor.visitAnnotation(
-                            Type.getDescriptor(annotationInfo.annotation.getAnnotationClass()),
-                            true
-                    );
-                    AnnotationParser.parse(bytecodeMunger, annotationInfo.annotation, m_loader);
-                    bytecodeMunger.visitEnd();
-                    m_messageHandler.accept(SourceLocation.render(annotationInfo.annotation));
-                }
+                final AnnotationVisitor bytecodeMunger = fieldVisitor.visitAnnotation(
+                        Type.getDescriptor(annotationInfo.annotation.getAnnotationClass()),
+                        true
+                );
+                AnnotationParser.parse(bytecodeMunger, annotationInfo.annotation, m_loader, m_elementTypes);
+                bytecodeMunger.visitEnd();
+                m_messageHandler.accept(SourceLocation.render(annotationInfo.annotation));
             }
             return fieldVisitor;
         }
@@ -380,37 +448,40 @@ public class AnnotationEnhancer {
                 final String[] exceptions) {
             MethodVisitor methodVisitor = super.visitMethod(access, name, desc, signature, exceptions);
             if (name.equals(INIT_METHOD_NAME)) {
-                for (Iterator it = m_constructorAnnotations.iterator(); it.hasNext();) {
+                final List annotationInfos = (List) m_constructorAnnotations.get(desc);
+                if (annotationInfos == null) {
+                    return methodVisitor;
+                }
+                for (Iterator it = annotationInfos.iterator(); it.hasNext();) {
                     final MethodAnnotationInfo annotationInfo = (MethodAnnotationInfo)it.next();
-                    if (getMethodDesc(annotationInfo.method).equals(desc)) {
-                        final AnnotationVisitor bytecodeMunger = methodVisitor.visitAnnotation(
-                                Type.getDescriptor(annotationInfo.annotation.getAnnotationClass()),
-                                true
-                        );
-                        AnnotationParser.parse(bytecodeMunger, annotationInfo.annotation, m_loader);
-                        bytecodeMunger.visitEnd();
-                        m_messageHandler.accept(SourceLocation.render(annotationInfo.annotation));
-                    }
+                    final AnnotationVisitor bytecodeMunger = methodVisitor.visitAnnotation(
+                            Type.getDescriptor(annotationInfo.annotation.getAnnotationClass()),
+                            true
+                    );
+                    AnnotationParser.parse(bytecodeMunger, annotationInfo.annotation, m_loader, m_elementTypes);
+                    bytecodeMunger.visitEnd();
+                    m_messageHandler.accept(SourceLocation.render(annotationInfo.annotation));
                 }
             } else {
-                for (Iterator it = m_methodAnnotations.iterator(); it.hasNext();) {
+                final List annotationInfos = (List) m_methodAnnotations.get(getMemberKey(name, desc));
+                if (annotationInfos == null) {
+                    return methodVisitor;
+                }
+                for (Iterator it = annotationInfos.iterator(); it.hasNext();) {
                     final MethodAnnotationInfo annotationInfo = (MethodAnnotationInfo)it.next();
-                    if (annotationInfo.method.getName().equals(name) &&
-                        getMethodDesc(annotationInfo.method).equals(desc)) {
-                        final AnnotationVisitor bytecodeMunger;
-                        if (annotationInfo.annotation.isAnnotationDefaultValue()) {
-                            bytecodeMunger = methodVisitor.visitAnnotationDefault();
-                            AnnotationParser.parse(bytecodeMunger, annotationInfo.annotation, Type.getReturnType(desc).getDescriptor(), m_loader);
-                        } else {
-                            bytecodeMunger = methodVisitor.visitAnnotation(
-                                    Type.getDescriptor(annotationInfo.annotation.getAnnotationClass()),
-                                    true
-                            );
-                            AnnotationParser.parse(bytecodeMunger, annotationInfo.annotation, m_loader);
-                        }
-                        bytecodeMunger.visitEnd();
-                        m_messageHandler.accept(SourceLocation.render(annotationInfo.annotation));
+                    final AnnotationVisitor bytecodeMunger;
+                    if (annotationInfo.annotation.isAnnotationDefaultValue()) {
+                        bytecodeMunger = methodVisitor.visitAnnotationDefault();
+                        AnnotationParser.parse(bytecodeMunger, annotationInfo.annotation, Type.getReturnType(desc).getDescriptor(), m_loader, m_elementTypes);
+                    } else {
+                        bytecodeMunger = methodVisitor.visitAnnotation(
+                                Type.getDescriptor(annotationInfo.annotation.getAnnotationClass()),
+                                true
+                        );
+                        AnnotationParser.parse(bytecodeMunger, annotationInfo.annotation, m_loader, m_elementTypes);
                     }
+                    bytecodeMunger.visitEnd();
+                    m_messageHandler.accept(SourceLocation.render(annotationInfo.annotation));
                 }
             }
             return methodVisitor;
@@ -423,7 +494,7 @@ public class AnnotationEnhancer {
                         Type.getDescriptor(rawAnnotation.getAnnotationClass()),
                         true
                 );
-                AnnotationParser.parse(bytecodeMunger, rawAnnotation, m_loader);
+                AnnotationParser.parse(bytecodeMunger, rawAnnotation, m_loader, m_elementTypes);
                 bytecodeMunger.visitEnd();
                 m_messageHandler.accept(SourceLocation.render(rawAnnotation));
             }
@@ -433,18 +504,23 @@ public class AnnotationEnhancer {
     }
 
     /**
-     * Two FieldAnnotationInfo are equals if method equals and annotation class is equals ie RawAnnotation is equals.
-     * Used to ensure no annotation duplicate
+     * Two FieldAnnotationInfo are equals if field name and desc are equals and annotation class is equals ie
+     * RawAnnotation is equals. Used to ensure no annotation duplicate
      *
      * @author <a href="mailto:jboner@codehaus.org">Jonas Bonr </a>
      */
     private static class FieldAnnotationInfo {
         public final RawAnnotation annotation;
         public final JavaField field;
+        public final String name;
+        public final String desc;
 
         public FieldAnnotationInfo(final JavaField field, final RawAnnotation attribute) {
             this.field = field;
             this.annotation = attribute;
+            // resolved once, QDox types are not safe to resolve from concurrent writes
+            this.name = field.getName();
+            this.desc = getFieldDesc(field);
         }
 
         public boolean equals(Object o) {
@@ -460,7 +536,7 @@ public class AnnotationEnhancer {
             if (!annotation.equals(fieldAnnotationInfo.annotation)) {
                 return false;
             }
-            if (!field.equals(fieldAnnotationInfo.field)) {
+            if (!name.equals(fieldAnnotationInfo.name) || !desc.equals(fieldAnnotationInfo.desc)) {
                 return false;
             }
 
@@ -470,24 +546,30 @@ public class AnnotationEnhancer {
         public int hashCode() {
             int result;
             result = annotation.hashCode();
-            result = 29 * result + field.hashCode();
+            result = 29 * result + name.hashCode();
+            result = 29 * result + desc.hashCode();
             return result;
         }
     }
 
     /**
-     * Two MethodAnnotationInfo are equals if method equals and annotation class is equals ie RawAnnotation is equals.
-     * Used to ensure no annotation duplicate.
+     * Two MethodAnnotationInfo are equals if method name and desc are equals and annotation class is equals ie
+     * RawAnnotation is equals. Used to ensure no annotation duplicate.
      *
      * @author <a href="mailto:jboner@codehaus.org">Jonas Bonr </a>
      */
     private static class MethodAnnotationInfo {
         public final RawAnnotation annotation;
         public final JavaMethod method;
+        public final String name;
+        public final String desc;
 
         public MethodAnnotationInfo(final JavaMethod method, final RawAnnotation attribute) {
             this.method = method;
             this.annotation = attribute;
+            // resolved once, QDox types are not safe to resolve from concurrent writes
+            this.name = method.getName();
+            this.desc = getMethodDesc(method);
         }
 
         public boolean equals(Object o) {
@@ -503,7 +585,7 @@ public class AnnotationEnhancer {
             if (!annotation.equals(methodAnnotationInfo.annotation)) {
                 return false;
             }
-            if (!method.equals(methodAnnotationInfo.method)) {
+            if (!name.equals(methodAnnotationInfo.name) || !desc.equals(methodAnnotationInfo.desc)) {
                 return false;
             }
 
@@ -513,7 +595,8 @@ public class AnnotationEnhancer {
         public int hashCode() {
             int result;
             result = annotation.hashCode();
-            result = 29 * result + method.hashCode();
+            result = 29 * result + name.hashCode();
+            result = 29 * result + desc.hashCode();
             return result;
         }
     }
@@ -530,42 +613,6 @@ public class AnnotationEnhancer {
         return m_classAnnotations.contains(annotation);
     }
 
-    /**
-     * Checks if the method has already the given annotation
-     * <p/>
-     * Note: rely on RawAnnotation.equals
-     *
-     * @param annotation
-     * @return
-     */
-    private boolean hasMethodAnnotation(MethodAnnotationInfo annotation) {
-        return m_methodAnnotations.contains(annotation);
-    }
-
-    /**
-     * Checks if the field has already the given annotation
-     * <p/>
-     * Note: rely on RawAnnotation.equals
-     *
-     * @param annotation
-     * @return
-     */
-    private boolean hasFieldAnnotation(FieldAnnotationInfo annotation) {
-        return m_fieldAnnotations.contains(annotation);
-    }
-
-    /**
-     * Checks if the constructor has already the given annotation
-     * <p/>
-     * Note: rely on RawAnnotation.equals
-     *
-     * @param annotation
-     * @return
-     */
-    private boolean hasConstructorAnnotation(MethodAnnotationInfo annotation) {
-        return m_constructorAnnotations.contains(annotation);
-    }
-
     public String getClassName() {
         return m_className;
     }
@@ -577,4 +624,22 @@ public class AnnotationEnhancer {
     public ClassLoader getClassLoader() {
         return m_loader;
     }
+
+    /**
+     * Returns the bytecode the class has been read from.
+     *
+     * @return the bytecode
+     */
+    public byte[] getBytecode() {
+        return m_reader.b;
+    }
+
+    /**
+     * Returns the enhanced bytecode.
+     *
+     * @return the bytecode written by the last call to {@link #write(String)}, or null if not written yet
+     */
+    public byte[] getEnhancedBytecode() {
+        return m_enhancedBytecode;
+    }
 }
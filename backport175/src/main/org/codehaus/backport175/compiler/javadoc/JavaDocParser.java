@@ -11,11 +11,19 @@ import com.thoughtworks.qdox.model.DocletTag;
 import com.thoughtworks.qdox.model.JavaClass;
 import com.thoughtworks.qdox.JavaDocBuilder;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
+import org.codehaus.backport175.compiler.AnnotationInterfaceRepository;
 import org.codehaus.backport175.compiler.CompilerException;
 import org.codehaus.backport175.compiler.SourceLocation;
 
@@ -29,11 +37,38 @@ public class JavaDocParser {
 
     private static final String JAVA_LANG_OBJECT_CLASS_NAME = "java.lang.Object";
 
+    private static final String JAVA_FILE_SUFFIX = ".java";
+
     /**
      * The JavaDoc javadoc.
      */
     private final JavaDocBuilder m_javaDocParser = new JavaDocBuilder();
 
+    /**
+     * The builders of the worker threads, each one holds the source files parsed by its thread
+     */
+    private final List m_workerParsers = new ArrayList();
+
+    /**
+     * The class loaders of the search path, for the builders of the worker threads
+     */
+    private final List m_loaders = new ArrayList();
+
+    /**
+     * The repository telling which doclets may be annotations, null if all the source files are parsed
+     */
+    private AnnotationInterfaceRepository m_repository;
+
+    /**
+     * Number of threads parsing the source trees
+     */
+    private int m_threads = 1;
+
+    /**
+     * Number of source files of the source trees not parsed, since they have no annotation
+     */
+    private int m_skippedSources;
+
     /**
      * Adds the given ClassLoader to the search path
      *
@@ -41,6 +76,42 @@ public class JavaDocParser {
      */
     public void addClassLoaderToSearchPath(final ClassLoader loader) {
         m_javaDocParser.getClassLibrary().addClassLoader(loader);
+        for (Iterator it = m_workerParsers.iterator(); it.hasNext();) {
+            ((JavaDocBuilder) it.next()).getClassLibrary().addClassLoader(loader);
+        }
+        m_loaders.add(loader);
+    }
+
+    /**
+     * Only parses the source files of the source trees that may have annotations: the files are first scanned for
+     * doclets that are registered annotation aliases or class names, see
+     * {@link AnnotationInterfaceRepository#isAnnotationCandidate(String)}.
+     * <p/>
+     * The classes of the other source files are not compiled. The types they declare are still resolved, from the
+     * class loaders of the search path.
+     *
+     * @param repository the annotation repository, with the aliases registered
+     */
+    public void setAnnotationFilter(final AnnotationInterfaceRepository repository) {
+        m_repository = repository;
+    }
+
+    /**
+     * Sets the number of threads parsing the source trees.
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(final int threads) {
+        m_threads = threads;
+    }
+
+    /**
+     * Returns the number of source files of the source trees not parsed since they have no annotation.
+     *
+     * @return the number of source files skipped
+     */
+    public int getSkippedSources() {
+        return m_skippedSources;
     }
 
     /**
@@ -49,11 +120,68 @@ public class JavaDocParser {
      * @param srcDirs the source trees
      */
     public void addSourceTrees(final String[] srcDirs) {
+        if (m_repository == null && m_threads <= 1) {
+            for (int i = 0; i < srcDirs.length; i++) {
+                try {
+                    m_javaDocParser.addSourceTree(new File(srcDirs[i]));
+                } catch (Exception e) {
+                    throw new SourceParseException("source file in source tree [" + srcDirs[i] + "] could not be parsed due to: " + e.toString(), e);
+                }
+            }
+            return;
+        }
+        final List sources = new ArrayList();
+        final List trees = new ArrayList();
         for (int i = 0; i < srcDirs.length; i++) {
-            try {
-                m_javaDocParser.addSourceTree(new File(srcDirs[i]));
-            } catch (Exception e) {
-                throw new SourceParseException("source file in source tree [" + srcDirs[i] + "] could not be parsed due to: " + e.toString(), e);
+            collectSources(new File(srcDirs[i]), sources);
+            while (trees.size() < sources.size()) {
+                trees.add(srcDirs[i]);
+            }
+        }
+        final SourceParsing parsing = new SourceParsing((File[]) sources.toArray(new File[sources.size()]));
+        final int threads = Math.min(m_threads, sources.size());
+        if (threads <= 1) {
+            parsing.run(m_javaDocParser);
+        } else {
+            final Thread[] workers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                final JavaDocBuilder parser = new JavaDocBuilder();
+                for (Iterator it = m_loaders.iterator(); it.hasNext();) {
+                    parser.getClassLibrary().addClassLoader((ClassLoader) it.next());
+                }
+                m_workerParsers.add(parser);
+                workers[i] = new Thread("JavaDocParser worker " + i) {
+                    public void run() {
+                        parsing.run(parser);
+                    }
+                };
+                workers[i].setDaemon(true);
+                workers[i].start();
+            }
+            // the results are only merged once all the workers are done, an interruption is kept for the caller
+            boolean interrupted = false;
+            for (int i = 0; i < threads; i++) {
+                while (workers[i].isAlive()) {
+                    try {
+                        workers[i].join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (int i = 0; i < sources.size(); i++) {
+            final Throwable failure = parsing.m_failures[i];
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            } else if (failure != null) {
+                throw new SourceParseException("source file in source tree [" + trees.get(i) + "] could not be parsed due to: " + failure.toString(), failure);
+            }
+            if (parsing.m_skipped[i]) {
+                m_skippedSources++;
             }
         }
     }
@@ -77,20 +205,96 @@ public class JavaDocParser {
      * @return an array with all classes
      */
     public JavaClass[] getJavaClasses() {
-        Collection classes = m_javaDocParser.getClassLibrary().all();
+        // the classes by name, as a single builder would return them, with the builder which parsed them
+        final Map parsers = new TreeMap();
+        addClassNames(m_javaDocParser, parsers);
+        for (Iterator it = m_workerParsers.iterator(); it.hasNext();) {
+            addClassNames((JavaDocBuilder) it.next(), parsers);
+        }
         Collection javaClasses = new ArrayList();
         String className;
-        for (Iterator it = classes.iterator(); it.hasNext();) {
-            className = (String)it.next();
+        for (Iterator it = parsers.entrySet().iterator(); it.hasNext();) {
+            Map.Entry entry = (Map.Entry)it.next();
+            className = (String)entry.getKey();
             if (JAVA_LANG_OBJECT_CLASS_NAME.equals(className)) {
                 continue;
             }
-            JavaClass clazz = m_javaDocParser.getClassByName(className);
+            JavaClass clazz = ((JavaDocBuilder)entry.getValue()).getClassByName(className);
             javaClasses.add(clazz);
         }
         return (JavaClass[])javaClasses.toArray(new JavaClass[]{});
     }
 
+    private static void addClassNames(final JavaDocBuilder parser, final Map parsers) {
+        for (Iterator it = parser.getClassLibrary().all().iterator(); it.hasNext();) {
+            parsers.put(it.next(), parser);
+        }
+    }
+
+    private static void collectSources(final File dir, final List sources) {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].isDirectory()) {
+                collectSources(files[i], sources);
+            } else if (files[i].getName().endsWith(JAVA_FILE_SUFFIX)) {
+                sources.add(files[i]);
+            }
+        }
+    }
+
+    /**
+     * Checks if a source file has a doclet that may be an annotation.
+     *
+     * @param source the source file
+     * @return true if the source file may have an annotation
+     * @throws IOException
+     */
+    private boolean hasAnnotationCandidate(final File source) throws IOException {
+        final BufferedReader reader = new BufferedReader(new FileReader(source));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String docletName = getDocletName(line);
+                if (docletName != null && m_repository.isAnnotationCandidate(docletName)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Returns the name of the doclet starting a line, after the comment characters, as in " * @Name(value)".
+     *
+     * @param line the line
+     * @return the doclet name or null if the line does not start with a doclet
+     */
+    private static String getDocletName(final String line) {
+        final int length = line.length();
+        int start = 0;
+        while (start < length) {
+            final char c = line.charAt(start);
+            if (c != ' ' && c != '\t' && c != '*' && c != '/') {
+                break;
+            }
+            start++;
+        }
+        if (start == length || line.charAt(start) != '@') {
+            return null;
+        }
+        int end = ++start;
+        while (end < length && line.charAt(end) != '(' && !Character.isWhitespace(line.charAt(end))) {
+            end++;
+        }
+        return line.substring(start, end);
+    }
+
     /**
      * Extract the raw information of the annotation, the "content" inside the parenthesis).
      *
@@ -160,4 +364,49 @@ public class JavaDocParser {
         }
         return escapedBuffer.toString();
     }
-}
\ No newline at end of file
+
+    /**
+     * The source files of the source trees, handed out to the parsing threads.
+     */
+    private class SourceParsing {
+        private final File[] m_sources;
+        private final boolean[] m_skipped;
+        private final Throwable[] m_failures;
+        private int m_next;
+
+        SourceParsing(final File[] sources) {
+            m_sources = sources;
+            m_skipped = new boolean[sources.length];
+            m_failures = new Throwable[sources.length];
+        }
+
+        /**
+         * Parses the source files with the given builder, until they are all handed out or one fails.
+         *
+         * @param parser the builder of the calling thread
+         */
+        void run(final JavaDocBuilder parser) {
+            int index;
+            while ((index = next()) >= 0) {
+                try {
+                    if (m_repository != null && !hasAnnotationCandidate(m_sources[index])) {
+                        m_skipped[index] = true;
+                    } else {
+                        parser.addSource(m_sources[index]);
+                    }
+                } catch (Throwable t) {
+                    m_failures[index] = t;
+                    abort();
+                }
+            }
+        }
+
+        private synchronized int next() {
+            return m_next < m_sources.length ? m_next++ : -1;
+        }
+
+        private synchronized void abort() {
+            m_next = m_sources.length;
+        }
+    }
+}
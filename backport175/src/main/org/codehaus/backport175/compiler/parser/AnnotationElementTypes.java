@@ -0,0 +1,64 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package org.codehaus.backport175.compiler.parser;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The element types of the annotation interfaces, the return types of their methods by method name.
+ * <p/>
+ * Read once per annotation interface, with a single reflective call, and cached by the compilation that owns the
+ * instance: the same few annotations are usually found on many classes and members. The instance is dropped with the
+ * compilation, so that concurrent compilations do not share their annotation interfaces and these can be collected
+ * along with their class loader.
+ * <p/>
+ * Thread safe, the classes of a compilation can be enhanced from several threads.
+ */
+public final class AnnotationElementTypes {
+
+    /**
+     * The element types by element name, by annotation interface, guarded by the map
+     */
+    private final Map m_elementTypes = new HashMap();
+
+    /**
+     * Returns the type of an element.
+     *
+     * @param annotationInterface the annotation interface
+     * @param elementName         the element name
+     * @return the element type, or null if the annotation interface has no such element
+     */
+    public Class getType(final Class annotationInterface, final String elementName) {
+        return (Class) getElementTypes(annotationInterface).get(elementName);
+    }
+
+    /**
+     * Returns the element types of an annotation interface, reads them if not cached.
+     *
+     * @param annotationInterface the annotation interface
+     * @return the element types, by element name
+     */
+    private Map getElementTypes(final Class annotationInterface) {
+        synchronized (m_elementTypes) {
+            Map types = (Map) m_elementTypes.get(annotationInterface);
+            if (types == null) {
+                final Method[] methods = annotationInterface.getDeclaredMethods();
+                types = new HashMap(methods.length * 2);
+                for (int i = 0; i < methods.length; i++) {
+                    if (methods[i].getParameterTypes().length == 0) {
+                        types.put(methods[i].getName(), methods[i].getReturnType());
+                    }
+                }
+                m_elementTypes.put(annotationInterface, types);
+            }
+            return types;
+        }
+    }
+}
@@ -15,6 +15,7 @@ import org.objectweb.asm.Type;
 import org.objectweb.asm.AnnotationVisitor;
 
 import java.lang.reflect.Array;
+import java.math.BigInteger;
 
 /**
  * The annotation visitor. Visits the annotation elements and adds them to the bytecode of the class.
@@ -30,10 +31,36 @@ public class AnnotationParser implements AnnotationParserVisitor {
     public static final String DEFAULT_VALUE_NAME = "value";
 
     /**
-     * The one and only annotation javadoc.
+     * The system property selecting the grammar parser, {@link #JAVACC_PARSER}, {@link #DIRECT_PARSER} or
+     * {@link #STREAMING_PARSER}.
      */
-    protected static final org.codehaus.backport175.compiler.parser.ast.AnnotationParser PARSER =
-            new org.codehaus.backport175.compiler.parser.ast.AnnotationParser(System.in);
+    public static final String PARSER_PROPERTY = "backport175.compiler.parser";
+
+    /**
+     * The parser generated by JavaCC from the annotation grammar, the default.
+     */
+    public static final String JAVACC_PARSER = "javacc";
+
+    /**
+     * The hand-written parser, reading the raw doclet text by offsets.
+     */
+    public static final String DIRECT_PARSER = "direct";
+
+    /**
+     * The hand-written parser, adding the annotation elements to the bytecode as they are parsed, without an AST.
+     */
+    public static final String STREAMING_PARSER = "streaming";
+
+    private static volatile String PARSER = getParserFor(getSystemProperty(PARSER_PROPERTY));
+
+    /**
+     * The grammar parser of each thread, reused for all the annotations the thread parses.
+     */
+    private static final ThreadLocal GRAMMAR_PARSERS = new ThreadLocal() {
+        protected Object initialValue() {
+            return new GrammarParser();
+        }
+    };
 
     /**
      * The top level annotation interface class.
@@ -50,6 +77,36 @@ public class AnnotationParser implements AnnotationParserVisitor {
      */
     protected AnnotationVisitor m_bytecodeMunger;
 
+    /**
+     * The element types of the annotation interfaces, cached for the compilation
+     */
+    protected AnnotationElementTypes m_elementTypes;
+
+    /**
+     * Selects the grammar parser.
+     * <p/>
+     * All the parsers accept the same annotations and add the same elements to the bytecode. The streaming parser
+     * adds the elements before the whole annotation is parsed, the class is not written if the annotation turns out
+     * not to be well formed.
+     *
+     * @param parser {@link #JAVACC_PARSER}, {@link #DIRECT_PARSER} or {@link #STREAMING_PARSER}
+     */
+    public static void setParser(final String parser) {
+        if (!JAVACC_PARSER.equals(parser) && !DIRECT_PARSER.equals(parser) && !STREAMING_PARSER.equals(parser)) {
+            throw new IllegalArgumentException("unknown annotation parser [" + parser + "]");
+        }
+        PARSER = getParserFor(parser);
+    }
+
+    /**
+     * Returns the grammar parser used.
+     *
+     * @return {@link #JAVACC_PARSER}, {@link #DIRECT_PARSER} or {@link #STREAMING_PARSER}
+     */
+    public static String getParser() {
+        return PARSER;
+    }
+
     /**
      * Parses the raw annotation.
      *
@@ -57,7 +114,18 @@ public class AnnotationParser implements AnnotationParserVisitor {
      * @param rawAnnotation
      */
     public static void parse(final AnnotationVisitor bytecodeMunger, final RawAnnotation rawAnnotation, final ClassLoader annotatedClassClassLoader) {
-        parse(bytecodeMunger, rawAnnotation, null, annotatedClassClassLoader);
+        parse(bytecodeMunger, rawAnnotation, null, annotatedClassClassLoader, new AnnotationElementTypes());
+    }
+
+    /**
+     * Parses the raw annotation.
+     *
+     * @param bytecodeMunger
+     * @param rawAnnotation
+     * @param elementTypes the element types cached by the compilation
+     */
+    public static void parse(final AnnotationVisitor bytecodeMunger, final RawAnnotation rawAnnotation, final ClassLoader annotatedClassClassLoader, final AnnotationElementTypes elementTypes) {
+        parse(bytecodeMunger, rawAnnotation, null, annotatedClassClassLoader, elementTypes);
     }
 
     /**
@@ -69,16 +137,21 @@ public class AnnotationParser implements AnnotationParserVisitor {
      * @param desc expected type for annotation default value. If null, assume we visit a regular annotation
      */
     public static void parse(final AnnotationVisitor bytecodeMunger, final RawAnnotation rawAnnotation, String desc, final ClassLoader annotatedClassClassLoader) {
-        final String interfaceName = rawAnnotation.getAnnotationClass().getName().replace('/', '.');
-        final String rawAnnotationValue = rawAnnotation.getValue();
-
-        final StringBuffer representation = new StringBuffer("@");
-        representation.append(interfaceName).append('(');
-        if (rawAnnotationValue != null) {
-            representation.append(rawAnnotationValue);
-        }
-        representation.append(')');
+        parse(bytecodeMunger, rawAnnotation, desc, annotatedClassClassLoader, new AnnotationElementTypes());
+    }
 
+    /**
+     * Parses the raw annotation for an annotation default value, whose type checking depends
+     * on the annotation element method desc if specified.
+     *
+     * @param bytecodeMunger
+     * @param rawAnnotation
+     * @param desc expected type for annotation default value. If null, assume we visit a regular annotation
+     * @param elementTypes the element types cached by the compilation
+     */
+    public static void parse(final AnnotationVisitor bytecodeMunger, final RawAnnotation rawAnnotation, String desc, final ClassLoader annotatedClassClassLoader, final AnnotationElementTypes elementTypes) {
+        final String interfaceName = rawAnnotation.getAnnotationClass().getName().replace('/', '.');
+        final GrammarParser grammarParser = (GrammarParser) GRAMMAR_PARSERS.get();
         try {
             final AnnotationParser annotationParser;
             if (desc != null) {
@@ -86,16 +159,23 @@ public class AnnotationParser implements AnnotationParserVisitor {
                     bytecodeMunger,
                     rawAnnotation.getAnnotationClass(),
                     desc,
-                    annotatedClassClassLoader
+                    annotatedClassClassLoader,
+                    elementTypes
                 );
             } else {
                 annotationParser = new AnnotationParser(
                         bytecodeMunger,
                         rawAnnotation.getAnnotationClass(),
-                        annotatedClassClassLoader
+                        annotatedClassClassLoader,
+                        elementTypes
                 );
             }
-            annotationParser.visit(PARSER.parse(representation.toString().replace('\n', ' ')), null);
+            if (STREAMING_PARSER.equals(PARSER)) {
+                grammarParser.stream(interfaceName, rawAnnotation.getValue(), annotationParser);
+            } else {
+                final ASTRoot root = grammarParser.parse(interfaceName, rawAnnotation.getValue());
+                annotationParser.visit(root, null);
+            }
         } catch (AnnotationValidationException ave) {
             // update the source location
             ave.setLocation(SourceLocation.render(rawAnnotation));
@@ -103,13 +183,235 @@ public class AnnotationParser implements AnnotationParserVisitor {
         } catch (Throwable e) {
             // parser grammar error
             throw new ParseException(
-                    "cannot parse annotation [" + representation.toString() + "] due to: " + e.getMessage(),
+                    "cannot parse annotation [" + grammarParser.getSource() + "] due to: " + e.getMessage(),
                     e,
                     SourceLocation.render(rawAnnotation)
             );
         }
     }
 
+    /**
+     * Returns the parser constant for the parser name, the JavaCC parser if the name is unknown.
+     */
+    private static String getParserFor(final String name) {
+        if (DIRECT_PARSER.equals(name)) {
+            return DIRECT_PARSER;
+        } else if (STREAMING_PARSER.equals(name)) {
+            return STREAMING_PARSER;
+        } else {
+            return JAVACC_PARSER;
+        }
+    }
+
+    private static String getSystemProperty(final String name) {
+        try {
+            return System.getProperty(name);
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses an annotation into an AST without copying its raw doclet text, with the generated or the hand-written
+     * parser, each one created on first use.
+     * <p/>
+     * Not thread safe, there is one per thread.
+     */
+    private static final class GrammarParser {
+        private final AnnotationSourceReader m_source = new AnnotationSourceReader();
+        private org.codehaus.backport175.compiler.parser.ast.AnnotationParser m_parser;
+        private DirectAnnotationParser m_directParser;
+
+        ASTRoot parse(final String interfaceName, final String value) throws
+                org.codehaus.backport175.compiler.parser.ast.ParseException {
+            m_source.reset(interfaceName, value);
+            if (DIRECT_PARSER.equals(PARSER)) {
+                return getDirectParser().parse(interfaceName, value);
+            }
+            if (m_parser == null) {
+                m_parser = new org.codehaus.backport175.compiler.parser.ast.AnnotationParser(m_source);
+            }
+            return m_parser.parse(m_source);
+        }
+
+        /**
+         * Parses an annotation with the hand-written parser and hands the elements to the annotation parser as they
+         * are parsed.
+         * <p/>
+         * A parse error wins over the validation errors, as when the AST is built first: the first validation error
+         * is thrown once the whole annotation is parsed.
+         */
+        void stream(final String interfaceName, final String value, final AnnotationParser annotationParser) throws
+                org.codehaus.backport175.compiler.parser.ast.ParseException {
+            m_source.reset(interfaceName, value);
+            final StreamingHandler handler = new StreamingHandler(annotationParser);
+            getDirectParser().parse(interfaceName, value, handler);
+            if (handler.m_failure != null) {
+                throw handler.m_failure;
+            }
+        }
+
+        private DirectAnnotationParser getDirectParser() {
+            if (m_directParser == null) {
+                m_directParser = new DirectAnnotationParser();
+            }
+            return m_directParser;
+        }
+
+        /**
+         * Returns the last annotation parsed, for the error messages.
+         */
+        String getSource() {
+            return m_source.toString();
+        }
+    }
+
+    /**
+     * Adds the annotation elements to the bytecode as the hand-written parser reports them, as the AST visit does.
+     * <p/>
+     * Keeps the parser and the context of each annotation and array being parsed. After the first validation error
+     * the next elements are skipped.
+     */
+    private static final class StreamingHandler implements DirectAnnotationParser.Handler {
+        private final AnnotationParser m_annotationParser;
+        private AnnotationParser[] m_parsers = new AnnotationParser[8];
+        private ParseContext[] m_contexts = new ParseContext[8];
+        private int m_depth;
+        private RuntimeException m_failure;
+
+        StreamingHandler(final AnnotationParser annotationParser) {
+            m_annotationParser = annotationParser;
+        }
+
+        public void startAnnotation() {
+            if (m_failure != null) {
+                return;
+            }
+            try {
+                if (m_depth == 0) {
+                    // top level annotation
+                    push(
+                            m_annotationParser, new ParseContext(
+                                    null, m_annotationParser.m_annotationClass, m_annotationParser.m_bytecodeMunger
+                            )
+                    );
+                } else {
+                    // nested annotation
+                    final AnnotationParser parser = m_parsers[m_depth - 1];
+                    final ParseContext newCtx = parser.newNestedAnnotationContext(m_contexts[m_depth - 1]);
+                    push(
+                            new AnnotationParser(
+                                    newCtx.munger, newCtx.annotationType, parser.m_annotatedClassClassLoader,
+                                    parser.m_elementTypes
+                            ),
+                            newCtx
+                    );
+                }
+            } catch (RuntimeException e) {
+                m_failure = e;
+            }
+        }
+
+        public void endAnnotation() {
+            if (m_failure != null) {
+                return;
+            }
+            if (m_depth > 1) {
+                m_contexts[m_depth - 1].munger.visitEnd();
+            }
+            pop();
+        }
+
+        public void startElement(final String name) {
+            if (m_failure != null) {
+                return;
+            }
+            try {
+                m_parsers[m_depth - 1].startElement(name, m_contexts[m_depth - 1]);
+            } catch (RuntimeException e) {
+                m_failure = e;
+            }
+        }
+
+        public void endElement() {
+        }
+
+        public void startArray() {
+            if (m_failure != null) {
+                return;
+            }
+            try {
+                final AnnotationParser parser = m_parsers[m_depth - 1];
+                push(parser, parser.newArrayContext(m_contexts[m_depth - 1]));
+            } catch (RuntimeException e) {
+                m_failure = e;
+            }
+        }
+
+        public void endArray() {
+            if (m_failure != null) {
+                return;
+            }
+            m_contexts[m_depth - 1].munger.visitEnd();
+            pop();
+        }
+
+        public void value(final int kind, final String image) {
+            if (m_failure != null) {
+                return;
+            }
+            final AnnotationParser parser = m_parsers[m_depth - 1];
+            final ParseContext ctx = m_contexts[m_depth - 1];
+            try {
+                switch (kind) {
+                    case AnnotationParserConstants.STRING:
+                        parser.handleString(image, ctx);
+                        break;
+                    case AnnotationParserConstants.CHAR:
+                        parser.handleChar(image, ctx);
+                        break;
+                    case AnnotationParserConstants.BOOLEAN:
+                        parser.handleBoolean(image, ctx);
+                        break;
+                    case AnnotationParserConstants.INTEGER:
+                        parser.handleInteger(image, ctx);
+                        break;
+                    case AnnotationParserConstants.FLOAT:
+                        parser.handleFloat(image, ctx);
+                        break;
+                    case AnnotationParserConstants.JAVA_TYPE_MAYBEARRAY:
+                        parser.handleIdentifier(image, ctx);
+                        break;
+                    default:
+                        // HEXNUMBER, OCTNUMBER
+                        parser.handleHexOrOctal(image, ctx);
+                        break;
+                }
+            } catch (RuntimeException e) {
+                m_failure = e;
+            }
+        }
+
+        private void push(final AnnotationParser parser, final ParseContext ctx) {
+            if (m_depth == m_parsers.length) {
+                final AnnotationParser[] parsers = new AnnotationParser[m_depth * 2];
+                final ParseContext[] contexts = new ParseContext[m_depth * 2];
+                System.arraycopy(m_parsers, 0, parsers, 0, m_depth);
+                System.arraycopy(m_contexts, 0, contexts, 0, m_depth);
+                m_parsers = parsers;
+                m_contexts = contexts;
+            }
+            m_parsers[m_depth] = parser;
+            m_contexts[m_depth++] = ctx;
+        }
+
+        private void pop() {
+            m_depth--;
+            m_parsers[m_depth] = null;
+            m_contexts[m_depth] = null;
+        }
+    }
+
     public Object visit(SimpleNode node, Object data) {
         return node.jjtGetChild(0).jjtAccept(this, null);
     }
@@ -132,18 +434,75 @@ public class AnnotationParser implements AnnotationParserVisitor {
 
     public Object visit(ASTKeyValuePair node, Object data) {
         ParseContext ctx = (ParseContext)data;
-        ctx.elementName = node.getKey();
-
-        // set the expected type to use later for validation
-        ctx.expectedType = getElementTypeFor(ctx.annotationType, ctx.elementName);
-
+        startElement(node.getKey(), ctx);
         node.jjtGetChild(0).jjtAccept(this, ctx);
         return null;
     }
 
     public Object visit(ASTIdentifier node, Object data) {
-        ParseContext ctx = (ParseContext)data;
-        String identifier = node.getValue();
+        handleIdentifier(node.getValue(), (ParseContext)data);
+        return null;
+    }
+
+    public Object visit(ASTBoolean node, Object data) {
+        handleBoolean(node.getValue(), (ParseContext)data);
+        return null;
+    }
+
+    public Object visit(ASTChar node, Object data) {
+        handleChar(node.getValue(), (ParseContext)data);
+        return null;
+    }
+
+    public Object visit(ASTString node, Object data) {
+        handleString(node.getValue(), (ParseContext)data);
+        return null;
+    }
+
+    public Object visit(ASTInteger node, Object data) {
+        handleInteger(node.getValue(), (ParseContext)data);
+        return null;
+    }
+
+    public Object visit(ASTFloat node, Object data) {
+        handleFloat(node.getValue(), (ParseContext)data);
+        return null;
+    }
+
+    public Object visit(ASTHex node, Object data) {
+        handleHexOrOctal(node.getValue(), (ParseContext)data);
+        return null;
+    }
+
+    public Object visit(ASTOct node, Object data) {
+        handleHexOrOctal(node.getValue(), (ParseContext)data);
+        return null;
+    }
+
+    public Object visit(ASTArray node, Object data) {
+        ParseContext newCtx = newArrayContext((ParseContext)data);
+
+        // visit array elements
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            node.jjtGetChild(i).jjtAccept(this, newCtx);
+        }
+        newCtx.munger.visitEnd();
+
+        return null;
+    }
+
+    /**
+     * Sets the element name and the expected type, to use later for validation.
+     *
+     * @param name the element name, null for the single value of an annotation without key
+     * @param ctx
+     */
+    protected void startElement(final String name, final ParseContext ctx) {
+        ctx.elementName = name == null ? DEFAULT_VALUE_NAME : name;
+        ctx.expectedType = getElementTypeFor(ctx.annotationType, ctx.elementName);
+    }
+
+    protected void handleIdentifier(final String identifier, final ParseContext ctx) {
         if (identifier.endsWith(".class")) {
             handleClassIdentifier(identifier, ctx);
         } else if (isJavaReferenceType(identifier)) {
@@ -154,63 +513,101 @@ public class AnnotationParser implements AnnotationParserVisitor {
                     ctx.elementName + "::" + identifier + "]"
             );
         }
-        return null;
     }
 
-    public Object visit(ASTBoolean node, Object data) {
-        ParseContext ctx = (ParseContext)data;
+    protected void handleBoolean(final String value, final ParseContext ctx) {
         AnnotationValidator.validateBoolean(ctx);
 
-        ctx.munger.visit(ctx.elementName, Boolean.valueOf(node.getValue()));
-        return null;
+        ctx.munger.visit(ctx.elementName, Boolean.valueOf(value));
     }
 
-    public Object visit(ASTChar node, Object data) {
-        ParseContext ctx = (ParseContext)data;
+    protected void handleChar(final String image, final ParseContext ctx) {
         AnnotationValidator.validateCharacter(ctx);
 
-        char[] value = node.getValue().trim().toCharArray();
+        char[] value = image.trim().toCharArray();
         Character character;
         if (value.length == 1) {
             character = new Character(value[0]);
         } else if (value.length == 3 && value[0] == '\'' && value[2] == '\'') {
             character = new Character(value[1]);
         } else {
-            throw new ParseException("could not parse character [" + value + "]");
+            throw new ParseException("could not parse character [" + image + "]");
         }
 
         ctx.munger.visit(ctx.elementName, character);
-        return null;
     }
 
-    public Object visit(ASTString node, Object data) {
-        ParseContext ctx = (ParseContext)data;
+    protected void handleString(final String image, final ParseContext ctx) {
         AnnotationValidator.validateString(ctx);
 
-        // the node contains the  \" string escapes
+        // the literal contains the  \" string escapes
         String string;
-        if (node.getValue().length() >= 2) {
-            string = node.getValue().substring(1, node.getValue().length() - 1);
+        if (image.length() >= 2) {
+            string = image.substring(1, image.length() - 1);
         } else {
-            string = node.getValue();
+            string = image;
         }
         string = unescapeQuotes(string);
 
         ctx.munger.visit(ctx.elementName, string);
-        return null;
     }
 
-    public Object visit(ASTInteger node, Object data) {
-        ParseContext ctx = (ParseContext)data;
-        String value = node.getValue();
+    protected void handleInteger(final String value, final ParseContext ctx) {
         char lastChar = value.charAt(value.length() - 1);
+        if ((lastChar == 'L') || (lastChar == 'l')) {
+            visitInteger(Long.parseLong(value.substring(0, value.length() - 1)), true, ctx);
+        } else {
+            visitInteger(Long.parseLong(value), false, ctx);
+        }
+    }
 
-        Object boxed;
+    /**
+     * Handles a hexadecimal or octal integer literal. As in Java, an int literal may use all of its 32 bits and a long
+     * literal all of its 64 bits, so that 0xFFFFFFFF and 0xFFFFFFFFFFFFFFFFL are -1.
+     *
+     * @param value the literal, with its 0x or 0 prefix and its optional L suffix
+     * @param ctx
+     */
+    protected void handleHexOrOctal(final String value, final ParseContext ctx) {
+        char lastChar = value.charAt(value.length() - 1);
         if ((lastChar == 'L') || (lastChar == 'l')) {
-            boxed = new Long(value.substring(0, value.length() - 1));
+            visitInteger(parseUnsigned(value.substring(0, value.length() - 1), 64), true, ctx);
+        } else {
+            visitInteger((int) parseUnsigned(value, 32), false, ctx);
+        }
+    }
+
+    /**
+     * Parses the digits of a hexadecimal or octal literal as an unsigned number of the given size.
+     *
+     * @param literal the literal, with its 0x or 0 prefix and without suffix
+     * @param bits    the size of the type, 32 or 64
+     * @return the value, with the bits above the size of the type cleared
+     * @throws NumberFormatException if the value does not fit in the given number of bits
+     */
+    private static long parseUnsigned(final String literal, final int bits) {
+        final BigInteger unsigned;
+        if (literal.startsWith("0x") || literal.startsWith("0X")) {
+            unsigned = new BigInteger(literal.substring(2), 16);
         } else {
-            boxed = new Long(value);
-            long lValue = ((Long)boxed).longValue();
+            unsigned = new BigInteger(literal.substring(1), 8);
+        }
+        if (unsigned.bitLength() > bits) {
+            throw new NumberFormatException("integer number too large: " + literal);
+        }
+        return unsigned.longValue();
+    }
+
+    /**
+     * Boxes an integer value to the smallest type the expected type allows, a long literal is always boxed to a Long.
+     *
+     * @param lValue
+     * @param isLong true for a literal with the L suffix
+     * @param ctx
+     */
+    private void visitInteger(final long lValue, final boolean isLong, final ParseContext ctx) {
+        Object boxed = new Long(lValue);
+        if (!isLong) {
             if (lValue > Integer.MAX_VALUE || lValue < Integer.MIN_VALUE) {
                 // a real long
                 AnnotationValidator.validateLong(ctx);
@@ -219,39 +616,35 @@ public class AnnotationParser implements AnnotationParserVisitor {
                 AnnotationValidator.validateInteger(ctx);
                 // only downgrade if expects an int
                 if (ctx.expectedType == int.class) {
-                    boxed = new Integer(value);
+                    boxed = new Integer((int) lValue);
                 }
             } else if (lValue > Byte.MAX_VALUE || lValue < Byte.MIN_VALUE) {
                 // a short is fine
                 AnnotationValidator.validateShort(ctx);
                 // only downgrade if expects a short
                 if (ctx.expectedType == int.class) {
-                    boxed = new Integer(value);
+                    boxed = new Integer((int) lValue);
                 } else if (ctx.expectedType == short.class) {
-                    boxed = new Short(value);
+                    boxed = new Short((short) lValue);
                 }
             } else {
                 // lets use a byte
                 AnnotationValidator.validateByte(ctx);
                 // only downgrade if expects a byte
                 if (ctx.expectedType == int.class) {
-                    boxed = new Integer(value);
+                    boxed = new Integer((int) lValue);
                 } else if (ctx.expectedType == short.class) {
-                    boxed = new Short(value);
+                    boxed = new Short((short) lValue);
                 } else if (ctx.expectedType == byte.class) {
-                    boxed = new Byte(value);
+                    boxed = new Byte((byte) lValue);
                 }
             }
         }
 
         ctx.munger.visit(ctx.elementName, boxed);
-        return null;
     }
 
-    public Object visit(ASTFloat node, Object data) {
-        ParseContext ctx = (ParseContext)data;
-
-        String value = node.getValue();
+    protected void handleFloat(final String value, final ParseContext ctx) {
         char lastChar = value.charAt(value.length() - 1);
         Object decimalNumber;
         if ((lastChar == 'D') || (lastChar == 'd')) {
@@ -265,31 +658,19 @@ public class AnnotationParser implements AnnotationParserVisitor {
             AnnotationValidator.validateDouble(ctx);
         }
         ctx.munger.visit(ctx.elementName, decimalNumber);
-        return null;
-    }
-
-    public Object visit(ASTHex node, Object data) {
-        throw new UnsupportedOperationException("hex numbers not yet supported");
-    }
-
-    public Object visit(ASTOct node, Object data) {
-        throw new UnsupportedOperationException("octal numbers not yet supported");
     }
 
-    public Object visit(ASTArray node, Object data) {
-        ParseContext ctx = (ParseContext)data;
+    /**
+     * Starts an array element, returns the context of the array values.
+     *
+     * @param ctx
+     * @return the context of the array values
+     */
+    protected ParseContext newArrayContext(final ParseContext ctx) {
         AnnotationValidator.validateArray(ctx);
 
         AnnotationVisitor newMunger = ctx.munger.visitArray(ctx.elementName);
-        ParseContext newCtx = new ParseContext(ctx.elementName, ctx.annotationType, ctx.expectedType.getComponentType(), newMunger);
-
-        // visit array elements
-        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
-            node.jjtGetChild(i).jjtAccept(this, newCtx);
-        }
-        newMunger.visitEnd();
-
-        return null;
+        return new ParseContext(ctx.elementName, ctx.annotationType, ctx.expectedType.getComponentType(), newMunger);
     }
 
     /**
@@ -306,10 +687,8 @@ public class AnnotationParser implements AnnotationParserVisitor {
         if (valueName == null) {
             throw new IllegalArgumentException("value name can not be null");
         }
-        final Class type;
-        try {
-            type = annotationInterface.getDeclaredMethod(valueName, new Class[]{}).getReturnType();
-        } catch (NoSuchMethodException e) {
+        final Class type = m_elementTypes.getType(annotationInterface, valueName);
+        if (type == null) {
             throw new ParseException(
                     "no method in annotation interface [" + annotationInterface.getName() +
                     "] matches the value name [" + valueName + "]"
@@ -323,11 +702,10 @@ public class AnnotationParser implements AnnotationParserVisitor {
         if (nr == 1) {
             Node childNode = node.jjtGetChild(0);
             if (childNode instanceof ASTKeyValuePair) {
-                ctx.elementName = ((ASTKeyValuePair)childNode).getKey();
+                startElement(((ASTKeyValuePair)childNode).getKey(), ctx);
             } else {
-                ctx.elementName = DEFAULT_VALUE_NAME;
+                startElement(null, ctx);
             }
-            ctx.expectedType = getElementTypeFor(ctx.annotationType, ctx.elementName);
 
             childNode.jjtAccept(this, ctx);
         } else {
@@ -339,6 +717,23 @@ public class AnnotationParser implements AnnotationParserVisitor {
     }
 
     protected void handleNestedAnnotation(final ASTAnnotation node, final ParseContext ctx) {
+        ParseContext newCtx = newNestedAnnotationContext(ctx);
+
+        AnnotationParser newParser = new AnnotationParser(
+                newCtx.munger, newCtx.annotationType, m_annotatedClassClassLoader, m_elementTypes
+        );
+        newParser.handleAnnotation(node, newCtx);
+
+        newCtx.munger.visitEnd();
+    }
+
+    /**
+     * Starts a nested annotation, returns the context of the nested annotation elements.
+     *
+     * @param ctx
+     * @return the context of the nested annotation elements
+     */
+    protected ParseContext newNestedAnnotationContext(final ParseContext ctx) {
         Class annotationType = getElementTypeFor(ctx.annotationType, ctx.elementName);
         if (annotationType.isArray()) {
             // if we have an array of annotations
@@ -353,11 +748,7 @@ public class AnnotationParser implements AnnotationParserVisitor {
         ParseContext newCtx = new ParseContext(ctx.elementName, annotationType, ctx.expectedType, newMunger);
 
         AnnotationValidator.validateAnnotation(newCtx);
-
-        AnnotationParser newParser = new AnnotationParser(newMunger, annotationType, m_annotatedClassClassLoader);
-        newParser.handleAnnotation(node, newCtx);
-
-        newMunger.visitEnd();
+        return newCtx;
     }
 
     protected Object handleClassIdentifier(final String identifier, final ParseContext ctx) {
@@ -453,11 +844,13 @@ public class AnnotationParser implements AnnotationParserVisitor {
      *
      * @param bytecodeVisitor
      * @param annotationClass
+     * @param elementTypes
      */
-    private AnnotationParser(final AnnotationVisitor bytecodeVisitor, final Class annotationClass, final ClassLoader annotatedClassClassLoader) {
+    private AnnotationParser(final AnnotationVisitor bytecodeVisitor, final Class annotationClass, final ClassLoader annotatedClassClassLoader, final AnnotationElementTypes elementTypes) {
         m_bytecodeMunger = bytecodeVisitor;
         m_annotationClass = annotationClass;
         m_annotatedClassClassLoader = annotatedClassClassLoader;
+        m_elementTypes = elementTypes;
     }
 
     /**
@@ -484,9 +877,10 @@ public class AnnotationParser implements AnnotationParserVisitor {
          * @param bytecodeVisitor
          * @param annotationClass
          * @param desc
+         * @param elementTypes
          */
-        private AnnotationDefaultValueParser(final AnnotationVisitor bytecodeVisitor, final Class annotationClass, final String desc, final ClassLoader annotatedClassClassLoader) {
-            super(bytecodeVisitor, annotationClass, annotatedClassClassLoader);
+        private AnnotationDefaultValueParser(final AnnotationVisitor bytecodeVisitor, final Class annotationClass, final String desc, final ClassLoader annotatedClassClassLoader, final AnnotationElementTypes elementTypes) {
+            super(bytecodeVisitor, annotationClass, annotatedClassClassLoader, elementTypes);
             m_typeDesc = desc;
         }
 
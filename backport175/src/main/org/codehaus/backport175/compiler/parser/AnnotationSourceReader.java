@@ -0,0 +1,87 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package org.codehaus.backport175.compiler.parser;
+
+import java.io.Reader;
+
+/**
+ * Feeds the annotation grammar with <code>@Type(value)</code>, read from the annotation name and the raw doclet text
+ * without building the annotation string.
+ * <p/>
+ * The line breaks of the doclet text are read as spaces, the grammar does not allow them in the literals. An instance
+ * is reset for each annotation and is not thread safe.
+ */
+class AnnotationSourceReader extends Reader {
+
+    private static final String NO_VALUE = "";
+
+    private String m_name = NO_VALUE;
+    private String m_value = NO_VALUE;
+
+    /**
+     * The position in "@" + name + "(" + value + ")"
+     */
+    private int m_position;
+    private int m_length;
+
+    /**
+     * Starts reading a new annotation.
+     *
+     * @param name  the annotation interface name, '.' separated
+     * @param value the unparsed annotation value, or null
+     */
+    void reset(final String name, final String value) {
+        m_name = name;
+        m_value = value == null ? NO_VALUE : value;
+        m_position = 0;
+        m_length = m_name.length() + m_value.length() + 3;
+    }
+
+    public int read(final char[] buffer, final int offset, final int length) {
+        if (m_position >= m_length) {
+            return -1;
+        }
+        final int count = Math.min(length, m_length - m_position);
+        final int nameEnd = m_name.length() + 1;
+        final int valueStart = nameEnd + 1;
+        final int valueEnd = valueStart + m_value.length();
+        for (int i = offset, end = offset + count; i < end; i++) {
+            final int position = m_position++;
+            final char c;
+            if (position == 0) {
+                c = '@';
+            } else if (position < nameEnd) {
+                c = m_name.charAt(position - 1);
+            } else if (position == nameEnd) {
+                c = '(';
+            } else if (position < valueEnd) {
+                final char valueChar = m_value.charAt(position - valueStart);
+                c = valueChar == '\n' ? ' ' : valueChar;
+            } else {
+                c = ')';
+            }
+            buffer[i] = c;
+        }
+        return count;
+    }
+
+    /**
+     * Called by the grammar parser at the end of the annotation, the annotation is kept for the error messages.
+     */
+    public void close() {
+    }
+
+    /**
+     * Returns the annotation as read, for the error messages.
+     *
+     * @return the annotation string
+     */
+    public String toString() {
+        return "@" + m_name + '(' + m_value + ')';
+    }
+}
@@ -0,0 +1,826 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package org.codehaus.backport175.compiler.parser;
+
+import org.codehaus.backport175.compiler.parser.ast.*;
+import org.codehaus.backport175.compiler.parser.ast.ParseException;
+
+/**
+ * Hand-written parser for the annotation grammar, an alternative to the generated JavaCC parser.
+ * <p/>
+ * Reads <code>@Type(value)</code> directly from the raw doclet text, by offsets: the tokens are not objects and only
+ * the literal values are copied. The tokens are matched as the generated token manager does, the longest match wins
+ * and on equal length the first token defined in the grammar.
+ * <p/>
+ * The productions report to a {@link Handler} as they parse, which builds the same AST as the generated parser, or
+ * handles the annotation elements directly.
+ * <p/>
+ * An instance is reused for each annotation and is not thread safe.
+ */
+final class DirectAnnotationParser implements AnnotationParserConstants, AnnotationParserTreeConstants {
+
+    private static final int NO_CHAR = -1;
+
+    private static final int[] VALUE_TOKENS = new int[]{
+        ANNOTATION, CHAR, STRING, LEFT_BRACKET, JAVA_TYPE_MAYBEARRAY, BOOLEAN, INTEGER, FLOAT, HEXNUMBER, OCTNUMBER
+    };
+    private static final int[] CONTENT_TOKENS = new int[]{
+        JAVA_NAME, ANNOTATION, CHAR, STRING, LEFT_BRACKET, JAVA_TYPE_MAYBEARRAY, BOOLEAN, INTEGER, FLOAT, HEXNUMBER,
+        OCTNUMBER, RIGHT_PARENTHEZIS
+    };
+
+    private final TreeBuilder m_treeBuilder = new TreeBuilder();
+
+    private Handler m_handler;
+    private String m_interfaceName;
+    private String m_value;
+
+    /**
+     * The length of the value, the closing parenthesis of the annotation is read at this position
+     */
+    private int m_valueLength;
+
+    /**
+     * The current token: kind, start and end offsets in the value
+     */
+    private int m_kind;
+    private int m_begin;
+    private int m_end;
+
+    /**
+     * Receives the annotation elements as they are parsed.
+     * <p/>
+     * The elements of an annotation are reported between {@link #startElement(String)} and {@link #endElement()}, the
+     * name is null for the single value of an annotation without key. A parse error may be found after some elements
+     * have been reported.
+     */
+    static interface Handler {
+        void startAnnotation();
+
+        void endAnnotation();
+
+        void startElement(String name);
+
+        void endElement();
+
+        void startArray();
+
+        void endArray();
+
+        /**
+         * A literal value.
+         *
+         * @param kind  the token kind, one of the {@link AnnotationParserConstants}
+         * @param image the literal as written in the annotation
+         */
+        void value(int kind, String image);
+    }
+
+    /**
+     * Parses an annotation into an AST.
+     *
+     * @param interfaceName the annotation interface name, '.' separated
+     * @param value         the unparsed annotation value, or null
+     * @return the AST root
+     * @throws ParseException if the annotation is not well formed
+     */
+    ASTRoot parse(final String interfaceName, final String value) throws ParseException {
+        try {
+            parse(interfaceName, value, m_treeBuilder);
+            return m_treeBuilder.getRoot();
+        } finally {
+            m_treeBuilder.reset();
+        }
+    }
+
+    /**
+     * Parses an annotation, reports the annotation elements to a handler as they are parsed, no AST is built.
+     *
+     * @param interfaceName the annotation interface name, '.' separated
+     * @param value         the unparsed annotation value, or null
+     * @param handler       the handler
+     * @throws ParseException if the annotation is not well formed
+     */
+    void parse(final String interfaceName, final String value, final Handler handler) throws ParseException {
+        m_handler = handler;
+        m_interfaceName = interfaceName;
+        m_value = value == null ? "" : value;
+        m_valueLength = m_value.length();
+        m_end = 0;
+        try {
+            m_handler.startAnnotation();
+            // the "@Type(" prefix is not read, the annotation interface name is a java type
+            next();
+            if (m_kind == RIGHT_PARENTHEZIS) {
+                next();
+            } else {
+                annotationContent();
+            }
+            m_handler.endAnnotation();
+            if (m_kind != EOF) {
+                throw parseError(new int[]{EOF});
+            }
+        } finally {
+            m_handler = null;
+        }
+    }
+
+    /**
+     * Annotation content, after the opening parenthesis: a key value pair list or a single value, then the closing
+     * parenthesis.
+     */
+    private void annotationContent() throws ParseException {
+        if (m_kind == JAVA_NAME) {
+            keyValuePair();
+            while (m_kind == COMMA) {
+                next();
+                keyValuePair();
+            }
+        } else if (isValueStart()) {
+            m_handler.startElement(null);
+            value();
+            m_handler.endElement();
+        } else {
+            throw parseError(CONTENT_TOKENS);
+        }
+        consume(RIGHT_PARENTHEZIS);
+    }
+
+    private void keyValuePair() throws ParseException {
+        if (m_kind != JAVA_NAME) {
+            throw parseError(new int[]{JAVA_NAME});
+        }
+        m_handler.startElement(image());
+        next();
+        consume(EQUALS);
+        value();
+        m_handler.endElement();
+    }
+
+    private void value() throws ParseException {
+        switch (m_kind) {
+            case ANNOTATION:
+                annotation();
+                return;
+            case LEFT_BRACKET:
+                array();
+                return;
+            case CHAR:
+            case STRING:
+            case JAVA_TYPE_MAYBEARRAY:
+            case BOOLEAN:
+            case INTEGER:
+            case FLOAT:
+            case HEXNUMBER:
+            case OCTNUMBER:
+                m_handler.value(m_kind, image());
+                break;
+            default:
+                throw parseError(VALUE_TOKENS);
+        }
+        next();
+    }
+
+    /**
+     * Nested annotation, with or without parenthesis.
+     */
+    private void annotation() throws ParseException {
+        m_handler.startAnnotation();
+        next();
+        if (m_kind == LEFT_PARENTHEZIS) {
+            next();
+            if (m_kind == RIGHT_PARENTHEZIS) {
+                next();
+            } else {
+                annotationContent();
+            }
+        }
+        m_handler.endAnnotation();
+    }
+
+    private void array() throws ParseException {
+        m_handler.startArray();
+        next();
+        if (isValueStart()) {
+            value();
+            while (m_kind == COMMA) {
+                next();
+                value();
+            }
+        }
+        consume(RIGHT_BRACKET);
+        m_handler.endArray();
+    }
+
+    private boolean isValueStart() {
+        switch (m_kind) {
+            case ANNOTATION:
+            case CHAR:
+            case STRING:
+            case LEFT_BRACKET:
+            case JAVA_TYPE_MAYBEARRAY:
+            case BOOLEAN:
+            case INTEGER:
+            case FLOAT:
+            case HEXNUMBER:
+            case OCTNUMBER:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void consume(final int kind) throws ParseException {
+        if (m_kind != kind) {
+            throw parseError(new int[]{kind});
+        }
+        next();
+    }
+
+    //-- tokens
+
+    /**
+     * Reads the next token.
+     */
+    private void next() throws ParseException {
+        int position = m_end;
+        int c = charAt(position);
+        while (c == ' ' || c == '\t') {
+            c = charAt(++position);
+        }
+        m_begin = position;
+        if (c == NO_CHAR) {
+            m_kind = EOF;
+            m_end = position;
+            return;
+        }
+        int kind = EOF;
+        int length = 0;
+        switch (c) {
+            case '(':
+                kind = LEFT_PARENTHEZIS;
+                length = 1;
+                break;
+            case ')':
+                kind = RIGHT_PARENTHEZIS;
+                length = 1;
+                break;
+            case '{':
+                kind = LEFT_BRACKET;
+                length = 1;
+                break;
+            case '}':
+                kind = RIGHT_BRACKET;
+                length = 1;
+                break;
+            case ',':
+                kind = COMMA;
+                length = 1;
+                break;
+            case '=':
+                kind = EQUALS;
+                length = 1;
+                break;
+            case '"':
+                kind = STRING;
+                length = matchString(position);
+                break;
+            case '\'':
+                kind = CHAR;
+                length = matchChar(position);
+                break;
+            case '@':
+                kind = ANNOTATION;
+                length = matchType(position + 1);
+                if (length > 0) {
+                    length++;
+                }
+                break;
+            case '.':
+                kind = DOT;
+                length = 1;
+                final int floatLength = matchFloat(position);
+                if (floatLength > length) {
+                    kind = FLOAT;
+                    length = floatLength;
+                }
+                break;
+            default:
+                if (!isJavaLetter(c)) {
+                    break;
+                }
+                // the candidates in the order of the grammar, the first longest match wins
+                int candidate;
+                if (isDigit(c)) {
+                    kind = INTEGER;
+                    length = matchInteger(position);
+                    if ((candidate = matchHex(position)) > length) {
+                        kind = HEXNUMBER;
+                        length = candidate;
+                    }
+                    if ((candidate = matchOct(position)) > length) {
+                        kind = OCTNUMBER;
+                        length = candidate;
+                    }
+                    if ((candidate = matchFloat(position)) > length) {
+                        kind = FLOAT;
+                        length = candidate;
+                    }
+                } else if ((candidate = matchBoolean(position)) > 0) {
+                    kind = BOOLEAN;
+                    length = candidate;
+                }
+                if ((candidate = matchName(position)) > length) {
+                    kind = JAVA_NAME;
+                    length = candidate;
+                }
+                if ((candidate = matchTypeMaybeArray(position)) > length) {
+                    kind = JAVA_TYPE_MAYBEARRAY;
+                    length = candidate;
+                }
+        }
+        if (length == 0) {
+            throw new ParseException(
+                    "Lexical error at line 1, column " + getColumn(position) + ".  Encountered: \"" + (char) c +
+                    "\" (" + c + ")"
+            );
+        }
+        m_kind = kind;
+        m_end = position + length;
+    }
+
+    /**
+     * Returns the character at an offset of the value, line breaks read as spaces, and the closing parenthesis of the
+     * annotation after the value.
+     */
+    private int charAt(final int position) {
+        if (position < m_valueLength) {
+            final char c = m_value.charAt(position);
+            return c == '\n' ? ' ' : c;
+        }
+        return position == m_valueLength ? ')' : NO_CHAR;
+    }
+
+    private String image() {
+        if (m_begin >= m_valueLength) {
+            return m_kind == EOF ? "" : ")";
+        }
+        final String image = m_value.substring(m_begin, m_end);
+        // only the literals may span several lines
+        return m_kind == STRING || m_kind == CHAR ? image.replace('\n', ' ') : image;
+    }
+
+    private static boolean isJavaLetter(final int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+               c == '_' || c == '$' || c == '+' || c == '#';
+    }
+
+    private static boolean isDigit(final int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isOctalDigit(final int c) {
+        return c >= '0' && c <= '7';
+    }
+
+    private static boolean isHexDigit(final int c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private int digits(int position) {
+        final int start = position;
+        while (isDigit(charAt(position))) {
+            position++;
+        }
+        return position - start;
+    }
+
+    private int longSuffix(final int position) {
+        final int c = charAt(position);
+        return c == 'l' || c == 'L' ? 1 : 0;
+    }
+
+    private int matchName(int position) {
+        final int start = position;
+        while (isJavaLetter(charAt(position))) {
+            position++;
+        }
+        return position - start;
+    }
+
+    private int matchType(final int start) {
+        int position = start + matchName(start);
+        if (position == start) {
+            return 0;
+        }
+        int name;
+        while (charAt(position) == '.' && (name = matchName(position + 1)) > 0) {
+            position += name + 1;
+        }
+        return position - start;
+    }
+
+    private int matchTypeMaybeArray(final int start) {
+        final int type = matchType(start);
+        if (type == 0) {
+            return 0;
+        }
+        int position = start + type;
+        while (charAt(position) == '[' && charAt(position + 1) == ']') {
+            position += 2;
+        }
+        if (charAt(position) == '.' && charAt(position + 1) == 'c' && charAt(position + 2) == 'l' &&
+            charAt(position + 3) == 'a' && charAt(position + 4) == 's' && charAt(position + 5) == 's') {
+            return position + 6 - start;
+        }
+        return type;
+    }
+
+    private int matchInteger(final int start) {
+        int position = start;
+        final int c = charAt(position);
+        if (c >= '1' && c <= '9') {
+            position += digits(position + 1) + 1;
+        } else if (c == '0') {
+            while (charAt(position) == '0') {
+                position++;
+            }
+        } else {
+            return 0;
+        }
+        return position + longSuffix(position) - start;
+    }
+
+    private int matchHex(final int start) {
+        final int x = charAt(start + 1);
+        if (charAt(start) != '0' || (x != 'x' && x != 'X')) {
+            return 0;
+        }
+        int position = start + 2;
+        while (isHexDigit(charAt(position))) {
+            position++;
+        }
+        if (position == start + 2) {
+            return 0;
+        }
+        return position + longSuffix(position) - start;
+    }
+
+    private int matchOct(final int start) {
+        if (charAt(start) != '0') {
+            return 0;
+        }
+        int position = start + 1;
+        while (isOctalDigit(charAt(position))) {
+            position++;
+        }
+        if (position == start + 1) {
+            return 0;
+        }
+        return position + longSuffix(position) - start;
+    }
+
+    private int matchExponent(final int start) {
+        final int e = charAt(start);
+        if (e != 'e' && e != 'E') {
+            return 0;
+        }
+        int position = start + 1;
+        final int sign = charAt(position);
+        if (sign == '+' || sign == '-') {
+            position++;
+        }
+        final int digits = digits(position);
+        return digits == 0 ? 0 : position + digits - start;
+    }
+
+    private int floatSuffix(final int position) {
+        final int c = charAt(position);
+        return c == 'f' || c == 'F' || c == 'd' || c == 'D' ? 1 : 0;
+    }
+
+    private int matchFloat(final int start) {
+        int longest = 0;
+        final int digits = digits(start);
+        if (digits > 0) {
+            int position = start + digits;
+            final int exponent = matchExponent(position);
+            final int suffix = floatSuffix(position + exponent);
+            if (charAt(position) == '.') {
+                // digits "." digits* exponent? suffix?
+                position++;
+                position += digits(position);
+                position += matchExponent(position);
+                position += floatSuffix(position);
+                longest = position - start;
+            }
+            if (exponent > 0 || suffix > 0) {
+                // digits exponent suffix? | digits exponent? suffix
+                longest = Math.max(longest, digits + exponent + suffix);
+            }
+        } else if (charAt(start) == '.') {
+            // "." digits exponent? suffix?
+            final int fraction = digits(start + 1);
+            if (fraction > 0) {
+                int position = start + 1 + fraction;
+                position += matchExponent(position);
+                position += floatSuffix(position);
+                longest = position - start;
+            }
+        }
+        return longest;
+    }
+
+    private int matchBoolean(final int start) {
+        final int c = charAt(start);
+        if (c == 't' || c == 'T') {
+            return matches(start, c == 't' ? "true" : "TRUE") ? 4 : 0;
+        } else if (c == 'f' || c == 'F') {
+            return matches(start, c == 'f' ? "false" : "FALSE") ? 5 : 0;
+        }
+        return 0;
+    }
+
+    private boolean matches(final int start, final String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (charAt(start + i) != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int matchString(final int start) {
+        int position = start + 1;
+        while (true) {
+            final int c = charAt(position);
+            if (c == '"') {
+                return position + 1 - start;
+            } else if (c == '\\') {
+                final int escape = matchEscape(position);
+                if (escape == 0) {
+                    return 0;
+                }
+                position += escape;
+            } else if (c == NO_CHAR || c == '\r') {
+                return 0;
+            } else {
+                position++;
+            }
+        }
+    }
+
+    private int matchChar(final int start) {
+        final int position = start + 1;
+        final int c = charAt(position);
+        if (c == '\\') {
+            // an octal escape is followed by up to two octal digits, the longest one closed by a quote wins
+            final int escape = matchEscape(position);
+            if (escape == 2 && isOctalDigit(charAt(position + 1))) {
+                int length = 2;
+                if (isOctalDigit(charAt(position + 2))) {
+                    length = 3;
+                    if (charAt(position + 1) <= '3' && isOctalDigit(charAt(position + 3)) &&
+                        charAt(position + 4) == '\'') {
+                        return 6;
+                    }
+                }
+                while (length >= 2) {
+                    if (charAt(position + length) == '\'') {
+                        return length + 2;
+                    }
+                    length--;
+                }
+                return 0;
+            }
+            return escape > 0 && charAt(position + escape) == '\'' ? escape + 2 : 0;
+        } else if (c == '\'' || c == '\r' || c == NO_CHAR) {
+            return 0;
+        }
+        return charAt(position + 1) == '\'' ? 3 : 0;
+    }
+
+    /**
+     * Matches an escape sequence of a string or character literal, an octal escape matches its first digit only.
+     *
+     * @return the length of the escape, 0 if not valid
+     */
+    private int matchEscape(final int start) {
+        final int c = charAt(start + 1);
+        switch (c) {
+            case 'n':
+            case 't':
+            case 'b':
+            case 'r':
+            case 'f':
+            case '\\':
+            case '\'':
+            case '"':
+                return 2;
+            case 'u':
+                for (int i = 2; i < 6; i++) {
+                    if (!isHexDigit(charAt(start + i))) {
+                        return 0;
+                    }
+                }
+                return 6;
+            default:
+                return isOctalDigit(c) ? 2 : 0;
+        }
+    }
+
+    //-- errors
+
+    /**
+     * Returns the column of an offset of the value in the annotation, as the generated parser computes it.
+     */
+    private int getColumn(final int position) {
+        // "@" + name + "(" precede the value
+        int column = m_interfaceName.length() + 2;
+        for (int i = 0; i <= position; i++) {
+            column++;
+            if (charAt(i) == '\t') {
+                column--;
+                column += 8 - (column & 7);
+            }
+        }
+        return column;
+    }
+
+    private ParseException parseError(final int[] expectedKinds) {
+        final Token current = new Token();
+        final Token next = new Token();
+        next.kind = m_kind;
+        next.image = image();
+        next.beginLine = next.endLine = 1;
+        next.beginColumn = getColumn(m_begin);
+        next.endColumn = getColumn(Math.max(m_begin, m_end - 1));
+        current.next = next;
+        final int[][] expected = new int[expectedKinds.length][];
+        for (int i = 0; i < expectedKinds.length; i++) {
+            expected[i] = new int[]{expectedKinds[i]};
+        }
+        return new ParseException(current, expected, tokenImage);
+    }
+
+    /**
+     * Builds the AST, as the generated parser does.
+     */
+    private static final class TreeBuilder implements Handler {
+
+        /**
+         * The nodes whose parent is not closed yet
+         */
+        private Node[] m_nodes = new Node[16];
+        private int m_nodeCount;
+
+        /**
+         * The open nodes, null for the elements without node, and the node count when they were opened
+         */
+        private Node[] m_openNodes = new Node[8];
+        private int[] m_marks = new int[8];
+        private int m_openCount;
+
+        ASTRoot getRoot() {
+            final ASTRoot root = new ASTRoot(JJTROOT);
+            closeNode(root, 0);
+            return root;
+        }
+
+        void reset() {
+            for (int i = 0; i < m_nodeCount; i++) {
+                m_nodes[i] = null;
+            }
+            for (int i = 0; i < m_openCount; i++) {
+                m_openNodes[i] = null;
+            }
+            m_nodeCount = 0;
+            m_openCount = 0;
+        }
+
+        public void startAnnotation() {
+            open(new ASTAnnotation(JJTANNOTATION));
+        }
+
+        public void endAnnotation() {
+            close();
+        }
+
+        public void startElement(final String name) {
+            if (name == null) {
+                open(null);
+                return;
+            }
+            final ASTKeyValuePair node = new ASTKeyValuePair(JJTKEYVALUEPAIR);
+            node.setKey(name);
+            open(node);
+        }
+
+        public void endElement() {
+            close();
+        }
+
+        public void startArray() {
+            open(new ASTArray(JJTARRAY));
+        }
+
+        public void endArray() {
+            close();
+        }
+
+        public void value(final int kind, final String image) {
+            switch (kind) {
+                case CHAR:
+                    final ASTChar charNode = new ASTChar(JJTCHAR);
+                    charNode.setValue(image);
+                    pushNode(charNode);
+                    break;
+                case STRING:
+                    final ASTString stringNode = new ASTString(JJTSTRING);
+                    stringNode.setValue(image);
+                    pushNode(stringNode);
+                    break;
+                case JAVA_TYPE_MAYBEARRAY:
+                    final ASTIdentifier identifierNode = new ASTIdentifier(JJTIDENTIFIER);
+                    identifierNode.setValue(image);
+                    pushNode(identifierNode);
+                    break;
+                case BOOLEAN:
+                    final ASTBoolean booleanNode = new ASTBoolean(JJTBOOLEAN);
+                    booleanNode.setValue(image);
+                    pushNode(booleanNode);
+                    break;
+                case INTEGER:
+                    final ASTInteger integerNode = new ASTInteger(JJTINTEGER);
+                    integerNode.setValue(image);
+                    pushNode(integerNode);
+                    break;
+                case FLOAT:
+                    final ASTFloat floatNode = new ASTFloat(JJTFLOAT);
+                    floatNode.setValue(image);
+                    pushNode(floatNode);
+                    break;
+                case HEXNUMBER:
+                    final ASTHex hexNode = new ASTHex(JJTHEX);
+                    hexNode.setValue(image);
+                    pushNode(hexNode);
+                    break;
+                default:
+                    final ASTOct octNode = new ASTOct(JJTOCT);
+                    octNode.setValue(image);
+                    pushNode(octNode);
+            }
+        }
+
+        private void open(final Node node) {
+            if (m_openCount == m_openNodes.length) {
+                final Node[] openNodes = new Node[m_openCount * 2];
+                final int[] marks = new int[m_openCount * 2];
+                System.arraycopy(m_openNodes, 0, openNodes, 0, m_openCount);
+                System.arraycopy(m_marks, 0, marks, 0, m_openCount);
+                m_openNodes = openNodes;
+                m_marks = marks;
+            }
+            m_openNodes[m_openCount] = node;
+            m_marks[m_openCount++] = m_nodeCount;
+        }
+
+        private void close() {
+            final Node node = m_openNodes[--m_openCount];
+            m_openNodes[m_openCount] = null;
+            if (node != null) {
+                closeNode(node, m_marks[m_openCount]);
+            }
+        }
+
+        private void pushNode(final Node node) {
+            if (m_nodeCount == m_nodes.length) {
+                final Node[] nodes = new Node[m_nodes.length * 2];
+                System.arraycopy(m_nodes, 0, nodes, 0, m_nodeCount);
+                m_nodes = nodes;
+            }
+            m_nodes[m_nodeCount++] = node;
+        }
+
+        /**
+         * Adds the nodes pushed since the mark as children of the node, and pushes the node, as JJTree does.
+         *
+         * @param node the parent node
+         * @param mark the node count when the parent node was opened
+         */
+        private void closeNode(final Node node, final int mark) {
+            for (int i = m_nodeCount - mark - 1; i >= 0; i--) {
+                final Node child = m_nodes[--m_nodeCount];
+                m_nodes[m_nodeCount] = null;
+                child.jjtSetParent(node);
+                node.jjtAddChild(child, i);
+            }
+            pushNode(node);
+        }
+    }
+}
@@ -30,7 +30,7 @@ import java.io.StringReader;
  */
 
 public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeConstants, AnnotationParserConstants {/*@bgen(jjtree)*/
-  protected static JJTAnnotationParserState jjtree = new JJTAnnotationParserState();
+  protected JJTAnnotationParserState jjtree = new JJTAnnotationParserState();
 
 
     public ASTRoot parse(String annotation) throws ParseException {
@@ -54,7 +54,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
  * Entry point.
 
  */
-  static final public ASTRoot Root() throws ParseException {
+  final public ASTRoot Root() throws ParseException {
                         /*@bgen(jjtree) Root */
   ASTRoot jjtn000 = new ASTRoot(JJTROOT);
   boolean jjtc000 = true;
@@ -106,7 +106,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
  * Annotation.
 
  */
-  static final public void Annotation() throws ParseException {
+  final public void Annotation() throws ParseException {
                                  /*@bgen(jjtree) Annotation */
   ASTAnnotation jjtn000 = new ASTAnnotation(JJTANNOTATION);
   boolean jjtc000 = true;
@@ -179,7 +179,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
  * KeyValuePairList.
 
  */
-  static final public void KeyValuePairList() throws ParseException {
+  final public void KeyValuePairList() throws ParseException {
     KeyValuePair();
     label_1:
     while (true) {
@@ -201,7 +201,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
  * KeyValuePair.
 
  */
-  static final public void KeyValuePair() throws ParseException {
+  final public void KeyValuePair() throws ParseException {
  /*@bgen(jjtree) KeyValuePair */
     ASTKeyValuePair jjtn000 = new ASTKeyValuePair(JJTKEYVALUEPAIR);
     boolean jjtc000 = true;
@@ -239,7 +239,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
  *
 
  */
-  static final public void Value() throws ParseException {
+  final public void Value() throws ParseException {
     switch ((jj_ntk==-1)?jj_ntk():jj_ntk) {
     case ANNOTATION:
       Annotation();
@@ -283,7 +283,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
  * Identifier.
 
  */
-  static final public void Identifier() throws ParseException {
+  final public void Identifier() throws ParseException {
  /*@bgen(jjtree) Identifier */
     ASTIdentifier jjtn000 = new ASTIdentifier(JJTIDENTIFIER);
     boolean jjtc000 = true;
@@ -305,7 +305,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
  * Boolean.
 
  */
-  static final public void Boolean() throws ParseException {
+  final public void Boolean() throws ParseException {
  /*@bgen(jjtree) Boolean */
     ASTBoolean jjtn000 = new ASTBoolean(JJTBOOLEAN);
     boolean jjtc000 = true;
@@ -327,7 +327,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
  * Char.
 
  */
-  static final public void Char() throws ParseException {
+  final public void Char() throws ParseException {
  /*@bgen(jjtree) Char */
     ASTChar jjtn000 = new ASTChar(JJTCHAR);
     boolean jjtc000 = true;
@@ -349,7 +349,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
  * String.
 
  */
-  static final public void String() throws ParseException {
+  final public void String() throws ParseException {
  /*@bgen(jjtree) String */
     ASTString jjtn000 = new ASTString(JJTSTRING);
     boolean jjtc000 = true;
@@ -371,7 +371,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
  * Array.
 
  */
-  static final public void Array() throws ParseException {
+  final public void Array() throws ParseException {
                        /*@bgen(jjtree) Array */
   ASTArray jjtn000 = new ASTArray(JJTARRAY);
   boolean jjtc000 = true;
@@ -432,7 +432,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
  * Integer.
 
  */
-  static final public void Integer() throws ParseException {
+  final public void Integer() throws ParseException {
  /*@bgen(jjtree) Integer */
     ASTInteger jjtn000 = new ASTInteger(JJTINTEGER);
     boolean jjtc000 = true;
@@ -454,7 +454,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
  * Float.
 
  */
-  static final public void Float() throws ParseException {
+  final public void Float() throws ParseException {
  /*@bgen(jjtree) Float */
     ASTFloat jjtn000 = new ASTFloat(JJTFLOAT);
     boolean jjtc000 = true;
@@ -476,7 +476,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
  * Hex.
 
  */
-  static final public void Hex() throws ParseException {
+  final public void Hex() throws ParseException {
  /*@bgen(jjtree) Hex */
     ASTHex jjtn000 = new ASTHex(JJTHEX);
     boolean jjtc000 = true;
@@ -498,7 +498,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
  * Oct.
 
  */
-  static final public void Oct() throws ParseException {
+  final public void Oct() throws ParseException {
  /*@bgen(jjtree) Oct */
     ASTOct jjtn000 = new ASTOct(JJTOCT);
     boolean jjtc000 = true;
@@ -515,109 +515,109 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
     }
   }
 
-  static final private boolean jj_2_1(int xla) {
+  final private boolean jj_2_1(int xla) {
     jj_la = xla; jj_lastpos = jj_scanpos = token;
     try { return !jj_3_1(); }
     catch(LookaheadSuccess ls) { return true; }
     finally { jj_save(0, xla); }
   }
 
-  static final private boolean jj_2_2(int xla) {
+  final private boolean jj_2_2(int xla) {
     jj_la = xla; jj_lastpos = jj_scanpos = token;
     try { return !jj_3_2(); }
     catch(LookaheadSuccess ls) { return true; }
     finally { jj_save(1, xla); }
   }
 
-  static final private boolean jj_2_3(int xla) {
+  final private boolean jj_2_3(int xla) {
     jj_la = xla; jj_lastpos = jj_scanpos = token;
     try { return !jj_3_3(); }
     catch(LookaheadSuccess ls) { return true; }
     finally { jj_save(2, xla); }
   }
 
-  static final private boolean jj_2_4(int xla) {
+  final private boolean jj_2_4(int xla) {
     jj_la = xla; jj_lastpos = jj_scanpos = token;
     try { return !jj_3_4(); }
     catch(LookaheadSuccess ls) { return true; }
     finally { jj_save(3, xla); }
   }
 
-  static final private boolean jj_3R_4() {
+  final private boolean jj_3R_4() {
     if (jj_3R_5()) return true;
     return false;
   }
 
-  static final private boolean jj_3R_26() {
+  final private boolean jj_3R_26() {
     if (jj_scan_token(HEXNUMBER)) return true;
     return false;
   }
 
-  static final private boolean jj_3_4() {
+  final private boolean jj_3_4() {
     if (jj_scan_token(COMMA)) return true;
     if (jj_3R_5()) return true;
     return false;
   }
 
-  static final private boolean jj_3R_20() {
+  final private boolean jj_3R_20() {
     if (jj_scan_token(STRING)) return true;
     return false;
   }
 
-  static final private boolean jj_3R_24() {
+  final private boolean jj_3R_24() {
     if (jj_scan_token(INTEGER)) return true;
     return false;
   }
 
-  static final private boolean jj_3R_17() {
+  final private boolean jj_3R_17() {
     if (jj_3R_27()) return true;
     return false;
   }
 
-  static final private boolean jj_3R_28() {
+  final private boolean jj_3R_28() {
     if (jj_3R_5()) return true;
     return false;
   }
 
-  static final private boolean jj_3R_23() {
+  final private boolean jj_3R_23() {
     if (jj_scan_token(BOOLEAN)) return true;
     return false;
   }
 
-  static final private boolean jj_3R_16() {
+  final private boolean jj_3R_16() {
     if (jj_3R_26()) return true;
     return false;
   }
 
-  static final private boolean jj_3_3() {
+  final private boolean jj_3_3() {
     if (jj_scan_token(ANNOTATION)) return true;
     if (jj_scan_token(LEFT_PARENTHEZIS)) return true;
     return false;
   }
 
-  static final private boolean jj_3R_6() {
+  final private boolean jj_3R_6() {
     if (jj_scan_token(JAVA_NAME)) return true;
     if (jj_scan_token(EQUALS)) return true;
     if (jj_3R_5()) return true;
     return false;
   }
 
-  static final private boolean jj_3R_15() {
+  final private boolean jj_3R_15() {
     if (jj_3R_25()) return true;
     return false;
   }
 
-  static final private boolean jj_3R_27() {
+  final private boolean jj_3R_27() {
     if (jj_scan_token(OCTNUMBER)) return true;
     return false;
   }
 
-  static final private boolean jj_3R_14() {
+  final private boolean jj_3R_14() {
     if (jj_3R_24()) return true;
     return false;
   }
 
-  static final private boolean jj_3_2() {
+  final private boolean jj_3_2() {
     if (jj_scan_token(ANNOTATION)) return true;
     if (jj_scan_token(LEFT_PARENTHEZIS)) return true;
     Token xsp;
@@ -629,12 +629,12 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
     return false;
   }
 
-  static final private boolean jj_3R_13() {
+  final private boolean jj_3R_13() {
     if (jj_3R_23()) return true;
     return false;
   }
 
-  static final private boolean jj_3R_18() {
+  final private boolean jj_3R_18() {
     Token xsp;
     xsp = jj_scanpos;
     if (jj_3_2()) {
@@ -647,32 +647,32 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
     return false;
   }
 
-  static final private boolean jj_3R_12() {
+  final private boolean jj_3R_12() {
     if (jj_3R_22()) return true;
     return false;
   }
 
-  static final private boolean jj_3R_11() {
+  final private boolean jj_3R_11() {
     if (jj_3R_21()) return true;
     return false;
   }
 
-  static final private boolean jj_3R_10() {
+  final private boolean jj_3R_10() {
     if (jj_3R_20()) return true;
     return false;
   }
 
-  static final private boolean jj_3R_25() {
+  final private boolean jj_3R_25() {
     if (jj_scan_token(FLOAT)) return true;
     return false;
   }
 
-  static final private boolean jj_3R_9() {
+  final private boolean jj_3R_9() {
     if (jj_3R_19()) return true;
     return false;
   }
 
-  static final private boolean jj_3R_21() {
+  final private boolean jj_3R_21() {
     if (jj_scan_token(LEFT_BRACKET)) return true;
     Token xsp;
     xsp = jj_scanpos;
@@ -681,12 +681,12 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
     return false;
   }
 
-  static final private boolean jj_3_1() {
+  final private boolean jj_3_1() {
     if (jj_3R_3()) return true;
     return false;
   }
 
-  static final private boolean jj_3R_5() {
+  final private boolean jj_3R_5() {
     Token xsp;
     xsp = jj_scanpos;
     if (jj_3R_8()) {
@@ -720,22 +720,22 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
     return false;
   }
 
-  static final private boolean jj_3R_8() {
+  final private boolean jj_3R_8() {
     if (jj_3R_18()) return true;
     return false;
   }
 
-  static final private boolean jj_3R_19() {
+  final private boolean jj_3R_19() {
     if (jj_scan_token(CHAR)) return true;
     return false;
   }
 
-  static final private boolean jj_3R_7() {
+  final private boolean jj_3R_7() {
     if (jj_scan_token(COMMA)) return true;
     return false;
   }
 
-  static final private boolean jj_3R_3() {
+  final private boolean jj_3R_3() {
     if (jj_3R_6()) return true;
     Token xsp;
     while (true) {
@@ -745,22 +745,21 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
     return false;
   }
 
-  static final private boolean jj_3R_22() {
+  final private boolean jj_3R_22() {
     if (jj_scan_token(JAVA_TYPE_MAYBEARRAY)) return true;
     return false;
   }
 
-  static private boolean jj_initialized_once = false;
-  static public AnnotationParserTokenManager token_source;
-  static SimpleCharStream jj_input_stream;
-  static public Token token, jj_nt;
-  static private int jj_ntk;
-  static private Token jj_scanpos, jj_lastpos;
-  static private int jj_la;
-  static public boolean lookingAhead = false;
-  static private boolean jj_semLA;
-  static private int jj_gen;
-  static final private int[] jj_la1 = new int[6];
+  public AnnotationParserTokenManager token_source;
+  SimpleCharStream jj_input_stream;
+  public Token token, jj_nt;
+  private int jj_ntk;
+  private Token jj_scanpos, jj_lastpos;
+  private int jj_la;
+  public boolean lookingAhead = false;
+  private boolean jj_semLA;
+  private int jj_gen;
+  final private int[] jj_la1 = new int[6];
   static private int[] jj_la1_0;
   static {
       jj_la1_0();
@@ -768,18 +767,11 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
    private static void jj_la1_0() {
       jj_la1_0 = new int[] {0x10008001,0x2847470,0x800000,0x100000,0x2847470,0x2847470,};
    }
-  static final private JJCalls[] jj_2_rtns = new JJCalls[4];
-  static private boolean jj_rescan = false;
-  static private int jj_gc = 0;
+  final private JJCalls[] jj_2_rtns = new JJCalls[4];
+  private boolean jj_rescan = false;
+  private int jj_gc = 0;
 
   public AnnotationParser(java.io.InputStream stream) {
-    if (jj_initialized_once) {
-      System.out.println("ERROR: Second call to constructor of static parser.  You must");
-      System.out.println("       either use ReInit() or set the JavaCC option STATIC to false");
-      System.out.println("       during parser generation.");
-      throw new Error();
-    }
-    jj_initialized_once = true;
     jj_input_stream = new SimpleCharStream(stream, 1, 1);
     token_source = new AnnotationParserTokenManager(jj_input_stream);
     token = new Token();
@@ -789,7 +781,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
     for (int i = 0; i < jj_2_rtns.length; i++) jj_2_rtns[i] = new JJCalls();
   }
 
-  static public void ReInit(java.io.InputStream stream) {
+  public void ReInit(java.io.InputStream stream) {
     jj_input_stream.ReInit(stream, 1, 1);
     token_source.ReInit(jj_input_stream);
     token = new Token();
@@ -801,13 +793,6 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
   }
 
   public AnnotationParser(java.io.Reader stream) {
-    if (jj_initialized_once) {
-      System.out.println("ERROR: Second call to constructor of static parser.  You must");
-      System.out.println("       either use ReInit() or set the JavaCC option STATIC to false");
-      System.out.println("       during parser generation.");
-      throw new Error();
-    }
-    jj_initialized_once = true;
     jj_input_stream = new SimpleCharStream(stream, 1, 1);
     token_source = new AnnotationParserTokenManager(jj_input_stream);
     token = new Token();
@@ -817,7 +802,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
     for (int i = 0; i < jj_2_rtns.length; i++) jj_2_rtns[i] = new JJCalls();
   }
 
-  static public void ReInit(java.io.Reader stream) {
+  public void ReInit(java.io.Reader stream) {
     jj_input_stream.ReInit(stream, 1, 1);
     token_source.ReInit(jj_input_stream);
     token = new Token();
@@ -829,13 +814,6 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
   }
 
   public AnnotationParser(AnnotationParserTokenManager tm) {
-    if (jj_initialized_once) {
-      System.out.println("ERROR: Second call to constructor of static parser.  You must");
-      System.out.println("       either use ReInit() or set the JavaCC option STATIC to false");
-      System.out.println("       during parser generation.");
-      throw new Error();
-    }
-    jj_initialized_once = true;
     token_source = tm;
     token = new Token();
     jj_ntk = -1;
@@ -854,7 +832,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
     for (int i = 0; i < jj_2_rtns.length; i++) jj_2_rtns[i] = new JJCalls();
   }
 
-  static final private Token jj_consume_token(int kind) throws ParseException {
+  final private Token jj_consume_token(int kind) throws ParseException {
     Token oldToken;
     if ((oldToken = token).next != null) token = token.next;
     else token = token.next = token_source.getNextToken();
@@ -879,8 +857,8 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
   }
 
   static private final class LookaheadSuccess extends java.lang.Error { }
-  static final private LookaheadSuccess jj_ls = new LookaheadSuccess();
-  static final private boolean jj_scan_token(int kind) {
+  final private LookaheadSuccess jj_ls = new LookaheadSuccess();
+  final private boolean jj_scan_token(int kind) {
     if (jj_scanpos == jj_lastpos) {
       jj_la--;
       if (jj_scanpos.next == null) {
@@ -901,7 +879,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
     return false;
   }
 
-  static final public Token getNextToken() {
+  final public Token getNextToken() {
     if (token.next != null) token = token.next;
     else token = token.next = token_source.getNextToken();
     jj_ntk = -1;
@@ -909,7 +887,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
     return token;
   }
 
-  static final public Token getToken(int index) {
+  final public Token getToken(int index) {
     Token t = lookingAhead ? jj_scanpos : token;
     for (int i = 0; i < index; i++) {
       if (t.next != null) t = t.next;
@@ -918,20 +896,20 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
     return t;
   }
 
-  static final private int jj_ntk() {
+  final private int jj_ntk() {
     if ((jj_nt=token.next) == null)
       return (jj_ntk = (token.next=token_source.getNextToken()).kind);
     else
       return (jj_ntk = jj_nt.kind);
   }
 
-  static private java.util.Vector jj_expentries = new java.util.Vector();
-  static private int[] jj_expentry;
-  static private int jj_kind = -1;
-  static private int[] jj_lasttokens = new int[100];
-  static private int jj_endpos;
+  private java.util.Vector jj_expentries = new java.util.Vector();
+  private int[] jj_expentry;
+  private int jj_kind = -1;
+  private int[] jj_lasttokens = new int[100];
+  private int jj_endpos;
 
-  static private void jj_add_error_token(int kind, int pos) {
+  private void jj_add_error_token(int kind, int pos) {
     if (pos >= 100) return;
     if (pos == jj_endpos + 1) {
       jj_lasttokens[jj_endpos++] = kind;
@@ -959,7 +937,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
     }
   }
 
-  static public ParseException generateParseException() {
+  public ParseException generateParseException() {
     jj_expentries.removeAllElements();
     boolean[] la1tokens = new boolean[29];
     for (int i = 0; i < 29; i++) {
@@ -995,13 +973,13 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
     return new ParseException(token, exptokseq, tokenImage);
   }
 
-  static final public void enable_tracing() {
+  final public void enable_tracing() {
   }
 
-  static final public void disable_tracing() {
+  final public void disable_tracing() {
   }
 
-  static final private void jj_rescan_token() {
+  final private void jj_rescan_token() {
     jj_rescan = true;
     for (int i = 0; i < 4; i++) {
       JJCalls p = jj_2_rtns[i];
@@ -1021,7 +999,7 @@ public class AnnotationParser/*@bgen(jjtree)*/implements AnnotationParserTreeCon
     jj_rescan = false;
   }
 
-  static final private void jj_save(int index, int xla) {
+  final private void jj_save(int index, int xla) {
     JJCalls p = jj_2_rtns[index];
     while (p.gen > jj_gen) {
       if (p.next == null) { p = p.next = new JJCalls(); break; }
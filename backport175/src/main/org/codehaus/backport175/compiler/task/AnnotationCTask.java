@@ -20,6 +20,7 @@ import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Path;
 import org.apache.tools.ant.types.Reference;
 import org.codehaus.backport175.compiler.AnnotationC;
+import org.codehaus.backport175.compiler.CompilerOptions;
 import org.codehaus.backport175.compiler.MessageHandler;
 
 /**
@@ -29,6 +30,10 @@ import org.codehaus.backport175.compiler.MessageHandler;
  * <ul>
  * <li>verbose: [optional] flag marking the task verbosity [true / false]</li>
  * <li>ignoreUnkown: [optional] flag marking if the task should ignore unknown annotations [true / false]</li>
+ * <li>index: [optional] flag marking if the task should write the annotation index of the destination directory [true / false]</li>
+ * <li>threads: [optional] number of threads writing the annotated class files, defaults to 1</li>
+ * <li>incremental: [optional] flag marking if the task should only compile the source files and classes that changed
+ * since its previous run [true / false]</li>
  * <li>properties: [optional] path to a properties file when user-defined annoations are to be used</li>
  * <li>destdir: [optional unless input classes are in more than one path] directory where to put annnotated class files</li>
  * <li>copytodest: [optional] filename pattern to copy extra resources like dtd, xml, or properties files that were found
@@ -64,6 +69,9 @@ public class AnnotationCTask extends Task {
 
     private boolean m_verbose;
     private boolean m_ignoreUnknown;
+    private boolean m_index;
+    private int m_threads = 1;
+    private boolean m_incremental;
     private String m_includePattern;
     private Path m_classpath;
     private Path m_src;
@@ -99,6 +107,33 @@ public class AnnotationCTask extends Task {
         m_ignoreUnknown = ignoreUnknown;
     }
 
+    /**
+     * <task index=..>
+     *
+     * @param index
+     */
+    public void setIndex(boolean index) {
+        m_index = index;
+    }
+
+    /**
+     * <task threads=..>
+     *
+     * @param threads
+     */
+    public void setThreads(int threads) {
+        m_threads = threads;
+    }
+
+    /**
+     * <task incremental=..>
+     *
+     * @param incremental
+     */
+    public void setIncremental(boolean incremental) {
+        m_incremental = incremental;
+    }
+
     /**
      * <task copytodest="** slash *">
      *
@@ -228,6 +263,11 @@ public class AnnotationCTask extends Task {
                 System.out.println("Copytodest   : " + m_includePattern);
             }
 
+            CompilerOptions options = new CompilerOptions();
+            options.setIgnoreUnknown(m_ignoreUnknown);
+            options.setWriteIndex(m_index);
+            options.setThreads(m_threads);
+            options.setIncremental(m_incremental);
             AnnotationC.compile(
                     (String[]) srcDirs.toArray(new String[]{}),
                     (String[]) srcFiles.toArray(new String[]{}),
@@ -235,7 +275,7 @@ public class AnnotationCTask extends Task {
                     m_destdir == null ? null : m_destdir.getAbsolutePath(),
                     (String[]) allProperties.toArray(new String[]{}),
                     new MessageHandler.PrintWriter(m_verbose),
-                    m_ignoreUnknown
+                    options
             );
 
             if (m_destdir != null) {
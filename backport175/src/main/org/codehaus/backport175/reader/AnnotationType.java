@@ -0,0 +1,88 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package org.codehaus.backport175.reader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interned handle for an annotation type, to look up annotations without comparing annotation names.
+ * <p/>
+ * Each annotation name is given a small id, the readers index the annotations of each class and member by id. The
+ * handle is meant to be retrieved once per annotation interface and kept:
+ * <pre>
+ * private static final AnnotationType TRANSACTIONAL = AnnotationType.forClass(Transactional.class);
+ * ...
+ * if (Annotations.isAnnotationPresent(TRANSACTIONAL, method)) {
+ * </pre>
+ * Annotation types with the same name share the same handle, whatever their class loader.
+ */
+public final class AnnotationType {
+
+    /**
+     * The handles, by annotation name, guarded by the map
+     */
+    private static final Map TYPES = new HashMap();
+
+    private final String m_name;
+    private final int m_id;
+
+    private AnnotationType(final String name, final int id) {
+        m_name = name;
+        m_id = id;
+    }
+
+    /**
+     * Returns the handle for an annotation interface.
+     *
+     * @param annotationType the annotation interface
+     * @return the handle
+     */
+    public static AnnotationType forClass(final Class annotationType) {
+        return forName(annotationType.getName());
+    }
+
+    /**
+     * Returns the handle for an annotation name, creates it if non-existant.
+     *
+     * @param annotationName the annotation interface name, '.' separated
+     * @return the handle
+     */
+    public static AnnotationType forName(final String annotationName) {
+        synchronized (TYPES) {
+            AnnotationType type = (AnnotationType) TYPES.get(annotationName);
+            if (type == null) {
+                type = new AnnotationType(annotationName, TYPES.size());
+                TYPES.put(annotationName, type);
+            }
+            return type;
+        }
+    }
+
+    /**
+     * Returns the annotation interface name.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     * Returns the id of the annotation type, the ids are dense and start at 0.
+     *
+     * @return the id
+     */
+    public int getId() {
+        return m_id;
+    }
+
+    public String toString() {
+        return m_name;
+    }
+}
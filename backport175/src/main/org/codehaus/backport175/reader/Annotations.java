@@ -12,9 +12,6 @@ import org.codehaus.backport175.reader.bytecode.AnnotationReader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Collections;
 
 /**
  * Helper class for reader retrieval of strongly typed JavaDoc annotations (as well as regular Java 5 {@link
@@ -33,40 +30,32 @@ public final class Annotations {
      * @return true if the annotation is present else false
      */
     public static boolean isAnnotationPresent(final Class annotationType, final Class target) {
-        boolean isPresent = AnnotationReader.getReaderFor(target).isAnnotationPresent(getAnnnotationName(annotationType));
-        if (!isPresent && isInherited(annotationType)) {
-            if (target.getSuperclass() == null) {
-                return isPresent;
-            } else {
-                return isAnnotationPresent(annotationType, target.getSuperclass());
-            }
-        }
-        return isPresent;
+        final AnnotationReader reader = AnnotationReader.getReaderFor(target);
+        return reader.isEffectiveAnnotationPresent(getAnnnotationName(annotationType), target);
     }
 
     /**
-     * Return all the annotations for a specific class.
+     * Return all the annotations for a specific class, including the {@link java.lang.annotation.Inherited}
+     * annotations of the super classes.
      *
      * @param target          the java.lang.Class object to find the annotations on.
      * @return an array with the annotations
      */
     public static Annotation[] getAnnotations(final Class target) {
-        Annotation[] declaredAnnotations = AnnotationReader.getReaderFor(target).getAnnotations();
-        if (target.getSuperclass() == null) {
-            return declaredAnnotations;
-        } else {
-            List annotations = new ArrayList(declaredAnnotations.length);
-            Annotation[] parents = getAnnotations(target.getSuperclass());
-            for (int i = 0; i < parents.length; i++) {
-                if (isInherited(parents[i].annotationType())) {
-                    annotations.add(parents[i]);
-                }
-            }
-            for (int i = 0; i < declaredAnnotations.length; i++) {
-                annotations.add(declaredAnnotations[i]);
-            }
-            return (Annotation[])annotations.toArray(new Annotation[]{});
-        }
+        return AnnotationReader.getReaderFor(target).getEffectiveAnnotations(target);
+    }
+
+    /**
+     * Return all the annotations for a specific class, including the {@link java.lang.annotation.Inherited}
+     * annotations of the super classes, without copying them.
+     * <p/>
+     * The array is cached and shared by all the callers, it must not be modified.
+     *
+     * @param target          the java.lang.Class object to find the annotations on.
+     * @return an array with the annotations
+     */
+    public static Annotation[] getSharedAnnotations(final Class target) {
+        return AnnotationReader.getReaderFor(target).getSharedEffectiveAnnotations(target);
     }
 
     /**
@@ -78,15 +67,31 @@ public final class Annotations {
      */
     public static Annotation getAnnotation(final Class annotationType, final Class target) {
         final AnnotationReader reader = AnnotationReader.getReaderFor(target);
-        Annotation annotation = reader.getAnnotation(getAnnnotationName(annotationType));
-        if (annotation == null && isInherited(annotationType)) {
-            if (target.getSuperclass() == null) {
-                return annotation;
-            } else {
-                return getAnnotation(annotationType, target.getSuperclass());
-            }
-        }
-        return annotation;
+        return reader.getEffectiveAnnotation(getAnnnotationName(annotationType), target);
+    }
+
+    /**
+     * Checks if an annotation is present at a specific class.
+     * <p/>
+     * Same as {@link #isAnnotationPresent(Class, Class)}, without comparing annotation names.
+     *
+     * @param annotationType the interned annotation type
+     * @param target the annotated type
+     * @return true if the annotation is present else false
+     */
+    public static boolean isAnnotationPresent(final AnnotationType annotationType, final Class target) {
+        return AnnotationReader.getReaderFor(target).isEffectiveAnnotationPresent(annotationType, target);
+    }
+
+    /**
+     * Return the annotation of a specific type for a specific class.
+     *
+     * @param annotationType the interned annotation type
+     * @param target      the java.lang.Class object to find the annotation on.
+     * @return the annotation or null
+     */
+    public static Annotation getAnnotation(final AnnotationType annotationType, final Class target) {
+        return AnnotationReader.getReaderFor(target).getEffectiveAnnotation(annotationType, target);
     }
 
     /**
@@ -123,6 +128,28 @@ public final class Annotations {
         return reader.getAnnotation(getAnnnotationName(annotationType), method);
     }
 
+    /**
+     * Checks if an annotation is present at a specific method.
+     *
+     * @param annotationType the interned annotation type
+     * @param method the annotated type
+     * @return true if the annotation is present else false
+     */
+    public static boolean isAnnotationPresent(final AnnotationType annotationType, final Method method) {
+        return AnnotationReader.getReaderFor(method.getDeclaringClass()).isAnnotationPresent(annotationType, method);
+    }
+
+    /**
+     * Return the annotation of a specific type for a specific method.
+     *
+     * @param annotationType the interned annotation type
+     * @param method the java.lang.reflect.Method object to find the annotation on.
+     * @return the annotation or null
+     */
+    public static Annotation getAnnotation(final AnnotationType annotationType, final Method method) {
+        return AnnotationReader.getReaderFor(method.getDeclaringClass()).getAnnotation(annotationType, method);
+    }
+
     /**
      * Checks if an annotation is present at a specific method.
      *
@@ -157,6 +184,28 @@ public final class Annotations {
         return reader.getAnnotation(getAnnnotationName(annotationType), constructor);
     }
 
+    /**
+     * Checks if an annotation is present at a specific constructor.
+     *
+     * @param annotationType the interned annotation type
+     * @param constructor the annotated type
+     * @return true if the annotation is present else false
+     */
+    public static boolean isAnnotationPresent(final AnnotationType annotationType, final Constructor constructor) {
+        return AnnotationReader.getReaderFor(constructor.getDeclaringClass()).isAnnotationPresent(annotationType, constructor);
+    }
+
+    /**
+     * Return the annotation of a specific type for a specific constructor.
+     *
+     * @param annotationType the interned annotation type
+     * @param constructor the java.lang.reflect.Constructor object to find the annotation on.
+     * @return the annotation or null
+     */
+    public static Annotation getAnnotation(final AnnotationType annotationType, final Constructor constructor) {
+        return AnnotationReader.getReaderFor(constructor.getDeclaringClass()).getAnnotation(annotationType, constructor);
+    }
+
     /**
      * Checks if an annotation is present at a specific field.
      *
@@ -192,21 +241,34 @@ public final class Annotations {
     }
 
     /**
-     * Returns the annotation class name in Java style.
+     * Checks if an annotation is present at a specific field.
      *
-     * @param annotationType
-     * @return
+     * @param annotationType the interned annotation type
+     * @param field the annotated type
+     * @return true if the annotation is present else false
      */
-    private static String getAnnnotationName(final Class annotationType) {
-        return annotationType.getName().replace('/', '.');
+    public static boolean isAnnotationPresent(final AnnotationType annotationType, final Field field) {
+        return AnnotationReader.getReaderFor(field.getDeclaringClass()).isAnnotationPresent(annotationType, field);
+    }
+
+    /**
+     * Return the annotation of a specific type for a specific field.
+     *
+     * @param annotationType the interned annotation type
+     * @param field the java.lang.reflect.Field object to find the annotation on.
+     * @return the annotation or null
+     */
+    public static Annotation getAnnotation(final AnnotationType annotationType, final Field field) {
+        return AnnotationReader.getReaderFor(field.getDeclaringClass()).getAnnotation(annotationType, field);
     }
 
     /**
-     * Returns true if the annotation is @Inherited
+     * Returns the annotation class name in Java style.
+     *
      * @param annotationType
      * @return
      */
-    private static boolean isInherited(final Class annotationType) {
-        return AnnotationReader.getReaderFor(annotationType).isAnnotationPresent("java.lang.annotation.Inherited");
+    private static String getAnnnotationName(final Class annotationType) {
+        return annotationType.getName();
     }
 }
\ No newline at end of file
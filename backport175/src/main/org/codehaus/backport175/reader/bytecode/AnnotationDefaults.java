@@ -8,14 +8,12 @@
 package org.codehaus.backport175.reader.bytecode;
 
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.ClassAdapter;
 import org.objectweb.asm.MethodVisitor;
-import org.objectweb.asm.MethodAdapter;
 import org.objectweb.asm.AnnotationVisitor;
-import org.objectweb.asm.Type;
 import org.codehaus.backport175.reader.ReaderException;
 
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.HashMap;
@@ -24,55 +22,222 @@ import java.util.HashMap;
  * Container for default value of the annotations
  * <p/>
  * As per spec, default values are "unnamed" annotation on the element method of the annotation interface.
+ * <p/>
+ * The defaults are read once per class loader and annotation interface, and indexed by element name. The cache is
+ * safe for concurrent use, and the defaults of a class loader are released once the class loader has been garbage
+ * collected.
  *
  * @author <a href="mailto:alex AT gnilux DOT com">Alexandre Vasseur</a>
  */
-class AnnotationDefaults {
+public class AnnotationDefaults {
+
+    /**
+     * Cache of default values, key is the class loader, value is a map whose key is the annotation class name and
+     * value the {@link Defaults}. Guarded by itself.
+     */
+    private static final Map LOADER_DEFAULTS = new WeakHashMap();
+
+    /**
+     * Cache of default values for the bootstrap class loader (null class loader). Guarded by LOADER_DEFAULTS.
+     */
+    private static final Map BOOTSTRAP_DEFAULTS = new HashMap();
 
     /**
-     * Cache of default values, key is annotationClassKey, value is Annotation whose elements are named according
-     * to the element name which have a default value. Element without default value are thus not present in the Annotation.
+     * Cache statistics, guarded by LOADER_DEFAULTS
      */
-    private static Map s_annotationDefaults = new WeakHashMap();
+    private static long HIT_COUNT = 0;
+    private static long MISS_COUNT = 0;
+
+    private AnnotationDefaults() {
+    }
 
     /**
      * Retrieve (create if not in cache) the annotation defaults
      *
      * @param annotationClassName
      * @param loader
-     * @return
+     * @return an annotation whose elements are named according to the element name which have a default value.
+     *         Element without default value are thus not present in the Annotation.
+     */
+    static AnnotationElement.Annotation getDefaults(final String annotationClassName, final ClassLoader loader) {
+        return getDefaultsFor(annotationClassName, loader).annotation;
+    }
+
+    /**
+     * Adds the default values of the elements that are not set in an annotation.
+     *
+     * @param annotation the annotation
+     * @param loader     the class loader of the annotated class
+     */
+    static void mergeDefaults(final AnnotationElement.Annotation annotation, final ClassLoader loader) {
+        final Defaults defaults = getDefaultsFor(annotation.getInterfaceName(), loader);
+        final AnnotationElement.NamedValue[] defaultedElements = defaults.elements;
+        if (defaultedElements.length == 0) {
+            return;
+        }
+        final boolean[] present = new boolean[defaultedElements.length];
+        final List elements = annotation.getElements();
+        for (int i = 0; i < elements.size(); i++) {
+            final AnnotationElement.NamedValue namedValue = (AnnotationElement.NamedValue) elements.get(i);
+            final Integer index = (Integer) defaults.indexes.get(namedValue.getName());
+            if (index != null) {
+                present[index.intValue()] = true;
+            }
+        }
+        for (int i = 0; i < defaultedElements.length; i++) {
+            if (!present[i]) {
+                annotation.addElement(defaultedElements[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of lookups that found the defaults in the cache.
+     *
+     * @return the hit count
+     */
+    public static long getHitCount() {
+        synchronized (LOADER_DEFAULTS) {
+            return HIT_COUNT;
+        }
+    }
+
+    /**
+     * Returns the number of lookups that had to read the defaults from the annotation interface bytecode.
+     *
+     * @return the miss count
+     */
+    public static long getMissCount() {
+        synchronized (LOADER_DEFAULTS) {
+            return MISS_COUNT;
+        }
+    }
+
+    /**
+     * Removes the defaults of an annotation interface from the cache.
+     *
+     * @param key the annotation interface
+     */
+    static void refresh(final AnnotationReader.ClassKey key) {
+        synchronized (LOADER_DEFAULTS) {
+            final Map defaults = getLoaderDefaults(key.getClassLoader(), false);
+            if (defaults != null) {
+                defaults.remove(key.getName().replace('/', '.'));
+            }
+        }
+    }
+
+    /**
+     * Retrieve (create if not in cache) the annotation defaults.
+     * <p/>
+     * The bytecode is read outside of the lock, if two threads read the same defaults the first one is kept.
+     *
+     * @param annotationClassName
+     * @param loader
+     * @return the defaults
      */
-    public static AnnotationElement.Annotation getDefaults(final String annotationClassName, final ClassLoader loader) {
-        AnnotationReader.ClassKey key = new AnnotationReader.ClassKey(annotationClassName, loader);
-        AnnotationElement.Annotation defaults = (AnnotationElement.Annotation) s_annotationDefaults.get(key);
-        if (defaults == null) {
-            final AnnotationElement.Annotation newDefaults = new AnnotationElement.Annotation(annotationClassName);
-            final byte[] bytes;
-            try {
-                bytes = AnnotationReader.getBytecodeFor(annotationClassName, loader);
-            } catch (Exception e) {
-                throw new ReaderException("could not retrieve the bytecode from the bytecode provider for class [" + annotationClassName+ "]", e);
+    private static Defaults getDefaultsFor(final String annotationClassName, final ClassLoader loader) {
+        synchronized (LOADER_DEFAULTS) {
+            final Map loaderDefaults = getLoaderDefaults(loader, false);
+            if (loaderDefaults != null) {
+                final Defaults defaults = (Defaults) loaderDefaults.get(annotationClassName);
+                if (defaults != null) {
+                    HIT_COUNT++;
+                    return defaults;
+                }
+            }
+        }
+        final Defaults newDefaults = readDefaults(annotationClassName, loader);
+        synchronized (LOADER_DEFAULTS) {
+            final Map loaderDefaults = getLoaderDefaults(loader, true);
+            final Defaults defaults = (Defaults) loaderDefaults.get(annotationClassName);
+            if (defaults != null) {
+                HIT_COUNT++;
+                return defaults;
             }
-            ClassReader cr = new ClassReader(bytes);
-            ClassWriter cw = new ClassWriter(false, true);
-            cr.accept(
-                    new ClassAdapter(cw) {
-                        public MethodVisitor visitMethod(int access, final String name, String desc, String signature, String[] exceptions) {
-                            return new MethodAdapter(super.visitMethod(access, name, desc, signature, exceptions)) {
-                                public AnnotationVisitor visitAnnotationDefault() {
-                                    return new DefaultAnnotationBuilderVisitor(newDefaults, name, loader);
-                                }
-                            };
-                        }
-                    },
-                    true
-            );
-            defaults = newDefaults;
-            s_annotationDefaults.put(key, newDefaults);
+            MISS_COUNT++;
+            loaderDefaults.put(annotationClassName, newDefaults);
+            return newDefaults;
+        }
+    }
+
+    /**
+     * Returns the cache of a class loader.
+     * <p/>
+     * Must be called while holding the LOADER_DEFAULTS lock.
+     *
+     * @param loader
+     * @param create true to create the cache if non-existant
+     * @return the cache or null
+     */
+    private static Map getLoaderDefaults(final ClassLoader loader, final boolean create) {
+        if (loader == null) {
+            return BOOTSTRAP_DEFAULTS;
+        }
+        Map defaults = (Map) LOADER_DEFAULTS.get(loader);
+        if (defaults == null && create) {
+            defaults = new HashMap();
+            LOADER_DEFAULTS.put(loader, defaults);
         }
         return defaults;
     }
 
+    /**
+     * Reads the defaults from the annotation interface bytecode.
+     *
+     * @param annotationClassName
+     * @param loader
+     * @return the defaults
+     */
+    private static Defaults readDefaults(final String annotationClassName, final ClassLoader loader) {
+        final AnnotationElement.Annotation newDefaults = new AnnotationElement.Annotation(annotationClassName);
+        final byte[] bytes;
+        try {
+            bytes = AnnotationReader.getBytecodeFor(annotationClassName, loader);
+        } catch (Exception e) {
+            throw new ReaderException("could not retrieve the bytecode from the bytecode provider for class [" + annotationClassName+ "]", e);
+        }
+        ClassReader cr = new ClassReader(CodeStripper.stripCode(bytes));
+        cr.accept(
+                new NullVisitor() {
+                    public MethodVisitor visitMethod(int access, final String name, String desc, String signature, String[] exceptions) {
+                        return new NullVisitor() {
+                            public AnnotationVisitor visitAnnotationDefault() {
+                                return new DefaultAnnotationBuilderVisitor(newDefaults, name, loader);
+                            }
+                        };
+                    }
+                },
+                true
+        );
+        return new Defaults(newDefaults);
+    }
+
+    /**
+     * The defaults of an annotation interface, indexed by element name.
+     */
+    private static final class Defaults {
+        final AnnotationElement.Annotation annotation;
+        final AnnotationElement.NamedValue[] elements;
+
+        /**
+         * Key is the element name, value is the index of the element
+         */
+        final Map indexes;
+
+        Defaults(final AnnotationElement.Annotation annotation) {
+            this.annotation = annotation;
+            final List elementList = annotation.getElements();
+            elements = new AnnotationElement.NamedValue[elementList.size()];
+            indexes = new HashMap();
+            int i = 0;
+            for (Iterator it = elementList.iterator(); it.hasNext(); i++) {
+                elements[i] = (AnnotationElement.NamedValue) it.next();
+                indexes.put(elements[i].getName(), new Integer(i));
+            }
+        }
+    }
+
     /**
      * Read the default value of annotation element
      * Behave like a regular annotation visitor except that the name is force to the element name (else null in bytecode)
@@ -105,11 +270,4 @@ class AnnotationDefaults {
         }
 
     }
-
-    public static void refresh(AnnotationReader.ClassKey key) {
-        AnnotationElement.Annotation defaults = (AnnotationElement.Annotation) s_annotationDefaults.get(key);
-        if (defaults != null) {
-            s_annotationDefaults.remove(key);
-        }
-    }
 }
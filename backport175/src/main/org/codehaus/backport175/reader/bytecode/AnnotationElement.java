@@ -71,6 +71,15 @@ public class AnnotationElement implements Serializable {
             m_elements.add(new AnnotationElement.NamedValue(name, element));
         }
 
+        /**
+         * Adds a named value, f.e. a default value shared by all the annotations of the same type.
+         *
+         * @param namedValue
+         */
+        void addElement(final NamedValue namedValue) {
+            m_elements.add(namedValue);
+        }
+
         /**
          * @return the annotation class name, java formatted (dot)
          */
@@ -144,6 +153,10 @@ public class AnnotationElement implements Serializable {
 
     /**
      * Abstraction for the named value type.
+     * <p/>
+     * A primitive array value is stored as the array read from the bytecode, without boxing its elements. It is still
+     * typed {@link Type#ARRAY} and {@link #getValue()} returns it as an {@link Array} of boxed values, built on each
+     * call. The raw array is available through {@link #getPrimitiveArray()}.
      *
      * @author <a href="mailto:jboner@codehaus.org">Jonas Bonr</a>
      */
@@ -153,8 +166,9 @@ public class AnnotationElement implements Serializable {
         private final String m_name;
         private final Object m_value;
         private final Type m_type;
-        private boolean m_isResolved = false;
-        private Object m_resolvedValue;
+        private final boolean m_isPrimitiveArray;
+        private volatile boolean m_isResolved = false;
+        private volatile Object m_resolvedValue;
 
         public NamedValue(final String name, final Object value) {
             if (name == null) {
@@ -163,6 +177,7 @@ public class AnnotationElement implements Serializable {
                 m_name = name;
             }
             m_value = value;
+            m_isPrimitiveArray = value.getClass().isArray() && value.getClass().getComponentType().isPrimitive();
             if (value instanceof Enum) {
                 m_type = Type.ENUM;
             } else if (value instanceof Byte) {
@@ -185,7 +200,7 @@ public class AnnotationElement implements Serializable {
                 m_type = Type.STRING;
             } else if (value instanceof org.objectweb.asm.Type) {
                 m_type = Type.TYPE;
-            } else if (value instanceof Array) {
+            } else if (value instanceof Array || m_isPrimitiveArray) {
                 m_type = Type.ARRAY;
             } else if (value instanceof Annotation) {
                 m_type = Type.ANNOTATION;
@@ -201,16 +216,48 @@ public class AnnotationElement implements Serializable {
         }
 
         public Object getValue() {
+            if (m_isPrimitiveArray) {
+                final Array array = new Array();
+                final int length = java.lang.reflect.Array.getLength(m_value);
+                for (int i = 0; i < length; i++) {
+                    array.addElement(null, java.lang.reflect.Array.get(m_value, i));
+                }
+                // primitive values need no resolution
+                for (Iterator it = array.getElements().iterator(); it.hasNext();) {
+                    final NamedValue element = (NamedValue) it.next();
+                    element.setResolvedValue(element.getValue());
+                }
+                return array;
+            }
             return m_value;
         }
 
+        /**
+         * Checks if the value is a primitive array, stored without boxing its elements.
+         *
+         * @return true if the value is a primitive array
+         */
+        public boolean isPrimitiveArray() {
+            return m_isPrimitiveArray;
+        }
+
+        /**
+         * Returns the primitive array value as read from the bytecode. The array is shared and must not be modified.
+         *
+         * @return the primitive array, or null if the value is not a primitive array
+         */
+        public Object getPrimitiveArray() {
+            return m_isPrimitiveArray ? m_value : null;
+        }
+
         public Type getType() {
             return m_type;
         }
 
         public void setResolvedValue(final Object value) {
-            m_isResolved = true;
+            // the value is set first, so that it is visible to the threads that see the flag
             m_resolvedValue = value;
+            m_isResolved = true;
         }
 
         public boolean isResolved() {
@@ -229,6 +276,16 @@ public class AnnotationElement implements Serializable {
             }
             if (m_type.equals(Type.TYPE)) {
                 buf.append(((org.objectweb.asm.Type)m_value).getClassName()).append(".class");
+            } else if (m_isPrimitiveArray) {
+                buf.append('[');
+                final int length = java.lang.reflect.Array.getLength(m_value);
+                for (int i = 0; i < length; i++) {
+                    if (i > 0) {
+                        buf.append(", ");
+                    }
+                    buf.append(java.lang.reflect.Array.get(m_value, i));
+                }
+                buf.append(']');
             } else {
                 buf.append(m_value);
             }
@@ -0,0 +1,973 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package org.codehaus.backport175.reader.bytecode;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Annotation index for a class directory or jar, written by the annotation compiler next to the compiled classes.
+ * <p/>
+ * The index holds, for each compiled class, the annotations of the class and of its members as recorded from the
+ * bytecode. The {@link AnnotationReader} replays them instead of parsing the class bytecode, and falls back to the
+ * bytecode for the classes that are not in the index.
+ * <p/>
+ * The index of a directory is only used for a class if the class file has the modification time and length recorded
+ * when the index was written. The index of a jar is used for the classes it lists as long as the jar has the
+ * modification time and length it had when the index was loaded, and is loaded again otherwise. A class directory or
+ * jar without index is checked again when the index file, or the jar, is modified.
+ * <p/>
+ * The class directories and jars with an index are looked up once per class loader, so that the classes of a class
+ * loader without any index are not looked up. They are looked up again when an index is written, or when a class of
+ * the class loader is refreshed.
+ * <p/>
+ * Setting the system property <code>backport175.index</code> to <code>false</code> disables the use of the index.
+ */
+public class AnnotationIndex {
+
+    /**
+     * The location of the index, relative to the class directory or jar root
+     */
+    public static final String INDEX_RESOURCE = "META-INF/backport175/annotations.idx";
+
+    /**
+     * System property to disable the use of the index
+     */
+    public static final String INDEX_PROPERTY = "backport175.index";
+
+    private static final int MAGIC = 0xBA175ADE;
+    private static final int VERSION = 2;
+
+    private static final String CLASS_FILE_SUFFIX = ".class";
+    private static final String FILE_PROTOCOL = "file";
+    private static final String JAR_PROTOCOL = "jar";
+    private static final String JAR_SEPARATOR = "!/";
+
+    // member tags
+    private static final int END = 0;
+    private static final int CLASS_ANNOTATION = 'C';
+    private static final int FIELD_ANNOTATION = 'F';
+    private static final int METHOD_ANNOTATION = 'M';
+
+    // annotation body tags
+    private static final int VALUE = 'v';
+    private static final int ENUM = 'e';
+    private static final int NESTED_ANNOTATION = '@';
+    private static final int ARRAY = '[';
+
+    // value tags, primitive arrays are tagged with '[' followed by the component tag
+    private static final int BYTE = 'B';
+    private static final int BOOLEAN = 'Z';
+    private static final int CHAR = 'C';
+    private static final int SHORT = 'S';
+    private static final int INT = 'I';
+    private static final int LONG = 'J';
+    private static final int FLOAT = 'F';
+    private static final int DOUBLE = 'D';
+    private static final int STRING = 's';
+    private static final int TYPE = 'c';
+
+    static final boolean ENABLED = !"false".equals(getIndexProperty());
+
+    /**
+     * The loaded indexes, key is the root URL, value is a soft reference to the index or, if there is no index, the
+     * {@link FileStamp} of the index file or jar when checked
+     */
+    private static final Map INDEXES = new HashMap();
+
+    /**
+     * The root URLs with an index, key is the class loader, value is the {@link IndexRoots}
+     */
+    private static final Map INDEX_ROOTS = new WeakHashMap();
+
+    /**
+     * The key of the system class loader in the index roots
+     */
+    private static final Object SYSTEM_LOADER = new Object();
+
+    /**
+     * Incremented each time an index is written, the index roots looked up before are then out of date, guarded by
+     * the index roots
+     */
+    private static int WRITE_COUNT = 0;
+
+    /**
+     * The index file content
+     */
+    private final byte[] m_data;
+
+    /**
+     * The entries, key is the class name ('/' separated), value is the entry
+     */
+    private final Map m_entries;
+
+    /**
+     * The class directory, or null for a jar
+     */
+    private final File m_directory;
+
+    /**
+     * The index file or jar, when the index was loaded
+     */
+    private final FileStamp m_stamp;
+
+    private AnnotationIndex(final byte[] data, final Map entries, final File directory, final FileStamp stamp) {
+        m_data = data;
+        m_entries = entries;
+        m_directory = directory;
+        m_stamp = stamp;
+    }
+
+    /**
+     * Replays the annotations of the class from the index of the class directory or jar, if any.
+     *
+     * @param className the class name, '/' separated
+     * @param loader    the class loader
+     * @param visitor   the visitor to replay the annotations to
+     * @return true if the annotations have been replayed, false if the class is not in an up to date index
+     * @throws IOException if the index is corrupted, the visitor may then have received some of the annotations
+     */
+    static boolean accept(final String className, final ClassLoader loader, final Visitor visitor) throws IOException {
+        final Set roots = getIndexRoots(loader);
+        if (roots != null && roots.isEmpty()) {
+            return false;
+        }
+        final String resource = className + CLASS_FILE_SUFFIX;
+        final URL url = loader != null ? loader.getResource(resource) : ClassLoader.getSystemResource(resource);
+        if (url == null) {
+            return false;
+        }
+        final String location = url.toExternalForm();
+        final String protocol = url.getProtocol();
+        if (!location.endsWith(resource) || !(FILE_PROTOCOL.equals(protocol) || JAR_PROTOCOL.equals(protocol))) {
+            return false;
+        }
+        final String root = location.substring(0, location.length() - resource.length());
+        if (roots != null && !roots.contains(root)) {
+            return false;
+        }
+        final AnnotationIndex index = getIndex(root);
+        if (index == null) {
+            return false;
+        }
+        final Entry entry = (Entry) index.m_entries.get(className);
+        if (entry == null || !index.isUpToDate(className, entry)) {
+            return false;
+        }
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(index.m_data, entry.offset, entry.length));
+        readClass(in, visitor);
+        return true;
+    }
+
+    /**
+     * Returns the root URLs of the class directories and jars with an index visible from a class loader, looks them
+     * up if needed.
+     *
+     * @param loader the class loader
+     * @return the root URLs, or null if they can not be looked up
+     */
+    private static Set getIndexRoots(final ClassLoader loader) {
+        final Object key = loader != null ? (Object) loader : SYSTEM_LOADER;
+        final int writeCount;
+        synchronized (INDEX_ROOTS) {
+            final IndexRoots indexRoots = (IndexRoots) INDEX_ROOTS.get(key);
+            if (indexRoots != null && indexRoots.writeCount == WRITE_COUNT) {
+                return indexRoots.roots;
+            }
+            writeCount = WRITE_COUNT;
+        }
+        final Set roots = new HashSet();
+        try {
+            final Enumeration urls = loader != null
+                    ? loader.getResources(INDEX_RESOURCE) : ClassLoader.getSystemResources(INDEX_RESOURCE);
+            while (urls.hasMoreElements()) {
+                final String location = ((URL) urls.nextElement()).toExternalForm();
+                if (location.endsWith(INDEX_RESOURCE)) {
+                    roots.add(location.substring(0, location.length() - INDEX_RESOURCE.length()));
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        synchronized (INDEX_ROOTS) {
+            INDEX_ROOTS.put(key, new IndexRoots(roots, writeCount));
+        }
+        return roots;
+    }
+
+    /**
+     * Forgets the root URLs with an index looked up for the class loader of a class, so that they are looked up again.
+     *
+     * @param key the class key
+     */
+    static void refresh(final AnnotationReader.ClassKey key) {
+        final ClassLoader loader = key.getClassLoader();
+        if (loader == null && key.isClassLoaderCollected()) {
+            return;
+        }
+        synchronized (INDEX_ROOTS) {
+            INDEX_ROOTS.remove(loader != null ? (Object) loader : SYSTEM_LOADER);
+        }
+    }
+
+    /**
+     * Returns the index for a class directory or jar root URL, loads it if needed.
+     * <p/>
+     * A loaded index is loaded again when its index file, or jar, has been modified since, after a redeployment for
+     * instance.
+     *
+     * @param root the root URL, ending with '/'
+     * @return the index or null if there is no index
+     */
+    private static AnnotationIndex getIndex(final String root) {
+        final Object value;
+        synchronized (INDEXES) {
+            value = INDEXES.get(root);
+        }
+        if (value instanceof SoftReference) {
+            final AnnotationIndex index = (AnnotationIndex) ((SoftReference) value).get();
+            if (index != null && !index.m_stamp.isModified()) {
+                return index;
+            }
+        } else if (value instanceof FileStamp && !((FileStamp) value).isModified()) {
+            return null;
+        }
+        synchronized (INDEXES) {
+            if (INDEXES.get(root) != value) {
+                // loaded or checked again by another thread meanwhile
+                return null;
+            }
+            // the stamp is taken first, an index written while loading is seen on the next access
+            final FileStamp stamp = new FileStamp(getIndexFile(root));
+            final AnnotationIndex index = load(root, stamp);
+            INDEXES.put(root, index == null ? (Object) stamp : new SoftReference(index));
+            return index;
+        }
+    }
+
+    /**
+     * Returns the file whose modification tells that the index of a class directory or jar may have changed.
+     *
+     * @param root the root URL
+     * @return the index file of a directory, the jar file of a jar or null if not a local file
+     */
+    private static File getIndexFile(final String root) {
+        try {
+            if (root.startsWith(FILE_PROTOCOL + ':')) {
+                return new File(URLDecoder.decode(new URL(root).getFile()), INDEX_RESOURCE);
+            }
+            final String location = root.substring(JAR_PROTOCOL.length() + 1);
+            final int separator = location.indexOf(JAR_SEPARATOR);
+            if (location.startsWith(FILE_PROTOCOL + ':') && separator > 0) {
+                return new File(URLDecoder.decode(new URL(location.substring(0, separator)).getFile()));
+            }
+        } catch (IOException e) {
+            ;// not a local file
+        }
+        return null;
+    }
+
+    /**
+     * Loads the index for a class directory or jar root URL.
+     *
+     * @param root
+     * @param stamp the index file or jar, taken before loading
+     * @return the index or null if there is no index or if it can not be read
+     */
+    private static AnnotationIndex load(final String root, final FileStamp stamp) {
+        try {
+            final File directory;
+            final byte[] data;
+            if (root.startsWith(FILE_PROTOCOL + ':')) {
+                directory = new File(URLDecoder.decode(new URL(root).getFile()));
+                final File file = new File(directory, INDEX_RESOURCE);
+                if (!file.isFile()) {
+                    return null;
+                }
+                data = toByteArray(new FileInputStream(file));
+            } else if (stamp.file != null) {
+                // read from the jar file itself, a jar URL may be served by a cached and out of date jar
+                directory = null;
+                final ZipFile jar = new ZipFile(stamp.file);
+                try {
+                    final ZipEntry entry = jar.getEntry(INDEX_RESOURCE);
+                    if (entry == null) {
+                        return null;
+                    }
+                    data = toByteArray(jar.getInputStream(entry));
+                } finally {
+                    jar.close();
+                }
+            } else {
+                directory = null;
+                data = toByteArray(new URL(root + INDEX_RESOURCE).openStream());
+            }
+            return new AnnotationIndex(data, readEntries(data), directory, stamp);
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks that the class file has not been modified since the index was written.
+     * <p/>
+     * The classes of a jar are not checked one by one, the jar as a whole is checked when the index is returned,
+     * since the classes and the index are replaced together.
+     *
+     * @param className
+     * @param entry     the index entry, with the class file last modification time and length
+     * @return true if the index entry can be used
+     */
+    private boolean isUpToDate(final String className, final Entry entry) {
+        if (m_directory == null) {
+            return !m_stamp.isModified();
+        }
+        final File file = new File(m_directory, className + CLASS_FILE_SUFFIX);
+        return file.lastModified() == entry.lastModified && file.length() == entry.classLength;
+    }
+
+    /**
+     * Reads the index entries table, the annotation data is left in place.
+     *
+     * @param data the index file content
+     * @return the entries, key is the class name
+     * @throws IOException
+     */
+    private static Map readEntries(final byte[] data) throws IOException {
+        final ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+        final DataInputStream in = new DataInputStream(bytes);
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("not a backport175 annotation index or unsupported version");
+        }
+        final int count = in.readInt();
+        final Map entries = new HashMap(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            final String className = in.readUTF();
+            final long lastModified = in.readLong();
+            final long classLength = in.readLong();
+            final int length = in.readInt();
+            final int offset = data.length - bytes.available();
+            if (length < 0 || offset + length > data.length) {
+                throw new IOException("corrupted backport175 annotation index");
+            }
+            entries.put(className, new Entry(lastModified, classLength, offset, length));
+            in.skipBytes(length);
+        }
+        return entries;
+    }
+
+    private static void readClass(final DataInputStream in, final Visitor visitor) throws IOException {
+        for (int tag = in.readByte(); tag != END; tag = in.readByte()) {
+            final AnnotationVisitor annotationVisitor;
+            switch (tag) {
+                case CLASS_ANNOTATION:
+                    annotationVisitor = visitor.visitClassAnnotation(in.readUTF());
+                    break;
+                case FIELD_ANNOTATION:
+                    annotationVisitor = visitor.visitFieldAnnotation(in.readUTF(), in.readUTF(), in.readUTF());
+                    break;
+                case METHOD_ANNOTATION:
+                    annotationVisitor = visitor.visitMethodAnnotation(in.readUTF(), in.readUTF(), in.readUTF());
+                    break;
+                default:
+                    throw new IOException("corrupted backport175 annotation index");
+            }
+            readAnnotation(in, annotationVisitor);
+        }
+    }
+
+    private static void readAnnotation(final DataInputStream in, final AnnotationVisitor visitor) throws IOException {
+        for (int tag = in.readByte(); tag != END; tag = in.readByte()) {
+            final String name = in.readBoolean() ? in.readUTF() : null;
+            switch (tag) {
+                case VALUE:
+                    visitor.visit(name, readValue(in));
+                    break;
+                case ENUM:
+                    visitor.visitEnum(name, in.readUTF(), in.readUTF());
+                    break;
+                case NESTED_ANNOTATION:
+                    readAnnotation(in, visitor.visitAnnotation(name, in.readUTF()));
+                    break;
+                case ARRAY:
+                    readAnnotation(in, visitor.visitArray(name));
+                    break;
+                default:
+                    throw new IOException("corrupted backport175 annotation index");
+            }
+        }
+        visitor.visitEnd();
+    }
+
+    private static Object readValue(final DataInputStream in) throws IOException {
+        final int tag = in.readByte();
+        switch (tag) {
+            case BYTE:
+                return new Byte(in.readByte());
+            case BOOLEAN:
+                return new Boolean(in.readBoolean());
+            case CHAR:
+                return new Character(in.readChar());
+            case SHORT:
+                return new Short(in.readShort());
+            case INT:
+                return new Integer(in.readInt());
+            case LONG:
+                return new Long(in.readLong());
+            case FLOAT:
+                return new Float(in.readFloat());
+            case DOUBLE:
+                return new Double(in.readDouble());
+            case STRING:
+                return in.readUTF();
+            case TYPE:
+                return Type.getType(in.readUTF());
+            case ARRAY:
+                return readPrimitiveArray(in);
+            default:
+                throw new IOException("corrupted backport175 annotation index");
+        }
+    }
+
+    private static Object readPrimitiveArray(final DataInputStream in) throws IOException {
+        final int tag = in.readByte();
+        final int length = in.readInt();
+        switch (tag) {
+            case BYTE:
+                final byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                return bytes;
+            case BOOLEAN:
+                final boolean[] booleans = new boolean[length];
+                for (int i = 0; i < length; i++) {
+                    booleans[i] = in.readBoolean();
+                }
+                return booleans;
+            case CHAR:
+                final char[] chars = new char[length];
+                for (int i = 0; i < length; i++) {
+                    chars[i] = in.readChar();
+                }
+                return chars;
+            case SHORT:
+                final short[] shorts = new short[length];
+                for (int i = 0; i < length; i++) {
+                    shorts[i] = in.readShort();
+                }
+                return shorts;
+            case INT:
+                final int[] ints = new int[length];
+                for (int i = 0; i < length; i++) {
+                    ints[i] = in.readInt();
+                }
+                return ints;
+            case LONG:
+                final long[] longs = new long[length];
+                for (int i = 0; i < length; i++) {
+                    longs[i] = in.readLong();
+                }
+                return longs;
+            case FLOAT:
+                final float[] floats = new float[length];
+                for (int i = 0; i < length; i++) {
+                    floats[i] = in.readFloat();
+                }
+                return floats;
+            case DOUBLE:
+                final double[] doubles = new double[length];
+                for (int i = 0; i < length; i++) {
+                    doubles[i] = in.readDouble();
+                }
+                return doubles;
+            default:
+                throw new IOException("corrupted backport175 annotation index");
+        }
+    }
+
+    private static byte[] toByteArray(final InputStream in) throws IOException {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                ;// we don't care
+            }
+        }
+    }
+
+    private static String getIndexProperty() {
+        try {
+            return System.getProperty(INDEX_PROPERTY);
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Receives the annotations replayed from the index.
+     */
+    static interface Visitor {
+        AnnotationVisitor visitClassAnnotation(String desc);
+
+        AnnotationVisitor visitFieldAnnotation(String name, String desc, String annotationDesc);
+
+        AnnotationVisitor visitMethodAnnotation(String name, String desc, String annotationDesc);
+    }
+
+    /**
+     * Location of the annotation data of a class in the index file content.
+     */
+    private static class Entry {
+        final long lastModified;
+        final long classLength;
+        final int offset;
+        final int length;
+
+        Entry(final long lastModified, final long classLength, final int offset, final int length) {
+            this.lastModified = lastModified;
+            this.classLength = classLength;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The modification time and length of an index file or jar when checked.
+     */
+    private static class FileStamp {
+        final File file;
+        final long lastModified;
+        final long length;
+
+        /**
+         * @param file the index file or jar, or null if not a local file, it is then never modified
+         */
+        FileStamp(final File file) {
+            this.file = file;
+            this.lastModified = file != null ? file.lastModified() : 0L;
+            this.length = file != null ? file.length() : 0L;
+        }
+
+        boolean isModified() {
+            return file != null && (file.lastModified() != lastModified || file.length() != length);
+        }
+    }
+
+    /**
+     * The root URLs with an index of a class loader, and the write count when they were looked up.
+     */
+    private static class IndexRoots {
+        final Set roots;
+        final int writeCount;
+
+        IndexRoots(final Set roots, final int writeCount) {
+            this.roots = roots;
+            this.writeCount = writeCount;
+        }
+    }
+
+    /**
+     * Writes the annotation index of a class directory.
+     * <p/>
+     * The entries of an existing index are kept as long as their class file has not been modified since, and has the
+     * same length.
+     */
+    public static class Writer {
+
+        private final File m_file;
+
+        /**
+         * The entries, key is the class name ('/' separated), value is the class annotation data, sorted so that the
+         * index content does not depend on the compilation order
+         */
+        private final Map m_entries = new TreeMap();
+
+        /**
+         * Creates a writer for the index of the given class directory, loads the existing index if any.
+         *
+         * @param directory the class directory
+         */
+        public Writer(final File directory) {
+            m_file = new File(directory, INDEX_RESOURCE);
+            if (!m_file.isFile()) {
+                return;
+            }
+            try {
+                final byte[] data = toByteArray(new FileInputStream(m_file));
+                final AnnotationIndex index = new AnnotationIndex(data, readEntries(data), directory, new FileStamp(m_file));
+                for (Iterator it = index.m_entries.entrySet().iterator(); it.hasNext();) {
+                    final Map.Entry mapEntry = (Map.Entry) it.next();
+                    final String className = (String) mapEntry.getKey();
+                    final Entry entry = (Entry) mapEntry.getValue();
+                    if (entry.lastModified != 0L && index.isUpToDate(className, entry)) {
+                        final byte[] annotations = new byte[entry.length];
+                        System.arraycopy(data, entry.offset, annotations, 0, entry.length);
+                        m_entries.put(className, new WriterEntry(entry.lastModified, entry.classLength, annotations));
+                    }
+                }
+            } catch (IOException e) {
+                // unreadable index, rewritten from scratch
+            }
+        }
+
+        /**
+         * Adds or replaces the annotations of a class.
+         *
+         * @param className    the class name, either '.' or '/' separated
+         * @param bytecode     the class bytecode, as written in the class file
+         * @param lastModified the last modification time of the class file
+         * @return true if the class has been added, false if its annotations can not be indexed
+         */
+        public boolean addClass(final String className, final byte[] bytecode, final long lastModified) {
+            return addClass(className, bytecode, lastModified, bytecode.length);
+        }
+
+        /**
+         * Adds or replaces the annotations of a class.
+         *
+         * @param className    the class name, either '.' or '/' separated
+         * @param bytecode     the class bytecode
+         * @param lastModified the last modification time of the class file
+         * @param length       the length of the class file
+         * @return true if the class has been added, false if its annotations can not be indexed
+         */
+        public boolean addClass(final String className,
+                                final byte[] bytecode,
+                                final long lastModified,
+                                final long length) {
+            final String name = className.replace('.', '/');
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                new ClassReader(CodeStripper.stripCode(bytecode)).accept(new RecordingVisitor(out), true);
+                out.writeByte(END);
+                out.flush();
+            } catch (IOException e) {
+                m_entries.remove(name);
+                return false;
+            } catch (IllegalArgumentException e) {
+                // unsupported value
+                m_entries.remove(name);
+                return false;
+            }
+            m_entries.put(name, new WriterEntry(lastModified, length, bytes.toByteArray()));
+            return true;
+        }
+
+        /**
+         * Removes a class from the index.
+         *
+         * @param className the class name, either '.' or '/' separated
+         */
+        public void removeClass(final String className) {
+            m_entries.remove(className.replace('.', '/'));
+        }
+
+        /**
+         * Writes the index to disk.
+         *
+         * @throws IOException
+         */
+        public void write() throws IOException {
+            final File parent = m_file.getParentFile();
+            if (!parent.exists() && !parent.mkdirs()) {
+                throw new IOException("could not create dir structure needed to write file " + m_file + " to disk");
+            }
+            final OutputStream os = new FileOutputStream(m_file);
+            try {
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(m_entries.size());
+                for (Iterator it = m_entries.entrySet().iterator(); it.hasNext();) {
+                    final Map.Entry mapEntry = (Map.Entry) it.next();
+                    final WriterEntry entry = (WriterEntry) mapEntry.getValue();
+                    out.writeUTF((String) mapEntry.getKey());
+                    out.writeLong(entry.lastModified);
+                    out.writeLong(entry.classLength);
+                    out.writeInt(entry.annotations.length);
+                    out.write(entry.annotations);
+                }
+                out.flush();
+            } finally {
+                os.close();
+            }
+            synchronized (INDEX_ROOTS) {
+                WRITE_COUNT++;
+            }
+        }
+    }
+
+    private static class WriterEntry {
+        final long lastModified;
+        final long classLength;
+        final byte[] annotations;
+
+        WriterEntry(final long lastModified, final long classLength, final byte[] annotations) {
+            this.lastModified = lastModified;
+            this.classLength = classLength;
+            this.annotations = annotations;
+        }
+    }
+
+    /**
+     * Records the class and member annotations.
+     */
+    private static class RecordingVisitor extends NullVisitor {
+        private final DataOutputStream m_out;
+
+        RecordingVisitor(final DataOutputStream out) {
+            m_out = out;
+        }
+
+        public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
+            try {
+                m_out.writeByte(CLASS_ANNOTATION);
+                m_out.writeUTF(desc);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.toString());
+            }
+            return new RecordingAnnotationVisitor(m_out);
+        }
+
+        public FieldVisitor visitField(final int access,
+                                       final String name,
+                                       final String desc,
+                                       final String signature,
+                                       final Object value) {
+            return new NullVisitor() {
+                public AnnotationVisitor visitAnnotation(final String annotationDesc, final boolean visible) {
+                    return recordMemberAnnotation(FIELD_ANNOTATION, name, desc, annotationDesc);
+                }
+            };
+        }
+
+        public MethodVisitor visitMethod(final int access,
+                                         final String name,
+                                         final String desc,
+                                         final String signature,
+                                         final String[] exceptions) {
+            return new NullVisitor() {
+                public AnnotationVisitor visitAnnotation(final String annotationDesc, final boolean visible) {
+                    return recordMemberAnnotation(METHOD_ANNOTATION, name, desc, annotationDesc);
+                }
+            };
+        }
+
+        private AnnotationVisitor recordMemberAnnotation(final int tag,
+                                                         final String name,
+                                                         final String desc,
+                                                         final String annotationDesc) {
+            try {
+                m_out.writeByte(tag);
+                m_out.writeUTF(name);
+                m_out.writeUTF(desc);
+                m_out.writeUTF(annotationDesc);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.toString());
+            }
+            return new RecordingAnnotationVisitor(m_out);
+        }
+    }
+
+    /**
+     * Records an annotation body. ASM visits nested values depth first so they are written in place.
+     */
+    private static class RecordingAnnotationVisitor implements AnnotationVisitor {
+        private final DataOutputStream m_out;
+
+        RecordingAnnotationVisitor(final DataOutputStream out) {
+            m_out = out;
+        }
+
+        public void visit(final String name, final Object value) {
+            try {
+                writeTag(VALUE, name);
+                writeValue(value);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.toString());
+            }
+        }
+
+        public void visitEnum(final String name, final String desc, final String value) {
+            try {
+                writeTag(ENUM, name);
+                m_out.writeUTF(desc);
+                m_out.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.toString());
+            }
+        }
+
+        public AnnotationVisitor visitAnnotation(final String name, final String desc) {
+            try {
+                writeTag(NESTED_ANNOTATION, name);
+                m_out.writeUTF(desc);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.toString());
+            }
+            return this;
+        }
+
+        public AnnotationVisitor visitArray(final String name) {
+            try {
+                writeTag(ARRAY, name);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.toString());
+            }
+            return this;
+        }
+
+        public void visitEnd() {
+            try {
+                m_out.writeByte(END);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.toString());
+            }
+        }
+
+        private void writeTag(final int tag, final String name) throws IOException {
+            m_out.writeByte(tag);
+            m_out.writeBoolean(name != null);
+            if (name != null) {
+                m_out.writeUTF(name);
+            }
+        }
+
+        private void writeValue(final Object value) throws IOException {
+            if (value instanceof Byte) {
+                m_out.writeByte(BYTE);
+                m_out.writeByte(((Byte) value).byteValue());
+            } else if (value instanceof Boolean) {
+                m_out.writeByte(BOOLEAN);
+                m_out.writeBoolean(((Boolean) value).booleanValue());
+            } else if (value instanceof Character) {
+                m_out.writeByte(CHAR);
+                m_out.writeChar(((Character) value).charValue());
+            } else if (value instanceof Short) {
+                m_out.writeByte(SHORT);
+                m_out.writeShort(((Short) value).shortValue());
+            } else if (value instanceof Integer) {
+                m_out.writeByte(INT);
+                m_out.writeInt(((Integer) value).intValue());
+            } else if (value instanceof Long) {
+                m_out.writeByte(LONG);
+                m_out.writeLong(((Long) value).longValue());
+            } else if (value instanceof Float) {
+                m_out.writeByte(FLOAT);
+                m_out.writeFloat(((Float) value).floatValue());
+            } else if (value instanceof Double) {
+                m_out.writeByte(DOUBLE);
+                m_out.writeDouble(((Double) value).doubleValue());
+            } else if (value instanceof String) {
+                m_out.writeByte(STRING);
+                m_out.writeUTF((String) value);
+            } else if (value instanceof Type) {
+                m_out.writeByte(TYPE);
+                m_out.writeUTF(((Type) value).getDescriptor());
+            } else {
+                m_out.writeByte(ARRAY);
+                writePrimitiveArray(value);
+            }
+        }
+
+        private void writePrimitiveArray(final Object value) throws IOException {
+            if (value instanceof byte[]) {
+                final byte[] array = (byte[]) value;
+                writeArrayHeader(BYTE, array.length);
+                m_out.write(array);
+            } else if (value instanceof boolean[]) {
+                final boolean[] array = (boolean[]) value;
+                writeArrayHeader(BOOLEAN, array.length);
+                for (int i = 0; i < array.length; i++) {
+                    m_out.writeBoolean(array[i]);
+                }
+            } else if (value instanceof char[]) {
+                final char[] array = (char[]) value;
+                writeArrayHeader(CHAR, array.length);
+                for (int i = 0; i < array.length; i++) {
+                    m_out.writeChar(array[i]);
+                }
+            } else if (value instanceof short[]) {
+                final short[] array = (short[]) value;
+                writeArrayHeader(SHORT, array.length);
+                for (int i = 0; i < array.length; i++) {
+                    m_out.writeShort(array[i]);
+                }
+            } else if (value instanceof int[]) {
+                final int[] array = (int[]) value;
+                writeArrayHeader(INT, array.length);
+                for (int i = 0; i < array.length; i++) {
+                    m_out.writeInt(array[i]);
+                }
+            } else if (value instanceof long[]) {
+                final long[] array = (long[]) value;
+                writeArrayHeader(LONG, array.length);
+                for (int i = 0; i < array.length; i++) {
+                    m_out.writeLong(array[i]);
+                }
+            } else if (value instanceof float[]) {
+                final float[] array = (float[]) value;
+                writeArrayHeader(FLOAT, array.length);
+                for (int i = 0; i < array.length; i++) {
+                    m_out.writeFloat(array[i]);
+                }
+            } else if (value instanceof double[]) {
+                final double[] array = (double[]) value;
+                writeArrayHeader(DOUBLE, array.length);
+                for (int i = 0; i < array.length; i++) {
+                    m_out.writeDouble(array[i]);
+                }
+            } else {
+                throw new IllegalArgumentException("unsupported annotation value [" + value + "]");
+            }
+        }
+
+        private void writeArrayHeader(final int tag, final int length) throws IOException {
+            m_out.writeByte(tag);
+            m_out.writeInt(length);
+        }
+    }
+}
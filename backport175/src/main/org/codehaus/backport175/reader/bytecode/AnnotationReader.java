@@ -11,14 +11,17 @@ import org.objectweb.asm.*;
 import org.codehaus.backport175.reader.bytecode.spi.BytecodeProvider;
 import org.codehaus.backport175.reader.proxy.ProxyFactory;
 import org.codehaus.backport175.reader.Annotation;
+import org.codehaus.backport175.reader.AnnotationType;
 import org.codehaus.backport175.reader.ReaderException;
 
 import java.util.*;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
-import java.lang.ref.Reference;
 import java.lang.reflect.Method;
 import java.lang.reflect.Field;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
 
 /**
  * Reads Java 5 {@link java.lang.annotation.RetentionPolicy.RUNTIME} and
@@ -27,8 +30,8 @@ import java.lang.reflect.Constructor;
  * Can be used with a custom implementation of the {@link org.codehaus.backport175.reader.bytecode.spi.BytecodeProvider}
  * interface.
  * <p/>
- * Note: does not handles {@link java.lang.annotation.Inherited} feature. This has to be done in the higher level
- * that knows about the class hierarchy (see backport175.Annotations f.e)
+ * Note: does not handles {@link java.lang.annotation.Inherited} feature, except for the effective class annotations
+ * that are given the class to walk its hierarchy (see backport175.Annotations f.e)
  *
  * @author <a href="mailto:jboner@codehaus.org">Jonas Bonr</a>
  * @author <a href="mailto:alex AT gnilux DOT com">Alexandre Vasseur</a>
@@ -39,14 +42,69 @@ public class AnnotationReader {
     private static final AnnotationElement.Annotation[] EMPTY_ANNOTATION_ELEMENT_ARRAY =
             new AnnotationElement.Annotation[0];
     private static final String INIT_METHOD_NAME = "<init>";
+    private static final String INHERITED_ANNOTATION_NAME = "java.lang.annotation.Inherited";
 
     private static final Map CLASS_SPECIFIC_BYTECODE_PROVIDER = new WeakHashMap();
     private static BytecodeProvider BYTECODE_PROVIDER = new DefaultBytecodeProvider();
 
     /**
-     * Key is ClassKey, value is WeakReference of AnnotationReader 
+     * The annotation readers, per class loader and class name
      */
-    private static final Map READERS = new WeakHashMap();
+    private static final ReaderRegistry READERS = new ReaderRegistry();
+
+    /**
+     * System property to resolve all the annotations of a class when its reader is created
+     */
+    public static final String EAGER_RESOLUTION_PROPERTY = "backport175.reader.eager";
+
+    private static volatile boolean EAGER_RESOLUTION = "true".equals(getSystemProperty(EAGER_RESOLUTION_PROPERTY));
+
+    /**
+     * System properties for the limits of the reader registry, in number of readers and in estimated retained bytes,
+     * and for the eviction policy, <code>lru</code> (default) or <code>lfu</code>
+     */
+    public static final String MAX_READERS_PROPERTY = "backport175.reader.maxReaders";
+    public static final String MAX_RETAINED_BYTES_PROPERTY = "backport175.reader.maxRetainedBytes";
+    public static final String EVICTION_POLICY_PROPERTY = "backport175.reader.eviction";
+
+    public static final int EVICTION_LRU = ReaderRegistry.LRU;
+    public static final int EVICTION_LFU = ReaderRegistry.LFU;
+
+    /**
+     * Logical clock of the reader lookups, orders the accesses for the LRU eviction, incremented without
+     * synchronization since the order is approximate
+     */
+    private static long ACCESS_CLOCK = 0;
+
+    /**
+     * Rough estimates of the heap retained by a reader, used to bound the registry: the parsed elements and type
+     * indexes, then the annotation proxies, shared arrays and member keys as they are created
+     */
+    private static final int READER_SIZE = 2048;
+    private static final int MEMBER_SIZE = 128;
+    private static final int ANNOTATION_SIZE = 128;
+    private static final int VALUE_SIZE = 96;
+    private static final int TYPE_INDEX_SIZE = 32;
+    private static final int PROXY_SIZE = 160;
+    private static final int ARRAY_SIZE = 16;
+    private static final int REFERENCE_SIZE = 4;
+    private static final int MEMBER_KEY_SIZE = 96;
+
+    static {
+        try {
+            final String maxReaders = getSystemProperty(MAX_READERS_PROPERTY);
+            final String maxRetainedBytes = getSystemProperty(MAX_RETAINED_BYTES_PROPERTY);
+            READERS.setLimits(
+                    maxReaders == null ? 0 : Integer.parseInt(maxReaders.trim()),
+                    maxRetainedBytes == null ? 0 : Long.parseLong(maxRetainedBytes.trim())
+            );
+        } catch (RuntimeException e) {
+            // invalid limits, the registry stays unbounded
+        }
+        if ("lfu".equalsIgnoreCase(getSystemProperty(EVICTION_POLICY_PROPERTY))) {
+            READERS.setEvictionPolicy(ReaderRegistry.LFU);
+        }
+    }
 
     private final ClassKey m_classKey;
 
@@ -64,15 +122,108 @@ public class AnnotationReader {
     // annotations (reflective access is around 5 times slower)
     // ===========================================================================
 
-    private final Map m_classAnnotationElements = new HashMap();
-    private final Map m_constructorAnnotationElements = new HashMap();
-    private final Map m_methodAnnotationElements = new HashMap();
-    private final Map m_fieldAnnotationElements = new HashMap();
+    /**
+     * The annotations of the class, replaced as a whole when the reader is refreshed
+     */
+    private volatile Snapshot m_snapshot;
 
-    private final Map m_classAnnotationCache = new HashMap();
-    private final Map m_constructorAnnotationCache = new HashMap();
-    private final Map m_methodAnnotationCache = new HashMap();
-    private final Map m_fieldAnnotationCache = new HashMap();
+    /**
+     * The member keys of the constructors, methods and fields already looked up, weakly keyed by reflective member
+     */
+    private final MemberKeyCache m_memberKeys = new MemberKeyCache();
+
+    /**
+     * The estimated heap size retained by the reader, estimated on each parse and increased as its caches fill,
+     * guarded by the lock
+     */
+    private final Object m_retainedSizeLock = new Object();
+    private int m_retainedSize;
+
+    /**
+     * The access statistics of the registry eviction, updated without synchronization since they are approximate,
+     * the last access is the value of the access clock at the time of the access
+     */
+    private long m_lastAccess;
+    private int m_accessCount;
+
+    /**
+     * Sets the eager resolution mode, in which the readers resolve all the annotations of their class (nested
+     * annotations, enums and types included) when they are created or refreshed, instead of on first access.
+     * <p/>
+     * The annotations are then only read once the reader has been returned, which avoids resolving them on the first
+     * request and concurrently. A value that can not be resolved makes the reader creation fail.
+     * <p/>
+     * Only affects the readers created or refreshed afterwards. Defaults to the value of the system property
+     * <code>backport175.reader.eager</code>.
+     *
+     * @param eager true to resolve the annotations when the readers are created
+     */
+    public static void setEagerResolution(final boolean eager) {
+        EAGER_RESOLUTION = eager;
+    }
+
+    /**
+     * Checks if the readers resolve all the annotations when they are created.
+     *
+     * @return true if the annotations are resolved eagerly
+     */
+    public static boolean isEagerResolution() {
+        return EAGER_RESOLUTION;
+    }
+
+    /**
+     * Bounds the annotation reader registry. Once a limit is exceeded, the readers are evicted following the eviction
+     * policy. An evicted reader is created again, and its bytecode parsed again, on its next lookup.
+     * <p/>
+     * The retained bytes are a rough estimate, based on the number of annotated members, annotations and values.
+     * Defaults to the values of the system properties <code>backport175.reader.maxReaders</code> and
+     * <code>backport175.reader.maxRetainedBytes</code>, unbounded if not set.
+     *
+     * @param maxReaders       the maximum number of readers, 0 for unbounded
+     * @param maxRetainedBytes the maximum estimated retained bytes, 0 for unbounded
+     */
+    public static void setReaderLimits(final int maxReaders, final long maxRetainedBytes) {
+        READERS.setLimits(maxReaders, maxRetainedBytes);
+    }
+
+    /**
+     * Sets the order in which the readers are evicted when the registry is bounded.
+     * <p/>
+     * Defaults to the value of the system property <code>backport175.reader.eviction</code>.
+     *
+     * @param policy {@link #EVICTION_LRU} for the least recently used first or {@link #EVICTION_LFU} for the least
+     *               frequently used first
+     */
+    public static void setEvictionPolicy(final int policy) {
+        READERS.setEvictionPolicy(policy);
+    }
+
+    /**
+     * Returns the number of registered readers, an upper bound exact after each eviction.
+     *
+     * @return the reader count
+     */
+    public static int getReaderCount() {
+        return READERS.getReaderCount();
+    }
+
+    /**
+     * Returns the estimated bytes retained by the registered readers, an upper bound exact after each eviction.
+     *
+     * @return the retained bytes
+     */
+    public static long getRetainedBytes() {
+        return READERS.getRetainedBytes();
+    }
+
+    /**
+     * Returns the number of readers evicted from the registry so far.
+     *
+     * @return the eviction count
+     */
+    public static long getEvictionCount() {
+        return READERS.getEvictionCount();
+    }
 
     /**
      * Sets the bytecode provider.
@@ -168,7 +319,7 @@ public class AnnotationReader {
      * @return the annotation reader
      */
     public static AnnotationReader getReaderFor(final Class klass) {
-        return getReaderFor(new ClassKey(klass.getName(), klass.getClassLoader()));
+        return READERS.getReaderFor(klass.getName(), klass.getClassLoader());
     }
 
     /**
@@ -181,7 +332,7 @@ public class AnnotationReader {
      * @return the annotation reader
      */
     public static AnnotationReader getReaderFor(final String className, final ClassLoader loader) {
-        return getReaderFor(new ClassKey(className, loader));
+        return READERS.getReaderFor(className, loader);
     }
 
     /**
@@ -193,23 +344,7 @@ public class AnnotationReader {
      * @return the annotation reader
      */
     public static AnnotationReader getReaderFor(final ClassKey classKey) {
-        AnnotationReader reader;
-        Object value = READERS.get(classKey);
-        if (value == null) {
-            synchronized (READERS) {
-                reader = new AnnotationReader(classKey);
-                READERS.put(classKey, new WeakReference(reader));//reader strong refs its own key in the weakhahsmap..
-            }
-        } else {
-            reader = (AnnotationReader) ((Reference)value).get();
-            if (reader == null) {//WeakReference content can be null
-                synchronized (READERS) {
-                      reader = new AnnotationReader(classKey);
-                      READERS.put(classKey, new WeakReference(reader));
-                }
-            }
-        }
-        return reader;
+        return READERS.getReaderFor(classKey.getName(), classKey.getClassLoader());
     }
 
     /**
@@ -249,14 +384,90 @@ public class AnnotationReader {
      * This method calls <code>parse</code> and is therefore all the is needed to invoke to get a fully updated reader.
      */
     public static void refreshAll() {
-        for (Iterator it = READERS.values().iterator(); it.hasNext();) {
-            AnnotationReader reader = (AnnotationReader) ((Reference)it.next()).get();
-            synchronized (reader) {
-                reader.refresh();
+        for (Iterator it = READERS.getReaders().iterator(); it.hasNext();) {
+            refresh((AnnotationReader) it.next());
+        }
+    }
+
+    /**
+     * Resets *all* the annotation readers, in parallel, and triggers a new parsing of the newly read bytecode.
+     * <p/>
+     * Each reader keeps serving its current annotations until its new ones are read. All the readers are refreshed
+     * even if some fail, the first failure is then rethrown.
+     *
+     * @param threads the number of threads, 1 to refresh in the calling thread
+     */
+    public static void refreshAll(final int threads) {
+        if (threads <= 1) {
+            refreshAll();
+            return;
+        }
+        final Iterator readers = READERS.getReaders().iterator();
+        final Throwable[] failure = new Throwable[1];
+        final Thread[] workers = new Thread[threads];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread("backport175-refresh-" + i) {
+                public void run() {
+                    while (true) {
+                        final AnnotationReader reader;
+                        synchronized (readers) {
+                            if (!readers.hasNext()) {
+                                return;
+                            }
+                            reader = (AnnotationReader) readers.next();
+                        }
+                        try {
+                            refresh(reader);
+                        } catch (Throwable e) {
+                            synchronized (failure) {
+                                if (failure[0] == null) {
+                                    failure[0] = e;
+                                }
+                            }
+                        }
+                    }
+                }
+            };
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        boolean interrupted = false;
+        for (int i = 0; i < workers.length; i++) {
+            while (workers[i].isAlive()) {
+                try {
+                    workers[i].join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (failure) {
+            if (failure[0] instanceof RuntimeException) {
+                throw (RuntimeException) failure[0];
+            } else if (failure[0] instanceof Error) {
+                throw (Error) failure[0];
             }
         }
     }
 
+    /**
+     * Refreshes a reader, unless its class loader has been garbage collected.
+     *
+     * @param reader
+     */
+    private static void refresh(final AnnotationReader reader) {
+        if (reader.m_classKey.isClassLoaderCollected()) {
+            // released along with its class loader
+            return;
+        }
+        synchronized (reader) {
+            reader.refresh();
+        }
+    }
+
     /**
      * Converts the annotion class description to a Java class name.
      * Caution: Does not handles array type or primitive.
@@ -275,7 +486,7 @@ public class AnnotationReader {
      * @return true if the annotation is present else false
      */
     public boolean isAnnotationPresent(final String annotationName) {
-        return m_classAnnotationElements.containsKey(annotationName);
+        return m_snapshot.classAnnotationElements.containsKey(annotationName);
     }
 
     /**
@@ -285,21 +496,69 @@ public class AnnotationReader {
      * @return the class annotation
      */
     public Annotation getAnnotation(final String annotationName) {
-        Object cachedAnnotation = m_classAnnotationCache.get(annotationName);
-        if (cachedAnnotation != null) {
-            return (Annotation) cachedAnnotation;
-        } else {
-            final Annotation annotation;
-            final AnnotationElement.Annotation annotationInfo =
-                    (AnnotationElement.Annotation) m_classAnnotationElements.get(annotationName);
-            if (annotationInfo != null) {
-                annotation = ProxyFactory.newAnnotationProxy(annotationInfo, m_classKey.getClassLoader());
-                m_classAnnotationCache.put(annotationName, annotation);
-                return annotation;
-            } else {
-                return null;
+        return getAnnotation(m_snapshot, annotationName);
+    }
+
+    /**
+     * Checks if an annotation is present at a specific class.
+     *
+     * @param annotationType the interned annotation type
+     * @return true if the annotation is present else false
+     */
+    public boolean isAnnotationPresent(final AnnotationType annotationType) {
+        return m_snapshot.classTypes.isPresent(annotationType.getId());
+    }
+
+    /**
+     * Returns the class annotation of the type specified.
+     *
+     * @param annotationType the interned annotation type
+     * @return the class annotation or null
+     */
+    public Annotation getAnnotation(final AnnotationType annotationType) {
+        final Snapshot snapshot = m_snapshot;
+        final TypeIndex index = snapshot.classTypes;
+        final int id = annotationType.getId();
+        if (!index.isPresent(id)) {
+            return null;
+        }
+        final Annotation annotation = index.get(id);
+        if (annotation != null) {
+            return annotation;
+        }
+        return index.put(id, getAnnotation(snapshot, annotationType.getName()));
+    }
+
+    /**
+     * Returns the class annotation with the name specified.
+     *
+     * @param snapshot
+     * @param annotationName
+     * @return the class annotation
+     */
+    private Annotation getAnnotation(final Snapshot snapshot, final String annotationName) {
+        synchronized (snapshot.classAnnotationCache) {
+            final Object cachedAnnotation = snapshot.classAnnotationCache.get(annotationName);
+            if (cachedAnnotation != null) {
+                return (Annotation) cachedAnnotation;
+            }
+        }
+        final AnnotationElement.Annotation annotationInfo =
+                (AnnotationElement.Annotation) snapshot.classAnnotationElements.get(annotationName);
+        if (annotationInfo == null) {
+            return null;
+        }
+        final Annotation annotation = ProxyFactory.newAnnotationProxy(annotationInfo, m_classKey.getClassLoader());
+        synchronized (snapshot.classAnnotationCache) {
+            // the first annotation created wins, so that all the callers get the same instance
+            final Object cachedAnnotation = snapshot.classAnnotationCache.get(annotationName);
+            if (cachedAnnotation != null) {
+                return (Annotation) cachedAnnotation;
             }
+            snapshot.classAnnotationCache.put(annotationName, annotation);
         }
+        retain(snapshot, PROXY_SIZE);
+        return annotation;
     }
 
     /**
@@ -308,19 +567,225 @@ public class AnnotationReader {
      * @return an array with the class annotations
      */
     public Annotation[] getAnnotations() {
-        final Collection annotationNames = m_classAnnotationElements.keySet();
-        if (annotationNames.isEmpty()) {
-            return EMPTY_ANNOTATION_ARRAY;
+        return copy(getSharedAnnotations());
+    }
+
+    /**
+     * Returns all the class annotations, without copying them.
+     * <p/>
+     * The array is built once and shared by all the callers, it must not be modified.
+     *
+     * @return an array with the class annotations
+     */
+    public Annotation[] getSharedAnnotations() {
+        return getSharedAnnotations(m_snapshot);
+    }
+
+    /**
+     * Returns all the class annotations, without copying them.
+     *
+     * @param snapshot
+     * @return an array with the class annotations
+     */
+    private Annotation[] getSharedAnnotations(final Snapshot snapshot) {
+        final Annotation[] cachedAnnotations = snapshot.classAnnotationArray;
+        if (cachedAnnotations != null) {
+            return cachedAnnotations;
+        }
+        final Collection annotationNames = snapshot.classAnnotationElements.keySet();
+        Annotation[] annotations = EMPTY_ANNOTATION_ARRAY;
+        if (!annotationNames.isEmpty()) {
+            annotations = new Annotation[annotationNames.size()];
+            int i = 0;
+            for (Iterator iterator = annotationNames.iterator(); iterator.hasNext();) {
+                String annotationName = (String) iterator.next();
+                annotations[i++] = getAnnotation(snapshot, annotationName);
+            }
         }
-        final Annotation[] annotations = new Annotation[annotationNames.size()];
-        int i = 0;
-        for (Iterator iterator = annotationNames.iterator(); iterator.hasNext();) {
-            String annotationName = (String) iterator.next();
-            annotations[i++] = getAnnotation(annotationName);
+        synchronized (snapshot) {
+            if (snapshot.classAnnotationArray != null) {
+                return snapshot.classAnnotationArray;
+            }
+            snapshot.classAnnotationArray = annotations;
         }
+        retain(snapshot, ARRAY_SIZE + annotations.length * REFERENCE_SIZE);
         return annotations;
     }
 
+    /**
+     * Returns the class annotations along with the {@link java.lang.annotation.Inherited} annotations of the super
+     * classes, the annotations of the super classes first.
+     *
+     * @param klass the class of this reader, to walk its super classes
+     * @return an array with the class annotations and the inherited annotations
+     */
+    public Annotation[] getEffectiveAnnotations(final Class klass) {
+        return copy(getSharedEffectiveAnnotations(klass));
+    }
+
+    /**
+     * Returns the class annotations along with the {@link java.lang.annotation.Inherited} annotations of the super
+     * classes, without copying them.
+     * <p/>
+     * The annotations are computed once per snapshot, and computed again only when the effective annotations of the
+     * super class have changed, which is checked along the super class chain without locking. The array is shared
+     * and must not be modified.
+     *
+     * @param klass the class of this reader, to walk its super classes
+     * @return an array with the class annotations and the inherited annotations
+     */
+    public Annotation[] getSharedEffectiveAnnotations(final Class klass) {
+        return getEffectiveAnnotationsOf(klass).annotations;
+    }
+
+    /**
+     * Returns the effective annotations cached in the current snapshot, or computes them if they have not been or if
+     * they have been computed from other effective annotations of the super class.
+     *
+     * @param klass the class of this reader, to walk its super classes
+     * @return the effective annotations
+     */
+    private EffectiveAnnotations getEffectiveAnnotationsOf(final Class klass) {
+        final Snapshot snapshot = m_snapshot;
+        final Class superClass = klass.getSuperclass();
+        final EffectiveAnnotations parent = superClass == null
+                ? null : getReaderFor(superClass).getEffectiveAnnotationsOf(superClass);
+        final EffectiveAnnotations cached = snapshot.effectiveAnnotations;
+        if (cached != null && cached.parent == parent) {
+            return cached;
+        }
+        final Annotation[] declaredAnnotations = getSharedAnnotations(snapshot);
+        Annotation[] annotations = declaredAnnotations;
+        int inheritedCount = 0;
+        if (parent != null) {
+            final Annotation[] parents = parent.annotations;
+            final List inherited = new ArrayList(parents.length + declaredAnnotations.length);
+            for (int i = 0; i < parents.length; i++) {
+                if (isInherited(parents[i].annotationType())) {
+                    inherited.add(parents[i]);
+                }
+            }
+            inheritedCount = inherited.size();
+            if (inheritedCount > 0) {
+                for (int i = 0; i < declaredAnnotations.length; i++) {
+                    inherited.add(declaredAnnotations[i]);
+                }
+                annotations = (Annotation[]) inherited.toArray(new Annotation[inherited.size()]);
+            }
+        }
+        // concurrent computations are equivalent, the last one published wins
+        final EffectiveAnnotations effective = new EffectiveAnnotations(annotations, inheritedCount, parent);
+        snapshot.effectiveAnnotations = effective;
+        return effective;
+    }
+
+    /**
+     * Checks if an annotation is present at the class, or is an {@link java.lang.annotation.Inherited} annotation
+     * present at a super class.
+     * <p/>
+     * Only the annotation elements are checked, no annotation is created.
+     *
+     * @param annotationName the annotation name
+     * @param klass          the class of this reader, to walk its super classes
+     * @return true if the annotation is present else false
+     */
+    public boolean isEffectiveAnnotationPresent(final String annotationName, final Class klass) {
+        if (isAnnotationPresent(annotationName)) {
+            return true;
+        }
+        return isInheritedAnnotationPresent(annotationName, klass);
+    }
+
+    /**
+     * Checks if an annotation is present at the class, or is an {@link java.lang.annotation.Inherited} annotation
+     * present at a super class.
+     * <p/>
+     * Only the annotation elements are checked, no annotation is created.
+     *
+     * @param annotationType the interned annotation type
+     * @param klass          the class of this reader, to walk its super classes
+     * @return true if the annotation is present else false
+     */
+    public boolean isEffectiveAnnotationPresent(final AnnotationType annotationType, final Class klass) {
+        if (isAnnotationPresent(annotationType)) {
+            return true;
+        }
+        return isInheritedAnnotationPresent(annotationType.getName(), klass);
+    }
+
+    /**
+     * Checks if an {@link java.lang.annotation.Inherited} annotation is present at a super class, reading the
+     * annotation type from the bytecode rather than loading it.
+     *
+     * @param annotationName the annotation name
+     * @param klass          the class of this reader, to walk its super classes
+     * @return true if the annotation is present at a super class and is inherited
+     */
+    private static boolean isInheritedAnnotationPresent(final String annotationName, final Class klass) {
+        for (Class superClass = klass.getSuperclass(); superClass != null; superClass = superClass.getSuperclass()) {
+            if (getReaderFor(superClass).isAnnotationPresent(annotationName)) {
+                return getReaderFor(annotationName, klass.getClassLoader()).isAnnotationPresent(
+                        INHERITED_ANNOTATION_NAME
+                );
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the class annotation with the name specified, or the nearest {@link java.lang.annotation.Inherited}
+     * annotation with that name of the super classes.
+     *
+     * @param annotationName the annotation name
+     * @param klass          the class of this reader, to walk its super classes
+     * @return the class annotation or null
+     */
+    public Annotation getEffectiveAnnotation(final String annotationName, final Class klass) {
+        final Annotation annotation = getAnnotation(annotationName);
+        if (annotation != null) {
+            return annotation;
+        }
+        if (klass.getSuperclass() == null) {
+            return null;
+        }
+        final EffectiveAnnotations effective = getEffectiveAnnotationsOf(klass);
+        for (int i = effective.inheritedCount - 1; i >= 0; i--) {
+            if (effective.annotations[i].annotationType().getName().equals(annotationName)) {
+                return effective.annotations[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the class annotation of the type specified, or the nearest {@link java.lang.annotation.Inherited}
+     * annotation of that type of the super classes.
+     *
+     * @param annotationType the interned annotation type
+     * @param klass          the class of this reader, to walk its super classes
+     * @return the class annotation or null
+     */
+    public Annotation getEffectiveAnnotation(final AnnotationType annotationType, final Class klass) {
+        final Annotation annotation = getAnnotation(annotationType);
+        if (annotation != null) {
+            return annotation;
+        }
+        if (klass.getSuperclass() == null) {
+            return null;
+        }
+        return getEffectiveAnnotation(annotationType.getName(), klass);
+    }
+
+    /**
+     * Checks if an annotation is an {@link java.lang.annotation.Inherited} annotation.
+     *
+     * @param annotationType the annotation type
+     * @return true if the annotation is inherited
+     */
+    public static boolean isInherited(final Class annotationType) {
+        return getReaderFor(annotationType).isAnnotationPresent(INHERITED_ANNOTATION_NAME);
+    }
+
     /**
      * Checks if an annotation is present at a specific constructor.
      *
@@ -329,8 +794,8 @@ public class AnnotationReader {
      * @return true if the annotation is present else false
      */
     public boolean isAnnotationPresent(final String annotationName, final Constructor constructor) {
-        final AnnotationReader.MemberKey key = AnnotationReader.MemberKey.newConstructorKey(constructor);
-        Object map = m_constructorAnnotationElements.get(key);
+        final AnnotationReader.MemberKey key = getMemberKey(constructor);
+        Object map = m_snapshot.constructorAnnotationElements.get(key);
         if (map != null) {
             if (((Map) map).containsKey(annotationName)) {
                 return true;
@@ -347,7 +812,7 @@ public class AnnotationReader {
      * @return the constructor annotation
      */
     public Annotation getAnnotation(final String annotationName, final Constructor constructor) {
-        return getConstructorAnnotation(annotationName, MemberKey.newConstructorKey(constructor), constructor.getDeclaringClass().getClassLoader());
+        return getConstructorAnnotation(annotationName, getMemberKey(constructor), constructor.getDeclaringClass().getClassLoader());
     }
 
     /**
@@ -371,27 +836,49 @@ public class AnnotationReader {
      * @return
      */
     private Annotation getConstructorAnnotation(final String annotationName, final MemberKey constructorKey, final ClassLoader loader) {
-        Map annotationMap = getConstructorAnnotationCacheFor(constructorKey);
-        Object cachedAnnotation = annotationMap.get(annotationName);
-        if (cachedAnnotation != null) {
-            return (Annotation) cachedAnnotation;
-        }
-        // not in cache - create a new DP and put in cache
-        final Map annotations = (Map) m_constructorAnnotationElements.get(constructorKey);
-        if (annotations == null) {
-            // no such annotation
+        final Snapshot snapshot = m_snapshot;
+        return getMemberAnnotation(
+                snapshot, snapshot.constructorAnnotationElements, snapshot.constructorAnnotationCache, annotationName,
+                constructorKey, loader
+        );
+    }
+
+    /**
+     * Checks if an annotation is present at a specific constructor.
+     *
+     * @param annotationType the interned annotation type
+     * @param constructor    the java.lang.reflect.Constructor object to find the annotations on.
+     * @return true if the annotation is present else false
+     */
+    public boolean isAnnotationPresent(final AnnotationType annotationType, final Constructor constructor) {
+        final TypeIndex index = (TypeIndex) m_snapshot.constructorTypes.get(getMemberKey(constructor));
+        return index != null && index.isPresent(annotationType.getId());
+    }
+
+    /**
+     * Returns the constructor annotation of the type specified for the constructor specified.
+     *
+     * @param annotationType the interned annotation type
+     * @param constructor    the java.lang.reflect.Constructor object to find the annotation on.
+     * @return the constructor annotation or null
+     */
+    public Annotation getAnnotation(final AnnotationType annotationType, final Constructor constructor) {
+        final Snapshot snapshot = m_snapshot;
+        final MemberKey key = getMemberKey(constructor);
+        final TypeIndex index = (TypeIndex) snapshot.constructorTypes.get(key);
+        final int id = annotationType.getId();
+        if (index == null || !index.isPresent(id)) {
             return null;
         }
-        Object annotationElement = annotations.get(annotationName);
-        if (annotationElement != null) {
-            Annotation annotation = ProxyFactory.newAnnotationProxy(
-                    (AnnotationElement.Annotation) annotationElement,
-                    loader
-            );
-            annotationMap.put(annotationName, annotation);
+        final Annotation annotation = index.get(id);
+        if (annotation != null) {
             return annotation;
         }
-        return null;
+        return index.put(id, getMemberAnnotation(
+                snapshot, snapshot.constructorAnnotationElements, snapshot.constructorAnnotationCache,
+                annotationType.getName(), key,
+                constructor.getDeclaringClass().getClassLoader()
+        ));
     }
 
     /**
@@ -401,23 +888,40 @@ public class AnnotationReader {
      * @return an array with the constructor annotations
      */
     public Annotation[] getAnnotations(final Constructor constructor) {
-        final AnnotationReader.MemberKey key = AnnotationReader.MemberKey.newConstructorKey(constructor);
-        Object map = m_constructorAnnotationElements.get(key);
-        if (map != null) {
-            final Collection annotationNames = ((Map) map).keySet();
-            if (annotationNames.isEmpty()) {
-                return EMPTY_ANNOTATION_ARRAY;
-            }
-            final Annotation[] annotations = new Annotation[annotationNames.size()];
-            int i = 0;
-            for (Iterator iterator = annotationNames.iterator(); iterator.hasNext();) {
-                String annotationName = (String) iterator.next();
-                annotations[i++] = getAnnotation(annotationName, constructor);
-            }
-            return annotations;
-        } else {
-            return EMPTY_ANNOTATION_ARRAY;
-        }
+        return copy(getSharedAnnotations(constructor));
+    }
+
+    /**
+     * Returns all the constructor annotations, without copying them.
+     * <p/>
+     * The array is built once per constructor and shared by all the callers, it must not be modified.
+     *
+     * @param constructor the java.lang.reflect.Constructor object to find the annotations on.
+     * @return an array with the constructor annotations
+     */
+    public Annotation[] getSharedAnnotations(final Constructor constructor) {
+        return getSharedConstructorAnnotations(
+                m_snapshot, getMemberKey(constructor), constructor.getDeclaringClass().getClassLoader()
+        );
+    }
+
+    /**
+     * Returns all the constructor annotations, without copying them.
+     *
+     * @param snapshot
+     * @param key      the constructor key
+     * @param loader   the class loader
+     * @return an array with the constructor annotations
+     */
+    private Annotation[] getSharedConstructorAnnotations(final Snapshot snapshot, final MemberKey key, final ClassLoader loader) {
+        return getSharedMemberAnnotations(
+                snapshot,
+                snapshot.constructorAnnotationElements,
+                snapshot.constructorAnnotationCache,
+                snapshot.constructorAnnotationArrays,
+                key,
+                loader
+        );
     }
 
     /**
@@ -428,10 +932,10 @@ public class AnnotationReader {
      * @return true if the annotation is present else false
      */
     public boolean isAnnotationPresent(final String annotationName, final Method method) {
-        final AnnotationReader.MemberKey key = AnnotationReader.MemberKey.newMethodKey(method);
-        Object map = m_methodAnnotationElements.get(key);
+        final AnnotationReader.MemberKey key = getMemberKey(method);
+        Object map = m_snapshot.methodAnnotationElements.get(key);
         if (map != null) {
-            if (((Map) m_methodAnnotationElements.get(key)).containsKey(annotationName)) {
+            if (((Map) map).containsKey(annotationName)) {
                 return true;
             }
         }
@@ -448,7 +952,7 @@ public class AnnotationReader {
     public Annotation getAnnotation(final String annotationName, final Method method) {
         return getMethodAnnotation(
                 annotationName,
-                MemberKey.newMethodKey(method),
+                getMemberKey(method),
                 method.getDeclaringClass().getClassLoader()
         );
     }
@@ -479,27 +983,49 @@ public class AnnotationReader {
      * @return
      */
     private Annotation getMethodAnnotation(final String annotationName, final MemberKey methodKey, final ClassLoader loader) {
-        Map annotationMap = getMethodAnnotationCacheFor(methodKey);
-        Object cachedAnnotation = annotationMap.get(annotationName);
-        if (cachedAnnotation != null) {
-            return (Annotation) cachedAnnotation;
-        }
-        // not in cache - create a new DP and put in cache
-        final Map annotations = (Map) m_methodAnnotationElements.get(methodKey);
-        if (annotations == null) {
-            // no such annotation
+        final Snapshot snapshot = m_snapshot;
+        return getMemberAnnotation(
+                snapshot, snapshot.methodAnnotationElements, snapshot.methodAnnotationCache, annotationName,
+                methodKey, loader
+        );
+    }
+
+    /**
+     * Checks if an annotation is present at a specific method.
+     *
+     * @param annotationType the interned annotation type
+     * @param method         the java.lang.reflect.Method object to find the annotations on.
+     * @return true if the annotation is present else false
+     */
+    public boolean isAnnotationPresent(final AnnotationType annotationType, final Method method) {
+        final TypeIndex index = (TypeIndex) m_snapshot.methodTypes.get(getMemberKey(method));
+        return index != null && index.isPresent(annotationType.getId());
+    }
+
+    /**
+     * Returns the method annotation of the type specified for the method specified.
+     *
+     * @param annotationType the interned annotation type
+     * @param method         the java.lang.reflect.Method object to find the annotation on.
+     * @return the method annotation or null
+     */
+    public Annotation getAnnotation(final AnnotationType annotationType, final Method method) {
+        final Snapshot snapshot = m_snapshot;
+        final MemberKey key = getMemberKey(method);
+        final TypeIndex index = (TypeIndex) snapshot.methodTypes.get(key);
+        final int id = annotationType.getId();
+        if (index == null || !index.isPresent(id)) {
             return null;
         }
-        Object annotationElement = annotations.get(annotationName);
-        if (annotationElement != null) {
-            Annotation annotation = ProxyFactory.newAnnotationProxy(
-                    (AnnotationElement.Annotation) annotationElement,
-                    loader
-            );
-            annotationMap.put(annotationName, annotation);
+        final Annotation annotation = index.get(id);
+        if (annotation != null) {
             return annotation;
         }
-        return null;
+        return index.put(id, getMemberAnnotation(
+                snapshot, snapshot.methodAnnotationElements, snapshot.methodAnnotationCache,
+                annotationType.getName(), key,
+                method.getDeclaringClass().getClassLoader()
+        ));
     }
 
     /**
@@ -509,23 +1035,38 @@ public class AnnotationReader {
      * @return an array with the method annotations
      */
     public Annotation[] getAnnotations(final Method method) {
-        final AnnotationReader.MemberKey key = AnnotationReader.MemberKey.newMethodKey(method);
-        Object map = m_methodAnnotationElements.get(key);
-        if (map != null) {
-            final Collection annotationNames = ((Map) map).keySet();
-            if (annotationNames.isEmpty()) {
-                return EMPTY_ANNOTATION_ARRAY;
-            }
-            final Annotation[] annotations = new Annotation[annotationNames.size()];
-            int i = 0;
-            for (Iterator iterator = annotationNames.iterator(); iterator.hasNext();) {
-                String annotationName = (String) iterator.next();
-                annotations[i++] = getAnnotation(annotationName, method);
-            }
-            return annotations;
-        } else {
-            return EMPTY_ANNOTATION_ARRAY;
-        }
+        return copy(getSharedAnnotations(method));
+    }
+
+    /**
+     * Returns all the method annotations, without copying them.
+     * <p/>
+     * The array is built once per method and shared by all the callers, it must not be modified.
+     *
+     * @param method the java.lang.reflect.Method object to find the annotations on.
+     * @return an array with the method annotations
+     */
+    public Annotation[] getSharedAnnotations(final Method method) {
+        return getSharedMethodAnnotations(m_snapshot, getMemberKey(method), method.getDeclaringClass().getClassLoader());
+    }
+
+    /**
+     * Returns all the method annotations, without copying them.
+     *
+     * @param snapshot
+     * @param key      the method key
+     * @param loader   the class loader
+     * @return an array with the method annotations
+     */
+    private Annotation[] getSharedMethodAnnotations(final Snapshot snapshot, final MemberKey key, final ClassLoader loader) {
+        return getSharedMemberAnnotations(
+                snapshot,
+                snapshot.methodAnnotationElements,
+                snapshot.methodAnnotationCache,
+                snapshot.methodAnnotationArrays,
+                key,
+                loader
+        );
     }
 
     /**
@@ -536,8 +1077,8 @@ public class AnnotationReader {
      * @return true if the annotation is present else false
      */
     public boolean isAnnotationPresent(final String annotationName, final Field field) {
-        final AnnotationReader.MemberKey key = AnnotationReader.MemberKey.newFieldKey(field);
-        Object map = m_fieldAnnotationElements.get(key);
+        final AnnotationReader.MemberKey key = getMemberKey(field);
+        Object map = m_snapshot.fieldAnnotationElements.get(key);
         if (map != null) {
             if (((Map) map).containsKey(annotationName)) {
                 return true;
@@ -556,7 +1097,7 @@ public class AnnotationReader {
     public Annotation getAnnotation(final String annotationName, final Field field) {
         return getFieldAnnotation(
                 annotationName,
-                MemberKey.newFieldKey(field),
+                getMemberKey(field),
                 field.getDeclaringClass().getClassLoader()
         );
     }
@@ -587,27 +1128,49 @@ public class AnnotationReader {
      * @return
      */
     private Annotation getFieldAnnotation(final String annotationName, final MemberKey fieldKey, final ClassLoader loader) {
-        Map annotationMap = getFieldAnnotationCacheFor(fieldKey);
-        Object cachedAnnotation = annotationMap.get(annotationName);
-        if (cachedAnnotation != null) {
-            return (Annotation) cachedAnnotation;
-        }
-        // not in cache - create a new DP and put in cache
-        final Map annotations = (Map) m_fieldAnnotationElements.get(fieldKey);
-        if (annotations == null) {
-            // no such annotation
+        final Snapshot snapshot = m_snapshot;
+        return getMemberAnnotation(
+                snapshot, snapshot.fieldAnnotationElements, snapshot.fieldAnnotationCache, annotationName,
+                fieldKey, loader
+        );
+    }
+
+    /**
+     * Checks if an annotation is present at a specific field.
+     *
+     * @param annotationType the interned annotation type
+     * @param field          the java.lang.reflect.Field object to find the annotations on.
+     * @return true if the annotation is present else false
+     */
+    public boolean isAnnotationPresent(final AnnotationType annotationType, final Field field) {
+        final TypeIndex index = (TypeIndex) m_snapshot.fieldTypes.get(getMemberKey(field));
+        return index != null && index.isPresent(annotationType.getId());
+    }
+
+    /**
+     * Returns the field annotation of the type specified for the field specified.
+     *
+     * @param annotationType the interned annotation type
+     * @param field          the java.lang.reflect.Field object to find the annotation on.
+     * @return the field annotation or null
+     */
+    public Annotation getAnnotation(final AnnotationType annotationType, final Field field) {
+        final Snapshot snapshot = m_snapshot;
+        final MemberKey key = getMemberKey(field);
+        final TypeIndex index = (TypeIndex) snapshot.fieldTypes.get(key);
+        final int id = annotationType.getId();
+        if (index == null || !index.isPresent(id)) {
             return null;
         }
-        Object annotationElement = annotations.get(annotationName);
-        if (annotationElement != null) {
-            Annotation annotation = ProxyFactory.newAnnotationProxy(
-                    (AnnotationElement.Annotation) annotationElement,
-                    loader
-            );
-            annotationMap.put(annotationName, annotation);
+        final Annotation annotation = index.get(id);
+        if (annotation != null) {
             return annotation;
         }
-        return null;
+        return index.put(id, getMemberAnnotation(
+                snapshot, snapshot.fieldAnnotationElements, snapshot.fieldAnnotationCache,
+                annotationType.getName(), key,
+                field.getDeclaringClass().getClassLoader()
+        ));
     }
 
     /**
@@ -617,23 +1180,38 @@ public class AnnotationReader {
      * @return an array with the field annotations
      */
     public Annotation[] getAnnotations(final Field field) {
-        final AnnotationReader.MemberKey key = AnnotationReader.MemberKey.newFieldKey(field);
-        Object map = m_fieldAnnotationElements.get(key);
-        if (map != null) {
-            final Collection annotationNames = ((Map) map).keySet();
-            if (annotationNames.isEmpty()) {
-                return EMPTY_ANNOTATION_ARRAY;
-            }
-            final Annotation[] annotations = new Annotation[annotationNames.size()];
-            int i = 0;
-            for (Iterator iterator = annotationNames.iterator(); iterator.hasNext();) {
-                String annotationName = (String) iterator.next();
-                annotations[i++] = getAnnotation(annotationName, field);
-            }
-            return annotations;
-        } else {
-            return EMPTY_ANNOTATION_ARRAY;
-        }
+        return copy(getSharedAnnotations(field));
+    }
+
+    /**
+     * Returns all the field annotations, without copying them.
+     * <p/>
+     * The array is built once per field and shared by all the callers, it must not be modified.
+     *
+     * @param field the java.lang.reflect.Field object to find the annotations on.
+     * @return an array with the field annotations
+     */
+    public Annotation[] getSharedAnnotations(final Field field) {
+        return getSharedFieldAnnotations(m_snapshot, getMemberKey(field), field.getDeclaringClass().getClassLoader());
+    }
+
+    /**
+     * Returns all the field annotations, without copying them.
+     *
+     * @param snapshot
+     * @param key      the field key
+     * @param loader   the class loader
+     * @return an array with the field annotations
+     */
+    private Annotation[] getSharedFieldAnnotations(final Snapshot snapshot, final MemberKey key, final ClassLoader loader) {
+        return getSharedMemberAnnotations(
+                snapshot,
+                snapshot.fieldAnnotationElements,
+                snapshot.fieldAnnotationCache,
+                snapshot.fieldAnnotationArrays,
+                key,
+                loader
+        );
     }
 
     /**
@@ -643,7 +1221,7 @@ public class AnnotationReader {
      * @return the class annotation
      */
     public AnnotationElement.Annotation getAnnotationElement(final String annotationName) {
-        return (AnnotationElement.Annotation) m_classAnnotationElements.get(annotationName);
+        return (AnnotationElement.Annotation) m_snapshot.classAnnotationElements.get(annotationName);
     }
 
     /**
@@ -652,7 +1230,7 @@ public class AnnotationReader {
      * @return an array with the class annotations
      */
     public AnnotationElement.Annotation[] getAnnotationElements() {
-        final Collection annotations = m_classAnnotationElements.values();
+        final Collection annotations = m_snapshot.classAnnotationElements.values();
         if (annotations.isEmpty()) {
             return EMPTY_ANNOTATION_ELEMENT_ARRAY;
         }
@@ -668,7 +1246,7 @@ public class AnnotationReader {
      */
     public boolean isConstructorAnnotationPresent(final String annotationName, final String desc) {
         final AnnotationReader.MemberKey key = AnnotationReader.MemberKey.newConstructorKey(desc);
-        Object map = m_constructorAnnotationElements.get(key);
+        Object map = m_snapshot.constructorAnnotationElements.get(key);
         if (map != null) {
             if (((Map) map).containsKey(annotationName)) {
                 return true;
@@ -686,7 +1264,7 @@ public class AnnotationReader {
      */
     public AnnotationElement.Annotation getConstructorAnnotationElement(final String annotationName, final String desc) {
         final AnnotationReader.MemberKey key = AnnotationReader.MemberKey.newConstructorKey(desc);
-        final Map annotations = (Map) m_constructorAnnotationElements.get(key);
+        final Map annotations = (Map) m_snapshot.constructorAnnotationElements.get(key);
         if (annotations == null) {
             // no such annotation
             return null;
@@ -702,7 +1280,7 @@ public class AnnotationReader {
      */
     public AnnotationElement.Annotation[] getConstructorAnnotationElements(final String desc) {
         final AnnotationReader.MemberKey key = AnnotationReader.MemberKey.newConstructorKey(desc);
-        Object map = m_constructorAnnotationElements.get(key);
+        Object map = m_snapshot.constructorAnnotationElements.get(key);
         if (map != null) {
             final Collection annotations = ((Map) map).values();
             if (annotations.isEmpty()) {
@@ -724,7 +1302,7 @@ public class AnnotationReader {
      */
     public boolean isMethodAnnotationPresent(final String annotationName, final String name, final String desc) {
         final AnnotationReader.MemberKey key = AnnotationReader.MemberKey.newMethodKey(name, desc);
-        Object map = m_methodAnnotationElements.get(key);
+        Object map = m_snapshot.methodAnnotationElements.get(key);
         if (map != null) {
             if (((Map) map).containsKey(annotationName)) {
                 return true;
@@ -745,7 +1323,7 @@ public class AnnotationReader {
                                                                    final String name,
                                                                    final String desc) {
         final AnnotationReader.MemberKey key = AnnotationReader.MemberKey.newMethodKey(name, desc);
-        final Map annotations = (Map) m_methodAnnotationElements.get(key);
+        final Map annotations = (Map) m_snapshot.methodAnnotationElements.get(key);
         if (annotations == null) {
             // no such annotation
             return null;
@@ -762,9 +1340,9 @@ public class AnnotationReader {
      */
     public AnnotationElement.Annotation[] getMethodAnnotationElements(final String name, final String desc) {
         final AnnotationReader.MemberKey key = AnnotationReader.MemberKey.newMethodKey(name, desc);
-        Object map = m_methodAnnotationElements.get(key);
+        Object map = m_snapshot.methodAnnotationElements.get(key);
         if (map != null) {
-            final Collection annotations = ((Map) m_methodAnnotationElements.get(key)).values();
+            final Collection annotations = ((Map) map).values();
             if (annotations.isEmpty()) {
                 return EMPTY_ANNOTATION_ELEMENT_ARRAY;
             }
@@ -784,7 +1362,7 @@ public class AnnotationReader {
      */
     public boolean isFieldAnnotationPresent(final String annotationName, final String name, final String desc) {
         final AnnotationReader.MemberKey key = AnnotationReader.MemberKey.newFieldKey(name, desc);
-        Object map = m_fieldAnnotationElements.get(key);
+        Object map = m_snapshot.fieldAnnotationElements.get(key);
         if (map != null) {
             if (((Map) map).containsKey(annotationName)) {
                 return true;
@@ -805,7 +1383,7 @@ public class AnnotationReader {
                                                                   final String name,
                                                                   final String desc) {
         final AnnotationReader.MemberKey key = AnnotationReader.MemberKey.newFieldKey(name, desc);
-        final Map annotations = (Map) m_fieldAnnotationElements.get(key);
+        final Map annotations = (Map) m_snapshot.fieldAnnotationElements.get(key);
         if (annotations == null) {
             // no such annotation
             return null;
@@ -822,9 +1400,9 @@ public class AnnotationReader {
      */
     public AnnotationElement.Annotation[] getFieldAnnotationElements(final String name, final String desc) {
         final AnnotationReader.MemberKey key = AnnotationReader.MemberKey.newFieldKey(name, desc);
-        Object map = m_fieldAnnotationElements.get(key);
+        Object map = m_snapshot.fieldAnnotationElements.get(key);
         if (map != null) {
-            final Collection annotations = ((Map) m_fieldAnnotationElements.get(key)).values();
+            final Collection annotations = ((Map) map).values();
             if (annotations.isEmpty()) {
                 return EMPTY_ANNOTATION_ELEMENT_ARRAY;
             }
@@ -850,76 +1428,213 @@ public class AnnotationReader {
     }
 
     /**
-     * Returns the annotation cache for a specific constructor.
+     * Returns a copy of an annotation array.
+     *
+     * @param annotations the annotations
+     * @return the copy
+     */
+    private static Annotation[] copy(final Annotation[] annotations) {
+        if (annotations.length == 0) {
+            return annotations;
+        }
+        return (Annotation[]) annotations.clone();
+    }
+
+    /**
+     * Returns the annotation with the name specified for a constructor, method or field, creates it if not cached.
      *
-     * @param constructor the constructor
-     * @return the cache
+     * @param snapshot       the snapshot the elements and cache belong to
+     * @param elements       the annotation elements of the constructors, methods or fields
+     * @param cache          the annotations already created, per member key then annotation name
+     * @param annotationName the annotation name
+     * @param key            the member key
+     * @param loader         the class loader
+     * @return the annotation or null
      */
-    private Map getConstructorAnnotationCacheFor(final MemberKey constructor) {
-        Map annotationMap = (Map) m_constructorAnnotationCache.get(constructor);
-        if (annotationMap == null) {
-            annotationMap = new HashMap();
-            m_constructorAnnotationCache.put(constructor, annotationMap);
+    private Annotation getMemberAnnotation(final Snapshot snapshot,
+                                           final Map elements,
+                                           final Map cache,
+                                           final String annotationName,
+                                           final MemberKey key,
+                                           final ClassLoader loader) {
+        final Map annotations = (Map) elements.get(key);
+        if (annotations == null) {
+            // no such annotation
+            return null;
+        }
+        synchronized (cache) {
+            final Map annotationMap = (Map) cache.get(key);
+            if (annotationMap != null && annotationMap.containsKey(annotationName)) {
+                return (Annotation) annotationMap.get(annotationName);
+            }
+        }
+        final Object annotationElement = annotations.get(annotationName);
+        if (annotationElement == null) {
+            return null;
+        }
+        // not in cache - create a new DP and put in cache
+        final Annotation annotation = ProxyFactory.newAnnotationProxy(
+                (AnnotationElement.Annotation) annotationElement,
+                loader
+        );
+        synchronized (cache) {
+            Map annotationMap = (Map) cache.get(key);
+            if (annotationMap == null) {
+                annotationMap = new HashMap();
+                cache.put(key, annotationMap);
+            } else if (annotationMap.containsKey(annotationName)) {
+                // the first annotation created wins, so that all the callers get the same instance
+                return (Annotation) annotationMap.get(annotationName);
+            }
+            annotationMap.put(annotationName, annotation);
         }
-        return annotationMap;
+        retain(snapshot, PROXY_SIZE);
+        return annotation;
     }
 
     /**
-     * Returns the annotation cache for a specific method.
+     * Returns all the annotations of a constructor, method or field, without copying them.
      *
-     * @param method the method
-     * @return the cache
+     * @param snapshot the snapshot the elements, cache and arrays belong to
+     * @param elements the annotation elements of the constructors, methods or fields
+     * @param cache    the annotations already created
+     * @param arrays   the annotation arrays already built, per member key
+     * @param key      the member key
+     * @param loader   the class loader
+     * @return an array with the annotations
      */
-    private Map getMethodAnnotationCacheFor(final MemberKey method) {
-        Map annotationMap = (Map) m_methodAnnotationCache.get(method);
-        if (annotationMap == null) {
-            annotationMap = new HashMap();
-            m_methodAnnotationCache.put(method, annotationMap);
+    private Annotation[] getSharedMemberAnnotations(final Snapshot snapshot,
+                                                    final Map elements,
+                                                    final Map cache,
+                                                    final Map arrays,
+                                                    final MemberKey key,
+                                                    final ClassLoader loader) {
+        synchronized (arrays) {
+            final Object cachedAnnotations = arrays.get(key);
+            if (cachedAnnotations != null) {
+                return (Annotation[]) cachedAnnotations;
+            }
+        }
+        Annotation[] annotations = EMPTY_ANNOTATION_ARRAY;
+        final Map map = (Map) elements.get(key);
+        if (map != null && !map.isEmpty()) {
+            annotations = new Annotation[map.size()];
+            int i = 0;
+            for (Iterator iterator = map.keySet().iterator(); iterator.hasNext();) {
+                String annotationName = (String) iterator.next();
+                annotations[i++] = getMemberAnnotation(snapshot, elements, cache, annotationName, key, loader);
+            }
         }
-        return annotationMap;
+        synchronized (arrays) {
+            final Object cachedAnnotations = arrays.get(key);
+            if (cachedAnnotations != null) {
+                return (Annotation[]) cachedAnnotations;
+            }
+            arrays.put(key, annotations);
+        }
+        retain(snapshot, ARRAY_SIZE + annotations.length * REFERENCE_SIZE);
+        return annotations;
     }
 
     /**
-     * Returns the annotation cache for a specific field.
+     * Returns the member key of a constructor, method or field.
+     * <p/>
+     * The key is created once per member, later lookups do not compute the member signature again.
      *
-     * @param field the field
-     * @return the cache
+     * @param member the java.lang.reflect.Constructor, Method or Field
+     * @return the member key
      */
-    private Map getFieldAnnotationCacheFor(final MemberKey field) {
-        Map annotationMap = (Map) m_fieldAnnotationCache.get(field);
-        if (annotationMap == null) {
-            annotationMap = new HashMap();
-            m_fieldAnnotationCache.put(field, annotationMap);
+    private MemberKey getMemberKey(final Member member) {
+        final MemberKey key = m_memberKeys.get(member);
+        if (key != null) {
+            return key;
         }
-        return annotationMap;
+        retain(MEMBER_KEY_SIZE);
+        return m_memberKeys.add(member);
     }
 
     /**
      * Resets the annotation reader and triggers a new parsing of the newly read bytecode.
      * <p/>
-     * This method calls <code>parse</code> and is therefore all the is needed to invoke to get a fully updated reader.
+     * The annotations are read into a new snapshot, which replaces the current one once complete. The callers that
+     * already read the current snapshot keep using it, the lookups never see partial state. If the parsing or the
+     * eager resolution fails, the current snapshot is kept.
+     * <p/>
+     * Must be called while holding the reader lock, so that refreshes of the same reader do not interleave.
      */
     private void refresh() {
-        m_classAnnotationElements.clear();
-        m_constructorAnnotationElements.clear();
-        m_methodAnnotationElements.clear();
-        m_fieldAnnotationElements.clear();
-        m_classAnnotationCache.clear();
-        m_constructorAnnotationCache.clear();
-        m_methodAnnotationCache.clear();
-        m_fieldAnnotationCache.clear();
         AnnotationDefaults.refresh(m_classKey);
-        parse(m_classKey);
+        AnnotationIndex.refresh(m_classKey);
+        final Snapshot snapshot = parse(m_classKey);
+        if (EAGER_RESOLUTION) {
+            resolveAll(snapshot);
+        }
+        m_snapshot = snapshot;
+        // after the swap, the fills of the new snapshot are then either in the estimate or reported, or both
+        final int retainedSize = estimateRetainedSize(snapshot) + m_memberKeys.size() * MEMBER_KEY_SIZE;
+        final int previousRetainedSize;
+        synchronized (m_retainedSizeLock) {
+            previousRetainedSize = m_retainedSize;
+            m_retainedSize = retainedSize;
+        }
+        READERS.retainedSizeChanged(this, retainedSize - previousRetainedSize);
+    }
+
+    private static String getSystemProperty(final String name) {
+        try {
+            return System.getProperty(name);
+        } catch (SecurityException e) {
+            return null;
+        }
     }
 
     /**
      * Parses the class bytecode and retrieves the annotations.
      *
      * @param classKey
+     * @return a new snapshot with the annotation elements, indexed by annotation type
+     */
+    private Snapshot parse(final ClassKey classKey) {
+        final Snapshot snapshot = readElements(classKey);
+        snapshot.classTypes = new TypeIndex(snapshot.classAnnotationElements.keySet());
+        indexMembers(snapshot.constructorAnnotationElements, snapshot.constructorTypes);
+        indexMembers(snapshot.methodAnnotationElements, snapshot.methodTypes);
+        indexMembers(snapshot.fieldAnnotationElements, snapshot.fieldTypes);
+        return snapshot;
+    }
+
+    /**
+     * Builds the annotation type index of each constructor, method or field.
+     *
+     * @param elements the annotation elements, per member key then annotation name
+     * @param indexes  the type indexes to fill, per member key
+     */
+    private static void indexMembers(final Map elements, final Map indexes) {
+        for (Iterator it = elements.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry entry = (Map.Entry) it.next();
+            indexes.put(entry.getKey(), new TypeIndex(((Map) entry.getValue()).keySet()));
+        }
+    }
+
+    /**
+     * Reads the annotation elements from the annotation index or the class bytecode.
+     *
+     * @param classKey
+     * @return a new snapshot with the annotation elements
      */
-    private void parse(final ClassKey classKey) {
+    private Snapshot readElements(final ClassKey classKey) {
         final String className = classKey.getName();
         final ClassLoader loader = classKey.getClassLoader();
+        if (AnnotationIndex.ENABLED && getBytecodeProviderFor(className, loader) instanceof DefaultBytecodeProvider) {
+            final Snapshot snapshot = new Snapshot();
+            try {
+                if (AnnotationIndex.accept(className, loader, new IndexVisitor(snapshot))) {
+                    return snapshot;
+                }
+            } catch (IOException e) {
+                // corrupted index, parse the bytecode instead
+            }
+        }
         final byte[] bytes;
         try {
             bytes = getBytecodeFor(className, loader);
@@ -928,22 +1643,193 @@ public class AnnotationReader {
                     "could not retrieve the bytecode for class [" + className + "]", e
             );
         }
-        ClassReader classReader = new ClassReader(bytes);
-        ClassWriter writer = new ClassWriter(true);
-        classReader.accept(new AnnotationRetrievingVisitor(writer), false);
+        // only the annotations are read, the code is not needed
+        final Snapshot snapshot = new Snapshot();
+        ClassReader classReader = new ClassReader(CodeStripper.stripCode(bytes));
+        classReader.accept(new AnnotationRetrievingVisitor(snapshot), true);
+        return snapshot;
     }
 
     /**
      * Creates a new instance of the annotation reader, reads from the class specified.
+     * <p/>
+     * Use {@link #getReaderFor(ClassKey)} to retrieve the cached reader.
      *
      * @param classKey
      */
-    private AnnotationReader(final ClassKey classKey) {
+    AnnotationReader(final ClassKey classKey) {
         if (classKey == null) {
             throw new IllegalArgumentException("class info can not be null");
         }
         m_classKey = classKey;
-        parse(classKey);
+        final Snapshot snapshot = parse(classKey);
+        if (EAGER_RESOLUTION) {
+            resolveAll(snapshot);
+        }
+        m_snapshot = snapshot;
+        synchronized (m_retainedSizeLock) {
+            m_retainedSize = estimateRetainedSize(snapshot);
+        }
+    }
+
+    int getRetainedSize() {
+        synchronized (m_retainedSizeLock) {
+            return m_retainedSize;
+        }
+    }
+
+    long getLastAccess() {
+        return m_lastAccess;
+    }
+
+    int getAccessCount() {
+        return m_accessCount;
+    }
+
+    /**
+     * Records a lookup of the reader, for the registry eviction.
+     */
+    void recordAccess() {
+        m_lastAccess = ++ACCESS_CLOCK;
+        if (m_accessCount < Integer.MAX_VALUE) {
+            m_accessCount++;
+        }
+    }
+
+    /**
+     * Estimates the heap retained by the reader for a snapshot, with the annotations and arrays created so far.
+     *
+     * @param snapshot
+     * @return the estimated size in bytes
+     */
+    private static int estimateRetainedSize(final Snapshot snapshot) {
+        final int cachedSize;
+        synchronized (snapshot) {
+            cachedSize = snapshot.cachedSize;
+        }
+        return READER_SIZE +
+               TYPE_INDEX_SIZE + snapshot.classAnnotationElements.size() * (REFERENCE_SIZE * 2) +
+               estimateRetainedSize(snapshot.classAnnotationElements.values()) +
+               estimateMembersRetainedSize(snapshot.constructorAnnotationElements) +
+               estimateMembersRetainedSize(snapshot.methodAnnotationElements) +
+               estimateMembersRetainedSize(snapshot.fieldAnnotationElements) +
+               cachedSize;
+    }
+
+    private static int estimateMembersRetainedSize(final Map elements) {
+        int size = 0;
+        for (Iterator it = elements.values().iterator(); it.hasNext();) {
+            final Map annotations = (Map) it.next();
+            size += MEMBER_SIZE + TYPE_INDEX_SIZE + annotations.size() * (REFERENCE_SIZE * 2) +
+                    estimateRetainedSize(annotations.values());
+        }
+        return size;
+    }
+
+    /**
+     * Accounts for an annotation or annotation array added to the caches of a snapshot.
+     * <p/>
+     * Only the additions to the current snapshot increase the reader size, a new snapshot is estimated with its
+     * caches once it replaces the current one.
+     *
+     * @param snapshot
+     * @param size     the estimated size in bytes
+     */
+    private void retain(final Snapshot snapshot, final int size) {
+        synchronized (snapshot) {
+            snapshot.cachedSize += size;
+        }
+        if (snapshot == m_snapshot) {
+            retain(size);
+        }
+    }
+
+    /**
+     * Increases the estimated size of the reader, and of the registry.
+     *
+     * @param size the estimated size in bytes
+     */
+    private void retain(final int size) {
+        synchronized (m_retainedSizeLock) {
+            m_retainedSize += size;
+        }
+        READERS.retainedSizeChanged(this, size);
+    }
+
+    private static int estimateRetainedSize(final Collection annotations) {
+        int size = 0;
+        for (Iterator it = annotations.iterator(); it.hasNext();) {
+            final AnnotationElement.Annotation annotation = (AnnotationElement.Annotation) it.next();
+            size += ANNOTATION_SIZE + annotation.getElements().size() * VALUE_SIZE;
+        }
+        return size;
+    }
+
+    /**
+     * Creates the annotations of the class and of all its members, and resolves all their values.
+     */
+    void resolveAll() {
+        resolveAll(m_snapshot);
+    }
+
+    /**
+     * Creates the annotations of a snapshot, and resolves all their values.
+     *
+     * @param snapshot
+     */
+    private void resolveAll(final Snapshot snapshot) {
+        final ClassLoader loader = m_classKey.getClassLoader();
+        resolve(getSharedAnnotations(snapshot));
+        for (Iterator it = snapshot.constructorAnnotationElements.keySet().iterator(); it.hasNext();) {
+            resolve(getSharedConstructorAnnotations(snapshot, (MemberKey) it.next(), loader));
+        }
+        for (Iterator it = snapshot.methodAnnotationElements.keySet().iterator(); it.hasNext();) {
+            resolve(getSharedMethodAnnotations(snapshot, (MemberKey) it.next(), loader));
+        }
+        for (Iterator it = snapshot.fieldAnnotationElements.keySet().iterator(); it.hasNext();) {
+            resolve(getSharedFieldAnnotations(snapshot, (MemberKey) it.next(), loader));
+        }
+    }
+
+    /**
+     * Resolves the values of the annotations, by invoking all their elements, and of their nested annotations.
+     *
+     * @param annotations the annotations, the other values are skipped
+     */
+    private static void resolve(final Object[] annotations) {
+        for (int i = 0; i < annotations.length; i++) {
+            if (!(annotations[i] instanceof Annotation)) {
+                continue;
+            }
+            final Annotation annotation = (Annotation) annotations[i];
+            final Method[] elements = annotation.annotationType().getDeclaredMethods();
+            for (int j = 0; j < elements.length; j++) {
+                final Method element = elements[j];
+                if (element.getParameterTypes().length != 0) {
+                    continue;
+                }
+                final Object value;
+                try {
+                    element.setAccessible(true);
+                    value = element.invoke(annotation, new Object[0]);
+                } catch (InvocationTargetException e) {
+                    if (e.getTargetException() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getTargetException();
+                    }
+                    throw new ReaderException(
+                            "could not resolve annotation element [" + element + "]", e.getTargetException()
+                    );
+                } catch (IllegalAccessException e) {
+                    throw new ReaderException("could not resolve annotation element [" + element + "]", e);
+                }
+                if (value instanceof Annotation) {
+                    resolve(new Object[]{value});
+                } else if (value instanceof Object[]) {
+                    // nested annotation arrays are typed with the annotation interface
+                    resolve((Object[]) value);
+                }
+            }
+        }
     }
 
     /**
@@ -951,18 +1837,15 @@ public class AnnotationReader {
      *
      * @author <a href="mailto:jboner@codehaus.org">Jonas Bonr </a>
      */
-    private class AnnotationRetrievingVisitor extends ClassAdapter {
+    private class AnnotationRetrievingVisitor extends NullVisitor {
+        private final Snapshot m_target;
 
-        public AnnotationRetrievingVisitor(final ClassVisitor cv) {
-            super(cv);
+        AnnotationRetrievingVisitor(final Snapshot target) {
+            m_target = target;
         }
 
         public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
-            cv.visitAnnotation(desc, visible);
-            String annotationClassName = toJavaName(desc);
-            final AnnotationElement.Annotation annotation = new AnnotationElement.Annotation(annotationClassName);
-            m_classAnnotationElements.put(annotationClassName, annotation);
-            return createAnnotationVisitor(annotation);
+            return addClassAnnotation(m_target, desc);
         }
 
         public FieldVisitor visitField(final int access,
@@ -970,29 +1853,10 @@ public class AnnotationReader {
                                        final String desc,
                                        final String signature,
                                        final Object value) {
-            final FieldVisitor visitor = cv.visitField(access, name, desc, signature, value);
-
             final MemberKey key = new MemberKey(name, desc);
-            return new FieldVisitor() {
+            return new NullVisitor() {
                 public AnnotationVisitor visitAnnotation(final String desc, boolean visible) {
-                    final String className = toJavaName(desc);
-                    final AnnotationElement.Annotation annotation = new AnnotationElement.Annotation(className);
-                    if (m_fieldAnnotationElements.containsKey(key)) {
-                        ((Map) m_fieldAnnotationElements.get(key)).put(className, annotation);
-                    } else {
-                        final Map annotations = new HashMap();
-                        annotations.put(className, annotation);
-                        m_fieldAnnotationElements.put(key, annotations);
-                    }
-                    return createAnnotationVisitor(annotation);
-                }
-
-                public void visitAttribute(final Attribute attribute) {
-                    visitor.visitAttribute(attribute);
-                }
-
-                public void visitEnd() {
-                    visitor.visitEnd();
+                    return addMemberAnnotation(m_target.fieldAnnotationElements, key, desc);
                 }
             };
         }
@@ -1002,55 +1866,88 @@ public class AnnotationReader {
                                          final String desc,
                                          final String signature,
                                          final String[] exceptions) {
-            MethodVisitor visitor = cv.visitMethod(access, name, desc, signature, exceptions);
-
             final MemberKey key = new MemberKey(name, desc);
-            if (name.equals(INIT_METHOD_NAME)) {
-                return new MethodAdapter(visitor) {
-                    public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
-                        final String className = toJavaName(desc);
-                        final AnnotationElement.Annotation annotation = new AnnotationElement.Annotation(className);
-                        if (m_constructorAnnotationElements.containsKey(key)) {
-                            ((Map) m_constructorAnnotationElements.get(key)).put(className, annotation);
-                        } else {
-                            final Map annotations = new HashMap();
-                            annotations.put(className, annotation);
-                            m_constructorAnnotationElements.put(key, annotations);
-                        }
-                        return createAnnotationVisitor(annotation);
-                    }
-                };
+            final Map elements = name.equals(INIT_METHOD_NAME) ?
+                                 m_target.constructorAnnotationElements : m_target.methodAnnotationElements;
+            return new NullVisitor() {
+                public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
+                    return addMemberAnnotation(elements, key, desc);
+                }
+            };
+        }
+    }
 
-            } else {
-                return new MethodAdapter(visitor) {
-                    public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
-                        String className = toJavaName(desc);
-                        final AnnotationElement.Annotation annotation = new AnnotationElement.Annotation(className);
-                        if (m_methodAnnotationElements.containsKey(key)) {
-                            ((Map) m_methodAnnotationElements.get(key)).put(className, annotation);
-                        } else {
-                            final Map annotations = new HashMap();
-                            annotations.put(className, annotation);
-                            m_methodAnnotationElements.put(key, annotations);
-                        }
-                        return createAnnotationVisitor(annotation);
-                    }
-                };
-            }
+    /**
+     * Replays the annotations recorded in the annotation index of the class directory or jar.
+     */
+    private class IndexVisitor implements AnnotationIndex.Visitor {
+        private final Snapshot m_target;
+
+        IndexVisitor(final Snapshot target) {
+            m_target = target;
         }
 
-        /**
-         * Returns the annotation visitor to use.
-         * <p/>
-         * Swap to the 'tracing' visitor for simple debugging.
-         *
-         * @param annotation
-         * @return
-         */
-        public AnnotationVisitor createAnnotationVisitor(final AnnotationElement.Annotation annotation) {
-            return new AnnotationBuilderVisitor(annotation, m_classKey.getClassLoader(), annotation.getInterfaceName());
-//            return new TraceAnnotationVisitor();
+        public AnnotationVisitor visitClassAnnotation(final String desc) {
+            return addClassAnnotation(m_target, desc);
+        }
+
+        public AnnotationVisitor visitFieldAnnotation(final String name, final String desc, final String annotationDesc) {
+            return addMemberAnnotation(m_target.fieldAnnotationElements, new MemberKey(name, desc), annotationDesc);
+        }
+
+        public AnnotationVisitor visitMethodAnnotation(final String name, final String desc, final String annotationDesc) {
+            final Map elements = name.equals(INIT_METHOD_NAME) ?
+                                 m_target.constructorAnnotationElements : m_target.methodAnnotationElements;
+            return addMemberAnnotation(elements, new MemberKey(name, desc), annotationDesc);
+        }
+    }
+
+    /**
+     * Registers a class annotation.
+     *
+     * @param snapshot the snapshot being parsed
+     * @param desc     the annotation desc
+     * @return the visitor building the annotation element
+     */
+    private AnnotationVisitor addClassAnnotation(final Snapshot snapshot, final String desc) {
+        final String className = toJavaName(desc);
+        final AnnotationElement.Annotation annotation = new AnnotationElement.Annotation(className);
+        snapshot.classAnnotationElements.put(className, annotation);
+        return createAnnotationVisitor(annotation);
+    }
+
+    /**
+     * Registers a constructor, method or field annotation.
+     *
+     * @param elements the annotation elements of the constructors, methods or fields
+     * @param key      the member key
+     * @param desc     the annotation desc
+     * @return the visitor building the annotation element
+     */
+    private AnnotationVisitor addMemberAnnotation(final Map elements, final MemberKey key, final String desc) {
+        final String className = toJavaName(desc);
+        final AnnotationElement.Annotation annotation = new AnnotationElement.Annotation(className);
+        if (elements.containsKey(key)) {
+            ((Map) elements.get(key)).put(className, annotation);
+        } else {
+            final Map annotations = new HashMap();
+            annotations.put(className, annotation);
+            elements.put(key, annotations);
         }
+        return createAnnotationVisitor(annotation);
+    }
+
+    /**
+     * Returns the annotation visitor to use.
+     * <p/>
+     * Swap to the 'tracing' visitor for simple debugging.
+     *
+     * @param annotation
+     * @return
+     */
+    private AnnotationVisitor createAnnotationVisitor(final AnnotationElement.Annotation annotation) {
+        return new AnnotationBuilderVisitor(annotation, m_classKey.getClassLoader(), annotation.getInterfaceName());
+//        return new TraceAnnotationVisitor();
     }
 
     static class AnnotationBuilderVisitor implements AnnotationVisitor {
@@ -1112,76 +2009,158 @@ public class AnnotationReader {
         public void visitEnd() {
             // annotation default overrides
             if (m_annotationClassName != null) {
-                AnnotationElement.Annotation defaults = AnnotationDefaults.getDefaults(m_annotationClassName, m_loader);
-                AnnotationElement.Annotation annotation = (AnnotationElement.Annotation) m_nestedAnnotationElement;
-                for (Iterator iterator = defaults.getElements().iterator(); iterator.hasNext();) {
-                    AnnotationElement.NamedValue defaultedElement = (AnnotationElement.NamedValue) iterator.next();
-                    annotation.mergeDefaultedElement(defaultedElement);
-                }
+                AnnotationDefaults.mergeDefaults((AnnotationElement.Annotation) m_nestedAnnotationElement, m_loader);
             }
         }
 
         /**
          * Handles array of primitive values. The JSR-175 spec. only suppots one dimensional arrays.
+         * <p/>
+         * The array is stored as is, the elements are not boxed. The array is not shared with the callers, the
+         * annotations return copies of it.
          *
          * @param value
          * @param name
          */
         private void handlePrimitiveArrayValue(final Object value, final String name) {
-            if (value.getClass().getComponentType().isPrimitive()) {
-                // primitive array type
-                if (value instanceof String[]) {
-                    // string array
-                    m_nestedAnnotationElement.addElement(name, value);
-                } else {
-                    AnnotationElement.NestedAnnotationElement arrayElement = new AnnotationElement.Array();
-                    // non-string primitive array
-                    if (value instanceof int[]) {
-                        int[] array = (int[]) value;
-                        for (int i = 0; i < array.length; i++) {
-                            arrayElement.addElement(null, new Integer(array[i]));
-                        }
-                    } else if (value instanceof long[]) {
-                        long[] array = (long[]) value;
-                        for (int i = 0; i < array.length; i++) {
-                            arrayElement.addElement(null, new Long(array[i]));
-                        }
-                    } else if (value instanceof short[]) {
-                        short[] array = (short[]) value;
-                        for (int i = 0; i < array.length; i++) {
-                            arrayElement.addElement(null, new Short(array[i]));
-                        }
-                    } else if (value instanceof float[]) {
-                        float[] array = (float[]) value;
-                        for (int i = 0; i < array.length; i++) {
-                            arrayElement.addElement(null, new Float(array[i]));
-                        }
-                    } else if (value instanceof double[]) {
-                        double[] array = (double[]) value;
-                        for (int i = 0; i < array.length; i++) {
-                            arrayElement.addElement(null, new Double(array[i]));
-                        }
-                    } else if (value instanceof boolean[]) {
-                        boolean[] array = (boolean[]) value;
-                        for (int i = 0; i < array.length; i++) {
-                            arrayElement.addElement(null, new Boolean(array[i]));
-                        }
-                    } else if (value instanceof byte[]) {
-                        byte[] array = (byte[]) value;
-                        for (int i = 0; i < array.length; i++) {
-                            arrayElement.addElement(null, new Byte(array[i]));
-                        }
-                    } else if (value instanceof char[]) {
-                        char[] array = (char[]) value;
-                        for (int i = 0; i < array.length; i++) {
-                            arrayElement.addElement(null, new Character(array[i]));
-                        }
+            m_nestedAnnotationElement.addElement(name, value);
+        }
+    }
+
+    /**
+     * The annotation elements of a class, read from its bytecode, and the annotations created from them.
+     * <p/>
+     * The elements are not modified once the snapshot is published. The annotations are created lazily and cached,
+     * under the lock of their cache.
+     */
+    private static final class Snapshot {
+        final Map classAnnotationElements = new HashMap();
+        final Map constructorAnnotationElements = new HashMap();
+        final Map methodAnnotationElements = new HashMap();
+        final Map fieldAnnotationElements = new HashMap();
+
+        final Map classAnnotationCache = new HashMap();
+        final Map constructorAnnotationCache = new HashMap();
+        final Map methodAnnotationCache = new HashMap();
+        final Map fieldAnnotationCache = new HashMap();
+
+        /**
+         * The annotation arrays, built on first access and shared, the class array is published under the snapshot
+         * lock and read without it
+         */
+        volatile Annotation[] classAnnotationArray;
+        final Map constructorAnnotationArrays = new HashMap();
+        final Map methodAnnotationArrays = new HashMap();
+        final Map fieldAnnotationArrays = new HashMap();
+
+        /**
+         * The class annotations along with the inherited ones, read and published without locking
+         */
+        volatile EffectiveAnnotations effectiveAnnotations;
+
+        /**
+         * The estimated size of the annotations and arrays created so far, guarded by the snapshot
+         */
+        int cachedSize;
+
+        /**
+         * The annotation type indexes, built once the elements are read, the member ones per member key
+         */
+        TypeIndex classTypes;
+        final Map constructorTypes = new HashMap();
+        final Map methodTypes = new HashMap();
+        final Map fieldTypes = new HashMap();
+    }
+
+    /**
+     * The class annotations along with the inherited ones, and the effective annotations of the super class they have
+     * been computed from.
+     * <p/>
+     * A super class reader refreshed, or its own super class one, computes new effective annotations, so comparing
+     * the parent ones by identity tells if these are still up to date.
+     */
+    private static final class EffectiveAnnotations {
+        final Annotation[] annotations;
+        final int inheritedCount;
+        final EffectiveAnnotations parent;
+
+        EffectiveAnnotations(final Annotation[] annotations,
+                             final int inheritedCount,
+                             final EffectiveAnnotations parent) {
+            this.annotations = annotations;
+            this.inheritedCount = inheritedCount;
+            this.parent = parent;
+        }
+    }
+
+    /**
+     * The annotations of a class or member, indexed by {@link AnnotationType} id.
+     * <p/>
+     * The sorted ids of the annotation types present are built once, the annotations are added on first access in the
+     * array of the same length. The annotation array is copied on each addition so that it can be read without
+     * locking, a member has only a few annotations.
+     */
+    private static final class TypeIndex {
+        private static final int[] EMPTY_IDS = new int[0];
+
+        private final int[] m_ids;
+        private volatile Annotation[] m_annotations;
+
+        TypeIndex(final Collection annotationNames) {
+            if (annotationNames.isEmpty()) {
+                m_ids = EMPTY_IDS;
+                m_annotations = EMPTY_ANNOTATION_ARRAY;
+                return;
+            }
+            m_ids = new int[annotationNames.size()];
+            int i = 0;
+            for (Iterator it = annotationNames.iterator(); it.hasNext();) {
+                m_ids[i++] = AnnotationType.forName((String) it.next()).getId();
+            }
+            Arrays.sort(m_ids);
+            m_annotations = new Annotation[m_ids.length];
+        }
+
+        boolean isPresent(final int id) {
+            return indexOf(id) >= 0;
+        }
+
+        Annotation get(final int id) {
+            final int index = indexOf(id);
+            return index >= 0 ? m_annotations[index] : null;
+        }
+
+        /**
+         * Adds an annotation, unless one of the same type was added first.
+         *
+         * @param id         the annotation type id, must be present
+         * @param annotation the annotation
+         * @return the annotation of that type now in the index
+         */
+        synchronized Annotation put(final int id, final Annotation annotation) {
+            final int index = indexOf(id);
+            final Annotation[] annotations = m_annotations;
+            if (annotations[index] != null) {
+                return annotations[index];
+            }
+            final Annotation[] copy = new Annotation[annotations.length];
+            System.arraycopy(annotations, 0, copy, 0, annotations.length);
+            copy[index] = annotation;
+            m_annotations = copy;
+            return annotation;
+        }
+
+        private int indexOf(final int id) {
+            final int[] ids = m_ids;
+            if (ids.length <= 8) {
+                for (int i = 0; i < ids.length; i++) {
+                    if (ids[i] == id) {
+                        return i;
                     }
-                    m_nestedAnnotationElement.addElement(name, arrayElement);
                 }
-            } else {
-                m_nestedAnnotationElement.addElement(name, value);
+                return -1;
             }
+            return Arrays.binarySearch(ids, id);
         }
     }
 
@@ -1195,10 +2174,18 @@ public class AnnotationReader {
     public static class ClassKey {
         private final String m_name;
         private final WeakReference m_loaderRef;
+        private final boolean m_bootstrap;
+
+        /**
+         * Computed once, so that the key can still be found in a hash map after its class loader has been collected
+         */
+        private final int m_hashCode;
 
         public ClassKey(final String name, final ClassLoader loader) {
             m_name = name.replace('.', '/');
             m_loaderRef = new WeakReference(loader);
+            m_bootstrap = loader == null;
+            m_hashCode = 29 * m_name.hashCode() + (loader != null ? loader.hashCode() : 0);
         }
 
         public String getName() {
@@ -1209,6 +2196,15 @@ public class AnnotationReader {
             return (ClassLoader) m_loaderRef.get();
         }
 
+        /**
+         * Checks if the class loader has been garbage collected, in which case the class can not be read anymore.
+         *
+         * @return true if the class loader is not the bootstrap class loader and has been collected
+         */
+        public boolean isClassLoaderCollected() {
+            return !m_bootstrap && m_loaderRef.get() == null;
+        }
+
         public boolean equals(Object o) {
             if (this == o) {
                 return true;
@@ -1217,8 +2213,15 @@ public class AnnotationReader {
                 return false;
             }
             final ClassKey classKey = (ClassKey) o;
+            if (m_hashCode != classKey.m_hashCode || m_bootstrap != classKey.m_bootstrap) {
+                return false;
+            }
             ClassLoader loader1 = (ClassLoader) m_loaderRef.get();
             ClassLoader loader2 = (ClassLoader) classKey.m_loaderRef.get();
+            if (loader1 == null && !m_bootstrap) {
+                // the class loader has been collected, the key is only equal to itself
+                return false;
+            }
             if (loader1 != null ? !loader1.equals(loader2) : loader2 != null) {
                 return false;
             }
@@ -1229,11 +2232,7 @@ public class AnnotationReader {
         }
 
         public int hashCode() {
-            int result;
-            result = (m_name != null ? m_name.hashCode() : 0);
-            ClassLoader loader = (ClassLoader) m_loaderRef.get();
-            result = 29 * result + (loader != null ? loader.hashCode() : 0);
-            return result;
+            return m_hashCode;
         }
     }
 
@@ -0,0 +1,580 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package org.codehaus.backport175.reader.bytecode;
+
+import org.codehaus.backport175.reader.ReaderException;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Finds the classes and members carrying given annotations across a class path, e.g. a set of class directories and
+ * jars.
+ * <p/>
+ * The class files are streamed from the directories and jars and only their annotations are read: no class is loaded
+ * or defined, and no {@link AnnotationReader} is created. The annotated classes and members are reported as
+ * {@link AnnotatedMember}s to a {@link Callback} as soon as they are found.
+ * <p/>
+ * The class files can be read by several threads. The callback is then invoked from those threads, but never by two
+ * threads at the same time.
+ */
+public class AnnotationScanner {
+
+    private static final String CLASS_FILE_SUFFIX = ".class";
+
+    private static final String INIT_METHOD_NAME = "<init>";
+    private static final String CLINIT_METHOD_NAME = "<clinit>";
+
+    /**
+     * The annotation names ('.' separated), null to report all the annotations
+     */
+    private final Set m_annotationNames;
+
+    private final Callback m_callback;
+
+    /**
+     * The class files left to scan
+     */
+    private final ClassFileQueue m_queue;
+
+    /**
+     * The first error, rethrown once the scan is done
+     */
+    private Throwable m_error;
+
+    /**
+     * Callback for the annotated classes and members found by the scanner.
+     */
+    public static interface Callback {
+
+        /**
+         * Called for each annotation of a scanned class or member matching the scan.
+         *
+         * @param member the annotated class or member
+         */
+        void annotated(AnnotatedMember member);
+    }
+
+    /**
+     * Scans the class directories and jars for the classes and members carrying any of the given annotations.
+     *
+     * @param roots           the class directories and jars, the ones that do not exist are ignored
+     * @param annotationNames the annotation names, null to report all the annotations
+     * @param callback        the callback for the annotated classes and members
+     * @param threads         the number of threads reading the class files, 1 to read them in the calling thread
+     * @throws IOException if a directory or jar could not be read
+     */
+    public static void scan(final File[] roots,
+                            final String[] annotationNames,
+                            final Callback callback,
+                            final int threads) throws IOException {
+        if (roots == null) {
+            throw new IllegalArgumentException("roots can not be null");
+        }
+        if (callback == null) {
+            throw new IllegalArgumentException("callback can not be null");
+        }
+        new AnnotationScanner(roots, annotationNames, callback).run(threads);
+    }
+
+    /**
+     * Scans the class directories and jars for the classes and members carrying the given annotation.
+     *
+     * @param roots          the class directories and jars, the ones that do not exist are ignored
+     * @param annotationName the annotation name
+     * @return the annotated classes and members, as a list of {@link AnnotatedMember}
+     * @throws IOException if a directory or jar could not be read
+     */
+    public static List scan(final File[] roots, final String annotationName) throws IOException {
+        final List members = new ArrayList();
+        scan(
+                roots, new String[]{annotationName}, new Callback() {
+                    public void annotated(final AnnotatedMember member) {
+                        members.add(member);
+                    }
+                }, 1
+        );
+        return members;
+    }
+
+    /**
+     * Splits a class path into its directories and jars.
+     *
+     * @param classPath the class path, separated by the platform path separator
+     * @return the directories and jars
+     */
+    public static File[] getRoots(final String classPath) {
+        final List roots = new ArrayList();
+        int start = 0;
+        while (start <= classPath.length()) {
+            int end = classPath.indexOf(File.pathSeparatorChar, start);
+            if (end < 0) {
+                end = classPath.length();
+            }
+            if (end > start) {
+                roots.add(new File(classPath.substring(start, end)));
+            }
+            start = end + 1;
+        }
+        return (File[]) roots.toArray(new File[roots.size()]);
+    }
+
+    private AnnotationScanner(final File[] roots, final String[] annotationNames, final Callback callback) {
+        if (annotationNames != null) {
+            m_annotationNames = new HashSet();
+            for (int i = 0; i < annotationNames.length; i++) {
+                m_annotationNames.add(annotationNames[i].replace('/', '.'));
+            }
+        } else {
+            m_annotationNames = null;
+        }
+        m_callback = callback;
+        m_queue = new ClassFileQueue(roots);
+    }
+
+    /**
+     * Scans the class files, in the calling thread or in worker threads.
+     *
+     * @param threads the number of threads
+     * @throws IOException if a directory or jar could not be read
+     */
+    private void run(final int threads) throws IOException {
+        try {
+            if (threads <= 1) {
+                scanClassFiles();
+            } else {
+                final Thread[] workers = new Thread[threads];
+                for (int i = 0; i < threads; i++) {
+                    workers[i] = new Thread("backport175-scanner-" + i) {
+                        public void run() {
+                            scanClassFiles();
+                        }
+                    };
+                    workers[i].setDaemon(true);
+                    workers[i].start();
+                }
+                for (int i = 0; i < threads; i++) {
+                    try {
+                        workers[i].join();
+                    } catch (InterruptedException e) {
+                        m_queue.cancel();
+                        throw new ReaderException("annotation scan interrupted", e);
+                    }
+                }
+            }
+        } finally {
+            m_queue.close();
+        }
+        final Throwable error;
+        synchronized (this) {
+            error = m_error;
+        }
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        }
+    }
+
+    /**
+     * Scans the class files until there are none left or a scan failed.
+     */
+    private void scanClassFiles() {
+        try {
+            ClassFile classFile;
+            while ((classFile = m_queue.next()) != null) {
+                final byte[] bytes = classFile.read();
+                final List members;
+                try {
+                    final ScanningVisitor visitor = new ScanningVisitor();
+                    new ClassReader(CodeStripper.stripCode(bytes)).accept(visitor, true);
+                    members = visitor.m_members;
+                } catch (Exception e) {
+                    throw new ReaderException("could not scan the annotations of class file " + classFile, e);
+                }
+                if (!members.isEmpty()) {
+                    synchronized (m_callback) {
+                        for (int i = 0; i < members.size(); i++) {
+                            m_callback.annotated((AnnotatedMember) members.get(i));
+                        }
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            synchronized (this) {
+                if (m_error == null) {
+                    m_error = e;
+                }
+            }
+            m_queue.cancel();
+        }
+    }
+
+    /**
+     * Records the annotations of a class and its members that match the scan.
+     */
+    private class ScanningVisitor extends NullVisitor {
+
+        private final List m_members = new ArrayList();
+
+        private String m_className;
+
+        public void visit(final int version,
+                          final int access,
+                          final String name,
+                          final String signature,
+                          final String superName,
+                          final String[] interfaces) {
+            m_className = name.replace('/', '.');
+        }
+
+        public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
+            record(AnnotatedMember.CLASS, null, null, desc, visible);
+            return NullVisitor.INSTANCE;
+        }
+
+        public FieldVisitor visitField(final int access,
+                                       final String name,
+                                       final String desc,
+                                       final String signature,
+                                       final Object value) {
+            return new MemberVisitor(AnnotatedMember.FIELD, name, desc);
+        }
+
+        public MethodVisitor visitMethod(final int access,
+                                         final String name,
+                                         final String desc,
+                                         final String signature,
+                                         final String[] exceptions) {
+            if (CLINIT_METHOD_NAME.equals(name)) {
+                return NullVisitor.INSTANCE;
+            }
+            final int type = INIT_METHOD_NAME.equals(name) ? AnnotatedMember.CONSTRUCTOR : AnnotatedMember.METHOD;
+            return new MemberVisitor(type, name, desc);
+        }
+
+        private void record(final int type,
+                            final String name,
+                            final String desc,
+                            final String annotationDesc,
+                            final boolean visible) {
+            if (!visible) {
+                return;
+            }
+            final String annotationName = Type.getType(annotationDesc).getClassName();
+            if (m_annotationNames == null || m_annotationNames.contains(annotationName)) {
+                m_members.add(new AnnotatedMember(type, m_className, name, desc, annotationName));
+            }
+        }
+
+        /**
+         * Records the annotations of a field, method or constructor.
+         */
+        private class MemberVisitor extends NullVisitor {
+            private final int m_type;
+            private final String m_name;
+            private final String m_desc;
+
+            MemberVisitor(final int type, final String name, final String desc) {
+                m_type = type;
+                m_name = name;
+                m_desc = desc;
+            }
+
+            public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
+                record(m_type, m_name, m_desc, desc, visible);
+                return NullVisitor.INSTANCE;
+            }
+        }
+    }
+
+    /**
+     * A class annotated with, or declaring a member annotated with, one of the scanned annotations.
+     * <p/>
+     * Only holds names: the class is not loaded.
+     */
+    public static class AnnotatedMember {
+
+        public static final int CLASS = 0;
+        public static final int FIELD = 1;
+        public static final int METHOD = 2;
+        public static final int CONSTRUCTOR = 3;
+
+        private final int m_type;
+        private final String m_className;
+        private final String m_name;
+        private final String m_desc;
+        private final String m_annotationName;
+
+        AnnotatedMember(final int type,
+                        final String className,
+                        final String name,
+                        final String desc,
+                        final String annotationName) {
+            m_type = type;
+            m_className = className;
+            m_name = name;
+            m_desc = desc;
+            m_annotationName = annotationName;
+        }
+
+        /**
+         * Returns the type of the annotated element, one of CLASS, FIELD, METHOD or CONSTRUCTOR.
+         *
+         * @return the type
+         */
+        public int getType() {
+            return m_type;
+        }
+
+        /**
+         * Returns the name of the annotated class, or of the class declaring the annotated member.
+         *
+         * @return the class name, '.' separated
+         */
+        public String getClassName() {
+            return m_className;
+        }
+
+        /**
+         * Returns the name of the annotated member.
+         *
+         * @return the member name, "&lt;init&gt;" for a constructor, null for a class
+         */
+        public String getName() {
+            return m_name;
+        }
+
+        /**
+         * Returns the descriptor of the annotated member.
+         *
+         * @return the field or method descriptor, null for a class
+         */
+        public String getDesc() {
+            return m_desc;
+        }
+
+        /**
+         * Returns the name of the annotation.
+         *
+         * @return the annotation name, '.' separated
+         */
+        public String getAnnotationName() {
+            return m_annotationName;
+        }
+
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof AnnotatedMember)) {
+                return false;
+            }
+            final AnnotatedMember member = (AnnotatedMember) o;
+            return m_type == member.m_type &&
+                   m_className.equals(member.m_className) &&
+                   (m_name == null ? member.m_name == null : m_name.equals(member.m_name)) &&
+                   (m_desc == null ? member.m_desc == null : m_desc.equals(member.m_desc)) &&
+                   m_annotationName.equals(member.m_annotationName);
+        }
+
+        public int hashCode() {
+            int result = m_type;
+            result = 29 * result + m_className.hashCode();
+            result = 29 * result + (m_name != null ? m_name.hashCode() : 0);
+            result = 29 * result + (m_desc != null ? m_desc.hashCode() : 0);
+            result = 29 * result + m_annotationName.hashCode();
+            return result;
+        }
+
+        public String toString() {
+            final StringBuffer buf = new StringBuffer();
+            buf.append('@').append(m_annotationName).append(' ').append(m_className);
+            if (m_name != null) {
+                buf.append('.').append(m_name).append(m_desc);
+            }
+            return buf.toString();
+        }
+    }
+
+    /**
+     * A class file in a directory or jar.
+     */
+    private static class ClassFile {
+        private final File m_file;
+        private final ZipFile m_jar;
+        private final ZipEntry m_entry;
+
+        ClassFile(final File file) {
+            m_file = file;
+            m_jar = null;
+            m_entry = null;
+        }
+
+        ClassFile(final ZipFile jar, final ZipEntry entry) {
+            m_file = null;
+            m_jar = jar;
+            m_entry = entry;
+        }
+
+        byte[] read() throws IOException {
+            final InputStream in = m_file != null ? new FileInputStream(m_file) : m_jar.getInputStream(m_entry);
+            try {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(
+                        (int) (m_file != null ? m_file.length() : Math.max(m_entry.getSize(), 0))
+                );
+                final byte[] buffer = new byte[4096];
+                int length;
+                while ((length = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, length);
+                }
+                return out.toByteArray();
+            } finally {
+                in.close();
+            }
+        }
+
+        public String toString() {
+            return m_file != null ? m_file.getPath() : m_jar.getName() + '!' + m_entry.getName();
+        }
+    }
+
+    /**
+     * Hands out the class files of the directories and jars, walking them as the class files are taken.
+     */
+    private static class ClassFileQueue {
+
+        /**
+         * The roots left to walk
+         */
+        private final LinkedList m_roots = new LinkedList();
+
+        /**
+         * The directories left to walk in the current directory root
+         */
+        private final LinkedList m_directories = new LinkedList();
+
+        /**
+         * The class files of the last walked directory
+         */
+        private final LinkedList m_files = new LinkedList();
+
+        /**
+         * The opened jars, closed once the scan is done
+         */
+        private final List m_jars = new ArrayList();
+
+        /**
+         * The current jar and its entries
+         */
+        private ZipFile m_jar;
+        private Enumeration m_entries;
+
+        private boolean m_cancelled;
+
+        ClassFileQueue(final File[] roots) {
+            for (int i = 0; i < roots.length; i++) {
+                m_roots.add(roots[i]);
+            }
+        }
+
+        /**
+         * Returns the next class file.
+         *
+         * @return the class file, null if there are no class files left or the scan is cancelled
+         * @throws IOException if a jar could not be opened
+         */
+        synchronized ClassFile next() throws IOException {
+            while (!m_cancelled) {
+                if (!m_files.isEmpty()) {
+                    return new ClassFile((File) m_files.removeFirst());
+                }
+                if (m_entries != null) {
+                    while (m_entries.hasMoreElements()) {
+                        final ZipEntry entry = (ZipEntry) m_entries.nextElement();
+                        if (!entry.isDirectory() && entry.getName().endsWith(CLASS_FILE_SUFFIX)) {
+                            return new ClassFile(m_jar, entry);
+                        }
+                    }
+                    m_jar = null;
+                    m_entries = null;
+                }
+                if (!m_directories.isEmpty()) {
+                    walk((File) m_directories.removeFirst());
+                    continue;
+                }
+                if (m_roots.isEmpty()) {
+                    return null;
+                }
+                final File root = (File) m_roots.removeFirst();
+                if (root.isDirectory()) {
+                    m_directories.add(root);
+                } else if (root.isFile()) {
+                    m_jar = new ZipFile(root);
+                    m_jars.add(m_jar);
+                    m_entries = m_jar.entries();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Stops handing out class files.
+         */
+        synchronized void cancel() {
+            m_cancelled = true;
+        }
+
+        /**
+         * Closes the opened jars.
+         */
+        synchronized void close() {
+            for (int i = 0; i < m_jars.size(); i++) {
+                try {
+                    ((ZipFile) m_jars.get(i)).close();
+                } catch (IOException e) {
+                    ;// we don't care
+                }
+            }
+            m_jars.clear();
+        }
+
+        private void walk(final File directory) throws IOException {
+            final File[] files = directory.listFiles();
+            if (files == null) {
+                throw new IOException("could not list directory " + directory);
+            }
+            for (int i = 0; i < files.length; i++) {
+                final File file = files[i];
+                if (file.isDirectory()) {
+                    m_directories.add(file);
+                } else if (file.getName().endsWith(CLASS_FILE_SUFFIX)) {
+                    m_files.add(file);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,398 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package org.codehaus.backport175.reader.bytecode;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Bytecode provider that reads the class files straight from the class directory or jar of the class loader, and
+ * keeps the recently read bytecode in a bounded LRU cache.
+ * <p/>
+ * The class loader is only asked for the location of the class file. Class files in directories are read with a
+ * single read of their known size, and jars are opened once and kept open, their entries being read at their known
+ * size. Other locations are read through the class loader as done by the {@link DefaultBytecodeProvider}.
+ * <p/>
+ * The cached bytecode is read again if the class file or jar has been modified or has changed size, so that
+ * {@link AnnotationReader#refresh(Class)} sees the new bytecode. A modified jar is closed and opened again, and the
+ * bytecode cached from it is evicted.
+ * <p/>
+ * To be registered with {@link AnnotationReader#setDefaultBytecodeProvider}. The returned arrays are shared with the
+ * cache and must not be modified.
+ */
+public class CachingBytecodeProvider extends DefaultBytecodeProvider {
+
+    /**
+     * The default maximum size of the cached bytecode, in bytes
+     */
+    public static final int DEFAULT_MAX_CACHE_SIZE = 4 * 1024 * 1024;
+
+    private static final String CLASS_FILE_SUFFIX = ".class";
+    private static final String FILE_PROTOCOL = "file";
+    private static final String JAR_PROTOCOL = "jar";
+    private static final String JAR_SEPARATOR = "!/";
+
+    private final int m_maxCacheSize;
+
+    /**
+     * The cache entries, key is the class key, guarded by itself
+     */
+    private final Map m_entries = new HashMap();
+
+    /**
+     * The head of the doubly linked list of the cache entries, most recently used first
+     */
+    private final CacheEntry m_head = new CacheEntry(null, null, null, 0L, 0L);
+
+    private int m_cacheSize = 0;
+    private long m_hitCount = 0;
+    private long m_missCount = 0;
+
+    /**
+     * The open jars, key is the jar file path, value is the {@link OpenJar}, guarded by itself
+     */
+    private final Map m_jars = new HashMap();
+
+    /**
+     * Creates a provider caching up to {@link #DEFAULT_MAX_CACHE_SIZE} bytes of bytecode.
+     */
+    public CachingBytecodeProvider() {
+        this(DEFAULT_MAX_CACHE_SIZE);
+    }
+
+    /**
+     * Creates a provider.
+     *
+     * @param maxCacheSize the maximum size of the cached bytecode, in bytes
+     */
+    public CachingBytecodeProvider(final int maxCacheSize) {
+        if (maxCacheSize < 0) {
+            throw new IllegalArgumentException("cache size can not be negative");
+        }
+        m_maxCacheSize = maxCacheSize;
+        m_head.next = m_head;
+        m_head.previous = m_head;
+    }
+
+    /**
+     * Returns the bytecode for a specific class.
+     *
+     * @param className the fully qualified name of the class
+     * @param loader    the class loader that has loaded the class
+     * @return the bytecode, shared with the cache
+     */
+    public byte[] getBytecode(final String className, final ClassLoader loader) throws Exception {
+        final AnnotationReader.ClassKey key = new AnnotationReader.ClassKey(className, loader);
+        final CacheEntry entry;
+        synchronized (m_entries) {
+            entry = (CacheEntry) m_entries.get(key);
+        }
+        // the file is checked outside of the lock, it is a system call
+        final boolean upToDate = entry != null && entry.isUpToDate();
+        synchronized (m_entries) {
+            if (upToDate) {
+                m_hitCount++;
+                if (m_entries.get(key) == entry) {
+                    entry.unlink();
+                    entry.linkAfter(m_head);
+                }
+                return entry.bytes;
+            }
+            m_missCount++;
+            if (entry != null && m_entries.get(key) == entry) {
+                remove(entry);
+            }
+        }
+        return read(key, className, loader);
+    }
+
+    /**
+     * Returns the number of classes whose bytecode was found in the cache.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        synchronized (m_entries) {
+            return m_hitCount;
+        }
+    }
+
+    /**
+     * Returns the number of classes whose bytecode had to be read.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        synchronized (m_entries) {
+            return m_missCount;
+        }
+    }
+
+    /**
+     * Returns the size of the cached bytecode.
+     *
+     * @return the size in bytes
+     */
+    public int getCacheSize() {
+        synchronized (m_entries) {
+            return m_cacheSize;
+        }
+    }
+
+    /**
+     * Empties the cache and closes the open jars.
+     */
+    public void close() {
+        synchronized (m_entries) {
+            m_entries.clear();
+            m_head.next = m_head;
+            m_head.previous = m_head;
+            m_cacheSize = 0;
+        }
+        synchronized (m_jars) {
+            for (Iterator it = m_jars.values().iterator(); it.hasNext();) {
+                ((OpenJar) it.next()).close();
+            }
+            m_jars.clear();
+        }
+    }
+
+    /**
+     * Reads the bytecode of a class from its class directory or jar, and caches it.
+     *
+     * @param key
+     * @param className
+     * @param loader
+     * @return the bytecode
+     */
+    private byte[] read(final AnnotationReader.ClassKey key, final String className, final ClassLoader loader)
+            throws Exception {
+        final String resource = className.replace('.', '/') + CLASS_FILE_SUFFIX;
+        final URL url = loader != null ? loader.getResource(resource) : ClassLoader.getSystemResource(resource);
+        if (url == null) {
+            return super.getBytecode(className, loader);
+        }
+        final CacheEntry entry;
+        try {
+            if (FILE_PROTOCOL.equals(url.getProtocol())) {
+                final File file = new File(URLDecoder.decode(url.getFile()));
+                // the time stamp is taken first, a modification while reading is seen on the next access
+                final long lastModified = file.lastModified();
+                final long length = file.length();
+                entry = new CacheEntry(key, readFully(new FileInputStream(file), length), file, lastModified, length);
+            } else if (JAR_PROTOCOL.equals(url.getProtocol()) && url.getFile().startsWith(FILE_PROTOCOL + ':')) {
+                final String location = url.getFile();
+                final int separator = location.indexOf(JAR_SEPARATOR);
+                final OpenJar jar = getJar(URLDecoder.decode(new URL(location.substring(0, separator)).getFile()));
+                final ZipEntry zipEntry = jar.zip.getEntry(location.substring(separator + JAR_SEPARATOR.length()));
+                if (zipEntry == null) {
+                    return super.getBytecode(className, loader);
+                }
+                entry = new CacheEntry(
+                        key, readFully(jar.zip.getInputStream(zipEntry), zipEntry.getSize()),
+                        jar.file, jar.lastModified, jar.length
+                );
+            } else {
+                return super.getBytecode(className, loader);
+            }
+        } catch (IOException e) {
+            throw new Exception("could not read class [" + className + "] as byte array due to: " + e.toString());
+        }
+        cache(entry);
+        return entry.bytes;
+    }
+
+    /**
+     * Adds an entry to the cache and evicts the least recently used entries beyond the maximum size.
+     *
+     * @param entry
+     */
+    private void cache(final CacheEntry entry) {
+        if (entry.bytes.length > m_maxCacheSize) {
+            return;
+        }
+        synchronized (m_entries) {
+            final CacheEntry previous = (CacheEntry) m_entries.get(entry.key);
+            if (previous != null) {
+                remove(previous);
+            }
+            m_entries.put(entry.key, entry);
+            entry.linkAfter(m_head);
+            m_cacheSize += entry.bytes.length;
+            while (m_cacheSize > m_maxCacheSize) {
+                remove(m_head.previous);
+            }
+        }
+    }
+
+    /**
+     * Removes an entry from the cache, to be called while holding the cache lock.
+     *
+     * @param entry
+     */
+    private void remove(final CacheEntry entry) {
+        entry.unlink();
+        m_entries.remove(entry.key);
+        m_cacheSize -= entry.bytes.length;
+    }
+
+    /**
+     * Removes the entries read from a file from the cache.
+     *
+     * @param file the class file or jar
+     */
+    private void evict(final File file) {
+        synchronized (m_entries) {
+            for (CacheEntry entry = m_head.next; entry != m_head;) {
+                final CacheEntry next = entry.next;
+                if (file.equals(entry.file)) {
+                    remove(entry);
+                }
+                entry = next;
+            }
+        }
+    }
+
+    /**
+     * Returns an open jar, opens it if needed or if the jar file has been modified since it was opened.
+     * <p/>
+     * A modified jar is closed, a concurrent read of the previous jar may then fail as it would on the modified file.
+     *
+     * @param path the jar file path
+     * @return the jar
+     * @throws IOException
+     */
+    private OpenJar getJar(final String path) throws IOException {
+        final File file = new File(path);
+        final long lastModified = file.lastModified();
+        final long length = file.length();
+        final OpenJar previous;
+        final OpenJar jar;
+        synchronized (m_jars) {
+            previous = (OpenJar) m_jars.get(path);
+            if (previous != null && previous.lastModified == lastModified && previous.length == length) {
+                return previous;
+            }
+            jar = new OpenJar(file, new ZipFile(file), lastModified, length);
+            m_jars.put(path, jar);
+        }
+        if (previous != null) {
+            previous.close();
+            evict(previous.file);
+        }
+        return jar;
+    }
+
+    /**
+     * Reads a stream of known size and closes it.
+     *
+     * @param in
+     * @param size the size, or -1 if unknown
+     * @return the bytes
+     * @throws IOException
+     */
+    private byte[] readFully(final InputStream in, final long size) throws IOException {
+        try {
+            if (size < 0 || size > Integer.MAX_VALUE) {
+                return toByteArray(in);
+            }
+            final byte[] bytes = new byte[(int) size];
+            int length = 0;
+            while (length < bytes.length) {
+                final int n = in.read(bytes, length, bytes.length - length);
+                if (n == -1) {
+                    throw new IOException("unexpected end of class file");
+                }
+                length += n;
+            }
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * An open jar, with the modification time and length of the jar file when opened.
+     */
+    private static final class OpenJar {
+        final File file;
+        final ZipFile zip;
+        final long lastModified;
+        final long length;
+
+        OpenJar(final File file, final ZipFile zip, final long lastModified, final long length) {
+            this.file = file;
+            this.zip = zip;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        void close() {
+            try {
+                zip.close();
+            } catch (IOException e) {
+                ;// we don't care
+            }
+        }
+    }
+
+    /**
+     * Cached bytecode, linked in the LRU list.
+     */
+    private static final class CacheEntry {
+        final AnnotationReader.ClassKey key;
+        final byte[] bytes;
+
+        /**
+         * The class file or jar the bytecode was read from, and its modification time and length when read
+         */
+        final File file;
+        final long lastModified;
+        final long length;
+
+        CacheEntry previous;
+        CacheEntry next;
+
+        CacheEntry(final AnnotationReader.ClassKey key,
+                   final byte[] bytes,
+                   final File file,
+                   final long lastModified,
+                   final long length) {
+            this.key = key;
+            this.bytes = bytes;
+            this.file = file;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        boolean isUpToDate() {
+            return file.lastModified() == lastModified && file.length() == length;
+        }
+
+        void unlink() {
+            previous.next = next;
+            next.previous = previous;
+        }
+
+        void linkAfter(final CacheEntry entry) {
+            previous = entry;
+            next = entry.next;
+            entry.next.previous = this;
+            entry.next = this;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package org.codehaus.backport175.reader.bytecode;
+
+/**
+ * Removes the method code from a class file, for the readers that only need the annotations.
+ * <p/>
+ * ASM visits the code of every method, even if the visitor ignores it. Without the Code attributes (that also hold
+ * the line numbers and local variables), the class is read without decoding any instruction. The constant pool, the
+ * fields, the other method attributes and the class attributes are copied unchanged.
+ */
+final class CodeStripper {
+
+    private static final byte[] CODE = new byte[]{'C', 'o', 'd', 'e'};
+
+    // constant pool tags
+    private static final int UTF8 = 1;
+    private static final int INTEGER = 3;
+    private static final int FLOAT = 4;
+    private static final int LONG = 5;
+    private static final int DOUBLE = 6;
+    private static final int CLASS = 7;
+    private static final int STRING = 8;
+    private static final int FIELD_REF = 9;
+    private static final int METHOD_REF = 10;
+    private static final int INTERFACE_METHOD_REF = 11;
+    private static final int NAME_AND_TYPE = 12;
+    private static final int METHOD_HANDLE = 15;
+    private static final int METHOD_TYPE = 16;
+    private static final int INVOKE_DYNAMIC = 18;
+
+    private CodeStripper() {
+    }
+
+    /**
+     * Returns the class file without the method code.
+     *
+     * @param bytes the class file
+     * @return the class file without the Code attributes, or the given class file if it has no code or can not be
+     *         understood
+     */
+    static byte[] stripCode(final byte[] bytes) {
+        try {
+            return doStripCode(bytes);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // truncated class file, reported by the class reader
+            return bytes;
+        }
+    }
+
+    private static byte[] doStripCode(final byte[] b) {
+        // magic, version
+        int index = 8;
+        final int constantPoolCount = readUnsignedShort(b, index);
+        index += 2;
+        int codeIndex = -1;
+        for (int i = 1; i < constantPoolCount; i++) {
+            switch (b[index]) {
+                case UTF8:
+                    final int length = readUnsignedShort(b, index + 1);
+                    if (codeIndex < 0 && isCode(b, index + 3, length)) {
+                        codeIndex = i;
+                    }
+                    index += 3 + length;
+                    break;
+                case LONG:
+                case DOUBLE:
+                    index += 9;
+                    i++;
+                    break;
+                case INTEGER:
+                case FLOAT:
+                case FIELD_REF:
+                case METHOD_REF:
+                case INTERFACE_METHOD_REF:
+                case NAME_AND_TYPE:
+                case INVOKE_DYNAMIC:
+                    index += 5;
+                    break;
+                case METHOD_HANDLE:
+                    index += 4;
+                    break;
+                case CLASS:
+                case STRING:
+                case METHOD_TYPE:
+                    index += 3;
+                    break;
+                default:
+                    return b;
+            }
+        }
+        if (codeIndex < 0) {
+            // no code
+            return b;
+        }
+
+        // access, this, super, interfaces
+        index += 6;
+        index += 2 + 2 * readUnsignedShort(b, index);
+        // fields
+        int count = readUnsignedShort(b, index);
+        index += 2;
+        for (int i = 0; i < count; i++) {
+            index = skipAttributes(b, index + 6);
+        }
+
+        // methods, copied without their Code attribute
+        count = readUnsignedShort(b, index);
+        index += 2;
+        final byte[] stripped = new byte[b.length];
+        System.arraycopy(b, 0, stripped, 0, index);
+        int strippedIndex = index;
+        for (int i = 0; i < count; i++) {
+            // access, name, desc
+            System.arraycopy(b, index, stripped, strippedIndex, 6);
+            index += 6;
+            strippedIndex += 6;
+            final int countIndex = strippedIndex;
+            int attributeCount = readUnsignedShort(b, index);
+            index += 2;
+            strippedIndex += 2;
+            for (int j = readUnsignedShort(b, index - 2); j > 0; j--) {
+                final int attributeLength = 6 + readInt(b, index + 2);
+                if (readUnsignedShort(b, index) == codeIndex) {
+                    attributeCount--;
+                } else {
+                    System.arraycopy(b, index, stripped, strippedIndex, attributeLength);
+                    strippedIndex += attributeLength;
+                }
+                index += attributeLength;
+            }
+            stripped[countIndex] = (byte) (attributeCount >>> 8);
+            stripped[countIndex + 1] = (byte) attributeCount;
+        }
+
+        // class attributes
+        System.arraycopy(b, index, stripped, strippedIndex, b.length - index);
+        strippedIndex += b.length - index;
+
+        final byte[] result = new byte[strippedIndex];
+        System.arraycopy(stripped, 0, result, 0, strippedIndex);
+        return result;
+    }
+
+    private static int skipAttributes(final byte[] b, int index) {
+        int count = readUnsignedShort(b, index);
+        index += 2;
+        for (; count > 0; count--) {
+            index += 6 + readInt(b, index + 2);
+        }
+        return index;
+    }
+
+    private static boolean isCode(final byte[] b, final int index, final int length) {
+        if (length != CODE.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (b[index + i] != CODE[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readUnsignedShort(final byte[] b, final int index) {
+        return ((b[index] & 0xFF) << 8) | (b[index + 1] & 0xFF);
+    }
+
+    private static int readInt(final byte[] b, final int index) {
+        return ((b[index] & 0xFF) << 24) | ((b[index + 1] & 0xFF) << 16)
+               | ((b[index + 2] & 0xFF) << 8) | (b[index + 3] & 0xFF);
+    }
+}
@@ -55,12 +55,14 @@ public class DefaultBytecodeProvider implements BytecodeProvider {
 
     /**
      * Reads in the bytecode stream and returns a byte[] array.
+     * <p/>
+     * The buffer is sized from the available bytes and doubled while the stream has more.
      *
      * @param in
      * @return
      * @throws IOException
      */
-    private byte[] toByteArray(final InputStream in) throws IOException {
+    protected byte[] toByteArray(final InputStream in) throws IOException {
         byte[] bytes = new byte[in.available()];
         int len = 0;
         while (true) {
@@ -75,7 +77,7 @@ public class DefaultBytecodeProvider implements BytecodeProvider {
             }
             len += n;
             if (len == bytes.length) {
-                byte[] c = new byte[bytes.length + 1000];
+                byte[] c = new byte[Math.max(bytes.length * 2, 1024)];
                 System.arraycopy(bytes, 0, c, 0, len);
                 bytes = c;
             }
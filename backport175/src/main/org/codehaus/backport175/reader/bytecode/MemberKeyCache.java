@@ -0,0 +1,143 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package org.codehaus.backport175.reader.bytecode;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+
+/**
+ * The member keys of the constructors, methods and fields of a class, by reflective member.
+ * <p/>
+ * The members are weakly referenced: they reference their class and so its class loader, which must not be kept
+ * alive by the readers. Lookups do not take any lock and do not allocate, the hash table of immutable chain nodes is
+ * updated under the cache lock and published through the volatile table reference, as in the reader registry.
+ */
+final class MemberKeyCache {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Queue of the nodes whose member has been garbage collected
+     */
+    private final ReferenceQueue m_queue = new ReferenceQueue();
+
+    private volatile Node[] m_table = new Node[INITIAL_CAPACITY];
+
+    /**
+     * Number of entries, guarded by this
+     */
+    private int m_count = 0;
+
+    /**
+     * Returns the cached member key of a constructor, method or field.
+     *
+     * @param member the java.lang.reflect.Constructor, Method or Field
+     * @return the member key, or null if not cached
+     */
+    AnnotationReader.MemberKey get(final Member member) {
+        final int hash = member.hashCode();
+        final Node[] table = m_table;
+        for (Node node = table[hash & (table.length - 1)]; node != null; node = node.next) {
+            if (node.hash == hash) {
+                final Object cached = node.get();
+                if (cached == member || member.equals(cached)) {
+                    return node.key;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates the member key of a constructor, method or field and caches it.
+     *
+     * @param member the java.lang.reflect.Constructor, Method or Field
+     * @return the member key
+     */
+    AnnotationReader.MemberKey add(final Member member) {
+        final AnnotationReader.MemberKey key;
+        if (member instanceof Method) {
+            key = AnnotationReader.MemberKey.newMethodKey((Method) member);
+        } else if (member instanceof Field) {
+            key = AnnotationReader.MemberKey.newFieldKey((Field) member);
+        } else {
+            key = AnnotationReader.MemberKey.newConstructorKey((Constructor) member);
+        }
+        put(member, member.hashCode(), key);
+        return key;
+    }
+
+    /**
+     * Returns the number of members cached, the collected ones included until the next addition.
+     */
+    synchronized int size() {
+        return m_count;
+    }
+
+    private synchronized void put(final Member member, final int hash, final AnnotationReader.MemberKey key) {
+        Node[] table = m_table;
+        if (m_queue.poll() != null) {
+            // drop the nodes of all the collected members at once
+            while (m_queue.poll() != null) {
+            }
+            table = rehash(table, table.length);
+        }
+        if ((m_count + 1) * 4 > table.length * 3) {
+            table = rehash(table, table.length << 1);
+        }
+        final int index = hash & (table.length - 1);
+        // another thread may have added the same member meanwhile, the duplicate node is harmless
+        table[index] = new Node(member, hash, key, table[index], m_queue);
+        m_count++;
+        m_table = table;
+    }
+
+    /**
+     * Copies the live entries into a new table, the current table is left untouched for the lookups.
+     */
+    private Node[] rehash(final Node[] table, final int capacity) {
+        final Node[] newTable = new Node[capacity];
+        int count = 0;
+        for (int i = 0; i < table.length; i++) {
+            for (Node node = table[i]; node != null; node = node.next) {
+                final Object member = node.get();
+                if (member != null) {
+                    final int index = node.hash & (capacity - 1);
+                    newTable[index] = new Node((Member) member, node.hash, node.key, newTable[index], m_queue);
+                    count++;
+                }
+            }
+        }
+        m_count = count;
+        return newTable;
+    }
+
+    /**
+     * Immutable hash chain node, weakly references the member.
+     */
+    private static final class Node extends WeakReference {
+        final int hash;
+        final AnnotationReader.MemberKey key;
+        final Node next;
+
+        Node(final Member member,
+             final int hash,
+             final AnnotationReader.MemberKey key,
+             final Node next,
+             final ReferenceQueue queue) {
+            super(member, queue);
+            this.hash = hash;
+            this.key = key;
+            this.next = next;
+        }
+    }
+}
@@ -0,0 +1,443 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package org.codehaus.backport175.reader.bytecode;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Creates the annotation readers of a set of classes in background threads, and resolves all their annotations, so
+ * that the readers are ready before the classes are first used.
+ * <p/>
+ * The classes are given by name, by package or by jar. Packages and jars are listed by the background threads as
+ * well. Work can be added before {@link #start()}, or while the background threads are still busy; once they have
+ * run out of work, or the prefetch has been cancelled, adding more throws an {@link IllegalStateException}.
+ * <p/>
+ * The progress and the failures are reported to a {@link Listener}, from the background threads but never by two
+ * threads at the same time.
+ * <p/>
+ * Usage:
+ * <pre>
+ * ReaderPrefetcher prefetcher = new ReaderPrefetcher(loader, listener, 2);
+ * prefetcher.addPackage("com.acme.web");
+ * prefetcher.addJar(new File("lib/acme-services.jar"));
+ * prefetcher.start();
+ * ...
+ * prefetcher.waitFor();
+ * </pre>
+ */
+public class ReaderPrefetcher {
+
+    private static final String CLASS_FILE_SUFFIX = ".class";
+    private static final String FILE_PROTOCOL = "file";
+    private static final String JAR_PROTOCOL = "jar";
+    private static final String JAR_SEPARATOR = "!/";
+
+    private final ClassLoader m_loader;
+    private final Listener m_listener;
+    private final int m_threadCount;
+
+    /**
+     * The work left, class names (String) and packages or jars to list (Source), guarded by this
+     */
+    private final LinkedList m_queue = new LinkedList();
+
+    private int m_total = 0;
+    private int m_prefetched = 0;
+    private int m_failed = 0;
+    private int m_runningThreads = 0;
+    private int m_exitingThreads = 0;
+    private int m_exitedThreads = 0;
+    private boolean m_started = false;
+    private boolean m_cancelled = false;
+
+    /**
+     * Callback for the progress of the prefetch.
+     */
+    public static interface Listener {
+
+        /**
+         * Called once the reader of a class has been created and its annotations resolved.
+         *
+         * @param className the class name
+         * @param done      the number of classes done so far, failed ones included
+         * @param total     the number of classes known so far, grows while packages and jars are listed
+         */
+        void prefetched(String className, int done, int total);
+
+        /**
+         * Called if the reader of a class could not be created or its annotations could not be resolved, or if a
+         * package or jar could not be listed.
+         *
+         * @param name    the class, package or jar name
+         * @param failure the failure
+         */
+        void failed(String name, Throwable failure);
+
+        /**
+         * Called once all the classes are done, or the prefetch has been cancelled.
+         *
+         * @param prefetched the number of classes prefetched
+         * @param failed     the number of failures
+         */
+        void finished(int prefetched, int failed);
+    }
+
+    /**
+     * Creates a prefetcher.
+     *
+     * @param loader   the class loader of the classes
+     * @param listener the listener, or null
+     * @param threads  the number of background threads
+     */
+    public ReaderPrefetcher(final ClassLoader loader, final Listener listener, final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("thread count must be positive");
+        }
+        m_loader = loader;
+        m_listener = listener;
+        m_threadCount = threads;
+    }
+
+    /**
+     * Adds a class to prefetch.
+     *
+     * @param className the class name
+     * @throws IllegalStateException if the prefetch is done or cancelled
+     */
+    public synchronized void addClass(final String className) {
+        checkNotDone();
+        m_queue.add(className);
+        m_total++;
+        notifyAll();
+    }
+
+    /**
+     * Adds the classes of a package to prefetch, sub packages excluded.
+     *
+     * @param packageName the package name
+     * @throws IllegalStateException if the prefetch is done or cancelled
+     */
+    public synchronized void addPackage(final String packageName) {
+        checkNotDone();
+        m_queue.add(new Source(packageName, null));
+        notifyAll();
+    }
+
+    /**
+     * Adds the classes of a jar to prefetch.
+     *
+     * @param jar the jar
+     * @throws IllegalStateException if the prefetch is done or cancelled
+     */
+    public synchronized void addJar(final File jar) {
+        checkNotDone();
+        m_queue.add(new Source(null, jar));
+        notifyAll();
+    }
+
+    /**
+     * Starts the background threads.
+     */
+    public synchronized void start() {
+        if (m_started) {
+            throw new IllegalStateException("prefetch already started");
+        }
+        m_started = true;
+        m_runningThreads = m_threadCount;
+        for (int i = 0; i < m_threadCount; i++) {
+            final Thread thread = new Thread("backport175-prefetch-" + i) {
+                public void run() {
+                    prefetch();
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the prefetch once the classes being prefetched are done.
+     */
+    public synchronized void cancel() {
+        m_cancelled = true;
+        m_queue.clear();
+        notifyAll();
+    }
+
+    /**
+     * Waits for the prefetch to be done.
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void waitFor() throws InterruptedException {
+        while (!isDone()) {
+            wait();
+        }
+    }
+
+    /**
+     * Checks if the prefetch is done.
+     *
+     * @return true if all the classes are done or the prefetch has been cancelled, and the listener knows it
+     */
+    public synchronized boolean isDone() {
+        return m_started && m_exitedThreads == m_threadCount;
+    }
+
+    /**
+     * Returns the number of classes prefetched so far.
+     *
+     * @return the prefetched count
+     */
+    public synchronized int getPrefetchedCount() {
+        return m_prefetched;
+    }
+
+    /**
+     * Returns the number of failures so far.
+     *
+     * @return the failed count
+     */
+    public synchronized int getFailedCount() {
+        return m_failed;
+    }
+
+    /**
+     * Returns the number of classes known so far.
+     *
+     * @return the total count
+     */
+    public synchronized int getTotalCount() {
+        return m_total;
+    }
+
+    /**
+     * Checks that added work would still be taken, the background threads never wait for more once one has exited.
+     */
+    private void checkNotDone() {
+        if (m_cancelled) {
+            throw new IllegalStateException("prefetch cancelled");
+        }
+        if (m_exitingThreads > 0) {
+            throw new IllegalStateException("prefetch done");
+        }
+    }
+
+    /**
+     * Takes the work from the queue until there is none left.
+     */
+    private void prefetch() {
+        Object work = null;
+        try {
+            while ((work = next()) != null) {
+                if (work instanceof Source) {
+                    list((Source) work);
+                } else {
+                    prefetch((String) work);
+                }
+            }
+        } finally {
+            final boolean last;
+            synchronized (this) {
+                if (work != null) {
+                    // failed while working
+                    m_runningThreads--;
+                }
+                last = ++m_exitingThreads == m_threadCount;
+                notifyAll();
+            }
+            try {
+                if (last && m_listener != null) {
+                    synchronized (m_listener) {
+                        m_listener.finished(getPrefetchedCount(), getFailedCount());
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    m_exitedThreads++;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the next work, waits while other threads are listing packages or jars that may add more.
+     * <p/>
+     * The running thread count only counts the threads that hold some work.
+     *
+     * @return the work, or null once there is none left
+     */
+    private synchronized Object next() {
+        m_runningThreads--;
+        try {
+            while (m_queue.isEmpty() && !m_cancelled && m_runningThreads > 0) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            m_cancelled = true;
+        }
+        if (m_cancelled || m_queue.isEmpty()) {
+            notifyAll();
+            return null;
+        }
+        m_runningThreads++;
+        return m_queue.removeFirst();
+    }
+
+    /**
+     * Creates the reader of a class and resolves its annotations.
+     *
+     * @param className
+     */
+    private void prefetch(final String className) {
+        Throwable failure = null;
+        try {
+            final AnnotationReader reader = AnnotationReader.getReaderFor(className, m_loader);
+            synchronized (reader) {
+                reader.resolveAll();
+            }
+        } catch (Throwable e) {
+            failure = e;
+        }
+        final int done;
+        final int total;
+        synchronized (this) {
+            if (failure == null) {
+                m_prefetched++;
+            } else {
+                m_failed++;
+            }
+            done = m_prefetched + m_failed;
+            total = m_total;
+        }
+        if (m_listener != null) {
+            synchronized (m_listener) {
+                if (failure == null) {
+                    m_listener.prefetched(className, done, total);
+                } else {
+                    m_listener.failed(className, failure);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lists the classes of a package or jar and adds them to the queue.
+     *
+     * @param source
+     */
+    private void list(final Source source) {
+        final List classNames = new ArrayList();
+        try {
+            if (source.jar != null) {
+                listJar(source.jar, "", classNames);
+            } else {
+                final String path = source.packageName.replace('.', '/');
+                final Enumeration urls = m_loader != null ?
+                                         m_loader.getResources(path) :
+                                         ClassLoader.getSystemResources(path);
+                while (urls.hasMoreElements()) {
+                    listPackage((URL) urls.nextElement(), path + '/', classNames);
+                }
+            }
+        } catch (Throwable e) {
+            synchronized (this) {
+                m_failed++;
+            }
+            if (m_listener != null) {
+                synchronized (m_listener) {
+                    m_listener.failed(source.toString(), e);
+                }
+            }
+            return;
+        }
+        synchronized (this) {
+            if (!m_cancelled) {
+                m_queue.addAll(classNames);
+                m_total += classNames.size();
+                notifyAll();
+            }
+        }
+    }
+
+    private static void listPackage(final URL url, final String path, final List classNames) throws IOException {
+        if (FILE_PROTOCOL.equals(url.getProtocol())) {
+            final File[] files = new File(URLDecoder.decode(url.getFile())).listFiles();
+            if (files == null) {
+                return;
+            }
+            for (int i = 0; i < files.length; i++) {
+                final String name = files[i].getName();
+                if (name.endsWith(CLASS_FILE_SUFFIX) && files[i].isFile()) {
+                    classNames.add(toClassName(path + name));
+                }
+            }
+        } else if (JAR_PROTOCOL.equals(url.getProtocol()) && url.getFile().startsWith(FILE_PROTOCOL + ':')) {
+            final String location = url.getFile();
+            final int separator = location.indexOf(JAR_SEPARATOR);
+            final File jar = new File(URLDecoder.decode(new URL(location.substring(0, separator)).getFile()));
+            listJar(jar, path, classNames);
+        } else {
+            throw new IOException("can not list the classes of [" + url + "]");
+        }
+    }
+
+    /**
+     * Lists the classes of a jar.
+     *
+     * @param jar
+     * @param path       the package path, ending with '/', or "" for all the classes
+     * @param classNames
+     * @throws IOException
+     */
+    private static void listJar(final File jar, final String path, final List classNames) throws IOException {
+        final ZipFile zip = new ZipFile(jar);
+        try {
+            for (Enumeration entries = zip.entries(); entries.hasMoreElements();) {
+                final String name = ((ZipEntry) entries.nextElement()).getName();
+                if (name.endsWith(CLASS_FILE_SUFFIX) && name.startsWith(path) &&
+                    (path.length() == 0 || name.indexOf('/', path.length()) < 0)) {
+                    classNames.add(toClassName(name));
+                }
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static String toClassName(final String classFile) {
+        return classFile.substring(0, classFile.length() - CLASS_FILE_SUFFIX.length()).replace('/', '.');
+    }
+
+    /**
+     * A package or jar to list.
+     */
+    private static class Source {
+        final String packageName;
+        final File jar;
+
+        Source(final String packageName, final File jar) {
+            this.packageName = packageName;
+            this.jar = jar;
+        }
+
+        public String toString() {
+            return jar != null ? jar.getPath() : packageName;
+        }
+    }
+}
@@ -0,0 +1,701 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package org.codehaus.backport175.reader.bytecode;
+
+import org.codehaus.backport175.reader.ReaderException;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Registry for the annotation readers, keyed by class loader and class name.
+ * <p/>
+ * Lookups do not take any lock. Each class loader has its own table, split in segments that each hold a hash table
+ * of immutable chain nodes, updated under the segment lock. A reader that is being created is
+ * registered as an in-flight {@link ReaderFuture} so that concurrent lookups for the same class wait for it instead of
+ * parsing the bytecode a second time.
+ * <p/>
+ * Class loaders are weakly referenced, their readers are released once the class loader has been garbage collected.
+ * <p/>
+ * The registry can be bounded in number of readers and in estimated retained bytes. Once a limit is exceeded, the
+ * least recently or least frequently used readers are removed until the registry is down to 7/8 of its limits. The
+ * retained bytes grow as the readers fill their caches. Each reader records the time and count of its own lookups,
+ * without synchronization, the statistics are therefore approximate. A removed reader is created again on its next
+ * lookup.
+ */
+class ReaderRegistry {
+
+    public static final int LRU = 0;
+    public static final int LFU = 1;
+
+    private static final int SEGMENT_SHIFT = 4;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_SHIFT;
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+    private static final int INITIAL_LOADER_CAPACITY = 16;
+
+    /**
+     * Queue of the class loader tables whose class loader has been garbage collected
+     */
+    private final ReferenceQueue m_queue = new ReferenceQueue();
+
+    /**
+     * The table for the classes loaded by the bootstrap class loader (null class loader)
+     */
+    private final LoaderReaders m_bootstrapReaders = new LoaderReaders(this, null, 0, m_queue);
+
+    /**
+     * Hash table of the class loader tables, copied on write
+     */
+    private volatile LoaderNode[] m_loaders = new LoaderNode[INITIAL_LOADER_CAPACITY];
+
+    /**
+     * Number of class loader tables, guarded by this
+     */
+    private int m_loaderCount = 0;
+
+    /**
+     * The limits, 0 for unbounded
+     */
+    private volatile int m_maxReaders = 0;
+    private volatile long m_maxRetainedBytes = 0;
+    private volatile int m_evictionPolicy = LRU;
+
+    /**
+     * The statistics, guarded by the lock. The reader count and the retained bytes are upper bounds, recomputed by
+     * each eviction.
+     */
+    private final Object m_statisticsLock = new Object();
+    private int m_readerCount = 0;
+    private long m_retainedBytes = 0;
+    private long m_evictionCount = 0;
+    private boolean m_evicting = false;
+
+    /**
+     * Returns the annotation reader for the class specified, the reader is created if non-existant.
+     *
+     * @param className the class name, either '.' or '/' separated
+     * @param loader    the class loader
+     * @return the annotation reader
+     */
+    public AnnotationReader getReaderFor(final String className, final ClassLoader loader) {
+        final String name = className.indexOf('/') >= 0 ? className.replace('/', '.') : className;
+        final AnnotationReader reader = getLoaderReaders(loader).getReaderFor(name, loader);
+        if (m_maxReaders > 0 || m_maxRetainedBytes > 0) {
+            reader.recordAccess();
+        }
+        return reader;
+    }
+
+    /**
+     * Sets the limits of the registry, the readers in excess are removed on the next reader creation.
+     *
+     * @param maxReaders       the maximum number of readers, 0 for unbounded
+     * @param maxRetainedBytes the maximum estimated retained bytes, 0 for unbounded
+     */
+    public void setLimits(final int maxReaders, final long maxRetainedBytes) {
+        if (maxReaders < 0 || maxRetainedBytes < 0) {
+            throw new IllegalArgumentException("limits can not be negative");
+        }
+        m_maxReaders = maxReaders;
+        m_maxRetainedBytes = maxRetainedBytes;
+    }
+
+    /**
+     * Sets the eviction policy.
+     *
+     * @param policy {@link #LRU} or {@link #LFU}
+     */
+    public void setEvictionPolicy(final int policy) {
+        if (policy != LRU && policy != LFU) {
+            throw new IllegalArgumentException("unknown eviction policy [" + policy + "]");
+        }
+        m_evictionPolicy = policy;
+    }
+
+    public int getReaderCount() {
+        synchronized (m_statisticsLock) {
+            return m_readerCount;
+        }
+    }
+
+    public long getRetainedBytes() {
+        synchronized (m_statisticsLock) {
+            return m_retainedBytes;
+        }
+    }
+
+    public long getEvictionCount() {
+        synchronized (m_statisticsLock) {
+            return m_evictionCount;
+        }
+    }
+
+    /**
+     * Called once a reader has been created and registered, evicts readers if a limit is exceeded.
+     *
+     * @param reader the new reader, never evicted by this call
+     */
+    private void added(final AnnotationReader reader) {
+        reader.recordAccess();
+        changed(reader, 1, reader.getRetainedSize());
+    }
+
+    /**
+     * Called once the estimated retained size of a reader has changed, as its caches fill or on a refresh, evicts
+     * readers if the limit is exceeded.
+     *
+     * @param reader the reader, never evicted by this call
+     * @param size   the size change in bytes
+     */
+    void retainedSizeChanged(final AnnotationReader reader, final int size) {
+        changed(reader, 0, size);
+    }
+
+    /**
+     * Updates the statistics, evicts readers if a limit is exceeded.
+     *
+     * @param reader        the reader added or changed, never evicted by this call
+     * @param readers       the number of readers added
+     * @param retainedBytes the retained bytes added
+     */
+    private void changed(final AnnotationReader reader, final int readers, final long retainedBytes) {
+        final int maxReaders = m_maxReaders;
+        final long maxRetainedBytes = m_maxRetainedBytes;
+        synchronized (m_statisticsLock) {
+            m_readerCount += readers;
+            m_retainedBytes += retainedBytes;
+            if (m_evicting ||
+                !((maxReaders > 0 && m_readerCount > maxReaders) ||
+                  (maxRetainedBytes > 0 && m_retainedBytes > maxRetainedBytes))) {
+                return;
+            }
+            m_evicting = true;
+        }
+        try {
+            evict(reader, maxReaders - maxReaders / 8, maxRetainedBytes - maxRetainedBytes / 8);
+        } finally {
+            synchronized (m_statisticsLock) {
+                m_evicting = false;
+            }
+        }
+    }
+
+    /**
+     * Removes the readers in the eviction order until the registry is within the limits.
+     *
+     * @param excluded         the reader not to evict
+     * @param maxReaders       the reader count to go down to, 0 for unbounded
+     * @param maxRetainedBytes the retained bytes to go down to, 0 for unbounded
+     */
+    private void evict(final AnnotationReader excluded, final int maxReaders, final long maxRetainedBytes) {
+        final List entries = new ArrayList();
+        m_bootstrapReaders.collectEntries(entries);
+        final LoaderNode[] loaders = m_loaders;
+        for (int i = 0; i < loaders.length; i++) {
+            for (LoaderNode node = loaders[i]; node != null; node = node.next) {
+                if (node.readers.get() != null) {
+                    node.readers.collectEntries(entries);
+                }
+            }
+        }
+        final Entry[] sorted = (Entry[]) entries.toArray(new Entry[entries.size()]);
+        int readerCount = sorted.length;
+        long retainedBytes = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            retainedBytes += sorted[i].retainedSize;
+        }
+        Arrays.sort(sorted, m_evictionPolicy == LFU ? Entry.LFU_ORDER : Entry.LRU_ORDER);
+
+        int evicted = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (!((maxReaders > 0 && readerCount > maxReaders) ||
+                  (maxRetainedBytes > 0 && retainedBytes > maxRetainedBytes))) {
+                break;
+            }
+            final Entry entry = sorted[i];
+            if (entry.reader != excluded && entry.segment.remove(entry.className, entry.hash, entry.reader)) {
+                readerCount--;
+                retainedBytes -= entry.retainedSize;
+                evicted++;
+            }
+        }
+        synchronized (m_statisticsLock) {
+            m_readerCount = readerCount;
+            m_retainedBytes = retainedBytes;
+            m_evictionCount += evicted;
+        }
+    }
+
+    /**
+     * Returns a snapshot of all the annotation readers that are fully created.
+     *
+     * @return a list of annotation readers
+     */
+    public List getReaders() {
+        final List readers = new ArrayList();
+        m_bootstrapReaders.collectReaders(readers);
+        final LoaderNode[] loaders = m_loaders;
+        for (int i = 0; i < loaders.length; i++) {
+            for (LoaderNode node = loaders[i]; node != null; node = node.next) {
+                if (node.readers.get() != null) {
+                    node.readers.collectReaders(readers);
+                }
+            }
+        }
+        return readers;
+    }
+
+    /**
+     * Returns the table for a class loader, creates it if non-existant.
+     *
+     * @param loader
+     * @return the table
+     */
+    private LoaderReaders getLoaderReaders(final ClassLoader loader) {
+        if (loader == null) {
+            return m_bootstrapReaders;
+        }
+        final int hash = System.identityHashCode(loader);
+        LoaderReaders readers = lookup(m_loaders, loader, hash);
+        if (readers != null) {
+            return readers;
+        }
+        synchronized (this) {
+            readers = lookup(m_loaders, loader, hash);
+            if (readers == null) {
+                readers = new LoaderReaders(this, loader, hash, m_queue);
+                expungeStaleLoaders();
+                rehash(readers);
+            }
+            return readers;
+        }
+    }
+
+    /**
+     * Lock free lookup of the table for a class loader.
+     *
+     * @param loaders
+     * @param loader
+     * @param hash
+     * @return the table or null if not found
+     */
+    private static LoaderReaders lookup(final LoaderNode[] loaders, final ClassLoader loader, final int hash) {
+        for (LoaderNode node = loaders[hash & (loaders.length - 1)]; node != null; node = node.next) {
+            if (node.readers.get() == loader) {
+                return node.readers;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the tables whose class loader has been garbage collected.
+     * <p/>
+     * Must be called while holding the registry lock.
+     */
+    private void expungeStaleLoaders() {
+        boolean stale = false;
+        LoaderReaders readers;
+        while ((readers = (LoaderReaders) m_queue.poll()) != null) {
+            readers.release();
+            stale = true;
+        }
+        if (stale) {
+            rehash(null);
+        }
+    }
+
+    /**
+     * Builds and publishes a new hash table with the live class loader tables and the given new one.
+     * <p/>
+     * Must be called while holding the registry lock.
+     *
+     * @param added the table to add, or null
+     */
+    private void rehash(final LoaderReaders added) {
+        final LoaderNode[] loaders = m_loaders;
+        final List live = new ArrayList(m_loaderCount + 1);
+        for (int i = 0; i < loaders.length; i++) {
+            for (LoaderNode node = loaders[i]; node != null; node = node.next) {
+                if (node.readers.get() != null) {
+                    live.add(node.readers);
+                }
+            }
+        }
+        if (added != null) {
+            live.add(added);
+        }
+        int capacity = INITIAL_LOADER_CAPACITY;
+        while (capacity * 3 < live.size() * 4) {
+            capacity <<= 1;
+        }
+        final LoaderNode[] newLoaders = new LoaderNode[capacity];
+        for (Iterator it = live.iterator(); it.hasNext();) {
+            final LoaderReaders readers = (LoaderReaders) it.next();
+            final int index = readers.hash & (capacity - 1);
+            newLoaders[index] = new LoaderNode(readers, newLoaders[index]);
+        }
+        m_loaderCount = live.size();
+        m_loaders = newLoaders;
+    }
+
+    /**
+     * Immutable hash chain node for the class loader tables.
+     */
+    private static final class LoaderNode {
+        final LoaderReaders readers;
+        final LoaderNode next;
+
+        LoaderNode(final LoaderReaders readers, final LoaderNode next) {
+            this.readers = readers;
+            this.next = next;
+        }
+    }
+
+    /**
+     * The readers for the classes of a single class loader. Weakly references the class loader.
+     */
+    private static final class LoaderReaders extends WeakReference {
+        final int hash;
+        private final ReaderRegistry m_registry;
+        private final Segment[] m_segments = new Segment[SEGMENT_COUNT];
+
+        LoaderReaders(final ReaderRegistry registry,
+                      final ClassLoader loader,
+                      final int hash,
+                      final ReferenceQueue queue) {
+            super(loader, queue);
+            this.hash = hash;
+            m_registry = registry;
+            for (int i = 0; i < m_segments.length; i++) {
+                m_segments[i] = new Segment();
+            }
+        }
+
+        AnnotationReader getReaderFor(final String className, final ClassLoader loader) {
+            final int hash = hash(className);
+            // the segment is selected by the high bits, the segment table uses the low bits
+            final Segment segment = m_segments[hash >>> (32 - SEGMENT_SHIFT)];
+
+            Object value = segment.get(className, hash);
+            if (value instanceof AnnotationReader) {
+                return (AnnotationReader) value;
+            }
+
+            ReaderFuture future = (ReaderFuture) value;
+            if (future == null) {
+                synchronized (segment) {
+                    value = segment.get(className, hash);
+                    if (value instanceof AnnotationReader) {
+                        return (AnnotationReader) value;
+                    } else if (value == null) {
+                        // we are the one creating the reader
+                        future = new ReaderFuture();
+                        segment.put(className, hash, future);
+                    } else {
+                        future = (ReaderFuture) value;
+                    }
+                }
+                if (future.isCreator()) {
+                    return createReader(segment, future, className, hash, loader);
+                }
+            }
+            return future.get(className);
+        }
+
+        /**
+         * Spreads the string hash code so that both its high and low bits are usable.
+         */
+        private static int hash(final String className) {
+            int h = className.hashCode();
+            h ^= h >>> 16;
+            h *= 0x85EBCA6B;
+            h ^= h >>> 13;
+            return h;
+        }
+
+        /**
+         * Creates the reader outside of the segment lock and publishes it to the waiting threads.
+         */
+        private AnnotationReader createReader(final Segment segment,
+                                              final ReaderFuture future,
+                                              final String className,
+                                              final int hash,
+                                              final ClassLoader loader) {
+            final AnnotationReader reader;
+            try {
+                reader = new AnnotationReader(new AnnotationReader.ClassKey(className, loader));
+            } catch (RuntimeException e) {
+                segment.remove(className, hash);
+                future.setFailure(e);
+                throw e;
+            } catch (Error e) {
+                segment.remove(className, hash);
+                future.setFailure(e);
+                throw e;
+            }
+            segment.put(className, hash, reader);
+            future.set(reader);
+            m_registry.added(reader);
+            return reader;
+        }
+
+        void collectReaders(final List readers) {
+            for (int i = 0; i < m_segments.length; i++) {
+                m_segments[i].collectReaders(readers);
+            }
+        }
+
+        void collectEntries(final List entries) {
+            for (int i = 0; i < m_segments.length; i++) {
+                m_segments[i].collectEntries(entries);
+            }
+        }
+
+        void release() {
+            for (int i = 0; i < m_segments.length; i++) {
+                m_segments[i].clear();
+            }
+        }
+    }
+
+    /**
+     * Segment of a class loader table. Chain nodes are immutable, lookups read the table without locking and writers
+     * update it under the segment lock, then publish it through the volatile table reference.
+     */
+    private static final class Segment {
+        private volatile Node[] m_table = new Node[INITIAL_SEGMENT_CAPACITY];
+
+        /**
+         * Number of entries, guarded by this
+         */
+        private int m_count = 0;
+
+        Object get(final String className, final int hash) {
+            final Node[] table = m_table;
+            for (Node node = table[hash & (table.length - 1)]; node != null; node = node.next) {
+                if (node.hash == hash && node.className.equals(className)) {
+                    return node.value;
+                }
+            }
+            return null;
+        }
+
+        synchronized void put(final String className, final int hash, final Object value) {
+            Node[] table = m_table;
+            int index = hash & (table.length - 1);
+            final Node first = table[index];
+            final Node chain = without(first, className, hash);
+            if (chain == first) {
+                m_count++;
+                if (m_count * 4 > table.length * 3) {
+                    table = rehash(table);
+                    index = hash & (table.length - 1);
+                }
+            }
+            table[index] = new Node(className, hash, value, table == m_table ? chain : table[index]);
+            m_table = table;
+        }
+
+        synchronized void remove(final String className, final int hash) {
+            final Node[] table = m_table;
+            final int index = hash & (table.length - 1);
+            final Node first = table[index];
+            final Node chain = without(first, className, hash);
+            if (chain != first) {
+                m_count--;
+                table[index] = chain;
+                m_table = table;
+            }
+        }
+
+        /**
+         * Removes the entry for the class name if it still maps to the given value.
+         *
+         * @return true if removed
+         */
+        synchronized boolean remove(final String className, final int hash, final Object value) {
+            if (get(className, hash) != value) {
+                return false;
+            }
+            remove(className, hash);
+            return true;
+        }
+
+        synchronized void clear() {
+            m_table = new Node[INITIAL_SEGMENT_CAPACITY];
+            m_count = 0;
+        }
+
+        void collectReaders(final List readers) {
+            final Node[] table = m_table;
+            for (int i = 0; i < table.length; i++) {
+                for (Node node = table[i]; node != null; node = node.next) {
+                    if (node.value instanceof AnnotationReader) {
+                        readers.add(node.value);
+                    }
+                }
+            }
+        }
+
+        void collectEntries(final List entries) {
+            final Node[] table = m_table;
+            for (int i = 0; i < table.length; i++) {
+                for (Node node = table[i]; node != null; node = node.next) {
+                    if (node.value instanceof AnnotationReader) {
+                        entries.add(new Entry(this, node.className, node.hash, (AnnotationReader) node.value));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the chain without the node for the class name, copying the nodes in front of it.
+         *
+         * @return the same chain if the class name is not in it
+         */
+        private static Node without(final Node first, final String className, final int hash) {
+            Node node = first;
+            while (node != null && !(node.hash == hash && node.className.equals(className))) {
+                node = node.next;
+            }
+            if (node == null) {
+                return first;
+            }
+            Node chain = node.next;
+            for (Node copy = first; copy != node; copy = copy.next) {
+                chain = new Node(copy.className, copy.hash, copy.value, chain);
+            }
+            return chain;
+        }
+
+        /**
+         * Copies the entries into a table twice as large, the current table is left untouched for the readers.
+         */
+        private static Node[] rehash(final Node[] table) {
+            final Node[] newTable = new Node[table.length << 1];
+            for (int i = 0; i < table.length; i++) {
+                for (Node node = table[i]; node != null; node = node.next) {
+                    final int index = node.hash & (newTable.length - 1);
+                    newTable[index] = new Node(node.className, node.hash, node.value, newTable[index]);
+                }
+            }
+            return newTable;
+        }
+    }
+
+    /**
+     * Immutable hash chain node for the readers, the value is either the reader or its in-flight placeholder.
+     */
+    private static final class Node {
+        final String className;
+        final int hash;
+        final Object value;
+        final Node next;
+
+        Node(final String className, final int hash, final Object value, final Node next) {
+            this.className = className;
+            this.hash = hash;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    /**
+     * A registered reader and its access statistics at the time the eviction started.
+     */
+    private static final class Entry {
+        static final Comparator LRU_ORDER = new Comparator() {
+            public int compare(final Object o1, final Object o2) {
+                final long a1 = ((Entry) o1).lastAccess;
+                final long a2 = ((Entry) o2).lastAccess;
+                return a1 < a2 ? -1 : (a1 == a2 ? 0 : 1);
+            }
+        };
+
+        static final Comparator LFU_ORDER = new Comparator() {
+            public int compare(final Object o1, final Object o2) {
+                final int c1 = ((Entry) o1).accessCount;
+                final int c2 = ((Entry) o2).accessCount;
+                return c1 < c2 ? -1 : (c1 == c2 ? LRU_ORDER.compare(o1, o2) : 1);
+            }
+        };
+
+        final Segment segment;
+        final String className;
+        final int hash;
+        final AnnotationReader reader;
+        final long lastAccess;
+        final int accessCount;
+        final int retainedSize;
+
+        Entry(final Segment segment, final String className, final int hash, final AnnotationReader reader) {
+            this.segment = segment;
+            this.className = className;
+            this.hash = hash;
+            this.reader = reader;
+            lastAccess = reader.getLastAccess();
+            accessCount = reader.getAccessCount();
+            retainedSize = reader.getRetainedSize();
+        }
+    }
+
+    /**
+     * Placeholder for a reader that is being created by another thread.
+     */
+    private static final class ReaderFuture {
+        private final Thread m_creator = Thread.currentThread();
+        private AnnotationReader m_reader;
+        private Throwable m_failure;
+        private boolean m_done = false;
+
+        boolean isCreator() {
+            return m_creator == Thread.currentThread();
+        }
+
+        synchronized void set(final AnnotationReader reader) {
+            m_reader = reader;
+            m_done = true;
+            notifyAll();
+        }
+
+        synchronized void setFailure(final Throwable failure) {
+            m_failure = failure;
+            m_done = true;
+            notifyAll();
+        }
+
+        synchronized AnnotationReader get(final String className) {
+            if (isCreator()) {
+                throw new ReaderException("circular creation of the annotation reader for class [" + className + "]");
+            }
+            boolean interrupted = false;
+            while (!m_done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (m_failure != null) {
+                throw new ReaderException(
+                        "could not create the annotation reader for class [" + className + "]", m_failure
+                );
+            }
+            return m_reader;
+        }
+    }
+}
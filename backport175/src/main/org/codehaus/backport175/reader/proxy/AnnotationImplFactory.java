@@ -0,0 +1,485 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package org.codehaus.backport175.reader.proxy;
+
+import org.codehaus.backport175.reader.Annotation;
+import org.codehaus.backport175.reader.bytecode.AnnotationElement;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Creates annotation instances from classes generated once per annotation interface.
+ * <p/>
+ * The generated class implements the annotation interface with one field per annotation element. As with the dynamic
+ * proxies, the values are resolved on first access only, through the {@link JavaDocAnnotationInvocationHander} of the
+ * instance, so that an element that can not be resolved fails when it is read, not when the annotation is created.
+ * Once resolved, reading an element is a plain field access.
+ * <p/>
+ * Each class is defined in its own child class loader of the backport175 class loader, and is only weakly referenced
+ * from here, so that it can be unloaded once its annotation interface or its last instance is gone. Annotation
+ * interfaces that can not be implemented from there (non public interface or element types) are not handled, in
+ * which case the {@link ProxyFactory} falls back to a dynamic proxy. A class that could not be generated is reported
+ * on System.err.
+ * <p/>
+ * Unlike the dynamic proxies, whose handler is declared Serializable, the generated instances do not implement
+ * Serializable. The proxy mode should be used where the annotation instances are serialized.
+ * <p/>
+ * The number of annotation interfaces tracked is bounded, the least recently used one is dropped once the bound is
+ * exceeded and its class generated again on its next use. The instances already created keep their class.
+ */
+class AnnotationImplFactory implements Opcodes {
+
+    private static final String IMPL_CLASS_NAME_PREFIX = "org/codehaus/backport175/reader/proxy/AnnotationImpl$";
+    private static final String ANNOTATION_TYPE_METHOD_NAME = "annotationType";
+    private static final String TO_STRING_METHOD_NAME = "toString";
+    private static final String HASH_CODE_METHOD_NAME = "hashCode";
+    private static final String HANDLER_FIELD_NAME = "handler";
+    private static final String METHODS_FIELD_NAME = "methods";
+    private static final String CLASS_DESC = "Ljava/lang/Class;";
+    private static final String HANDLER_DESC = "Ljava/lang/reflect/InvocationHandler;";
+    private static final String METHODS_DESC = "[Ljava/lang/reflect/Method;";
+    private static final String INVOKE_DESC =
+            "(Ljava/lang/Object;Ljava/lang/reflect/Method;[Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final String CONSTRUCTOR_DESC = "(" + CLASS_DESC + HANDLER_DESC + METHODS_DESC + ")V";
+    private static final Class[] CONSTRUCTOR_PARAMETER_TYPES = new Class[]{
+        Class.class, InvocationHandler.class, Method[].class
+    };
+
+    /**
+     * Marker for the annotation interfaces that can not be implemented
+     */
+    private static final Object NOT_SUPPORTED = new Object();
+
+    /**
+     * Default maximum number of annotation interfaces tracked
+     */
+    static final int DEFAULT_MAX_IMPLS = 256;
+
+    /**
+     * Key is the annotation interface, value is the ImplEntry, guarded by itself
+     */
+    private static final Map IMPLS = new WeakHashMap();
+
+    private static int s_implCounter = 0;
+
+    /**
+     * Maximum number of entries in IMPLS, 0 for unbounded, and logical clock of their uses, guarded by IMPLS
+     */
+    private static int s_maxImpls = DEFAULT_MAX_IMPLS;
+    private static long s_useClock = 0;
+
+    /**
+     * Creates a new annotation instance for the annotation specified.
+     *
+     * @param interfaceClass the annotation interface
+     * @param annotation     the annotation data structure abstraction
+     * @param loader         the class loader from which the annotation values are resolved
+     * @return the annotation instance or null if the annotation interface can not be implemented
+     */
+    static Annotation newAnnotationImpl(final Class interfaceClass,
+                                        final AnnotationElement.Annotation annotation,
+                                        final ClassLoader loader) {
+        final ImplInfo info = getImplInfo(interfaceClass);
+        if (info == null) {
+            return null;
+        }
+        final JavaDocAnnotationInvocationHander handler =
+                new JavaDocAnnotationInvocationHander(interfaceClass, annotation, loader);
+        try {
+            return (Annotation) info.constructor.newInstance(new Object[]{interfaceClass, handler, info.methods});
+        } catch (InvocationTargetException e) {
+            throw new ResolveAnnotationException(
+                    "could not create annotation [" + interfaceClass.getName() + "] due to: " +
+                    e.getTargetException().toString(), e.getTargetException()
+            );
+        } catch (Exception e) {
+            throw new ResolveAnnotationException(
+                    "could not create annotation [" + interfaceClass.getName() + "] due to: " + e.toString(), e
+            );
+        } catch (NoClassDefFoundError e) {
+            // element types not visible from the backport175 class loader
+            report(interfaceClass, e);
+            synchronized (IMPLS) {
+                put(interfaceClass, NOT_SUPPORTED);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns the generated class info for an annotation interface, generates it if needed.
+     *
+     * @param interfaceClass
+     * @return the info or null if the annotation interface can not be implemented
+     */
+    private static ImplInfo getImplInfo(final Class interfaceClass) {
+        synchronized (IMPLS) {
+            final ImplEntry entry = (ImplEntry) IMPLS.get(interfaceClass);
+            if (entry != null) {
+                entry.lastUse = ++s_useClock;
+                if (entry.value == NOT_SUPPORTED) {
+                    return null;
+                }
+            }
+            ImplInfo info = entry != null ? (ImplInfo) ((WeakReference) entry.value).get() : null;
+            if (info == null) {
+                try {
+                    info = generate(interfaceClass);
+                } catch (Exception e) {
+                    report(interfaceClass, e);
+                    info = null;
+                }
+                put(interfaceClass, info != null ? new WeakReference(info) : NOT_SUPPORTED);
+            }
+            return info;
+        }
+    }
+
+    /**
+     * Sets the maximum number of annotation interfaces tracked, drops the least recently used ones if exceeded.
+     *
+     * @param maxImpls the maximum number, 0 for unbounded
+     */
+    static void setMaxImpls(final int maxImpls) {
+        if (maxImpls < 0) {
+            throw new IllegalArgumentException("maximum number of annotation classes is negative: " + maxImpls);
+        }
+        synchronized (IMPLS) {
+            s_maxImpls = maxImpls;
+            evict();
+        }
+    }
+
+    /**
+     * Returns the number of annotation interfaces tracked.
+     *
+     * @return the number of interfaces
+     */
+    static int getImplCount() {
+        synchronized (IMPLS) {
+            return IMPLS.size();
+        }
+    }
+
+    /**
+     * Tracks an annotation interface as most recently used, guarded by IMPLS.
+     *
+     * @param interfaceClass
+     * @param value          NOT_SUPPORTED or a weak reference to the ImplInfo
+     */
+    private static void put(final Class interfaceClass, final Object value) {
+        IMPLS.put(interfaceClass, new ImplEntry(value, ++s_useClock));
+        evict();
+    }
+
+    /**
+     * Drops the least recently used annotation interfaces while the bound is exceeded, guarded by IMPLS. The classes
+     * already collected are dropped first.
+     */
+    private static void evict() {
+        if (s_maxImpls == 0 || IMPLS.size() <= s_maxImpls) {
+            return;
+        }
+        for (Iterator it = IMPLS.values().iterator(); it.hasNext();) {
+            final ImplEntry entry = (ImplEntry) it.next();
+            if (entry.value != NOT_SUPPORTED && ((WeakReference) entry.value).get() == null) {
+                it.remove();
+            }
+        }
+        while (IMPLS.size() > s_maxImpls) {
+            Object eldest = null;
+            long eldestUse = Long.MAX_VALUE;
+            for (Iterator it = IMPLS.entrySet().iterator(); it.hasNext();) {
+                final Map.Entry mapEntry = (Map.Entry) it.next();
+                final long lastUse = ((ImplEntry) mapEntry.getValue()).lastUse;
+                if (lastUse < eldestUse) {
+                    eldest = mapEntry.getKey();
+                    eldestUse = lastUse;
+                }
+            }
+            IMPLS.remove(eldest);
+        }
+    }
+
+    /**
+     * Reports that the instances of an annotation interface are dynamic proxies since its class could not be used.
+     *
+     * @param interfaceClass
+     * @param failure
+     */
+    private static void report(final Class interfaceClass, final Throwable failure) {
+        System.err.println(
+                "backport175: annotation [" + interfaceClass.getName() + "] implemented by a dynamic proxy, " +
+                "the generated class failed: " + failure.toString()
+        );
+    }
+
+    /**
+     * Generates and defines the class implementing the annotation interface.
+     *
+     * @param interfaceClass
+     * @return the info or null if the annotation interface can not be implemented
+     */
+    private static ImplInfo generate(final Class interfaceClass) throws Exception {
+        if (!interfaceClass.isInterface() || !isAccessible(interfaceClass)) {
+            return null;
+        }
+        final Method[] elements = getElementMethods(interfaceClass);
+        for (int i = 0; i < elements.length; i++) {
+            if (!isAccessible(elements[i].getReturnType())) {
+                return null;
+            }
+        }
+        // the element methods, then toString, as invoked on the handler
+        final Method[] methods = new Method[elements.length + 1];
+        System.arraycopy(elements, 0, methods, 0, elements.length);
+        methods[elements.length] = Object.class.getMethod(TO_STRING_METHOD_NAME, new Class[0]);
+
+        final String className = IMPL_CLASS_NAME_PREFIX + (s_implCounter++);
+        final String[] interfaces;
+        if (Annotation.class.isAssignableFrom(interfaceClass)) {
+            interfaces = new String[]{Type.getInternalName(interfaceClass)};
+        } else {
+            interfaces = new String[]{Type.getInternalName(Annotation.class), Type.getInternalName(interfaceClass)};
+        }
+
+        final ClassWriter cw = new ClassWriter(true);
+        cw.visit(V1_3, ACC_PUBLIC + ACC_FINAL + ACC_SUPER, className, null, "java/lang/Object", interfaces);
+        cw.visitField(ACC_PRIVATE + ACC_FINAL, ANNOTATION_TYPE_METHOD_NAME, CLASS_DESC, null, null).visitEnd();
+        cw.visitField(ACC_PRIVATE + ACC_FINAL, HANDLER_FIELD_NAME, HANDLER_DESC, null, null).visitEnd();
+        cw.visitField(ACC_PRIVATE + ACC_FINAL, METHODS_FIELD_NAME, METHODS_DESC, null, null).visitEnd();
+        for (int i = 0; i < elements.length; i++) {
+            final String desc = Type.getDescriptor(elements[i].getReturnType());
+            cw.visitField(ACC_PRIVATE, getValueFieldName(i), desc, null, null).visitEnd();
+            cw.visitField(ACC_PRIVATE + ACC_VOLATILE, getResolvedFieldName(i), "Z", null, null).visitEnd();
+        }
+
+        // constructor: (annotationType, handler, methods)
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", CONSTRUCTOR_DESC, null, null);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitFieldInsn(PUTFIELD, className, ANNOTATION_TYPE_METHOD_NAME, CLASS_DESC);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitFieldInsn(PUTFIELD, className, HANDLER_FIELD_NAME, HANDLER_DESC);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 3);
+        mv.visitFieldInsn(PUTFIELD, className, METHODS_FIELD_NAME, METHODS_DESC);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC, ANNOTATION_TYPE_METHOD_NAME, "()" + CLASS_DESC, null, null);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, className, ANNOTATION_TYPE_METHOD_NAME, CLASS_DESC);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // toString is built and kept by the handler
+        mv = cw.visitMethod(ACC_PUBLIC, TO_STRING_METHOD_NAME, "()Ljava/lang/String;", null, null);
+        invokeHandler(mv, className, elements.length);
+        mv.visitTypeInsn(CHECKCAST, "java/lang/String");
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        for (int i = 0; i < elements.length; i++) {
+            addGetter(cw, className, elements[i], i);
+        }
+        cw.visitEnd();
+
+        final ImplClassLoader implLoader = new ImplClassLoader(Annotation.class.getClassLoader());
+        final Class implClass = implLoader.define(className.replace('/', '.'), cw.toByteArray());
+        implLoader.info = new ImplInfo(implClass.getConstructor(CONSTRUCTOR_PARAMETER_TYPES), methods);
+        return implLoader.info;
+    }
+
+    /**
+     * Adds the getter of an element, resolves the value through the handler on first access. Concurrent first
+     * accesses may both resolve it, the handler returns the same value. The value field is written before the
+     * volatile resolved flag, so that a thread seeing the flag sees the value. Primitive arrays are returned as copies.
+     */
+    private static void addGetter(final ClassWriter cw, final String className, final Method element, final int index) {
+        final Type valueType = Type.getType(element.getReturnType());
+        final String valueField = getValueFieldName(index);
+        final String resolvedField = getResolvedFieldName(index);
+        final MethodVisitor mv = cw.visitMethod(
+                ACC_PUBLIC, element.getName(), "()" + valueType.getDescriptor(), null, null
+        );
+        final Label resolved = new Label();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, className, resolvedField, "Z");
+        mv.visitJumpInsn(IFNE, resolved);
+        mv.visitVarInsn(ALOAD, 0);
+        invokeHandler(mv, className, index);
+        unbox(mv, element.getReturnType());
+        mv.visitFieldInsn(PUTFIELD, className, valueField, valueType.getDescriptor());
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitInsn(ICONST_1);
+        mv.visitFieldInsn(PUTFIELD, className, resolvedField, "Z");
+        mv.visitLabel(resolved);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, className, valueField, valueType.getDescriptor());
+        if (element.getReturnType().isArray() && element.getReturnType().getComponentType().isPrimitive()) {
+            mv.visitMethodInsn(INVOKEVIRTUAL, valueType.getDescriptor(), "clone", "()Ljava/lang/Object;");
+            mv.visitTypeInsn(CHECKCAST, valueType.getDescriptor());
+        }
+        mv.visitInsn(valueType.getOpcode(IRETURN));
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * Pushes the result of handler.invoke(this, methods[index], null).
+     */
+    private static void invokeHandler(final MethodVisitor mv, final String className, final int index) {
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, className, HANDLER_FIELD_NAME, HANDLER_DESC);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, className, METHODS_FIELD_NAME, METHODS_DESC);
+        mv.visitLdcInsn(new Integer(index));
+        mv.visitInsn(AALOAD);
+        mv.visitInsn(ACONST_NULL);
+        mv.visitMethodInsn(INVOKEINTERFACE, "java/lang/reflect/InvocationHandler", "invoke", INVOKE_DESC);
+    }
+
+    private static String getValueFieldName(final int index) {
+        return "value" + index;
+    }
+
+    private static String getResolvedFieldName(final int index) {
+        return "resolved" + index;
+    }
+
+    /**
+     * Casts or unboxes the value on top of the stack to the given type.
+     */
+    private static void unbox(final MethodVisitor mv, final Class type) {
+        if (type == int.class) {
+            unbox(mv, "java/lang/Integer", "intValue", "()I");
+        } else if (type == long.class) {
+            unbox(mv, "java/lang/Long", "longValue", "()J");
+        } else if (type == short.class) {
+            unbox(mv, "java/lang/Short", "shortValue", "()S");
+        } else if (type == double.class) {
+            unbox(mv, "java/lang/Double", "doubleValue", "()D");
+        } else if (type == float.class) {
+            unbox(mv, "java/lang/Float", "floatValue", "()F");
+        } else if (type == boolean.class) {
+            unbox(mv, "java/lang/Boolean", "booleanValue", "()Z");
+        } else if (type == byte.class) {
+            unbox(mv, "java/lang/Byte", "byteValue", "()B");
+        } else if (type == char.class) {
+            unbox(mv, "java/lang/Character", "charValue", "()C");
+        } else if (type != Object.class) {
+            mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+        }
+    }
+
+    private static void unbox(final MethodVisitor mv, final String wrapper, final String name, final String desc) {
+        mv.visitTypeInsn(CHECKCAST, wrapper);
+        mv.visitMethodInsn(INVOKEVIRTUAL, wrapper, name, desc);
+    }
+
+    /**
+     * Returns the annotation element methods, e.g. the no-arg methods besides annotationType, toString and hashCode.
+     *
+     * @param interfaceClass
+     * @return the element methods
+     */
+    private static Method[] getElementMethods(final Class interfaceClass) {
+        final Method[] methods = interfaceClass.getMethods();
+        final List elements = new ArrayList(methods.length);
+        for (int i = 0; i < methods.length; i++) {
+            final Method method = methods[i];
+            final String name = method.getName();
+            if (method.getParameterTypes().length > 0 || Modifier.isStatic(method.getModifiers()) ||
+                name.equals(ANNOTATION_TYPE_METHOD_NAME) || name.equals(TO_STRING_METHOD_NAME) ||
+                name.equals(HASH_CODE_METHOD_NAME)) {
+                continue;
+            }
+            elements.add(method);
+        }
+        return (Method[]) elements.toArray(new Method[elements.size()]);
+    }
+
+    /**
+     * Checks that the type can be referenced from the generated class.
+     *
+     * @param type
+     * @return true if accessible
+     */
+    private static boolean isAccessible(Class type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        return type.isPrimitive() || Modifier.isPublic(type.getModifiers());
+    }
+
+    /**
+     * The generated class constructor and the methods its instances invoke on their handler, the element methods in
+     * the fields order then toString.
+     */
+    private static class ImplInfo {
+        final Constructor constructor;
+        final Method[] methods;
+
+        ImplInfo(final Constructor constructor, final Method[] methods) {
+            this.constructor = constructor;
+            this.methods = methods;
+        }
+    }
+
+    /**
+     * An annotation interface tracked, with NOT_SUPPORTED or a weak reference to the ImplInfo, which is held by the
+     * class loader of the generated class, and the value of the use clock at its last use
+     */
+    private static class ImplEntry {
+        final Object value;
+        long lastUse;
+
+        ImplEntry(final Object value, final long lastUse) {
+            this.value = value;
+            this.lastUse = lastUse;
+        }
+    }
+
+    /**
+     * Class loader for a generated class, keeps its info for as long as the class is reachable.
+     */
+    private static class ImplClassLoader extends ClassLoader {
+        ImplInfo info;
+
+        ImplClassLoader(final ClassLoader parent) {
+            super(parent);
+        }
+
+        Class define(final String name, final byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -46,6 +46,16 @@ public class JavaDocAnnotationInvocationHander implements InvocationHandler, Ser
      */
     private final ClassLoader m_annotatedClassClassLoader;
 
+    /**
+     * The invoked methods and their return values, grows on first invocation of each method instance
+     */
+    private transient volatile MethodTable m_methodTable = MethodTable.EMPTY;
+
+    /**
+     * The string representation, built on first use
+     */
+    private transient volatile String m_toString;
+
     private ClassLoader getAnnotatedClassClassLoader() {
         return m_annotatedClassClassLoader;
     }
@@ -77,14 +87,74 @@ public class JavaDocAnnotationInvocationHander implements InvocationHandler, Ser
      * @throws Throwable
      */
     public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        MethodTable table = m_methodTable;
+        if (table == null) {
+            // deserialized
+            table = MethodTable.EMPTY;
+        }
+        final Method[] methods = table.methods;
+        for (int i = 0; i < methods.length; i++) {
+            if (methods[i] == method) {
+                return copyPrimitiveArray(table.values[i]);
+            }
+        }
+        return copyPrimitiveArray(addToMethodTable(method));
+    }
+
+    /**
+     * Returns a copy of a primitive array value, since the array is shared by all the accesses.
+     *
+     * @param value
+     * @return a copy if the value is a primitive array, else the value itself
+     */
+    static Object copyPrimitiveArray(final Object value) {
+        if (value == null || !value.getClass().isArray()) {
+            return value;
+        } else if (value instanceof int[]) {
+            return ((int[]) value).clone();
+        } else if (value instanceof long[]) {
+            return ((long[]) value).clone();
+        } else if (value instanceof short[]) {
+            return ((short[]) value).clone();
+        } else if (value instanceof float[]) {
+            return ((float[]) value).clone();
+        } else if (value instanceof double[]) {
+            return ((double[]) value).clone();
+        } else if (value instanceof boolean[]) {
+            return ((boolean[]) value).clone();
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        } else if (value instanceof char[]) {
+            return ((char[]) value).clone();
+        }
+        return value;
+    }
+
+    /**
+     * Dispatches to the target method being invoked and records the return value for the method instance.
+     *
+     * @param method
+     * @return the return value
+     */
+    private synchronized Object addToMethodTable(final Method method) {
+        final MethodTable table = m_methodTable != null ? m_methodTable : MethodTable.EMPTY;
+        for (int i = 0; i < table.methods.length; i++) {
+            // equal but not identical method instances are not added, to keep the table bounded
+            if (table.methods[i].equals(method)) {
+                return table.values[i];
+            }
+        }
         final String methodName = method.getName();
+        final Object value;
         if (methodName.equals(ANNOTATION_TYPE_METHOD_NAME)) {
-            return m_annotationInterface;
+            value = m_annotationInterface;
         } else if (methodName.equals(TO_STRING_METHOD_NAME)) {
-            return invokeToString();
+            value = invokeToString();
         } else {
-            return invokeAnnotationValue(method);
+            value = invokeAnnotationValue(method);
         }
+        m_methodTable = table.add(method, value);
+        return value;
     }
 
     /**
@@ -93,7 +163,7 @@ public class JavaDocAnnotationInvocationHander implements InvocationHandler, Ser
      * @param method
      * @return
      */
-    private Object invokeAnnotationValue(final Method method) {
+    Object invokeAnnotationValue(final Method method) {
         Object returnValue = null;
         for (Iterator it = m_annotation.getElements().iterator(); it.hasNext();) {
             AnnotationElement.NamedValue namedValue = (AnnotationElement.NamedValue)it.next();
@@ -110,14 +180,19 @@ public class JavaDocAnnotationInvocationHander implements InvocationHandler, Ser
      *
      * @return the string representation for the annotation
      */
-    private Object invokeToString() {
-        StringBuffer sb = new StringBuffer();
-        sb.append('@');
-        sb.append(m_annotationName);
-        sb.append('(');
-        sb.append(m_annotation.toString());
-        sb.append(')');
-        return sb.toString();
+    Object invokeToString() {
+        String toString = m_toString;
+        if (toString == null) {
+            StringBuffer sb = new StringBuffer();
+            sb.append('@');
+            sb.append(m_annotationName);
+            sb.append('(');
+            sb.append(m_annotation.toString());
+            sb.append(')');
+            toString = sb.toString();
+            m_toString = toString;
+        }
+        return toString;
     }
 
     /**
@@ -133,7 +208,10 @@ public class JavaDocAnnotationInvocationHander implements InvocationHandler, Ser
         }
         AnnotationElement.Type type = namedValue.getType();
         final Object value;
-        if (type.equals(AnnotationElement.Type.ANNOTATION)) {
+        if (namedValue.isPrimitiveArray()) {
+            value = resolvePrimitiveArray(namedValue, valueType);
+
+        } else if (type.equals(AnnotationElement.Type.ANNOTATION)) {
             AnnotationElement.Annotation annotation = (AnnotationElement.Annotation)namedValue.getValue();
             value = ProxyFactory.newAnnotationProxy(annotation, getAnnotatedClassClassLoader());
 
@@ -248,6 +326,24 @@ public class JavaDocAnnotationInvocationHander implements InvocationHandler, Ser
         }
     }
 
+    /**
+     * Checks that a primitive array value matches the element type, the array itself is the resolved value.
+     *
+     * @param namedValue
+     * @param valueType
+     * @return
+     */
+    private Object resolvePrimitiveArray(final AnnotationElement.NamedValue namedValue, final Class valueType) {
+        final Object value = namedValue.getPrimitiveArray();
+        if (!valueType.isInstance(value)) {
+            throw new IllegalArgumentException(
+                    "annotation interface method [" + namedValue.getName() + "] in interface [" + m_annotationName +
+                    "] needs to return a " + value.getClass().getComponentType().getName() + "[] type"
+            );
+        }
+        return value;
+    }
+
     /**
      * Resolves the array type and returns an array instance of the correct type (including primitive types).
      *
@@ -352,5 +448,33 @@ public class JavaDocAnnotationInvocationHander implements InvocationHandler, Ser
         return null;
     }
 
-}
 
+    /**
+     * Immutable table of method instances and their return values, searched by identity.
+     * <p/>
+     * Annotation interfaces only have a handful of methods and the proxy always passes the same method instances, so
+     * a linear identity scan is cheaper than hashing.
+     */
+    private static final class MethodTable {
+        static final MethodTable EMPTY = new MethodTable(new Method[0], new Object[0]);
+
+        final Method[] methods;
+        final Object[] values;
+
+        private MethodTable(final Method[] methods, final Object[] values) {
+            this.methods = methods;
+            this.values = values;
+        }
+
+        MethodTable add(final Method method, final Object value) {
+            final int length = methods.length;
+            final Method[] newMethods = new Method[length + 1];
+            final Object[] newValues = new Object[length + 1];
+            System.arraycopy(methods, 0, newMethods, 0, length);
+            System.arraycopy(values, 0, newValues, 0, length);
+            newMethods[length] = method;
+            newValues[length] = value;
+            return new MethodTable(newMethods, newValues);
+        }
+    }
+}
@@ -14,13 +14,70 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 
 /**
- * Creates a proxy instance (Java dynamic proxy) for a given reader.
+ * Creates the annotation instances for a given reader.
+ * <p/>
+ * By default the annotation instances are instances of classes generated once per annotation interface (see
+ * {@link AnnotationImplFactory}), Java dynamic proxies are used for the annotation interfaces that can not be
+ * implemented this way. Setting the system property <code>backport175.annotation.impl</code> to <code>proxy</code>
+ * forces the use of Java dynamic proxies, f.e. where the annotation instances are serialized since the generated
+ * instances do not implement Serializable.
  *
  * @author <a href="mailto:jboner@codehaus.org">Jonas Bonr</a>
  * @author <a href="mailto:alex AT gnilux DOT com">Alexandre Vasseur</a>
  */
 public class ProxyFactory {
 
+    /**
+     * System property to select how the annotation instances are created
+     */
+    public static final String ANNOTATION_IMPL_PROPERTY = "backport175.annotation.impl";
+
+    /**
+     * Property value forcing Java dynamic proxies
+     */
+    public static final String ANNOTATION_IMPL_PROXY = "proxy";
+
+    private static final boolean USE_PROXY = ANNOTATION_IMPL_PROXY.equals(getAnnotationImplProperty());
+
+    /**
+     * System property for the maximum number of annotation interfaces whose generated class is tracked, 0 for
+     * unbounded
+     */
+    public static final String MAX_ANNOTATION_IMPL_CLASSES_PROPERTY = "backport175.annotation.impl.maxClasses";
+
+    static {
+        try {
+            final String maxClasses = getSystemProperty(MAX_ANNOTATION_IMPL_CLASSES_PROPERTY);
+            if (maxClasses != null) {
+                AnnotationImplFactory.setMaxImpls(Integer.parseInt(maxClasses.trim()));
+            }
+        } catch (RuntimeException e) {
+            // invalid bound, the default one is kept
+        }
+    }
+
+    /**
+     * Bounds the number of annotation interfaces whose generated class is tracked. Once exceeded, the least recently
+     * used interface is dropped, and its class generated again when its next annotation is created.
+     * <p/>
+     * Defaults to the value of the system property <code>backport175.annotation.impl.maxClasses</code>, 256 if not
+     * set.
+     *
+     * @param maxClasses the maximum number of annotation interfaces, 0 for unbounded
+     */
+    public static void setMaxAnnotationImplClasses(final int maxClasses) {
+        AnnotationImplFactory.setMaxImpls(maxClasses);
+    }
+
+    /**
+     * Returns the number of annotation interfaces whose generated class is tracked.
+     *
+     * @return the number of annotation interfaces
+     */
+    public static int getAnnotationImplClassCount() {
+        return AnnotationImplFactory.getImplCount();
+    }
+
     /**
      * Creates a new proxy for the annotation specified.
      *
@@ -34,12 +91,47 @@ public class ProxyFactory {
         if (loader != backportLoader) {
             loader = backportLoader;
         }
-        final Class interfaceClass;
-        try {
-            interfaceClass = Class.forName(annotation.getInterfaceName(), false, loader);
-        } catch (ClassNotFoundException e) {
-            throw new ResolveAnnotationException("annotation interface [" + annotation.getInterfaceName() + "] could not be found");
+        final Class interfaceClass = getInterfaceClass(annotation, loader);
+        if (!USE_PROXY) {
+            final Annotation annotationImpl = AnnotationImplFactory.newAnnotationImpl(interfaceClass, annotation, loader);
+            if (annotationImpl != null) {
+                return annotationImpl;
+            }
         }
+        return newDynamicProxy(interfaceClass, annotation, loader);
+    }
+
+    /**
+     * Creates a new instance of the generated class implementing the annotation specified.
+     *
+     * @param annotation the annotation data structure abstraction
+     * @param loader the class loader for the target class
+     * @return the annotation instance, or null if the annotation interface can not be implemented by a generated class
+     */
+    public static Annotation newAnnotationImpl(final AnnotationElement.Annotation annotation,
+                                               final ClassLoader loader) {
+        final ClassLoader backportLoader = Annotation.class.getClassLoader();
+        return AnnotationImplFactory.newAnnotationImpl(
+                getInterfaceClass(annotation, backportLoader), annotation, backportLoader
+        );
+    }
+
+    /**
+     * Creates a new Java dynamic proxy for the annotation specified, regardless of the system property.
+     *
+     * @param annotation the annotation data structure abstraction
+     * @param loader the class loader for the target class
+     * @return the proxy for the annotation
+     */
+    public static Annotation newDynamicProxy(final AnnotationElement.Annotation annotation,
+                                             final ClassLoader loader) {
+        final ClassLoader backportLoader = Annotation.class.getClassLoader();
+        return newDynamicProxy(getInterfaceClass(annotation, backportLoader), annotation, backportLoader);
+    }
+
+    private static Annotation newDynamicProxy(final Class interfaceClass,
+                                              final AnnotationElement.Annotation annotation,
+                                              final ClassLoader loader) {
         final InvocationHandler handler = new JavaDocAnnotationInvocationHander(interfaceClass, annotation, loader);
         final Object annotationProxy = Proxy.newProxyInstance(
                   loader,
@@ -48,4 +140,24 @@ public class ProxyFactory {
           );
         return (Annotation)annotationProxy;
     }
+
+    private static Class getInterfaceClass(final AnnotationElement.Annotation annotation, final ClassLoader loader) {
+        try {
+            return Class.forName(annotation.getInterfaceName(), false, loader);
+        } catch (ClassNotFoundException e) {
+            throw new ResolveAnnotationException("annotation interface [" + annotation.getInterfaceName() + "] could not be found");
+        }
+    }
+
+    private static String getAnnotationImplProperty() {
+        return getSystemProperty(ANNOTATION_IMPL_PROPERTY);
+    }
+
+    private static String getSystemProperty(final String name) {
+        try {
+            return System.getProperty(name);
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
 }
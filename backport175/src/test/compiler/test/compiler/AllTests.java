@@ -11,6 +11,13 @@ import junit.framework.TestCase;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import test.compiler.validation.ValidationTest;
+import test.compiler.validation.DirectParserValidationTest;
+import test.compiler.validation.StreamingParserValidationTest;
+import test.compiler.parallel.ParallelCompilationTest;
+import test.compiler.incremental.IncrementalCompilationTest;
+import test.compiler.parser.ParserThroughputTest;
+import test.compiler.parser.AnnotationElementTypesTest;
+import test.compiler.javadoc.JavaDocParserTest;
 
 /**
  * @author <a href="mailto:jboner@codehaus.org">Jonas Bonr</a>
@@ -21,6 +28,13 @@ public class AllTests extends TestCase {
         TestSuite suite = new TestSuite("All tests");
 
         suite.addTestSuite(ValidationTest.class);
+        suite.addTestSuite(DirectParserValidationTest.class);
+        suite.addTestSuite(StreamingParserValidationTest.class);
+        suite.addTestSuite(ParallelCompilationTest.class);
+        suite.addTestSuite(IncrementalCompilationTest.class);
+        suite.addTestSuite(ParserThroughputTest.class);
+        suite.addTestSuite(AnnotationElementTypesTest.class);
+        suite.addTestSuite(JavaDocParserTest.class);
 
         return suite;
     }
@@ -0,0 +1,162 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.compiler.incremental;
+
+import junit.framework.TestCase;
+
+import org.codehaus.backport175.compiler.AnnotationC;
+import org.codehaus.backport175.compiler.MessageHandler;
+import org.codehaus.backport175.compiler.CompilerException;
+import org.codehaus.backport175.compiler.CompilerOptions;
+import org.codehaus.backport175.compiler.SourceLocation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that the incremental compilation only compiles the classes that changed.
+ */
+public class IncrementalCompilationTest extends TestCase {
+
+    private static final String CLASSPATH = "target/testcompiler-classes";
+    private static final String DEST_DIR = "target/incremental-classes";
+    private static final String SOURCE_DIR = "src/test/compiler/test/compiler/incremental/";
+    private static final String[] SOURCE_FILES = new String[]{
+        SOURCE_DIR + "Target1.java",
+        SOURCE_DIR + "Target2.java"
+    };
+    private static final String TARGET1 = "test/compiler/incremental/Target1.class";
+    private static final String TARGET2 = "test/compiler/incremental/Target2.class";
+
+    public static interface Named {
+        String value();
+    }
+
+    public IncrementalCompilationTest(String name) {
+        super(name);
+    }
+
+    public void testUnchangedClassesAreSkipped() throws IOException {
+        // the classes are annotated in place, as javac left them
+        File destDir = new File(DEST_DIR);
+        copy(new File(CLASSPATH, TARGET1), new File(destDir, TARGET1));
+        copy(new File(CLASSPATH, TARGET2), new File(destDir, TARGET2));
+        new File(destDir, ".backport175-state").delete();
+
+        List accepted = compile(destDir);
+        assertEquals(6, accepted.size());
+        byte[] target1 = read(new File(destDir, TARGET1));
+        byte[] target2 = read(new File(destDir, TARGET2));
+
+        assertEquals(0, compile(destDir).size());
+        assertTrue(Arrays.equals(target1, read(new File(destDir, TARGET1))));
+
+        // javac overwrites Target2
+        copy(new File(CLASSPATH, TARGET2), new File(destDir, TARGET2));
+        accepted = compile(destDir);
+        assertEquals(3, accepted.size());
+        for (int i = 0; i < accepted.size(); i++) {
+            assertEquals(Target2.class.getName(), ((SourceLocation) accepted.get(i)).getClassName());
+        }
+        assertTrue(Arrays.equals(target2, read(new File(destDir, TARGET2))));
+        assertEquals(0, compile(destDir).size());
+    }
+
+    public void testPartialCompilationKeepsState() throws IOException {
+        File destDir = new File(DEST_DIR);
+        copy(new File(CLASSPATH, TARGET1), new File(destDir, TARGET1));
+        copy(new File(CLASSPATH, TARGET2), new File(destDir, TARGET2));
+        new File(destDir, ".backport175-state").delete();
+        assertEquals(6, compile(destDir).size());
+
+        // an IDE compiles one file at a time, the state of the other one is kept
+        assertEquals(0, compile(destDir, new String[]{SOURCE_FILES[0]}, false).size());
+        assertEquals(0, compile(destDir).size());
+
+        // writing the index changes the configuration, the classes are compiled again to be indexed
+        assertEquals(6, compile(destDir, SOURCE_FILES, true).size());
+        assertEquals(0, compile(destDir, SOURCE_FILES, true).size());
+    }
+
+    private static List compile(final File destDir) {
+        return compile(destDir, SOURCE_FILES, false);
+    }
+
+    private static List compile(final File destDir, final String[] sourceFiles, final boolean writeIndex) {
+        final List accepted = new ArrayList();
+        final List errors = new ArrayList();
+        final CompilerOptions options = new CompilerOptions();
+        options.setWriteIndex(writeIndex);
+        options.setIncremental(true);
+        AnnotationC.compile(
+                new String[]{},
+                sourceFiles,
+                new String[]{destDir.getPath(), CLASSPATH},
+                destDir.getPath(),
+                new String[]{},
+                new MessageHandler() {
+                    public void info(String message) {
+                    }
+
+                    public void error(CompilerException exception) {
+                        errors.add(exception);
+                    }
+
+                    public void accept(SourceLocation sourceLocation) {
+                        accepted.add(sourceLocation);
+                    }
+                },
+                options
+        );
+        assertEquals(errors.toString(), 0, errors.size());
+        return accepted;
+    }
+
+    private static void copy(final File from, final File to) throws IOException {
+        to.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(to);
+        try {
+            out.write(read(from));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] read(final File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = in.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    break;
+                }
+                offset += read;
+            }
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(IncrementalCompilationTest.class);
+    }
+}
@@ -0,0 +1,25 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.compiler.incremental;
+
+/**
+ * @test.compiler.incremental.IncrementalCompilationTest.Named("target2")
+ */
+public class Target2 {
+
+    /**
+     * @test.compiler.incremental.IncrementalCompilationTest.Named("field")
+     */
+    private int m_field;
+
+    /**
+     * @test.compiler.incremental.IncrementalCompilationTest.Named("method")
+     */
+    public void method() {
+    }
+}
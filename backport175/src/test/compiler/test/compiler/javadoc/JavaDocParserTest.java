@@ -0,0 +1,162 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.compiler.javadoc;
+
+import junit.framework.TestCase;
+
+import com.thoughtworks.qdox.model.DocletTag;
+import com.thoughtworks.qdox.model.JavaClass;
+import com.thoughtworks.qdox.model.JavaMethod;
+import com.thoughtworks.qdox.model.JavaParameter;
+
+import org.codehaus.backport175.compiler.AnnotationInterfaceRepository;
+import org.codehaus.backport175.compiler.CompilerException;
+import org.codehaus.backport175.compiler.MessageHandler;
+import org.codehaus.backport175.compiler.SourceLocation;
+import org.codehaus.backport175.compiler.javadoc.JavaDocParser;
+import org.codehaus.backport175.compiler.javadoc.SourceParseException;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the source trees parsed with several threads and the source files skipped since they have no annotation.
+ */
+public class JavaDocParserTest extends TestCase {
+
+    private static final String SOURCE_TREE = "src/test/compiler";
+    private static final String PARALLEL_SOURCE_TREE = "src/test/compiler/test/compiler/parallel";
+
+    public JavaDocParserTest(String name) {
+        super(name);
+    }
+
+    public void testParallelParsing() {
+        final List serial = describe(parse(SOURCE_TREE, 1, false).getJavaClasses());
+        final List parallel = describe(parse(SOURCE_TREE, 4, false).getJavaClasses());
+        assertEquals(serial, parallel);
+        assertTrue(serial.toString(), serial.contains("test.compiler.javadoc.JavaDocParserTest"));
+    }
+
+    public void testInterruptedParsing() {
+        final List serial = describe(parse(SOURCE_TREE, 1, false).getJavaClasses());
+        Thread.currentThread().interrupt();
+        final List parallel;
+        try {
+            parallel = describe(parse(SOURCE_TREE, 4, false).getJavaClasses());
+        } finally {
+            // the interruption is kept, once all the sources are parsed
+            assertTrue(Thread.interrupted());
+        }
+        assertEquals(serial, parallel);
+    }
+
+    public void testAnnotationFilter() {
+        final JavaDocParser parser = parse(PARALLEL_SOURCE_TREE, 1, true);
+        // the test itself has no annotation
+        assertEquals(1, parser.getSkippedSources());
+        final List classNames = getClassNames(parser.getJavaClasses());
+        assertEquals(3, classNames.size());
+        assertTrue(classNames.toString(), classNames.contains("test.compiler.parallel.Target1"));
+        assertFalse(classNames.toString(), classNames.contains("test.compiler.parallel.ParallelCompilationTest"));
+
+        // same classes with several threads
+        assertEquals(describe(parser.getJavaClasses()), describe(parse(PARALLEL_SOURCE_TREE, 4, true).getJavaClasses()));
+        // all the classes without filter
+        assertTrue(getClassNames(parse(PARALLEL_SOURCE_TREE, 1, false).getJavaClasses()).size() > 3);
+    }
+
+    public void testParseError() throws IOException {
+        final File dir = new File("target/javadoc-error");
+        dir.mkdirs();
+        for (int i = 0; i < 8; i++) {
+            final FileWriter writer = new FileWriter(new File(dir, "Source" + i + ".java"));
+            try {
+                writer.write("/**\n * @test.Annotation\n */\npublic class Source" + i + (i == 5 ? " {\n" : " {}\n"));
+            } finally {
+                writer.close();
+            }
+        }
+        try {
+            parse(dir.getPath(), 4, true);
+            fail("parse error expected");
+        } catch (SourceParseException e) {
+            assertTrue(e.getMessage(), e.getMessage().indexOf("Source5.java") >= 0);
+        }
+    }
+
+    private static JavaDocParser parse(final String sourceTree, final int threads, final boolean filter) {
+        final JavaDocParser parser = new JavaDocParser();
+        parser.addClassLoaderToSearchPath(JavaDocParserTest.class.getClassLoader());
+        parser.setThreads(threads);
+        if (filter) {
+            parser.setAnnotationFilter(new AnnotationInterfaceRepository(new NullMessageHandler()));
+        }
+        parser.addSourceTrees(new String[]{sourceTree});
+        return parser;
+    }
+
+    private static List getClassNames(final JavaClass[] classes) {
+        final List classNames = new ArrayList();
+        for (int i = 0; i < classes.length; i++) {
+            classNames.add(classes[i].getFullyQualifiedName());
+        }
+        return classNames;
+    }
+
+    /**
+     * Returns the classes, their doclets and their methods with the resolved parameter types.
+     */
+    private static List describe(final JavaClass[] classes) {
+        final List description = new ArrayList();
+        for (int i = 0; i < classes.length; i++) {
+            description.add(classes[i].getFullyQualifiedName());
+            addTags(classes[i].getTags(), description);
+            final JavaMethod[] methods = classes[i].getMethods();
+            for (int j = 0; j < methods.length; j++) {
+                final StringBuffer signature = new StringBuffer(methods[j].getName()).append('(');
+                final JavaParameter[] parameters = methods[j].getParameters();
+                for (int k = 0; k < parameters.length; k++) {
+                    signature.append(k == 0 ? "" : ",").append(parameters[k].getType().getValue());
+                }
+                description.add(signature.append(')').toString());
+                addTags(methods[j].getTags(), description);
+            }
+        }
+        return description;
+    }
+
+    private static void addTags(final DocletTag[] tags, final List description) {
+        for (int i = 0; i < tags.length; i++) {
+            description.add("@" + tags[i].getName() + " " + tags[i].getValue());
+        }
+    }
+
+    private static class NullMessageHandler implements MessageHandler {
+        public void info(final String message) {
+        }
+
+        public void error(final CompilerException exception) {
+        }
+
+        public void accept(final SourceLocation sourceLocation) {
+        }
+    }
+
+    //-- junit
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(JavaDocParserTest.class);
+    }
+}
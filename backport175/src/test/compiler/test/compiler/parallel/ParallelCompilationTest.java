@@ -0,0 +1,135 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.compiler.parallel;
+
+import junit.framework.TestCase;
+
+import org.codehaus.backport175.compiler.AnnotationC;
+import org.codehaus.backport175.compiler.MessageHandler;
+import org.codehaus.backport175.compiler.CompilerException;
+import org.codehaus.backport175.compiler.CompilerOptions;
+import org.codehaus.backport175.compiler.SourceLocation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that compiling with several threads gives the same classes and the same messages as with one thread.
+ */
+public class ParallelCompilationTest extends TestCase {
+
+    private static final String CLASSPATH = "target/testcompiler-classes";
+    private static final String SOURCE_DIR = "src/test/compiler/test/compiler/";
+    private static final String[] SOURCE_FILES = new String[]{
+        SOURCE_DIR + "parallel/Target1.java",
+        SOURCE_DIR + "validation/IntArrayAnnoTarget.java",
+        SOURCE_DIR + "parallel/Target2.java",
+        SOURCE_DIR + "parallel/Target3.java"
+    };
+    private static final String[] CLASS_FILES = new String[]{
+        "test/compiler/parallel/Target1.class",
+        "test/compiler/validation/IntArrayAnnoTarget.class",
+        "test/compiler/parallel/Target2.class",
+        "test/compiler/parallel/Target3.class"
+    };
+
+    public static interface Named {
+        String value();
+    }
+
+    public static interface Count {
+        int value();
+    }
+
+    public ParallelCompilationTest(String name) {
+        super(name);
+    }
+
+    public void testSameOutputAsSerial() throws IOException {
+        File serialDir = new File("target/parallel-serial");
+        File parallelDir = new File("target/parallel-threads");
+        List serialMessages = compile(serialDir, 1);
+        List parallelMessages = compile(parallelDir, 4);
+
+        assertEquals(serialMessages, parallelMessages);
+        // the parse error of IntArrayAnnoTarget is reported between the classes, as with a single thread
+        assertTrue(serialMessages.toString(), serialMessages.size() > 1);
+        for (int i = 0; i < CLASS_FILES.length; i++) {
+            if (!new File(serialDir, CLASS_FILES[i]).exists()) {
+                // not written due to the parse error
+                assertFalse(CLASS_FILES[i], new File(parallelDir, CLASS_FILES[i]).exists());
+                continue;
+            }
+            assertTrue(
+                    CLASS_FILES[i],
+                    Arrays.equals(read(new File(serialDir, CLASS_FILES[i])), read(new File(parallelDir, CLASS_FILES[i])))
+            );
+        }
+    }
+
+    private static List compile(final File destDir, final int threads) {
+        final List messages = new ArrayList();
+        final CompilerOptions options = new CompilerOptions();
+        options.setThreads(threads);
+        AnnotationC.compile(
+                new String[]{},
+                SOURCE_FILES,
+                new String[]{CLASSPATH},
+                destDir.getPath(),
+                new String[]{},
+                new MessageHandler() {
+                    public void info(String message) {
+                        if (message.startsWith("parsing class")) {
+                            messages.add(message);
+                        }
+                    }
+
+                    public void error(CompilerException exception) {
+                        messages.add("ERROR: " + exception.getMessage());
+                    }
+
+                    public void accept(SourceLocation sourceLocation) {
+                        messages.add("OK: " + sourceLocation.toString());
+                    }
+                },
+                options
+        );
+        return messages;
+    }
+
+    private static byte[] read(final File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = in.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    break;
+                }
+                offset += read;
+            }
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(ParallelCompilationTest.class);
+    }
+}
@@ -0,0 +1,32 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.compiler.parallel;
+
+/**
+ * @test.compiler.parallel.ParallelCompilationTest.Named("target3")
+ */
+public class Target3 {
+
+    /**
+     * @test.compiler.parallel.ParallelCompilationTest.Count(3)
+     */
+    private int m_count;
+
+    /**
+     * @test.compiler.parallel.ParallelCompilationTest.Named("constructor")
+     */
+    public Target3() {
+    }
+
+    /**
+     * @test.compiler.parallel.ParallelCompilationTest.Count(30)
+     * @test.compiler.parallel.ParallelCompilationTest.Named("method")
+     */
+    public void method(int i, String s) {
+    }
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.compiler.parser;
+
+import junit.framework.TestCase;
+
+import org.codehaus.backport175.compiler.parser.AnnotationElementTypes;
+
+/**
+ * Checks the cached element types of the annotation interfaces.
+ */
+public class AnnotationElementTypesTest extends TestCase {
+
+    public static interface Elements {
+        String name();
+        int[] values();
+        ParserThroughputTest.Single nested();
+        // not an element
+        String format(String pattern);
+    }
+
+    public AnnotationElementTypesTest(String name) {
+        super(name);
+    }
+
+    public void testElementTypes() {
+        final AnnotationElementTypes elementTypes = new AnnotationElementTypes();
+        assertEquals(String.class, elementTypes.getType(Elements.class, "name"));
+        assertEquals(int[].class, elementTypes.getType(Elements.class, "values"));
+        assertEquals(ParserThroughputTest.Single.class, elementTypes.getType(Elements.class, "nested"));
+        assertNull(elementTypes.getType(Elements.class, "format"));
+        assertNull(elementTypes.getType(Elements.class, "unknown"));
+    }
+
+    public void testConcurrentCompilations() throws Exception {
+        final AnnotationElementTypes[] elementTypes = new AnnotationElementTypes[4];
+        final Throwable[] failures = new Throwable[elementTypes.length];
+        final Thread[] threads = new Thread[elementTypes.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            elementTypes[i] = new AnnotationElementTypes();
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 1000; j++) {
+                            assertEquals(int[].class, elementTypes[index].getType(Elements.class, "values"));
+                            assertNull(elementTypes[index].getType(ParserThroughputTest.Single.class, "unknown"));
+                        }
+                    } catch (Throwable t) {
+                        failures[index] = t;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            assertNull(String.valueOf(failures[i]), failures[i]);
+        }
+    }
+
+    //-- junit
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(AnnotationElementTypesTest.class);
+    }
+}
@@ -0,0 +1,347 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.compiler.parser;
+
+import junit.framework.TestCase;
+
+import org.codehaus.backport175.compiler.javadoc.RawAnnotation;
+import org.codehaus.backport175.compiler.parser.AnnotationParser;
+import org.codehaus.backport175.compiler.parser.ParseException;
+import org.objectweb.asm.AnnotationVisitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the annotation parsing from several threads.
+ * <p/>
+ * Running the class measures the annotations parsed per second, after the tests.
+ */
+public class ParserThroughputTest extends TestCase {
+
+    private static final int THREADS = 4;
+    private static final int CHECKED_PARSES = 1000;
+    private static final int PARSES = 20000;
+    private static final int LARGE_PARSES = 200;
+
+    private static final String SINGLE = "@test.compiler.parser.ParserThroughputTest.Single";
+
+    /**
+     * Annotations of the Full type, parsed by all the parsers
+     */
+    private static final String[] CORPUS = new String[]{
+        "s=\"a\\\"b\\\\c\\u0041\\101\", i=42, l=7L, f=1.5f, d=1e10, c='x', b=true, type=java.lang.String[].class",
+        "i=0x1F, l=017L, d=.5, f=3F, c='\\n', b=FALSE, type=int.class",
+        "d=1.5e+3d, f=0f, i=00, c='\\101', type=java.lang.String.class",
+        "c='\\u0041', l=0L, d=2.",
+        "ss={\"a\", \"b\"}, ii={1, 2, 3}",
+        "ss={}, ii={}",
+        "s=\"x\",\n\ti=1",
+        "nested=" + SINGLE + "(\"x\")",
+        "nested=" + SINGLE + "(value=\"x\")",
+        "nestedArr={" + SINGLE + "(\"a\"), " + SINGLE + "(value=\"b\")}",
+        "",
+        "   ",
+        // not well formed
+        "i=",
+        "i=1,",
+        "ii={1,}",
+        "ii={1 2}",
+        "s=\"unterminated",
+        "i=-1",
+        "c='ab'",
+        "i=1) x",
+        "abc",
+        "1",
+        "i=1 2",
+        "type=a.b",
+        "s=\"\\q\"",
+        "i=1\r",
+        "nested=@",
+        "nested=" + SINGLE + "(",
+        "i=1, i",
+        // not valid
+        "i=\"x\"",
+        "i=\"x\", s=1",
+        "unknown=1",
+        "nested=" + SINGLE + "(1)",
+        "ii={1, \"x\"}",
+        "i=0x1F, s=\"x\"",
+        "type=a.b.c",
+        // not valid and not well formed, the parse error wins
+        "i=\"x\", s=",
+        "unknown=1 2",
+        "nested=" + SINGLE + "(1), ii={1,}"
+    };
+
+    public static interface Full {
+        String s();
+        int i();
+        long l();
+        float f();
+        double d();
+        char c();
+        boolean b();
+        Class type();
+        String[] ss();
+        int[] ii();
+        Single nested();
+        Single[] nestedArr();
+    }
+
+    private static final RawAnnotation SAMPLE = newRawAnnotation(
+            Sample.class, "name=\"hello\nworld\", count=42, values={1L, 2L, 3L}"
+    );
+    private static final String[] SAMPLE_VISITS = new String[]{
+        "name=hello world", "count=42", "values[", "values=1", "values=2", "values=3", "]"
+    };
+
+    public static interface Sample {
+        String name();
+        int count();
+        long[] values();
+    }
+
+    public static interface Single {
+        String value();
+    }
+
+    public ParserThroughputTest(String name) {
+        super(name);
+    }
+
+    public void testParse() {
+        assertEquals(toList(SAMPLE_VISITS), parse(SAMPLE));
+        // the parser is reused for the next annotation
+        assertEquals(toList(new String[]{"value=single"}), parse(newRawAnnotation(Single.class, "\"single\"")));
+        assertEquals(toList(SAMPLE_VISITS), parse(SAMPLE));
+    }
+
+    public void testParseError() {
+        try {
+            parse(newRawAnnotation(Sample.class, "count=="));
+            fail("parse error expected");
+        } catch (ParseException e) {
+            assertTrue(e.getMessage(), e.getMessage().indexOf("[@" + Sample.class.getName() + "(count==)]") >= 0);
+        }
+        // the failure does not leave the parser in a bad state
+        assertEquals(toList(SAMPLE_VISITS), parse(SAMPLE));
+    }
+
+    protected void tearDown() throws Exception {
+        AnnotationParser.setParser(AnnotationParser.JAVACC_PARSER);
+        super.tearDown();
+    }
+
+    public void testDirectParser() {
+        for (int i = 0; i < CORPUS.length; i++) {
+            final RawAnnotation annotation = newRawAnnotation(Full.class, CORPUS[i]);
+            AnnotationParser.setParser(AnnotationParser.JAVACC_PARSER);
+            final String generated = parseOrError(annotation);
+            AnnotationParser.setParser(AnnotationParser.DIRECT_PARSER);
+            final String direct = parseOrError(annotation);
+            assertEquals(CORPUS[i], generated, direct);
+        }
+        assertEquals(toList(SAMPLE_VISITS), parse(SAMPLE));
+    }
+
+    public void testStreamingParser() {
+        for (int i = 0; i < CORPUS.length; i++) {
+            final RawAnnotation annotation = newRawAnnotation(Full.class, CORPUS[i]);
+            AnnotationParser.setParser(AnnotationParser.DIRECT_PARSER);
+            final String tree = parseOrErrorMessage(annotation);
+            AnnotationParser.setParser(AnnotationParser.STREAMING_PARSER);
+            final String streamed = parseOrErrorMessage(annotation);
+            assertEquals(CORPUS[i], tree, streamed);
+        }
+        assertEquals(toList(SAMPLE_VISITS), parse(SAMPLE));
+        try {
+            AnnotationParser.setParser("unknown");
+            fail("unknown parser accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals(AnnotationParser.STREAMING_PARSER, AnnotationParser.getParser());
+        }
+    }
+
+    public void testLargeAnnotation() {
+        final RawAnnotation annotation = newLargeAnnotation();
+        AnnotationParser.setParser(AnnotationParser.JAVACC_PARSER);
+        final List expected = parse(annotation);
+        AnnotationParser.setParser(AnnotationParser.DIRECT_PARSER);
+        assertEquals(expected, parse(annotation));
+        AnnotationParser.setParser(AnnotationParser.STREAMING_PARSER);
+        assertEquals(expected, parse(annotation));
+    }
+
+    public void testConcurrentParses() throws Throwable {
+        runConcurrently(THREADS, CHECKED_PARSES);
+    }
+
+    /**
+     * Parses the sample from several threads, checks every result and returns the time taken.
+     */
+    private static long runConcurrently(final int threads, final int parses) throws Throwable {
+        final List expected = toList(SAMPLE_VISITS);
+        final Throwable[] failure = new Throwable[1];
+        final Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < parses; i++) {
+                            assertEquals(expected, parse(SAMPLE));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+        }
+        long startTime = System.currentTimeMillis();
+        for (int t = 0; t < threads; t++) {
+            workers[t].start();
+        }
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+        }
+        long time = System.currentTimeMillis() - startTime;
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return time;
+    }
+
+    private static RawAnnotation newLargeAnnotation() {
+        final StringBuffer value = new StringBuffer("ss={");
+        for (int i = 0; i < 1000; i++) {
+            value.append(i == 0 ? "" : ", ").append("\"string number ").append(i).append('"');
+        }
+        value.append("}, nestedArr={");
+        for (int i = 0; i < 100; i++) {
+            value.append(i == 0 ? "" : ", ").append(SINGLE).append("(value=\"nested ").append(i).append("\")");
+        }
+        value.append('}');
+        return newRawAnnotation(Full.class, value.toString());
+    }
+
+    private static void benchmarkLargeAnnotations() {
+        final RawAnnotation annotation = newLargeAnnotation();
+        final String[] parsers = new String[]{
+            AnnotationParser.JAVACC_PARSER, AnnotationParser.DIRECT_PARSER, AnnotationParser.STREAMING_PARSER
+        };
+        for (int p = 0; p < parsers.length; p++) {
+            AnnotationParser.setParser(parsers[p]);
+            parse(annotation);
+            long startTime = System.currentTimeMillis();
+            for (int i = 0; i < LARGE_PARSES; i++) {
+                parse(annotation);
+            }
+            long time = System.currentTimeMillis() - startTime;
+            System.out.println(
+                    "large annotations parsed with the " + parsers[p] + " parser : " +
+                    (long) ((LARGE_PARSES * 1000d) / Math.max(time, 1)) + " per second"
+            );
+        }
+        AnnotationParser.setParser(AnnotationParser.JAVACC_PARSER);
+    }
+
+    private static void benchmarkThroughput() throws Throwable {
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= processors; threads <<= 1) {
+            long time = runConcurrently(threads, PARSES);
+            double parsesPerSecond = (PARSES * (double) threads * 1000) / Math.max(time, 1);
+            System.out.println(
+                    "annotations parsed with " + threads + " thread(s) : " + (long) parsesPerSecond + " per second"
+            );
+        }
+    }
+
+    /**
+     * Returns the elements visited, or "error" if the annotation is not well formed.
+     */
+    private static String parseOrError(final RawAnnotation annotation) {
+        try {
+            return parse(annotation).toString();
+        } catch (ParseException e) {
+            return "error";
+        }
+    }
+
+    /**
+     * Returns the elements visited, or the error message if the annotation is not well formed or not valid.
+     */
+    private static String parseOrErrorMessage(final RawAnnotation annotation) {
+        try {
+            return parse(annotation).toString();
+        } catch (ParseException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static List parse(final RawAnnotation annotation) {
+        final RecordingVisitor visitor = new RecordingVisitor();
+        AnnotationParser.parse(visitor, annotation, ParserThroughputTest.class.getClassLoader());
+        return visitor.m_visits;
+    }
+
+    private static RawAnnotation newRawAnnotation(final Class annotationClass, final String value) {
+        return new RawAnnotation(
+                annotationClass, value, 1, ParserThroughputTest.class.getName(), "ParserThroughputTest.java"
+        );
+    }
+
+    private static List toList(final String[] strings) {
+        final List list = new ArrayList();
+        for (int i = 0; i < strings.length; i++) {
+            list.add(strings[i]);
+        }
+        return list;
+    }
+
+    /**
+     * Records the annotation elements visited.
+     */
+    private static class RecordingVisitor implements AnnotationVisitor {
+        private final List m_visits = new ArrayList();
+
+        public void visit(final String name, final Object value) {
+            m_visits.add((name == null ? "" : name) + "=" + value);
+        }
+
+        public void visitEnum(final String name, final String desc, final String value) {
+            m_visits.add(name + "=" + value);
+        }
+
+        public AnnotationVisitor visitAnnotation(final String name, final String desc) {
+            m_visits.add(name + "@" + desc);
+            return this;
+        }
+
+        public AnnotationVisitor visitArray(final String name) {
+            m_visits.add(name + "[");
+            return this;
+        }
+
+        public void visitEnd() {
+            m_visits.add("]");
+        }
+    }
+
+    //-- junit
+    public static void main(String[] args) throws Throwable {
+        junit.textui.TestRunner.run(suite());
+        benchmarkLargeAnnotations();
+        benchmarkThroughput();
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(ParserThroughputTest.class);
+    }
+}
@@ -0,0 +1,38 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.compiler.validation;
+
+import org.codehaus.backport175.compiler.parser.AnnotationParser;
+
+/**
+ * Runs the validation tests with the hand-written annotation parser.
+ */
+public class DirectParserValidationTest extends ValidationTest {
+
+    public DirectParserValidationTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        AnnotationParser.setParser(AnnotationParser.DIRECT_PARSER);
+    }
+
+    protected void tearDown() throws Exception {
+        AnnotationParser.setParser(AnnotationParser.JAVACC_PARSER);
+        super.tearDown();
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(DirectParserValidationTest.class);
+    }
+}
@@ -13,6 +13,10 @@ import org.codehaus.backport175.compiler.AnnotationC;
 import org.codehaus.backport175.compiler.MessageHandler;
 import org.codehaus.backport175.compiler.CompilerException;
 import org.codehaus.backport175.compiler.SourceLocation;
+import org.codehaus.backport175.compiler.javadoc.RawAnnotation;
+import org.codehaus.backport175.compiler.parser.AnnotationParser;
+import org.codehaus.backport175.compiler.parser.ParseException;
+import org.objectweb.asm.AnnotationVisitor;
 
 import java.lang.reflect.Method;
 import java.util.List;
@@ -95,6 +99,11 @@ public class ValidationTest extends TestCase {
         MyEnum value();
     }
 
+    public static interface NumberAnno {
+        int i();
+        long l();
+    }
+
     public ValidationTest(String name) {
         super(name);
     }
@@ -181,6 +190,58 @@ public class ValidationTest extends TestCase {
         assertEquals(0, MESSAGE_HANDLER.acceptedLocations.size());
     }
 
+    public void testHexAndOctalNumbers() {
+        assertEquals("[i=31, l=15, i=-1, l=255, i=0]", parse("i=0x1F, l=017L, i=0xFFFFFFFF, l=0XffL, i=00"));
+        // a long literal may use all of its 64 bits
+        assertEquals(
+                "[l=-1, l=-1, l=" + Long.MIN_VALUE + ", l=" + Long.MAX_VALUE + "]",
+                parse(
+                        "l=0xFFFFFFFFFFFFFFFFL, l=01777777777777777777777L, "
+                        + "l=0x8000000000000000L, l=0x7fffffffffffffffL"
+                )
+        );
+        assertEquals("error", parse("i=0x100000000"));
+        assertEquals("error", parse("l=0x10000000000000000L"));
+        assertEquals("error", parse("l=02000000000000000000000L"));
+    }
+
+    /**
+     * Returns the elements of a NumberAnno annotation visited, or "error" if it is not valid.
+     */
+    private static String parse(final String value) {
+        final List visits = new ArrayList();
+        final AnnotationVisitor visitor = new AnnotationVisitor() {
+            public void visit(final String name, final Object value) {
+                visits.add(name + "=" + value);
+            }
+
+            public void visitEnum(final String name, final String desc, final String value) {
+                visits.add(name + "=" + value);
+            }
+
+            public AnnotationVisitor visitAnnotation(final String name, final String desc) {
+                return this;
+            }
+
+            public AnnotationVisitor visitArray(final String name) {
+                return this;
+            }
+
+            public void visitEnd() {
+            }
+        };
+        try {
+            AnnotationParser.parse(
+                    visitor,
+                    new RawAnnotation(NumberAnno.class, value, 1, ValidationTest.class.getName(), "ValidationTest.java"),
+                    ValidationTest.class.getClassLoader()
+            );
+        } catch (ParseException e) {
+            return "error";
+        }
+        return visits.toString();
+    }
+
     public static void main(String[] args) {
         junit.textui.TestRunner.run(suite());
     }
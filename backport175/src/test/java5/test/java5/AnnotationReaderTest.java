@@ -136,6 +136,31 @@ public class AnnotationReaderTest extends TestCase {
         assertTrue(found);
     }
 
+    public void testInheritedCached() {
+        Annotation[] all = Annotations.getSharedAnnotations(Target5.SubTarget5.class);
+        assertSame(all, Annotations.getSharedAnnotations(Target5.SubTarget5.class));
+        Annotation inhe = Annotations.getAnnotation(Target5.Inherited.class, Target5.SubTarget5.class);
+        assertSame(inhe, Annotations.getAnnotation(Target5.Inherited.class, Target5.class));
+
+        // the public accessor copies the shared array
+        Annotation[] copy = Annotations.getAnnotations(Target5.SubTarget5.class);
+        assertNotSame(all, copy);
+        assertEquals(all.length, copy.length);
+
+        // refreshing a class out of the super class chain keeps the inherited annotations
+        AnnotationReader.refresh(AnnotationReaderTest.class);
+        assertSame(all, Annotations.getSharedAnnotations(Target5.SubTarget5.class));
+
+        // refreshing the super class invalidates the inherited annotations of the sub class
+        AnnotationReader.refresh(Target5.class);
+        Annotation[] refreshed = Annotations.getSharedAnnotations(Target5.SubTarget5.class);
+        assertNotSame(all, refreshed);
+        assertEquals(all.length, refreshed.length);
+        assertSame(refreshed, Annotations.getSharedAnnotations(Target5.SubTarget5.class));
+        inhe = Annotations.getAnnotation(Target5.Inherited.class, Target5.SubTarget5.class);
+        assertSame(inhe, Annotations.getAnnotation(Target5.Inherited.class, Target5.class));
+        assertTrue(Annotations.isAnnotationPresent(Target5.Inherited.class, Target5.SubTarget5.class));
+    }
 
     public static void main(String[] args) {
         junit.textui.TestRunner.run(suite());
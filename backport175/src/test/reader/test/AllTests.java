@@ -13,12 +13,25 @@ import junit.framework.TestSuite;
 import test.filtering.MemberFilteringTest;
 import test.noduplicate.NoDuplicateTest;
 import test.proxy.ProxyTest;
+import test.proxy.AnnotationImplTest;
 import test.reader.AnnotationReaderTest;
 import test.reader.DocletSyntaxTest;
+import test.primitives.PrimitiveMemoryTest;
 import test.primitives.PrimitiveTest;
 import test.nested.NestedTest;
 import test.defaultvalue.DefaultTest;
 import test.classloader.ClassLoaderTest;
+import test.concurrent.ConcurrentReaderTest;
+import test.unloading.ClassLoaderCollectionTest;
+import test.index.AnnotationIndexTest;
+import test.bytecode.ThroughputTest;
+import test.bytecode.CachingBytecodeProviderTest;
+import test.scan.AnnotationScannerTest;
+import test.allocation.LookupAllocationTest;
+import test.eager.EagerResolutionTest;
+import test.prefetch.ReaderPrefetcherTest;
+import test.eviction.ReaderEvictionTest;
+import test.interned.AnnotationTypeTest;
 
 /**
  * @author <a href="mailto:jboner@codehaus.org">Jonas Bonr</a>
@@ -34,10 +47,23 @@ public class AllTests extends TestCase {
         suite.addTestSuite(ProxyTest.class);
         suite.addTestSuite(MemberFilteringTest.class);
         suite.addTestSuite(PrimitiveTest.class);
+        suite.addTestSuite(PrimitiveMemoryTest.class);
         suite.addTestSuite(NestedTest.class);
         suite.addTestSuite(DefaultTest.class);
         suite.addTestSuite(DocletSyntaxTest.class);
         suite.addTestSuite(ClassLoaderTest.class);
+        suite.addTestSuite(ConcurrentReaderTest.class);
+        suite.addTestSuite(ClassLoaderCollectionTest.class);
+        suite.addTestSuite(AnnotationImplTest.class);
+        suite.addTestSuite(AnnotationIndexTest.class);
+        suite.addTestSuite(ThroughputTest.class);
+        suite.addTestSuite(CachingBytecodeProviderTest.class);
+        suite.addTestSuite(AnnotationScannerTest.class);
+        suite.addTestSuite(LookupAllocationTest.class);
+        suite.addTestSuite(EagerResolutionTest.class);
+        suite.addTestSuite(ReaderPrefetcherTest.class);
+        suite.addTestSuite(ReaderEvictionTest.class);
+        suite.addTestSuite(AnnotationTypeTest.class);
 
         return suite;
     }
@@ -0,0 +1,52 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test;
+
+import java.lang.reflect.Method;
+
+/**
+ * Reads the bytes allocated by the current thread from the HotSpot thread MBean.
+ */
+public class AllocationCounter {
+    private final Object m_threadBean;
+    private final Method m_getThreadAllocatedBytes;
+    private final Object[] m_args;
+
+    private AllocationCounter(final Object threadBean, final Method getThreadAllocatedBytes, final Object[] args) {
+        m_threadBean = threadBean;
+        m_getThreadAllocatedBytes = getThreadAllocatedBytes;
+        m_args = args;
+    }
+
+    /**
+     * Creates a counter for the current thread.
+     *
+     * @return the counter, or null if the allocated bytes are not available
+     */
+    public static AllocationCounter newInstance() {
+        try {
+            final Object threadBean = Class.forName("java.lang.management.ManagementFactory")
+                    .getMethod("getThreadMXBean", new Class[0])
+                    .invoke(null, new Object[0]);
+            final Method getThreadAllocatedBytes = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", new Class[]{long.class});
+            final Object threadId = Thread.class.getMethod("getId", new Class[0])
+                    .invoke(Thread.currentThread(), new Object[0]);
+            final AllocationCounter counter = new AllocationCounter(
+                    threadBean, getThreadAllocatedBytes, new Object[]{threadId}
+            );
+            return counter.getAllocatedBytes() < 0 ? null : counter;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public long getAllocatedBytes() throws Exception {
+        return ((Long) m_getThreadAllocatedBytes.invoke(m_threadBean, m_args)).longValue();
+    }
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.allocation;
+
+import junit.framework.TestCase;
+import org.codehaus.backport175.reader.Annotations;
+import org.codehaus.backport175.reader.bytecode.AnnotationReader;
+import test.AllocationCounter;
+import test.TestAnnotations;
+import test.reader.Target;
+
+/**
+ * Checks that the warm annotation lookups on constructors, methods and fields do not allocate.
+ * <p/>
+ * The allocated bytes are read from the HotSpot thread MBean when available, the test does nothing otherwise.
+ */
+public class LookupAllocationTest extends TestCase {
+
+    private static final int LOOKUPS = 100000;
+
+    private static final String SIMPLE = TestAnnotations.Simple.class.getName();
+
+    public void testMemberLookups() throws Exception {
+        final AllocationCounter counter = AllocationCounter.newInstance();
+        if (counter == null) {
+            // allocated bytes not available
+            return;
+        }
+        final AnnotationReader reader = AnnotationReader.getReaderFor(Target.class);
+        // warm up, creates the member keys and the annotations
+        for (int i = 0; i < 10000; i++) {
+            lookup(reader);
+        }
+
+        final long start = counter.getAllocatedBytes();
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookup(reader);
+        }
+        final long allocated = counter.getAllocatedBytes() - start;
+        // leaves room for the allocations of the counter itself
+        assertTrue("allocated " + allocated + " bytes for " + LOOKUPS + " lookups", allocated < LOOKUPS);
+    }
+
+    private static void lookup(final AnnotationReader reader) {
+        assertNotNull(reader.getAnnotation(SIMPLE, Target.METHOD));
+        assertNotNull(reader.getAnnotation(SIMPLE, Target.FIELD));
+        assertNotNull(reader.getAnnotation(SIMPLE, Target.CONSTRUCTOR));
+        assertTrue(reader.isAnnotationPresent(SIMPLE, Target.METHOD));
+        assertTrue(reader.isAnnotationPresent(SIMPLE, Target.FIELD));
+        assertTrue(reader.isAnnotationPresent(SIMPLE, Target.CONSTRUCTOR));
+        assertNotNull(Annotations.getAnnotation(TestAnnotations.Simple.class, Target.METHOD));
+        assertTrue(reader.getSharedAnnotations(Target.METHOD).length > 0);
+        assertTrue(reader.getSharedAnnotations(Target.FIELD).length > 0);
+        assertTrue(reader.getSharedAnnotations(Target.CONSTRUCTOR).length > 0);
+        assertTrue(reader.getSharedAnnotations().length > 0);
+    }
+
+    //-- junit
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(LookupAllocationTest.class);
+    }
+}
@@ -0,0 +1,257 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.bytecode;
+
+import junit.framework.TestCase;
+import org.codehaus.backport175.reader.bytecode.AnnotationReader;
+import org.codehaus.backport175.reader.bytecode.CachingBytecodeProvider;
+import org.codehaus.backport175.reader.bytecode.DefaultBytecodeProvider;
+import org.codehaus.backport175.reader.bytecode.spi.BytecodeProvider;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests the caching bytecode provider against the default one.
+ * <p/>
+ * Running the class compares their throughput, after the tests.
+ */
+public class CachingBytecodeProviderTest extends TestCase {
+
+    private static final int ROUNDS = 2000;
+
+    private static final String[] CLASS_NAMES = new String[]{
+        "test.reader.Target",
+        "test.nested.Target",
+        "test.primitives.Target",
+        "test.defaultvalue.DefaultTest",
+        "test.defaultvalue.TestAnnotations$IntAnno",
+        "test.TestAnnotations$Simple",
+        "org.codehaus.backport175.reader.bytecode.AnnotationReader",
+        "junit.framework.TestCase"
+    };
+
+    public void testSameBytecode() throws Exception {
+        final ClassLoader loader = CachingBytecodeProviderTest.class.getClassLoader();
+        final CachingBytecodeProvider provider = new CachingBytecodeProvider();
+        try {
+            for (int round = 0; round < 2; round++) {
+                assertSameBytecode(new DefaultBytecodeProvider(), provider, loader);
+            }
+            assertEquals(CLASS_NAMES.length, provider.getMissCount());
+            assertEquals(CLASS_NAMES.length, provider.getHitCount());
+        } finally {
+            provider.close();
+        }
+    }
+
+    public void testJar() throws Exception {
+        final ClassLoader loader = CachingBytecodeProviderTest.class.getClassLoader();
+        final File jar = File.createTempFile("backport175-bytecode", ".jar");
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        for (int i = 0; i < CLASS_NAMES.length; i++) {
+            out.putNextEntry(new ZipEntry(CLASS_NAMES[i].replace('.', '/') + ".class"));
+            out.write(new DefaultBytecodeProvider().getBytecode(CLASS_NAMES[i], loader));
+            out.closeEntry();
+        }
+        out.close();
+        final CachingBytecodeProvider provider = new CachingBytecodeProvider();
+        try {
+            final ClassLoader jarLoader = new URLClassLoader(new URL[]{jar.toURL()}, null);
+            assertSameBytecode(new DefaultBytecodeProvider(), provider, jarLoader);
+            assertEquals(0, provider.getHitCount());
+        } finally {
+            provider.close();
+            jar.delete();
+        }
+    }
+
+    public void testEviction() throws Exception {
+        final ClassLoader loader = CachingBytecodeProviderTest.class.getClassLoader();
+        final byte[] bytecode = new DefaultBytecodeProvider().getBytecode(CLASS_NAMES[0], loader);
+        final CachingBytecodeProvider provider = new CachingBytecodeProvider(bytecode.length);
+        try {
+            provider.getBytecode(CLASS_NAMES[0], loader);
+            provider.getBytecode(CLASS_NAMES[0], loader);
+            assertEquals(1, provider.getHitCount());
+            assertEquals(bytecode.length, provider.getCacheSize());
+
+            provider.getBytecode(CLASS_NAMES[1], loader);
+            assertTrue(provider.getCacheSize() <= bytecode.length);
+            provider.getBytecode(CLASS_NAMES[0], loader);
+            assertEquals(1, provider.getHitCount());
+            assertEquals(3, provider.getMissCount());
+        } finally {
+            provider.close();
+        }
+    }
+
+    public void testModifiedClassFile() throws Exception {
+        final File directory = File.createTempFile("backport175-bytecode", "");
+        directory.delete();
+        final File classFile = new File(directory, "Modified.class");
+        final CachingBytecodeProvider provider = new CachingBytecodeProvider();
+        try {
+            directory.mkdirs();
+            write(classFile, new byte[]{1, 2, 3});
+            final ClassLoader loader = new URLClassLoader(new URL[]{directory.toURL()}, null);
+            assertTrue(Arrays.equals(new byte[]{1, 2, 3}, provider.getBytecode("Modified", loader)));
+            write(classFile, new byte[]{4, 5});
+            classFile.setLastModified(classFile.lastModified() - 10000);
+            assertTrue(Arrays.equals(new byte[]{4, 5}, provider.getBytecode("Modified", loader)));
+            assertTrue(Arrays.equals(new byte[]{4, 5}, provider.getBytecode("Modified", loader)));
+            assertEquals(1, provider.getHitCount());
+        } finally {
+            provider.close();
+            classFile.delete();
+            directory.delete();
+        }
+    }
+
+    public void testModifiedJar() throws Exception {
+        final File jar = File.createTempFile("backport175-bytecode", ".jar");
+        final CachingBytecodeProvider provider = new CachingBytecodeProvider();
+        try {
+            writeJar(jar, "Modified.class", new byte[]{1, 2, 3});
+            final long lastModified = jar.lastModified();
+            final ClassLoader loader = new URLClassLoader(new URL[]{jar.toURL()}, null);
+            assertTrue(Arrays.equals(new byte[]{1, 2, 3}, provider.getBytecode("Modified", loader)));
+            assertTrue(Arrays.equals(new byte[]{1, 2, 3}, provider.getBytecode("Modified", loader)));
+            assertEquals(1, provider.getHitCount());
+
+            // same time stamp, the jar length tells it has changed
+            writeJar(jar, "Modified.class", new byte[]{4, 5, 6, 7, 8, 9, 10, 11});
+            jar.setLastModified(lastModified);
+            assertTrue(Arrays.equals(new byte[]{4, 5, 6, 7, 8, 9, 10, 11}, provider.getBytecode("Modified", loader)));
+            assertEquals(1, provider.getHitCount());
+            assertEquals(8, provider.getCacheSize());
+        } finally {
+            provider.close();
+            jar.delete();
+        }
+    }
+
+    public void testClassKeyOfCollectedLoader() {
+        final Map entries = new HashMap();
+        final AnnotationReader.ClassKey key = newCollectableKey(entries);
+        final int hashCode = key.hashCode();
+        for (int i = 0; i < 100 && !key.isClassLoaderCollected(); i++) {
+            System.gc();
+        }
+        assertTrue("class loader not collected", key.isClassLoaderCollected());
+
+        // the entry can still be removed once the loader is gone
+        assertEquals(hashCode, key.hashCode());
+        assertFalse(key.equals(new AnnotationReader.ClassKey("Modified", null)));
+        entries.remove(key);
+        assertTrue(entries.isEmpty());
+    }
+
+    private static AnnotationReader.ClassKey newCollectableKey(final Map entries) {
+        final ClassLoader loader = new URLClassLoader(new URL[0], null);
+        final AnnotationReader.ClassKey key = new AnnotationReader.ClassKey("Modified", loader);
+        entries.put(key, new WeakReference(loader));
+        return key;
+    }
+
+    public void testAnnotationDefaults() throws Exception {
+        final CachingBytecodeProvider provider = new CachingBytecodeProvider();
+        try {
+            // the annotation defaults are read through the provider as well
+            final BytecodeProvider defaultProvider = AnnotationReader.getDefaultBytecodeProvider();
+            AnnotationReader.setDefaultBytecodeProvider(provider);
+            try {
+                AnnotationReader.refresh(test.defaultvalue.DefaultTest.class);
+                assertTrue(AnnotationReader.getReaderFor(test.defaultvalue.DefaultTest.class).getAnnotations().length > 0);
+            } finally {
+                AnnotationReader.setDefaultBytecodeProvider(defaultProvider);
+            }
+        } finally {
+            provider.close();
+        }
+    }
+
+    private static void benchmarkThroughput() throws Exception {
+        final ClassLoader loader = CachingBytecodeProviderTest.class.getClassLoader();
+        final CachingBytecodeProvider provider = new CachingBytecodeProvider();
+        try {
+            read(new DefaultBytecodeProvider(), loader, ROUNDS / 10);
+            read(provider, loader, ROUNDS / 10);
+            report("default", read(new DefaultBytecodeProvider(), loader, ROUNDS));
+            report("caching", read(provider, loader, ROUNDS));
+        } finally {
+            provider.close();
+        }
+    }
+
+    private static void assertSameBytecode(final BytecodeProvider expected,
+                                           final BytecodeProvider actual,
+                                           final ClassLoader loader) throws Exception {
+        for (int i = 0; i < CLASS_NAMES.length; i++) {
+            assertTrue(
+                    CLASS_NAMES[i],
+                    Arrays.equals(expected.getBytecode(CLASS_NAMES[i], loader), actual.getBytecode(CLASS_NAMES[i], loader))
+            );
+        }
+    }
+
+    private static long read(final BytecodeProvider provider, final ClassLoader loader, final int rounds)
+            throws Exception {
+        final long startTime = System.currentTimeMillis();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < CLASS_NAMES.length; i++) {
+                provider.getBytecode(CLASS_NAMES[i], loader);
+            }
+        }
+        return System.currentTimeMillis() - startTime;
+    }
+
+    private static void report(final String name, final long time) {
+        long classes = (long) ROUNDS * CLASS_NAMES.length;
+        System.out.println(name + " bytecode provider : " + (classes * 1000 / Math.max(time, 1)) + " classes/s");
+    }
+
+    private static void writeJar(final File file, final String entry, final byte[] bytes) throws IOException {
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            out.putNextEntry(new ZipEntry(entry));
+            out.write(bytes);
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void write(final File file, final byte[] bytes) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    //-- junit
+    public static void main(String[] args) throws Exception {
+        junit.textui.TestRunner.run(suite());
+        benchmarkThroughput();
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(CachingBytecodeProviderTest.class);
+    }
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.bytecode;
+
+import junit.framework.TestCase;
+import org.codehaus.backport175.compiler.AnnotationC;
+import org.codehaus.backport175.compiler.MessageHandler;
+import org.codehaus.backport175.compiler.bytecode.AnnotationEnhancer;
+import org.codehaus.backport175.compiler.parser.ast.AnnotationParser;
+import org.codehaus.backport175.reader.bytecode.AnnotationIndex;
+import org.codehaus.backport175.reader.bytecode.AnnotationReader;
+import org.codehaus.backport175.reader.proxy.JavaDocAnnotationInvocationHander;
+
+import java.io.File;
+
+/**
+ * Runs the annotation reader and the annotation enhancer over a class corpus.
+ * <p/>
+ * Running the class measures the number of classes per second the reader parses and the enhancer rewrites, after the
+ * tests.
+ */
+public class ThroughputTest extends TestCase {
+
+    private static final int WARMUP_ROUNDS = 100;
+    private static final int ROUNDS = 300;
+
+    private static final Class[] CORPUS = new Class[]{
+        test.reader.Target.class,
+        test.nested.Target.class,
+        test.primitives.Target.class,
+        test.defaultvalue.DefaultTest.class,
+        AnnotationReader.class,
+        AnnotationIndex.class,
+        AnnotationC.class,
+        AnnotationEnhancer.class,
+        AnnotationParser.class,
+        JavaDocAnnotationInvocationHander.class
+    };
+
+    public void testReader() {
+        for (int i = 0; i < CORPUS.length; i++) {
+            AnnotationReader.getReaderFor(CORPUS[i]);
+        }
+        read(1);
+        assertTrue(AnnotationReader.getReaderFor(test.reader.Target.class).getAnnotationElements().length > 0);
+    }
+
+    public void testEnhancer() {
+        enhance(1, getDestDir());
+    }
+
+    private static void benchmarkReader() {
+        for (int i = 0; i < CORPUS.length; i++) {
+            AnnotationReader.getReaderFor(CORPUS[i]);
+        }
+        read(WARMUP_ROUNDS);
+        long startTime = System.currentTimeMillis();
+        read(ROUNDS);
+        report("reader", System.currentTimeMillis() - startTime);
+    }
+
+    private static void benchmarkEnhancer() {
+        File destDir = getDestDir();
+        enhance(WARMUP_ROUNDS, destDir);
+        long startTime = System.currentTimeMillis();
+        enhance(ROUNDS, destDir);
+        report("enhancer", System.currentTimeMillis() - startTime);
+    }
+
+    private static File getDestDir() {
+        return new File(System.getProperty("java.io.tmpdir"), "backport175-throughput");
+    }
+
+    private static void read(final int rounds) {
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < CORPUS.length; i++) {
+                AnnotationReader.refresh(CORPUS[i]);
+            }
+        }
+    }
+
+    private static void enhance(final int rounds, final File destDir) {
+        MessageHandler handler = new MessageHandler.PrintWriter(false);
+        ClassLoader loader = ThroughputTest.class.getClassLoader();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < CORPUS.length; i++) {
+                AnnotationEnhancer enhancer = new AnnotationEnhancer(handler);
+                assertTrue(enhancer.initialize(CORPUS[i].getName(), loader));
+                enhancer.write(destDir.getPath());
+            }
+        }
+    }
+
+    private static void report(final String name, final long time) {
+        long classes = (long) ROUNDS * CORPUS.length;
+        System.out.println(name + " throughput : " + (classes * 1000 / Math.max(time, 1)) + " classes/s");
+    }
+
+    //-- junit
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+        benchmarkReader();
+        benchmarkEnhancer();
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(ThroughputTest.class);
+    }
+}
@@ -0,0 +1,236 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.concurrent;
+
+import junit.framework.TestCase;
+import org.codehaus.backport175.reader.Annotation;
+import org.codehaus.backport175.reader.bytecode.AnnotationReader;
+import test.TestAnnotations;
+import test.reader.Target;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stress test for the annotation reader registry.
+ * <p/>
+ * Running the class measures the reader lookups per ms, after the tests.
+ */
+public class ConcurrentReaderTest extends TestCase {
+
+    private static final int THREADS = 32;
+    private static final int CHECKED_LOOKUPS = 10000;
+    private static final int LOOKUPS = 200000;
+    private static final int REFRESHES = 200;
+
+    private static final String[] CLASS_NAMES = new String[]{
+        "test.reader.Target",
+        "test.nested.Target",
+        "test.primitives.Target",
+        "test.filtering.Target",
+        "test.defaultvalue.DefaultTest",
+        "test.noduplicate.NoDuplicateTest"
+    };
+
+    public void testSingleParsePerClass() throws Throwable {
+        final CountingClassLoader loader = new CountingClassLoader(ConcurrentReaderTest.class.getClassLoader());
+        final AnnotationReader[][] readers = new AnnotationReader[THREADS][CLASS_NAMES.length];
+        runConcurrently(THREADS, new Work() {
+            public void run(int thread) {
+                for (int i = 0; i < CLASS_NAMES.length; i++) {
+                    int index = (i + thread) % CLASS_NAMES.length;
+                    readers[thread][index] = AnnotationReader.getReaderFor(CLASS_NAMES[index], loader);
+                }
+            }
+        });
+
+        for (int i = 0; i < CLASS_NAMES.length; i++) {
+            // not read at all when the annotations come from the annotation index
+            assertTrue(CLASS_NAMES[i], loader.getReadCount(CLASS_NAMES[i]) <= 1);
+            for (int t = 0; t < THREADS; t++) {
+                assertSame(readers[0][i], readers[t][i]);
+            }
+        }
+        assertSame(readers[0][0], AnnotationReader.getReaderFor(CLASS_NAMES[0].replace('.', '/'), loader));
+        assertTrue(readers[0][0].getAnnotations().length > 0);
+    }
+
+    public void testConcurrentLookups() throws Throwable {
+        final ClassLoader loader = ConcurrentReaderTest.class.getClassLoader();
+        final AnnotationReader[] readers = new AnnotationReader[CLASS_NAMES.length];
+        for (int i = 0; i < CLASS_NAMES.length; i++) {
+            readers[i] = AnnotationReader.getReaderFor(CLASS_NAMES[i], loader);
+        }
+        runConcurrently(THREADS, new Work() {
+            public void run(int thread) {
+                for (int i = 0; i < CHECKED_LOOKUPS; i++) {
+                    final int index = i % CLASS_NAMES.length;
+                    assertSame(readers[index], AnnotationReader.getReaderFor(CLASS_NAMES[index], loader));
+                }
+            }
+        });
+    }
+
+    public void testLookupsDuringRefresh() throws Throwable {
+        final AnnotationReader reader = AnnotationReader.getReaderFor(Target.class);
+        final int annotationCount = reader.getAnnotations().length;
+        final int methodAnnotationCount = reader.getAnnotations(Target.METHOD).length;
+        final boolean[] done = new boolean[1];
+        runConcurrently(4, new Work() {
+            public void run(int thread) {
+                if (thread == 0) {
+                    for (int i = 0; i < REFRESHES; i++) {
+                        AnnotationReader.refresh(Target.class);
+                    }
+                    synchronized (done) {
+                        done[0] = true;
+                    }
+                    return;
+                }
+                while (true) {
+                    synchronized (done) {
+                        if (done[0]) {
+                            return;
+                        }
+                    }
+                    // never sees the annotations of a snapshot being built
+                    assertEquals(annotationCount, reader.getAnnotations().length);
+                    assertEquals(methodAnnotationCount, reader.getAnnotations(Target.METHOD).length);
+                    assertNotNull(reader.getAnnotation(TestAnnotations.Simple.class.getName(), Target.FIELD));
+                    assertTrue(reader.isAnnotationPresent(TestAnnotations.Simple.class.getName(), Target.CONSTRUCTOR));
+                }
+            }
+        });
+    }
+
+    public void testParallelRefreshAll() {
+        final AnnotationReader reader = AnnotationReader.getReaderFor(Target.class);
+        final Annotation[] annotations = reader.getSharedAnnotations();
+        AnnotationReader.refreshAll(4);
+        // a new snapshot, new annotation instances
+        assertNotSame(annotations, reader.getSharedAnnotations());
+        assertEquals(annotations.length, reader.getSharedAnnotations().length);
+    }
+
+    public void testCollectedClassLoader() {
+        assertFalse(new AnnotationReader.ClassKey("java.lang.String", null).isClassLoaderCollected());
+        final AnnotationReader.ClassKey key = new AnnotationReader.ClassKey(
+                CLASS_NAMES[0], new ClassLoader(ConcurrentReaderTest.class.getClassLoader()) {
+                }
+        );
+        for (int i = 0; i < 100 && !key.isClassLoaderCollected(); i++) {
+            System.gc();
+        }
+        assertTrue(key.isClassLoaderCollected());
+    }
+
+    /**
+     * Runs the work in the given number of threads, all started at the same time.
+     *
+     * @return the elapsed time in ms
+     */
+    private static long runConcurrently(final int threads, final Work work) throws Throwable {
+        final Object gate = new Object();
+        final boolean[] open = new boolean[1];
+        final Throwable[] failure = new Throwable[1];
+        final Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread() {
+                public void run() {
+                    try {
+                        synchronized (gate) {
+                            while (!open[0]) {
+                                gate.wait();
+                            }
+                        }
+                        work.run(thread);
+                    } catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        long startTime = System.currentTimeMillis();
+        synchronized (gate) {
+            open[0] = true;
+            gate.notifyAll();
+        }
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+        }
+        long time = System.currentTimeMillis() - startTime;
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return time;
+    }
+
+    private static void benchmarkLookups() throws Throwable {
+        final ClassLoader loader = ConcurrentReaderTest.class.getClassLoader();
+        for (int i = 0; i < CLASS_NAMES.length; i++) {
+            AnnotationReader.getReaderFor(CLASS_NAMES[i], loader);
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= processors; threads <<= 1) {
+            long time = runConcurrently(threads, new Work() {
+                public void run(int thread) {
+                    for (int i = 0; i < LOOKUPS; i++) {
+                        AnnotationReader.getReaderFor(CLASS_NAMES[i % CLASS_NAMES.length], loader);
+                    }
+                }
+            });
+            double lookupsPerMs = (LOOKUPS * (double) threads) / Math.max(time, 1);
+            System.out.println("reader lookups with " + threads + " thread(s) : " + (long) lookupsPerMs + " per ms");
+        }
+    }
+
+    private static interface Work {
+        void run(int thread);
+    }
+
+    /**
+     * Counts the class file reads, e.g. the number of times a reader parsed a class.
+     */
+    private static class CountingClassLoader extends ClassLoader {
+        private final Map m_reads = new HashMap();
+
+        CountingClassLoader(final ClassLoader parent) {
+            super(parent);
+        }
+
+        public InputStream getResourceAsStream(final String name) {
+            synchronized (m_reads) {
+                Integer count = (Integer) m_reads.get(name);
+                m_reads.put(name, new Integer(count == null ? 1 : count.intValue() + 1));
+            }
+            return super.getResourceAsStream(name);
+        }
+
+        int getReadCount(final String className) {
+            synchronized (m_reads) {
+                Integer count = (Integer) m_reads.get(className.replace('.', '/') + ".class");
+                return count == null ? 0 : count.intValue();
+            }
+        }
+    }
+
+    //-- junit
+    public static void main(String[] args) throws Throwable {
+        junit.textui.TestRunner.run(suite());
+        benchmarkLookups();
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(ConcurrentReaderTest.class);
+    }
+}
@@ -9,6 +9,8 @@ package test.defaultvalue;
 
 import junit.framework.TestCase;
 import org.codehaus.backport175.reader.Annotations;
+import org.codehaus.backport175.reader.bytecode.AnnotationDefaults;
+import org.codehaus.backport175.reader.bytecode.AnnotationReader;
 
 /**
  * @test.defaultvalue.TestAnnotations.IntAnno
@@ -60,6 +62,59 @@ public class DefaultTest extends TestCase {
         assertEquals(TestAnnotations.SomeNestedClass.class, anno.klass());
     }
 
+    public void testDefaultsCache() throws Throwable {
+        // the defaults are read once per class loader
+        final long misses = AnnotationDefaults.getMissCount();
+        readDefaults(new ClassLoader(KLASS.getClassLoader()) {});
+        final long loaderMisses = AnnotationDefaults.getMissCount() - misses;
+        assertTrue(loaderMisses > 0);
+
+        final ClassLoader loader = new ClassLoader(KLASS.getClassLoader()) {};
+        final Throwable[] failure = new Throwable[1];
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 100; j++) {
+                            readDefaults(loader);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        assertEquals(2 * loaderMisses, AnnotationDefaults.getMissCount() - misses);
+
+        final long hits = AnnotationDefaults.getHitCount();
+        AnnotationReader.refresh(KLASS.getName(), loader);
+        assertEquals(2 * loaderMisses, AnnotationDefaults.getMissCount() - misses);
+        assertTrue(AnnotationDefaults.getHitCount() > hits);
+    }
+
+    private static void readDefaults(final ClassLoader loader) {
+        final AnnotationReader reader = AnnotationReader.getReaderFor(KLASS.getName(), loader);
+        TestAnnotations.IntAnno intAnno = (TestAnnotations.IntAnno) reader.getAnnotation(
+                TestAnnotations.IntAnno.class.getName()
+        );
+        assertEquals(3, intAnno.value());
+        TestAnnotations.AnnoArrayAnno annoArrayAnno = (TestAnnotations.AnnoArrayAnno) reader.getAnnotation(
+                TestAnnotations.AnnoArrayAnno.class.getName()
+        );
+        assertEquals("two", annoArrayAnno.annos()[1].message());
+        assertEquals(1, reader.getAnnotationElement(TestAnnotations.IntAnno.class.getName()).getElements().size());
+    }
+
     public static void main(String[] args) {
         junit.textui.TestRunner.run(suite());
     }
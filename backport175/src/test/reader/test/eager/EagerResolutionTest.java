@@ -0,0 +1,74 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.eager;
+
+import junit.framework.TestCase;
+import org.codehaus.backport175.reader.bytecode.AnnotationElement;
+import org.codehaus.backport175.reader.bytecode.AnnotationReader;
+import test.reader.Target;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests that the readers resolve all the annotation values when they are created in eager resolution mode.
+ */
+public class EagerResolutionTest extends TestCase {
+
+    public void testResolvedOnCreation() {
+        final AnnotationReader reader = AnnotationReader.getReaderFor(Target.class);
+        AnnotationReader.refresh(Target.class);
+
+        assertResolved(reader.getAnnotationElements());
+        assertResolved(reader.getConstructorAnnotationElements("()V"));
+        assertResolved(reader.getMethodAnnotationElements("method", "()V"));
+        assertResolved(reader.getMethodAnnotationElements("method2", "()V"));
+        assertResolved(reader.getFieldAnnotationElements("field", "Ljava/lang/String;"));
+
+        // the annotations are created, lookups return them
+        assertSame(reader.getSharedAnnotations(Target.METHOD), reader.getSharedAnnotations(Target.METHOD));
+        assertEquals(reader.getAnnotationElements().length, reader.getSharedAnnotations().length);
+        assertEquals(1, reader.getAnnotations(Target.METHOD2).length);
+    }
+
+    private static void assertResolved(final AnnotationElement.Annotation[] annotations) {
+        assertTrue(annotations.length > 0);
+        for (int i = 0; i < annotations.length; i++) {
+            assertResolved(annotations[i].getElements());
+        }
+    }
+
+    private static void assertResolved(final List namedValues) {
+        for (Iterator it = namedValues.iterator(); it.hasNext();) {
+            final AnnotationElement.NamedValue namedValue = (AnnotationElement.NamedValue) it.next();
+            assertTrue(namedValue.toString(), namedValue.isResolved());
+            if (namedValue.getType().equals(AnnotationElement.Type.ANNOTATION)) {
+                assertResolved(((AnnotationElement.Annotation) namedValue.getValue()).getElements());
+            } else if (namedValue.getType().equals(AnnotationElement.Type.ARRAY)) {
+                assertResolved(((AnnotationElement.Array) namedValue.getValue()).getElements());
+            }
+        }
+    }
+
+    protected void setUp() throws Exception {
+        AnnotationReader.setEagerResolution(true);
+    }
+
+    protected void tearDown() throws Exception {
+        AnnotationReader.setEagerResolution(false);
+    }
+
+    //-- junit
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(EagerResolutionTest.class);
+    }
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.eviction;
+
+import junit.framework.TestCase;
+import org.codehaus.backport175.reader.bytecode.AnnotationReader;
+
+/**
+ * Tests the eviction of the annotation readers from a bounded registry.
+ */
+public class ReaderEvictionTest extends TestCase {
+
+    private static final String[] CLASS_NAMES = new String[]{
+        "test.reader.Target",
+        "test.nested.Target",
+        "test.primitives.Target",
+        "test.filtering.Target",
+        "test.defaultvalue.DefaultTest",
+        "test.noduplicate.NoDuplicateTest"
+    };
+
+    private static final int MAX_READERS = 4;
+
+    public void testLruEviction() {
+        final ClassLoader loader = newLoader();
+        AnnotationReader.setReaderLimits(MAX_READERS, 0);
+        final long evictions = AnnotationReader.getEvictionCount();
+
+        final AnnotationReader first = AnnotationReader.getReaderFor(CLASS_NAMES[0], loader);
+        for (int i = 1; i < CLASS_NAMES.length; i++) {
+            AnnotationReader.getReaderFor(CLASS_NAMES[i], loader);
+            // keeps the first one recently used
+            assertSame(first, AnnotationReader.getReaderFor(CLASS_NAMES[0], loader));
+        }
+
+        assertTrue(AnnotationReader.getReaderCount() <= MAX_READERS);
+        assertTrue(AnnotationReader.getEvictionCount() > evictions);
+        assertSame(first, AnnotationReader.getReaderFor(CLASS_NAMES[0], loader));
+    }
+
+    public void testLfuEviction() {
+        final ClassLoader loader = newLoader();
+        AnnotationReader.setEvictionPolicy(AnnotationReader.EVICTION_LFU);
+        // the accesses are only counted once the registry is bounded
+        AnnotationReader.setReaderLimits(MAX_READERS, 0);
+        final AnnotationReader first = AnnotationReader.getReaderFor(CLASS_NAMES[0], loader);
+        for (int i = 0; i < 100; i++) {
+            AnnotationReader.getReaderFor(CLASS_NAMES[0], loader);
+        }
+
+        for (int i = 1; i < CLASS_NAMES.length; i++) {
+            AnnotationReader.getReaderFor(CLASS_NAMES[i], loader);
+        }
+        assertTrue(AnnotationReader.getReaderCount() <= MAX_READERS);
+        assertSame(first, AnnotationReader.getReaderFor(CLASS_NAMES[0], loader));
+    }
+
+    public void testRetainedBytesLimit() {
+        final ClassLoader loader = newLoader();
+        final AnnotationReader reader = AnnotationReader.getReaderFor(CLASS_NAMES[0], loader);
+        final long maxRetainedBytes = 1;
+        AnnotationReader.setReaderLimits(0, maxRetainedBytes);
+        final long evictions = AnnotationReader.getEvictionCount();
+
+        // only the reader being created is kept
+        AnnotationReader.getReaderFor(CLASS_NAMES[1], loader);
+        assertEquals(1, AnnotationReader.getReaderCount());
+        assertTrue(AnnotationReader.getRetainedBytes() > maxRetainedBytes);
+        assertTrue(AnnotationReader.getEvictionCount() > evictions);
+
+        // evicted readers are created again transparently
+        final AnnotationReader recreated = AnnotationReader.getReaderFor(CLASS_NAMES[0], loader);
+        assertNotSame(reader, recreated);
+        assertEquals(reader.getAnnotationElements().length, recreated.getAnnotations().length);
+    }
+
+    public void testRetainedBytesGrowAsCachesFill() throws Exception {
+        final AnnotationReader reader = AnnotationReader.getReaderFor(CLASS_NAMES[0], newLoader());
+        long retainedBytes = AnnotationReader.getRetainedBytes();
+        assertTrue(reader.getAnnotations().length > 0);
+        assertTrue(AnnotationReader.getRetainedBytes() > retainedBytes);
+
+        retainedBytes = AnnotationReader.getRetainedBytes();
+        reader.getAnnotations(test.reader.Target.class.getDeclaredMethod("method", new Class[0]));
+        assertTrue(AnnotationReader.getRetainedBytes() > retainedBytes);
+    }
+
+    private static ClassLoader newLoader() {
+        return new ClassLoader(ReaderEvictionTest.class.getClassLoader()) {
+        };
+    }
+
+    protected void tearDown() throws Exception {
+        AnnotationReader.setReaderLimits(0, 0);
+        AnnotationReader.setEvictionPolicy(AnnotationReader.EVICTION_LRU);
+    }
+
+    //-- junit
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(ReaderEvictionTest.class);
+    }
+}
@@ -0,0 +1,438 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.index;
+
+import junit.framework.TestCase;
+import org.codehaus.backport175.reader.bytecode.AnnotationElement;
+import org.codehaus.backport175.reader.bytecode.AnnotationIndex;
+import org.codehaus.backport175.reader.bytecode.AnnotationReader;
+import org.codehaus.backport175.reader.bytecode.SignatureHelper;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import test.reader.Target;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests the annotation index written by the annotation compiler.
+ * <p/>
+ * Running the class compares the reader startup time with and without index on a generated class corpus, after the
+ * tests.
+ */
+public class AnnotationIndexTest extends TestCase {
+
+    private static final int CHECKED_CORPUS_SIZE = 100;
+    private static final int CORPUS_SIZE = 10000;
+
+    private File m_dir;
+
+    public void testIndexMatchesBytecode() throws Exception {
+        File classFile = copyClass(Target.class, m_dir);
+        AnnotationIndex.Writer writer = new AnnotationIndex.Writer(m_dir);
+        assertTrue(writer.addClass(Target.class.getName(), readClass(Target.class), classFile.lastModified()));
+        writer.write();
+        assertTrue(new File(m_dir, AnnotationIndex.INDEX_RESOURCE).isFile());
+
+        AnnotationReader expected = AnnotationReader.getReaderFor(Target.class);
+        AnnotationReader indexed = AnnotationReader.getReaderFor(Target.class.getName(), new ChildFirstLoader(m_dir));
+        assertEquals(expected.getAnnotationElements(), indexed.getAnnotationElements());
+
+        Constructor[] constructors = Target.class.getDeclaredConstructors();
+        for (int i = 0; i < constructors.length; i++) {
+            String desc = SignatureHelper.getConstructorSignature(constructors[i]);
+            assertEquals(
+                    expected.getConstructorAnnotationElements(desc), indexed.getConstructorAnnotationElements(desc)
+            );
+        }
+        Method[] methods = Target.class.getDeclaredMethods();
+        for (int i = 0; i < methods.length; i++) {
+            String name = methods[i].getName();
+            String desc = SignatureHelper.getMethodSignature(methods[i]);
+            assertEquals(
+                    expected.getMethodAnnotationElements(name, desc), indexed.getMethodAnnotationElements(name, desc)
+            );
+        }
+        Field[] fields = Target.class.getDeclaredFields();
+        for (int i = 0; i < fields.length; i++) {
+            String name = fields[i].getName();
+            String desc = SignatureHelper.getFieldSignature(fields[i]);
+            assertEquals(
+                    expected.getFieldAnnotationElements(name, desc), indexed.getFieldAnnotationElements(name, desc)
+            );
+        }
+    }
+
+    public void testIndexUsedUnlessClassModified() throws Exception {
+        // index the annotations of another class so that we can tell where they come from
+        File classFile = copyClass(test.nested.Target.class, m_dir);
+        AnnotationIndex.Writer writer = new AnnotationIndex.Writer(m_dir);
+        writer.addClass(
+                test.nested.Target.class.getName(), readClass(Target.class), classFile.lastModified(),
+                classFile.length()
+        );
+        writer.write();
+
+        ClassLoader loader = new ChildFirstLoader(m_dir);
+        AnnotationReader indexed = AnnotationReader.getReaderFor(test.nested.Target.class.getName(), loader);
+        assertEquals(
+                AnnotationReader.getReaderFor(Target.class).getAnnotationElements(), indexed.getAnnotationElements()
+        );
+
+        // the class file is newer than the index
+        assertTrue(classFile.setLastModified(classFile.lastModified() - 10000));
+        AnnotationReader.refresh(test.nested.Target.class.getName(), loader);
+        assertEquals(
+                AnnotationReader.getReaderFor(test.nested.Target.class).getAnnotationElements(),
+                indexed.getAnnotationElements()
+        );
+
+        // stale entries are dropped when the index is rewritten
+        writer = new AnnotationIndex.Writer(m_dir);
+        writer.write();
+        AnnotationReader.refresh(test.nested.Target.class.getName(), new ChildFirstLoader(m_dir));
+        assertEquals(
+                AnnotationReader.getReaderFor(test.nested.Target.class).getAnnotationElements(),
+                AnnotationReader.getReaderFor(test.nested.Target.class.getName(), new ChildFirstLoader(m_dir))
+                        .getAnnotationElements()
+        );
+    }
+
+    public void testIndexNotUsedIfClassLengthChanged() throws Exception {
+        File classFile = copyClass(test.nested.Target.class, m_dir);
+        AnnotationIndex.Writer writer = new AnnotationIndex.Writer(m_dir);
+        writer.addClass(
+                test.nested.Target.class.getName(), readClass(Target.class), classFile.lastModified(),
+                classFile.length() + 1
+        );
+        writer.write();
+
+        ClassLoader loader = new ChildFirstLoader(m_dir);
+        AnnotationReader reader = AnnotationReader.getReaderFor(test.nested.Target.class.getName(), loader);
+        assertEquals(
+                AnnotationReader.getReaderFor(test.nested.Target.class).getAnnotationElements(),
+                reader.getAnnotationElements()
+        );
+    }
+
+    public void testIndexWrittenLater() throws Exception {
+        File classFile = copyClass(test.nested.Target.class, m_dir);
+        ClassLoader loader = new ChildFirstLoader(m_dir);
+        AnnotationReader reader = AnnotationReader.getReaderFor(test.nested.Target.class.getName(), loader);
+        assertEquals(
+                AnnotationReader.getReaderFor(test.nested.Target.class).getAnnotationElements(),
+                reader.getAnnotationElements()
+        );
+
+        // the directory without index is checked again once an index is written
+        AnnotationIndex.Writer writer = new AnnotationIndex.Writer(m_dir);
+        writer.addClass(
+                test.nested.Target.class.getName(), readClass(Target.class), classFile.lastModified(),
+                classFile.length()
+        );
+        writer.write();
+        AnnotationReader.refresh(test.nested.Target.class.getName(), loader);
+        assertEquals(
+                AnnotationReader.getReaderFor(Target.class).getAnnotationElements(), reader.getAnnotationElements()
+        );
+    }
+
+    public void testModifiedJarReloaded() throws Exception {
+        File classesDir = new File(m_dir, "classes");
+        File classFile = copyClass(test.nested.Target.class, classesDir);
+        AnnotationIndex.Writer writer = new AnnotationIndex.Writer(classesDir);
+        writer.addClass(
+                test.nested.Target.class.getName(), readClass(Target.class), classFile.lastModified(),
+                classFile.length()
+        );
+        writer.write();
+        File jar = writeJar(new File(m_dir, "classes.jar"), classesDir);
+        long lastModified = jar.lastModified();
+        AnnotationReader reader = AnnotationReader.getReaderFor(
+                test.nested.Target.class.getName(), new ChildFirstLoader(jar)
+        );
+        assertEquals(
+                AnnotationReader.getReaderFor(Target.class).getAnnotationElements(), reader.getAnnotationElements()
+        );
+
+        // redeployed with the same time stamp, the length tells that the loaded index is out of date
+        writer = new AnnotationIndex.Writer(classesDir);
+        writer.addClass(
+                test.nested.Target.class.getName(), readClass(test.nested.Target.class), classFile.lastModified(),
+                classFile.length()
+        );
+        writer.write();
+        writeJar(jar, classesDir);
+        assertTrue(jar.setLastModified(lastModified));
+        reader = AnnotationReader.getReaderFor(test.nested.Target.class.getName(), new ChildFirstLoader(jar));
+        assertEquals(
+                AnnotationReader.getReaderFor(test.nested.Target.class).getAnnotationElements(),
+                reader.getAnnotationElements()
+        );
+    }
+
+    public void testNoIndexLookupWithoutIndex() throws Exception {
+        copyClass(test.nested.Target.class, m_dir);
+        CountingLoader loader = new CountingLoader(m_dir, test.nested.Target.class);
+        AnnotationReader reader = AnnotationReader.getReaderFor(test.nested.Target.class.getName(), loader);
+        assertEquals(
+                AnnotationReader.getReaderFor(test.nested.Target.class).getAnnotationElements(),
+                reader.getAnnotationElements()
+        );
+        // the class file is only looked up to read its bytecode
+        assertEquals(1, loader.classLookups);
+    }
+
+    public void testGeneratedCorpus() throws Exception {
+        File plainDir = new File(m_dir, "plain");
+        File indexedDir = new File(m_dir, "indexed");
+        writeCorpus(plainDir, indexedDir, CHECKED_CORPUS_SIZE);
+        readCorpus(new ChildFirstLoader(plainDir), CHECKED_CORPUS_SIZE);
+        readCorpus(new ChildFirstLoader(indexedDir), CHECKED_CORPUS_SIZE);
+    }
+
+    private static void benchmarkStartupTime() throws Exception {
+        File dir = File.createTempFile("backport175", "index");
+        dir.delete();
+        try {
+            File plainDir = new File(dir, "plain");
+            File indexedDir = new File(dir, "indexed");
+            writeCorpus(plainDir, indexedDir, CORPUS_SIZE);
+            long plainTime = readCorpus(new ChildFirstLoader(plainDir), CORPUS_SIZE);
+            long indexedTime = readCorpus(new ChildFirstLoader(indexedDir), CORPUS_SIZE);
+            System.out.println("reading " + CORPUS_SIZE + " classes, bytecode : " + plainTime + " ms");
+            System.out.println("reading " + CORPUS_SIZE + " classes, index : " + indexedTime + " ms");
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Writes the same generated classes to both directories, and the annotation index to the second one.
+     */
+    private static void writeCorpus(final File plainDir, final File indexedDir, final int size) throws IOException {
+        AnnotationIndex.Writer writer = new AnnotationIndex.Writer(indexedDir);
+        for (int i = 0; i < size; i++) {
+            String className = "bench/C" + i;
+            byte[] bytes = generateClass(className, i);
+            writeFile(new File(plainDir, className + ".class"), bytes);
+            File classFile = writeFile(new File(indexedDir, className + ".class"), bytes);
+            assertTrue(writer.addClass(className, bytes, classFile.lastModified()));
+        }
+        writer.write();
+    }
+
+    /**
+     * Reads the annotations of the generated classes.
+     *
+     * @return the elapsed time in ms
+     */
+    private static long readCorpus(final ClassLoader loader, final int size) {
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            AnnotationReader reader = AnnotationReader.getReaderFor("bench.C" + i, loader);
+            assertEquals(1, reader.getAnnotationElements().length);
+            assertEquals(1, reader.getMethodAnnotationElements("m", "()V").length);
+            assertEquals(1, reader.getFieldAnnotationElements("f", "I").length);
+        }
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * Generates an annotated class, the class is never loaded.
+     */
+    private static byte[] generateClass(final String className, final int i) {
+        ClassWriter cw = new ClassWriter(false);
+        cw.visit(Opcodes.V1_3, Opcodes.ACC_PUBLIC, className, null, "java/lang/Object", null);
+        AnnotationVisitor av = cw.visitAnnotation("Ltest/TestAnnotations$Simple;", true);
+        av.visit("val", "value" + i);
+        av.visit("s", "s" + i);
+        av.visitEnd();
+
+        FieldVisitor fv = cw.visitField(Opcodes.ACC_PUBLIC, "f", "I", null, null);
+        av = fv.visitAnnotation("Ltest/TestAnnotations$LongArray;", true);
+        AnnotationVisitor array = av.visitArray("l");
+        array.visit(null, new Long(i));
+        array.visit(null, new Long(-i));
+        array.visitEnd();
+        av.visitEnd();
+        fv.visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_ABSTRACT, "m", "()V", null, null);
+        av = mv.visitAnnotation("Ltest/TestAnnotations$NestedAnnotation;", true);
+        AnnotationVisitor nested = av.visitAnnotation("ann", "Ltest/TestAnnotations$Simple;");
+        nested.visit("val", "nested" + i);
+        nested.visitEnd();
+        av.visitEnd();
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static File copyClass(final Class klass, final File dir) throws IOException {
+        return writeFile(new File(dir, klass.getName().replace('.', '/') + ".class"), readClass(klass));
+    }
+
+    private static File writeJar(final File jar, final File dir) throws IOException {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        try {
+            writeJarEntries(out, dir, "");
+        } finally {
+            out.close();
+        }
+        return jar;
+    }
+
+    private static void writeJarEntries(final ZipOutputStream out, final File dir, final String prefix)
+            throws IOException {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].isDirectory()) {
+                writeJarEntries(out, files[i], prefix + files[i].getName() + '/');
+            } else {
+                out.putNextEntry(new ZipEntry(prefix + files[i].getName()));
+                out.write(readFile(files[i]));
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static byte[] readFile(final File file) throws IOException {
+        InputStream in = file.toURL().openStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readClass(final Class klass) throws IOException {
+        InputStream in = klass.getClassLoader().getResourceAsStream(klass.getName().replace('.', '/') + ".class");
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static File writeFile(final File file, final byte[] bytes) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static void assertEquals(final AnnotationElement.Annotation[] expected,
+                                     final AnnotationElement.Annotation[] actual) {
+        assertEquals(toSortedStrings(expected), toSortedStrings(actual));
+    }
+
+    private static String toSortedStrings(final AnnotationElement.Annotation[] annotations) {
+        String[] strings = new String[annotations.length];
+        for (int i = 0; i < annotations.length; i++) {
+            strings[i] = annotations[i].getInterfaceName() + '(' + annotations[i].toString() + ')';
+        }
+        Arrays.sort(strings);
+        return Arrays.asList(strings).toString();
+    }
+
+    private static void delete(final File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                delete(files[i]);
+            }
+        }
+        file.delete();
+    }
+
+    protected void setUp() throws Exception {
+        m_dir = File.createTempFile("backport175", "index");
+        m_dir.delete();
+        m_dir.mkdirs();
+    }
+
+    protected void tearDown() {
+        delete(m_dir);
+    }
+
+    /**
+     * Finds the classes of its directory, or jar, before the ones of the parent class loader.
+     */
+    private static class ChildFirstLoader extends URLClassLoader {
+        ChildFirstLoader(final File dir) throws IOException {
+            super(new URL[]{dir.toURL()}, AnnotationIndexTest.class.getClassLoader());
+        }
+
+        public URL getResource(final String name) {
+            URL url = findResource(name);
+            return url != null ? url : super.getResource(name);
+        }
+    }
+
+    /**
+     * Counts the lookups of a class file.
+     */
+    private static class CountingLoader extends ChildFirstLoader {
+        private final String m_resource;
+        int classLookups;
+
+        CountingLoader(final File dir, final Class klass) throws IOException {
+            super(dir);
+            m_resource = klass.getName().replace('.', '/') + ".class";
+        }
+
+        public URL getResource(final String name) {
+            if (name.equals(m_resource)) {
+                classLookups++;
+            }
+            return super.getResource(name);
+        }
+    }
+
+    //-- junit
+    public static void main(String[] args) throws Exception {
+        junit.textui.TestRunner.run(suite());
+        benchmarkStartupTime();
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(AnnotationIndexTest.class);
+    }
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.interned;
+
+import junit.framework.TestCase;
+import org.codehaus.backport175.reader.Annotation;
+import org.codehaus.backport175.reader.AnnotationType;
+import org.codehaus.backport175.reader.Annotations;
+import org.codehaus.backport175.reader.bytecode.AnnotationReader;
+import test.TestAnnotations;
+import test.reader.Target;
+
+/**
+ * Tests the annotation lookups by interned annotation type.
+ * <p/>
+ * Running the class compares the lookups by name and by type, after the tests.
+ */
+public class AnnotationTypeTest extends TestCase {
+
+    private static final int LOOKUPS = 1000000;
+
+    private static final AnnotationType SIMPLE = AnnotationType.forClass(TestAnnotations.Simple.class);
+    private static final AnnotationType COMPLEX = AnnotationType.forClass(TestAnnotations.Complex.class);
+    private static final AnnotationType UNKNOWN = AnnotationType.forName("test.interned.Unknown");
+
+    public void testInterning() {
+        assertSame(SIMPLE, AnnotationType.forName(TestAnnotations.Simple.class.getName()));
+        assertSame(SIMPLE, AnnotationType.forClass(TestAnnotations.Simple.class));
+        assertEquals(TestAnnotations.Simple.class.getName(), SIMPLE.getName());
+        assertTrue(SIMPLE.getId() != COMPLEX.getId());
+        assertTrue(SIMPLE.getId() != UNKNOWN.getId());
+    }
+
+    public void testClassAnnotations() {
+        final AnnotationReader reader = AnnotationReader.getReaderFor(Target.class);
+        assertTrue(reader.isAnnotationPresent(SIMPLE));
+        assertFalse(reader.isAnnotationPresent(UNKNOWN));
+        assertSame(reader.getAnnotation(SIMPLE.getName()), reader.getAnnotation(SIMPLE));
+        assertSame(reader.getAnnotation(COMPLEX.getName()), reader.getAnnotation(COMPLEX));
+        assertNull(reader.getAnnotation(UNKNOWN));
+
+        assertTrue(Annotations.isAnnotationPresent(SIMPLE, Target.class));
+        assertSame(Annotations.getAnnotation(TestAnnotations.Simple.class, Target.class),
+                   Annotations.getAnnotation(SIMPLE, Target.class));
+        assertNull(Annotations.getAnnotation(UNKNOWN, Target.class));
+    }
+
+    public void testMemberAnnotations() {
+        assertTrue(Annotations.isAnnotationPresent(SIMPLE, Target.METHOD));
+        assertFalse(Annotations.isAnnotationPresent(UNKNOWN, Target.METHOD));
+        assertSame(Annotations.getAnnotation(TestAnnotations.Simple.class, Target.METHOD),
+                   Annotations.getAnnotation(SIMPLE, Target.METHOD));
+        assertSame(Annotations.getAnnotation(TestAnnotations.Complex.class, Target.METHOD),
+                   Annotations.getAnnotation(COMPLEX, Target.METHOD));
+
+        assertTrue(Annotations.isAnnotationPresent(SIMPLE, Target.FIELD));
+        assertFalse(Annotations.isAnnotationPresent(UNKNOWN, Target.FIELD));
+        assertSame(Annotations.getAnnotation(TestAnnotations.Simple.class, Target.FIELD),
+                   Annotations.getAnnotation(SIMPLE, Target.FIELD));
+
+        assertTrue(Annotations.isAnnotationPresent(SIMPLE, Target.CONSTRUCTOR));
+        assertFalse(Annotations.isAnnotationPresent(UNKNOWN, Target.CONSTRUCTOR));
+        assertSame(Annotations.getAnnotation(TestAnnotations.Simple.class, Target.CONSTRUCTOR),
+                   Annotations.getAnnotation(SIMPLE, Target.CONSTRUCTOR));
+        assertNull(Annotations.getAnnotation(UNKNOWN, Target.CONSTRUCTOR));
+
+        final TestAnnotations.Simple simple = (TestAnnotations.Simple) Annotations.getAnnotation(SIMPLE, Target.METHOD);
+        assertEquals("foo", simple.val());
+    }
+
+    public void testRefresh() {
+        final Annotation annotation = Annotations.getAnnotation(SIMPLE, Target.METHOD);
+        AnnotationReader.refresh(Target.class);
+        final Annotation refreshed = Annotations.getAnnotation(SIMPLE, Target.METHOD);
+        assertNotNull(refreshed);
+        // the index belongs to the snapshot, a refresh creates new annotations
+        assertNotSame(annotation, refreshed);
+        assertSame(refreshed, Annotations.getAnnotation(TestAnnotations.Simple.class, Target.METHOD));
+    }
+
+    private static void benchmarkLookups() {
+        Annotations.getAnnotation(SIMPLE, Target.METHOD);
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < LOOKUPS; i++) {
+            Annotations.isAnnotationPresent(TestAnnotations.Simple.class, Target.METHOD);
+        }
+        final long byName = System.currentTimeMillis() - startTime;
+        startTime = System.currentTimeMillis();
+        for (int i = 0; i < LOOKUPS; i++) {
+            Annotations.isAnnotationPresent(SIMPLE, Target.METHOD);
+        }
+        final long byType = System.currentTimeMillis() - startTime;
+        System.out.println("method annotation lookups by name : " + byName + " ms, by type : " + byType + " ms");
+    }
+
+    //-- junit
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+        benchmarkLookups();
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(AnnotationTypeTest.class);
+    }
+}
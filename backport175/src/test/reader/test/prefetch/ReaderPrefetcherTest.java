@@ -0,0 +1,138 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.prefetch;
+
+import junit.framework.TestCase;
+import org.codehaus.backport175.reader.bytecode.AnnotationElement;
+import org.codehaus.backport175.reader.bytecode.AnnotationReader;
+import org.codehaus.backport175.reader.bytecode.ReaderPrefetcher;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests the background prefetch of the annotation readers.
+ */
+public class ReaderPrefetcherTest extends TestCase {
+
+    public void testPrefetch() throws Exception {
+        // a fresh loader, so that no reader exists yet
+        final ClassLoader loader = new ClassLoader(ReaderPrefetcherTest.class.getClassLoader()) {
+        };
+        final RecordingListener listener = new RecordingListener();
+        final ReaderPrefetcher prefetcher = new ReaderPrefetcher(loader, listener, 3);
+        prefetcher.addPackage("test.reader");
+        prefetcher.addClass("test.nested.Target");
+        prefetcher.addClass("test.prefetch.DoesNotExist");
+        prefetcher.start();
+        prefetcher.waitFor();
+
+        assertTrue(prefetcher.isDone());
+        assertEquals(1, listener.finished);
+        assertTrue(listener.prefetched.contains("test.reader.Target"));
+        assertTrue(listener.prefetched.contains("test.nested.Target"));
+        assertEquals(1, listener.failed.size());
+        assertEquals("test.prefetch.DoesNotExist", listener.failed.get(0));
+        assertEquals(prefetcher.getTotalCount(), listener.prefetched.size() + listener.failed.size());
+        assertEquals(listener.prefetched.size(), prefetcher.getPrefetchedCount());
+        assertEquals(1, prefetcher.getFailedCount());
+        assertEquals(prefetcher.getTotalCount(), listener.lastDone);
+
+        final AnnotationReader reader = AnnotationReader.getReaderFor("test.reader.Target", loader);
+        assertResolved(reader.getAnnotationElements());
+        assertResolved(reader.getMethodAnnotationElements("method", "()V"));
+        assertResolved(reader.getFieldAnnotationElements("field", "Ljava/lang/String;"));
+    }
+
+    public void testUnknownPackage() throws Exception {
+        final RecordingListener listener = new RecordingListener();
+        final ReaderPrefetcher prefetcher = new ReaderPrefetcher(
+                ReaderPrefetcherTest.class.getClassLoader(), listener, 2
+        );
+        prefetcher.addPackage("test.prefetch.none");
+        prefetcher.start();
+        prefetcher.waitFor();
+
+        assertEquals(1, listener.finished);
+        assertEquals(0, prefetcher.getTotalCount());
+        assertEquals(0, listener.prefetched.size());
+    }
+
+    public void testAddAfterDone() throws Exception {
+        final ReaderPrefetcher prefetcher = new ReaderPrefetcher(ReaderPrefetcherTest.class.getClassLoader(), null, 2);
+        prefetcher.addClass("test.reader.Target");
+        prefetcher.start();
+        prefetcher.waitFor();
+        try {
+            prefetcher.addClass("test.nested.Target");
+            fail("work added once the prefetch is done must be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            prefetcher.addPackage("test.nested");
+            fail("work added once the prefetch is done must be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(1, prefetcher.getTotalCount());
+    }
+
+    public void testAddAfterCancel() throws Exception {
+        final ReaderPrefetcher prefetcher = new ReaderPrefetcher(ReaderPrefetcherTest.class.getClassLoader(), null, 1);
+        prefetcher.cancel();
+        try {
+            prefetcher.addJar(new File("none.jar"));
+            fail("work added once the prefetch is cancelled must be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private static void assertResolved(final AnnotationElement.Annotation[] annotations) {
+        assertTrue(annotations.length > 0);
+        for (int i = 0; i < annotations.length; i++) {
+            for (Iterator it = annotations[i].getElements().iterator(); it.hasNext();) {
+                final AnnotationElement.NamedValue namedValue = (AnnotationElement.NamedValue) it.next();
+                assertTrue(namedValue.toString(), namedValue.isResolved());
+            }
+        }
+    }
+
+    private static class RecordingListener implements ReaderPrefetcher.Listener {
+        final List prefetched = new ArrayList();
+        final List failed = new ArrayList();
+        int lastDone = 0;
+        int finished = 0;
+
+        public void prefetched(final String className, final int done, final int total) {
+            prefetched.add(className);
+            lastDone = Math.max(lastDone, done);
+        }
+
+        public void failed(final String name, final Throwable failure) {
+            failed.add(name);
+            lastDone++;
+        }
+
+        public void finished(final int prefetchedCount, final int failedCount) {
+            finished++;
+        }
+    }
+
+    //-- junit
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(ReaderPrefetcherTest.class);
+    }
+}
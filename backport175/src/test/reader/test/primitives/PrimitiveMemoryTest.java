@@ -0,0 +1,111 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.primitives;
+
+import junit.framework.TestCase;
+import org.codehaus.backport175.reader.Annotations;
+import org.codehaus.backport175.reader.bytecode.AnnotationElement;
+import org.codehaus.backport175.reader.bytecode.AnnotationReader;
+import test.AllocationCounter;
+
+import java.util.Iterator;
+
+/**
+ * Tests the primitive array values, stored as the raw array rather than as boxed elements.
+ * <p/>
+ * The allocated bytes are read from the HotSpot thread MBean when available, the memory checks do nothing otherwise.
+ * Running the class measures the bytes allocated per reader, after the tests.
+ */
+public class PrimitiveMemoryTest extends TestCase {
+
+    private static final int READERS = 1000;
+    private static final int TABLE_SIZE = 10000;
+
+    public void testPrimitiveArraysStoredRaw() {
+        final AnnotationReader reader = AnnotationReader.getReaderFor(Target.class);
+        final AnnotationElement.Annotation[] annotations = reader.getAnnotationElements();
+        int arrays = 0;
+        for (int i = 0; i < annotations.length; i++) {
+            for (Iterator it = annotations[i].getElements().iterator(); it.hasNext();) {
+                final AnnotationElement.NamedValue namedValue = (AnnotationElement.NamedValue) it.next();
+                if (namedValue.getName().equals("arr")) {
+                    assertTrue(namedValue.isPrimitiveArray());
+                    // the element API still sees an array of boxed values
+                    assertEquals(AnnotationElement.Type.ARRAY, namedValue.getType());
+                    final AnnotationElement.Array array = (AnnotationElement.Array) namedValue.getValue();
+                    assertEquals(
+                            java.lang.reflect.Array.getLength(namedValue.getPrimitiveArray()), array.getElements().size()
+                    );
+                    arrays++;
+                }
+            }
+        }
+        assertEquals(6, arrays);
+        assertEquals(
+                "@test.primitives.Target$Integer(v=1, arr=[1, 2, 3, 4])",
+                Annotations.getAnnotation(Target.Integer.class, Target.class).toString()
+        );
+    }
+
+    private static void benchmarkReaderMemory() throws Exception {
+        final AllocationCounter counter = AllocationCounter.newInstance();
+        if (counter == null) {
+            System.out.println("allocated bytes not available, memory benchmark skipped");
+            return;
+        }
+        final AnnotationReader[] readers = new AnnotationReader[READERS];
+        final long start = counter.getAllocatedBytes();
+        for (int i = 0; i < READERS; i++) {
+            // a fresh loader for each reader
+            final ClassLoader loader = new ClassLoader(PrimitiveMemoryTest.class.getClassLoader()) {
+            };
+            readers[i] = AnnotationReader.getReaderFor(Target.class.getName(), loader);
+        }
+        final long allocated = counter.getAllocatedBytes() - start;
+        System.out.println("primitives reader : " + allocated / READERS + " bytes allocated per reader");
+    }
+
+    public void testLookupTableMemory() throws Exception {
+        final AllocationCounter counter = AllocationCounter.newInstance();
+        if (counter == null) {
+            // allocated bytes not available
+            return;
+        }
+        final int[] table = new int[TABLE_SIZE];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = i * 31;
+        }
+
+        long start = counter.getAllocatedBytes();
+        final AnnotationElement.NamedValue raw = new AnnotationElement.NamedValue("arr", table.clone());
+        final long rawBytes = counter.getAllocatedBytes() - start;
+
+        // the previous layout, one boxed named value per element
+        start = counter.getAllocatedBytes();
+        final AnnotationElement.Array array = new AnnotationElement.Array();
+        for (int i = 0; i < table.length; i++) {
+            array.addElement(null, new Integer(table[i]));
+        }
+        final AnnotationElement.NamedValue boxed = new AnnotationElement.NamedValue("arr", array);
+        final long boxedBytes = counter.getAllocatedBytes() - start;
+
+        assertNotNull(raw);
+        assertNotNull(boxed);
+        assertTrue(rawBytes + " bytes raw, " + boxedBytes + " bytes boxed", rawBytes * 4 < boxedBytes);
+    }
+
+    //-- junit
+    public static void main(String[] args) throws Exception {
+        junit.textui.TestRunner.run(suite());
+        benchmarkReaderMemory();
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(PrimitiveMemoryTest.class);
+    }
+}
@@ -114,6 +114,17 @@ public class PrimitiveTest extends TestCase {
         assertEquals(0, ((Target.DefaultedLong)annotation).s());
     }
 
+    public void testArraysAreCopies() {
+        Target.Integer ann = (Target.Integer)Annotations.getAnnotation(Target.Integer.class, Target.class);
+        ann.arr()[0] = 42;
+        assertEquals(1, ann.arr()[0]);
+        assertNotSame(ann.arr(), ann.arr());
+
+        Target.Char chars = (Target.Char)Annotations.getAnnotation(Target.Char.class, Target.class);
+        chars.arr()[0] = 'z';
+        assertEquals('b', chars.arr()[0]);
+    }
+
     public static void main(String[] args) {
         junit.textui.TestRunner.run(suite());
     }
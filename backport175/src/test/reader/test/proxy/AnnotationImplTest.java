@@ -0,0 +1,183 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.proxy;
+
+import junit.framework.TestCase;
+import org.codehaus.backport175.reader.Annotation;
+import org.codehaus.backport175.reader.bytecode.AnnotationElement;
+import org.codehaus.backport175.reader.bytecode.AnnotationReader;
+import org.codehaus.backport175.reader.proxy.ProxyFactory;
+import org.codehaus.backport175.reader.proxy.ResolveAnnotationException;
+import org.objectweb.asm.Type;
+import test.TestAnnotations;
+import test.reader.Target;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Proxy;
+
+/**
+ * Compares the generated annotation implementations with the Java dynamic proxies.
+ * <p/>
+ * Running the class measures the element reads of both, after the tests.
+ */
+public class AnnotationImplTest extends TestCase {
+
+    private static final int LOOP = 2000000;
+
+    private static final ClassLoader LOADER = Target.class.getClassLoader();
+
+    public void testSameValues() {
+        TestAnnotations.Complex impl = (TestAnnotations.Complex) ProxyFactory.newAnnotationImpl(getComplex(), LOADER);
+        TestAnnotations.Complex proxy = (TestAnnotations.Complex) ProxyFactory.newDynamicProxy(getComplex(), LOADER);
+        assertNotNull(impl);
+        assertFalse(Proxy.isProxyClass(impl.getClass()));
+        assertTrue(Proxy.isProxyClass(proxy.getClass()));
+
+        assertEquals(proxy.i(), impl.i());
+        assertEquals(proxy.type(), impl.type());
+        assertEquals(proxy.doubleArr().length, impl.doubleArr().length);
+        for (int i = 0; i < impl.doubleArr().length; i++) {
+            assertEquals(proxy.doubleArr()[i], impl.doubleArr()[i], 0);
+        }
+        assertEquals(proxy.toString(), impl.toString());
+        assertEquals(((Annotation) proxy).annotationType(), ((Annotation) impl).annotationType());
+    }
+
+    public void testNestedValues() {
+        TestAnnotations.NestedAnnotationArray impl = (TestAnnotations.NestedAnnotationArray)
+                ProxyFactory.newAnnotationImpl(getAnnotationElement("test.TestAnnotations$NestedAnnotationArray"), LOADER);
+        assertNotNull(impl);
+        assertEquals(2, impl.annArr().length);
+        assertEquals("foo", impl.annArr()[0].val());
+        assertEquals("bar", impl.annArr()[1].val());
+    }
+
+    public void testDynamicProxyValues() {
+        TestAnnotations.Complex proxy = (TestAnnotations.Complex) ProxyFactory.newDynamicProxy(getComplex(), LOADER);
+        assertEquals(3, proxy.i());
+        assertEquals(3, proxy.i());
+        // primitive arrays are copied, the shared array can not be altered
+        assertNotSame(proxy.doubleArr(), proxy.doubleArr());
+        assertEquals(proxy.doubleArr().length, proxy.doubleArr().length);
+        assertSame(proxy.toString(), proxy.toString());
+        assertSame(TestAnnotations.Complex.class, ((Annotation) proxy).annotationType());
+        assertSame(TestAnnotations.Complex.class, ((Annotation) proxy).annotationType());
+    }
+
+    public void testLazyResolution() {
+        final AnnotationElement.Annotation element = new AnnotationElement.Annotation("test.TestAnnotations$Complex");
+        element.addElement("i", new Integer(3));
+        element.addElement("type", Type.getType("Ltest/proxy/DoesNotExist;"));
+        // created even though an element can not be resolved
+        TestAnnotations.Complex impl = (TestAnnotations.Complex) ProxyFactory.newAnnotationImpl(element, LOADER);
+        assertNotNull(impl);
+        assertFalse(Proxy.isProxyClass(impl.getClass()));
+        assertEquals(3, impl.i());
+        assertTrue(impl.toString().startsWith("@test.TestAnnotations$Complex("));
+        try {
+            impl.type();
+            fail("unresolved type read");
+        } catch (ResolveAnnotationException e) {
+            // expected, on access only
+        }
+        assertEquals(3, impl.i());
+    }
+
+    public void testGeneratedClassCollected() {
+        final WeakReference implClass = newCollectableImplClass();
+        for (int i = 0; i < 100 && implClass.get() != null; i++) {
+            System.gc();
+        }
+        assertNull("generated class not collected", implClass.get());
+        // generated again when needed
+        assertNotNull(newCollectableImplClass().get());
+    }
+
+    public void testBoundedImplClasses() {
+        final Class complexClass = ProxyFactory.newAnnotationImpl(getComplex(), LOADER).getClass();
+        ProxyFactory.setMaxAnnotationImplClasses(1);
+        try {
+            assertEquals(1, ProxyFactory.getAnnotationImplClassCount());
+            assertSame(complexClass, ProxyFactory.newAnnotationImpl(getComplex(), LOADER).getClass());
+
+            // the least recently used class is dropped, then generated again
+            assertNotNull(newCollectableImplClass().get());
+            assertEquals(1, ProxyFactory.getAnnotationImplClassCount());
+            final Annotation complex = ProxyFactory.newAnnotationImpl(getComplex(), LOADER);
+            assertNotSame(complexClass, complex.getClass());
+            assertEquals(3, ((TestAnnotations.Complex) complex).i());
+            assertEquals(1, ProxyFactory.getAnnotationImplClassCount());
+        } finally {
+            ProxyFactory.setMaxAnnotationImplClasses(256);
+        }
+    }
+
+    private static WeakReference newCollectableImplClass() {
+        final AnnotationElement.Annotation element = new AnnotationElement.Annotation(Collectable.class.getName());
+        element.addElement("value", new Integer(1));
+        final Collectable impl = (Collectable) ProxyFactory.newAnnotationImpl(element, LOADER);
+        assertFalse(Proxy.isProxyClass(impl.getClass()));
+        assertEquals(1, impl.value());
+        return new WeakReference(impl.getClass());
+    }
+
+    /**
+     * Implemented by the tests of the generated classes only
+     */
+    public static interface Collectable {
+        int value();
+    }
+
+    private static void benchmarkElementReads() {
+        TestAnnotations.Complex impl = (TestAnnotations.Complex) ProxyFactory.newAnnotationImpl(getComplex(), LOADER);
+        TestAnnotations.Complex proxy = (TestAnnotations.Complex) ProxyFactory.newDynamicProxy(getComplex(), LOADER);
+
+        // warm up
+        readElements(impl, LOOP);
+        readElements(proxy, LOOP);
+
+        long startTime = System.currentTimeMillis();
+        readElements(proxy, LOOP);
+        long proxyTime = System.currentTimeMillis() - startTime;
+
+        startTime = System.currentTimeMillis();
+        readElements(impl, LOOP);
+        long implTime = System.currentTimeMillis() - startTime;
+
+        System.out.println("annotation element read, proxy : " + (proxyTime * 1000000 / LOOP) + " ns");
+        System.out.println("annotation element read, generated : " + (implTime * 1000000 / LOOP) + " ns");
+    }
+
+    private static int readElements(final TestAnnotations.Complex complex, final int loop) {
+        int hash = 0;
+        for (int i = 0; i < loop; i++) {
+            hash += complex.i();
+            hash += complex.doubleArr().length;
+            hash += complex.type().hashCode();
+        }
+        return hash;
+    }
+
+    private static AnnotationElement.Annotation getComplex() {
+        return getAnnotationElement("test.TestAnnotations$Complex");
+    }
+
+    private static AnnotationElement.Annotation getAnnotationElement(final String annotationName) {
+        return AnnotationReader.getReaderFor(Target.class).getAnnotationElement(annotationName);
+    }
+
+    //-- junit
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+        benchmarkElementReads();
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(AnnotationImplTest.class);
+    }
+}
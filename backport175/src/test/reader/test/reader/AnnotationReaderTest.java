@@ -182,6 +182,37 @@ public class AnnotationReaderTest extends TestCase {
         annotations = Annotations.getAnnotations(Target.class);
     }
 
+    public void testSharedAnnotations() throws Exception {
+        final AnnotationReader reader = AnnotationReader.getReaderFor(Target.class);
+        assertSharedAnnotations(reader.getSharedAnnotations(), reader.getAnnotations());
+        assertSharedAnnotations(reader.getSharedAnnotations(), reader.getSharedAnnotations());
+        assertSharedAnnotations(reader.getSharedAnnotations(Target.METHOD), reader.getAnnotations(Target.METHOD));
+        assertSharedAnnotations(reader.getSharedAnnotations(Target.METHOD), reader.getSharedAnnotations(Target.METHOD));
+        assertSharedAnnotations(reader.getSharedAnnotations(Target.FIELD), reader.getAnnotations(Target.FIELD));
+        assertSharedAnnotations(reader.getSharedAnnotations(Target.FIELD), reader.getSharedAnnotations(Target.FIELD));
+        assertSharedAnnotations(
+                reader.getSharedAnnotations(Target.CONSTRUCTOR), reader.getAnnotations(Target.CONSTRUCTOR)
+        );
+        assertSharedAnnotations(
+                reader.getSharedAnnotations(Target.CONSTRUCTOR), reader.getSharedAnnotations(Target.CONSTRUCTOR)
+        );
+        assertEquals(1, reader.getSharedAnnotations(Target.METHOD2).length);
+        assertEquals(0, reader.getSharedAnnotations(Target.class.getDeclaredField("METHOD")).length);
+
+        final Annotation[] annotations = reader.getSharedAnnotations(Target.METHOD);
+        AnnotationReader.refresh(Target.class);
+        assertNotSame(annotations, reader.getSharedAnnotations(Target.METHOD));
+        assertEquals(annotations.length, reader.getSharedAnnotations(Target.METHOD).length);
+    }
+
+    private static void assertSharedAnnotations(final Annotation[] shared, final Annotation[] annotations) {
+        assertTrue(shared.length > 0);
+        assertEquals(shared.length, annotations.length);
+        for (int i = 0; i < shared.length; i++) {
+            assertSame(shared[i], annotations[i]);
+        }
+    }
+
     public void testFieldIsAnnotationPresent() {
         assertTrue(Annotations.isAnnotationPresent(
                 TestAnnotations.Simple.class, Target.FIELD
@@ -0,0 +1,185 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.scan;
+
+import junit.framework.TestCase;
+import org.codehaus.backport175.reader.bytecode.AnnotationReader;
+import org.codehaus.backport175.reader.bytecode.AnnotationScanner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests the annotation scan of class directories and jars.
+ */
+public class AnnotationScannerTest extends TestCase {
+
+    private static final String SIMPLE = "test.TestAnnotations$Simple";
+
+    private static final String TARGET = "test.reader.Target";
+
+    public void testScanDirectory() throws Exception {
+        final Set members = new HashSet(AnnotationScanner.scan(new File[]{getClassDirectory()}, SIMPLE));
+        assertTrue(contains(members, AnnotationScanner.AnnotatedMember.CLASS, TARGET, null, null));
+        assertTrue(contains(members, AnnotationScanner.AnnotatedMember.CONSTRUCTOR, TARGET, "<init>", "()V"));
+        assertTrue(contains(members, AnnotationScanner.AnnotatedMember.FIELD, TARGET, "field", "Ljava/lang/String;"));
+        assertTrue(contains(members, AnnotationScanner.AnnotatedMember.METHOD, TARGET, "method", "()V"));
+        assertTrue(contains(members, AnnotationScanner.AnnotatedMember.METHOD, TARGET, "method2", "()V"));
+        assertFalse(contains(members, AnnotationScanner.AnnotatedMember.FIELD, TARGET, "FIELD", "Ljava/lang/reflect/Field;"));
+
+        final ClassLoader loader = AnnotationScannerTest.class.getClassLoader();
+        for (Iterator it = members.iterator(); it.hasNext();) {
+            final AnnotationScanner.AnnotatedMember member = (AnnotationScanner.AnnotatedMember) it.next();
+            assertEquals(SIMPLE, member.getAnnotationName());
+            final AnnotationReader reader = AnnotationReader.getReaderFor(member.getClassName(), loader);
+            final boolean present;
+            switch (member.getType()) {
+                case AnnotationScanner.AnnotatedMember.CLASS:
+                    present = reader.isAnnotationPresent(SIMPLE);
+                    break;
+                case AnnotationScanner.AnnotatedMember.FIELD:
+                    present = reader.isFieldAnnotationPresent(SIMPLE, member.getName(), member.getDesc());
+                    break;
+                case AnnotationScanner.AnnotatedMember.CONSTRUCTOR:
+                    present = reader.isConstructorAnnotationPresent(SIMPLE, member.getDesc());
+                    break;
+                default:
+                    present = reader.isMethodAnnotationPresent(SIMPLE, member.getName(), member.getDesc());
+            }
+            assertTrue(member.toString(), present);
+        }
+    }
+
+    public void testScanJarInParallel() throws Exception {
+        final File directory = getClassDirectory();
+        final File jar = File.createTempFile("backport175-scan", ".jar");
+        try {
+            writeJar(directory, jar);
+            final Set serial = new HashSet();
+            AnnotationScanner.scan(new File[]{directory}, null, new Collector(serial), 1);
+            assertFalse(serial.isEmpty());
+
+            final Set parallel = new HashSet();
+            AnnotationScanner.scan(
+                    AnnotationScanner.getRoots(jar.getPath() + File.pathSeparator + "does-not-exist"),
+                    null, new Collector(parallel), 4
+            );
+            assertEquals(serial, parallel);
+        } finally {
+            jar.delete();
+        }
+    }
+
+    public void testScanFailure() throws Exception {
+        final File directory = File.createTempFile("backport175-scan", "");
+        directory.delete();
+        final File classFile = new File(directory, "Broken.class");
+        try {
+            directory.mkdirs();
+            final FileOutputStream out = new FileOutputStream(classFile);
+            out.write(new byte[]{(byte) 0xCA, (byte) 0xFE});
+            out.close();
+            AnnotationScanner.scan(new File[]{directory}, null, new Collector(new HashSet()), 2);
+            fail("broken class file scanned");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().indexOf("Broken.class") > 0);
+        } finally {
+            classFile.delete();
+            directory.delete();
+        }
+    }
+
+    private static boolean contains(final Set members,
+                                    final int type,
+                                    final String className,
+                                    final String name,
+                                    final String desc) {
+        for (Iterator it = members.iterator(); it.hasNext();) {
+            final AnnotationScanner.AnnotatedMember member = (AnnotationScanner.AnnotatedMember) it.next();
+            if (member.getType() == type &&
+                member.getClassName().equals(className) &&
+                (name == null ? member.getName() == null : name.equals(member.getName())) &&
+                (desc == null ? member.getDesc() == null : desc.equals(member.getDesc()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the class directory of the test classes.
+     */
+    private static File getClassDirectory() {
+        final String resource = TARGET.replace('.', '/') + ".class";
+        final String path = AnnotationScannerTest.class.getClassLoader().getResource(resource).getFile();
+        return new File(path.substring(0, path.length() - resource.length()));
+    }
+
+    private static void writeJar(final File directory, final File jar) throws IOException {
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        try {
+            writeEntries(directory, "", out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeEntries(final File directory, final String prefix, final ZipOutputStream out)
+            throws IOException {
+        final File[] files = directory.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            final String name = prefix + files[i].getName();
+            if (files[i].isDirectory()) {
+                writeEntries(files[i], name + '/', out);
+            } else {
+                out.putNextEntry(new ZipEntry(name));
+                final InputStream in = new FileInputStream(files[i]);
+                try {
+                    final byte[] buffer = new byte[4096];
+                    int length;
+                    while ((length = in.read(buffer)) >= 0) {
+                        out.write(buffer, 0, length);
+                    }
+                } finally {
+                    in.close();
+                }
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static class Collector implements AnnotationScanner.Callback {
+        private final Set m_members;
+
+        Collector(final Set members) {
+            m_members = members;
+        }
+
+        public void annotated(final AnnotationScanner.AnnotatedMember member) {
+            assertTrue(member.toString(), m_members.add(member));
+        }
+    }
+
+    //-- junit
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(AnnotationScannerTest.class);
+    }
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************************
+ * Copyright (c) Jonas Bonr, Alexandre Vasseur. All rights reserved.                      *
+ * http://backport175.codehaus.org                                                         *
+ * --------------------------------------------------------------------------------------- *
+ * The software in this package is published under the terms of Apache License Version 2.0 *
+ * a copy of which has been included with this distribution in the license.txt file.       *
+ *******************************************************************************************/
+package test.unloading;
+
+import junit.framework.TestCase;
+import org.codehaus.backport175.reader.bytecode.AnnotationReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Checks that the readers do not keep the class loaders of the classes they read alive, e.g. on a redeployment.
+ */
+public class ClassLoaderCollectionTest extends TestCase {
+
+    private static final String CLASS_NAME = "test.reader.Target";
+
+    public ClassLoaderCollectionTest(String name) {
+        super(name);
+    }
+
+    public void testClassLookups() throws Exception {
+        final WeakReference loaderRef = readInChildLoader(new Lookup() {
+            public void run(final Class clazz) {
+                final AnnotationReader reader = AnnotationReader.getReaderFor(clazz);
+                assertTrue(reader.getAnnotations().length > 0);
+                assertSame(reader, AnnotationReader.getReaderFor(clazz.getName(), clazz.getClassLoader()));
+            }
+        });
+        assertCollected(loaderRef);
+    }
+
+    public void testMemberLookups() throws Exception {
+        final WeakReference loaderRef = readInChildLoader(new Lookup() {
+            public void run(final Class clazz) {
+                final AnnotationReader reader = AnnotationReader.getReaderFor(clazz);
+                final Constructor[] constructors = clazz.getDeclaredConstructors();
+                for (int i = 0; i < constructors.length; i++) {
+                    reader.getAnnotations(constructors[i]);
+                }
+                final Method[] methods = clazz.getDeclaredMethods();
+                for (int i = 0; i < methods.length; i++) {
+                    reader.getAnnotations(methods[i]);
+                }
+                final Field[] fields = clazz.getDeclaredFields();
+                for (int i = 0; i < fields.length; i++) {
+                    reader.getAnnotations(fields[i]);
+                }
+                try {
+                    assertTrue(reader.getAnnotations(clazz.getDeclaredMethod("method", new Class[0])).length > 0);
+                } catch (NoSuchMethodException e) {
+                    fail(e.toString());
+                }
+            }
+        });
+        assertCollected(loaderRef);
+    }
+
+    /**
+     * Loads the target class in a new child class loader, runs the lookups and drops the class loader.
+     *
+     * @return a weak reference to the class loader
+     */
+    private static WeakReference readInChildLoader(final Lookup lookup) throws Exception {
+        final ClassLoader loader = new ChildLoader(ClassLoaderCollectionTest.class.getClassLoader());
+        final Class clazz = loader.loadClass(CLASS_NAME);
+        assertSame(loader, clazz.getClassLoader());
+        lookup.run(clazz);
+        return new WeakReference(loader);
+    }
+
+    private static void assertCollected(final WeakReference loaderRef) {
+        for (int i = 0; i < 100 && loaderRef.get() != null; i++) {
+            System.gc();
+        }
+        assertNull("class loader not collected", loaderRef.get());
+    }
+
+    private static interface Lookup {
+        void run(Class clazz);
+    }
+
+    /**
+     * Defines the target class itself, the other classes come from the parent.
+     */
+    private static class ChildLoader extends ClassLoader {
+        ChildLoader(final ClassLoader parent) {
+            super(parent);
+        }
+
+        protected synchronized Class loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            if (!CLASS_NAME.equals(name)) {
+                return super.loadClass(name, resolve);
+            }
+            Class clazz = findLoadedClass(name);
+            if (clazz == null) {
+                final byte[] bytes;
+                try {
+                    bytes = read(getResourceAsStream(name.replace('.', '/') + ".class"));
+                } catch (IOException e) {
+                    throw new ClassNotFoundException(name);
+                }
+                clazz = defineClass(name, bytes, 0, bytes.length);
+            }
+            if (resolve) {
+                resolveClass(clazz);
+            }
+            return clazz;
+        }
+
+        private static byte[] read(final InputStream in) throws IOException {
+            try {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+                return out.toByteArray();
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    //-- junit
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.TestSuite(ClassLoaderCollectionTest.class);
+    }
+}
@@ -8,6 +8,7 @@
 package org.codehaus.backport175.ide.eclipse.core.project;
 
 import org.codehaus.backport175.compiler.AnnotationC;
+import org.codehaus.backport175.compiler.CompilerOptions;
 import org.codehaus.backport175.compiler.MessageHandler;
 import org.codehaus.backport175.ide.eclipse.core.BpCorePlugin;
 import org.codehaus.backport175.ide.eclipse.core.BpLog;
@@ -92,13 +93,16 @@ public class BpAnnotationBuilder extends IncrementalProjectBuilder {
     //	   }
 
     private void fullAnnotationC(IProgressMonitor monitor) throws CoreException {
-        getProject().accept(new BpAnnotationBuilderVisitor(monitor, true));
+        BpAnnotationBuilderVisitor bpAnnCVisitor = new BpAnnotationBuilderVisitor(monitor, true);
+        getProject().accept(bpAnnCVisitor);
+        bpAnnCVisitor.annotate(monitor);
     }
 
     private void incrementalAnnotationC(IProgressMonitor monitor)
             throws CoreException {
         BpAnnotationBuilderVisitor bpAnnCVisitor = new BpAnnotationBuilderVisitor(monitor, false);
         getDelta(getProject()).accept(bpAnnCVisitor);
+        bpAnnCVisitor.annotate(monitor);
     }
 
     class BpAnnotationBuilderVisitor implements IResourceVisitor,
@@ -117,6 +121,11 @@ public class BpAnnotationBuilder extends IncrementalProjectBuilder {
         private String[] m_annotationPropsFiles;
         
         private MessageHandler m_eventHandler;
+
+        /**
+         * Source files to annotate, key is the output dir, value is the set of source files
+         */
+        private Map m_sourcesByDestDir = new HashMap();
         
         public BpAnnotationBuilderVisitor(IProgressMonitor monitor, boolean isFull) {
             m_monitor = monitor;
@@ -174,7 +183,7 @@ public class BpAnnotationBuilder extends IncrementalProjectBuilder {
                 if ("class".equals(resource.getFileExtension())) {
                     m_monitor.subTask(resource.getName());
 
-                    annotate(resource, m_monitor, m_isFull);
+                    collect(resource, m_monitor);
 
                     m_monitor.worked(1);
                 }
@@ -193,7 +202,7 @@ public class BpAnnotationBuilder extends IncrementalProjectBuilder {
                     case IResourceDelta.ADDED:
                     case IResourceDelta.CHANGED:
                     case IResourceDelta.CONTENT:
-                        annotate(resource, m_monitor, m_isFull);
+                        collect(resource, m_monitor);
                         break;
 
                     default:
@@ -206,12 +215,9 @@ public class BpAnnotationBuilder extends IncrementalProjectBuilder {
             return true;
         }
         
-        private void annotate(IResource resource, IProgressMonitor monitor, boolean isFull) {
-            // change the Thread classloader
-//            ClassLoader currentCL = Thread.currentThread().getContextClassLoader();
+        private void collect(IResource resource, IProgressMonitor monitor) {
             try {
                 BpLog.logInfo("annotate " + resource.getName());
-//                Thread.currentThread().setContextClassLoader(m_projectClassLoader);
                 
                 File resourceFile = resource.getRawLocation().toFile();
                 String className = BpCorePlugin.getDefault().extractClassNameFromClassFile(resourceFile);
@@ -222,25 +228,6 @@ public class BpAnnotationBuilder extends IncrementalProjectBuilder {
                 if (className.indexOf('$')>0) {
                     return;
                 }
-//                
-//                // check if we have at least one aspect in the delta when we are not doing a full build
-//                if (!m_isFull && !m_hasEncounteredAspects) {
-//                    boolean isAspect = isAspect(className);
-//                    if (isAspect) {
-//                        BpLog.logInfo("Detected a change in aspect " + className);
-//                        m_hasEncounteredAspects = true;
-//                    }
-//                }
-////                    IProject project = resource.getProject();
-//                    //TODO how to trigger a nested build / clear state etc ?
-////                    project.getProject().build(IncrementalProjectBuilder.FULL_BUILD,monitor);                
-////                    getProject().getProject().build(AwAnnotationBuilder.FULL_BUILD,
-////                            AwAnnotationBuilder.BUILDER_ID, null, monitor);
-////                    getProject().getProject().build(AwProjectBuilder.FULL_BUILD,
-////                            AwProjectBuilder.BUILDER_ID, null, monitor);
-////                    BpLog.logInfo("DONE Detected a change in aspect " + className);
-////                    BpLog.logInfo("full .? " + isFull );
-////                    //return;
 
                 // extract the file path
                 int segments = Strings.splitString(className, "/").length;
@@ -249,9 +236,6 @@ public class BpAnnotationBuilder extends IncrementalProjectBuilder {
                 String destDir = pathToFile.toFile().toString();
                 BpLog.logTrace("will annotate to " + destDir);
 
-                // call AnnotationC for only one file, dest dir = src dir
-                boolean verbose = true;
-
                 // source file for this resource
                 IResource sourceFile = BpCorePlugin.getDefault().findSourceForResource(getProject(), resource, className);
                 if (checkCancel(monitor))
@@ -261,31 +245,50 @@ public class BpAnnotationBuilder extends IncrementalProjectBuilder {
                     BpLog.logInfo("cannot find source for compiled resource "
                             + resource.getRawLocation().toString());
                 } else {
-    	                String targetFile = sourceFile.getRawLocation().toFile().toString();
-    	                
-    	                // delete all annotation markers before running
-    	                AnnotationEventHandler.deleteMarkers(sourceFile);
-    	                
-    	                AnnotationC.compile(new String[0],
-    	                        new String[] { targetFile }, m_pathFiles, destDir,
-    	                        m_annotationPropsFiles.length==0?null:m_annotationPropsFiles,
-    	                        m_eventHandler,
-								true//ignore unknown since markers
-    	                );
-    	                BpLog.logTrace("annotated " + className + " from " + targetFile);
+                    // delete all annotation markers before running
+                    AnnotationEventHandler.deleteMarkers(sourceFile);
+
+                    Set sources = (Set) m_sourcesByDestDir.get(destDir);
+                    if (sources == null) {
+                        sources = new TreeSet();
+                        m_sourcesByDestDir.put(destDir, sources);
+                    }
+                    sources.add(sourceFile.getRawLocation().toFile().toString());
                 }
+            } catch (Throwable e) {
+                BpLog.logError(e);
+            }
+        }
+
+        /**
+         * Runs AnnotationC once per output dir for all the collected source files, dest dir = class dir.
+         * AnnotationC keeps its state in the output dir and skips the classes that did not change since it
+         * annotated them.
+         */
+        void annotate(IProgressMonitor monitor) {
+            CompilerOptions options = new CompilerOptions();
+            options.setIgnoreUnknown(true);//ignore unknown since markers
+            options.setIncremental(true);
+            for (Iterator it = m_sourcesByDestDir.entrySet().iterator(); it.hasNext();) {
                 if (checkCancel(monitor))
                     return;
-
+                Map.Entry entry = (Map.Entry) it.next();
+                String destDir = (String) entry.getKey();
+                Set sources = (Set) entry.getValue();
+                try {
+                    AnnotationC.compile(new String[0],
+                            (String[]) sources.toArray(new String[0]), m_pathFiles, destDir,
+                            m_annotationPropsFiles.length==0?null:m_annotationPropsFiles,
+                            m_eventHandler,
+                            options
+                    );
+                    BpLog.logTrace("annotated " + sources.size() + " source(s) to " + destDir);
+                } catch (Throwable e) {
+                    BpLog.logError(e);
+                }
                 monitor.worked(1);
-
-                // write back
-                // -> has been done by AnnotationC
-            } catch (Throwable e) {
-                BpLog.logError(e);
-    	    } finally {
-//    	        Thread.currentThread().setContextClassLoader(currentCL);
-    	    }
+            }
+            m_sourcesByDestDir.clear();
         }
     }
 
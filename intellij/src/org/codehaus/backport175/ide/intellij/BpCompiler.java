@@ -51,6 +51,7 @@ import org.codehaus.backport175.compiler.MessageHandler;
 import org.codehaus.backport175.compiler.AnnotationC;
 import org.codehaus.backport175.compiler.SourceLocation;
 import org.codehaus.backport175.compiler.CompilerException;
+import org.codehaus.backport175.compiler.CompilerOptions;
 
 import javax.swing.*;
 
@@ -182,13 +183,16 @@ public class BpCompiler implements ClassInstrumentingCompiler {
                             //ClassLoader currentCL = Thread.currentThread().getContextClassLoader();
                             try {
                                 //Thread.currentThread().setContextClassLoader(loader);
+                                CompilerOptions options = new CompilerOptions();
+                                options.setIgnoreUnknown(true);//ignore unknown since markers
+                                options.setIncremental(true);//skip the classes not changed since annotated
                                 AnnotationC.compile(new String[0],
                                         new String[]{vf.getPath()},
                                         paths,
                                         destDir.getPath(),
                                                 annotationPropsFiles.length == 0 ? null : annotationPropsFiles,
                                         m_messageHandler,
-					true//ignore unknown since markers
+                                        options
                                 );
                             } finally {
                                 //Thread.currentThread().setContextClassLoader(currentCL);